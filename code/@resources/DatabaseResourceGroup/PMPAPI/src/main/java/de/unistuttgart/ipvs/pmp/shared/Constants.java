@@ -47,4 +47,15 @@ public class Constants {
      * The prefix that will be put in front of the key of the service feature
      */
     public static final String SERVICE_FEATURE_PREFIX = "[app-sf]-";
+    
+    /**
+     * The key of the version in a service feature update, increased by one with every update sent to an app
+     */
+    public static final String SERVICE_FEATURE_UPDATE_VERSION = "[pmp-sf-update]-version";
+    
+    /**
+     * The key of the flag in a service feature update telling whether it contains all the service features of the app
+     * or only the ones that changed since the previous version
+     */
+    public static final String SERVICE_FEATURE_UPDATE_COMPLETE = "[pmp-sf-update]-complete";
 }
@@ -21,17 +21,19 @@ package de.unistuttgart.ipvs.pmp.shared.resource.privacysetting.library;
 
 import android.content.Context;
 import de.unistuttgart.ipvs.pmp.shared.resource.privacysetting.DefaultPrivacySetting;
+import de.unistuttgart.ipvs.pmp.shared.resource.privacysetting.IPrimitivePrivacySetting;
 import de.unistuttgart.ipvs.pmp.shared.resource.privacysetting.IPrivacySettingView;
 import de.unistuttgart.ipvs.pmp.shared.resource.privacysetting.PrivacySettingValueException;
 import de.unistuttgart.ipvs.pmp.shared.resource.privacysetting.view.BooleanView;
 
 /**
- * {@link DefaultPrivacySetting} for {@link Boolean}.
+ * {@link DefaultPrivacySetting} for {@link Boolean}. Compares true as 1 and false as 0, also for PMP via
+ * {@link IPrimitivePrivacySetting}.
  * 
  * @author Tobias Kuhn, Jakob Jarosch
  *         
  */
-public class BooleanPrivacySetting extends DefaultPrivacySetting<Boolean> {
+public class BooleanPrivacySetting extends DefaultPrivacySetting<Boolean> implements IPrimitivePrivacySetting {
     
     @Override
     public Boolean parseValue(String value) throws PrivacySettingValueException {
@@ -39,6 +41,24 @@ public class BooleanPrivacySetting extends DefaultPrivacySetting<Boolean> {
     }
     
     
+    @Override
+    public long parsePrimitive(String value) throws PrivacySettingValueException {
+        return parseValue(value).booleanValue() ? 1L : 0L;
+    }
+    
+    
+    @Override
+    public boolean permits(Boolean value, Boolean reference) {
+        return value.booleanValue() || !reference.booleanValue();
+    }
+    
+    
+    @Override
+    public boolean permitsPrimitive(long value, long reference) {
+        return value >= reference;
+    }
+    
+    
     @Override
     public String valueToString(Boolean value) {
         return StringConverter.forBooleanSafe.toString(value);
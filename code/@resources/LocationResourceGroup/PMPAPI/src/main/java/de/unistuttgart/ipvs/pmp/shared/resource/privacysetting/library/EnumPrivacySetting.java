@@ -21,17 +21,20 @@ package de.unistuttgart.ipvs.pmp.shared.resource.privacysetting.library;
 
 import android.content.Context;
 import de.unistuttgart.ipvs.pmp.shared.resource.privacysetting.DefaultPrivacySetting;
+import de.unistuttgart.ipvs.pmp.shared.resource.privacysetting.IPrimitivePrivacySetting;
 import de.unistuttgart.ipvs.pmp.shared.resource.privacysetting.IPrivacySettingView;
 import de.unistuttgart.ipvs.pmp.shared.resource.privacysetting.PrivacySettingValueException;
 import de.unistuttgart.ipvs.pmp.shared.resource.privacysetting.view.EnumView;
 
 /**
- * {@link DefaultPrivacySetting} for {@link Enum}s.
+ * {@link DefaultPrivacySetting} for {@link Enum}s. Compares the ordinals, also for PMP via
+ * {@link IPrimitivePrivacySetting}.
  * 
  * @author Tobias Kuhn, Jakob Jarosch
  * 
  */
-public class EnumPrivacySetting<T extends Enum<T>> extends DefaultPrivacySetting<T> {
+public class EnumPrivacySetting<T extends Enum<T>> extends DefaultPrivacySetting<T> implements
+        IPrimitivePrivacySetting {
     
     private final Class<T> clazz;
     
@@ -65,6 +68,24 @@ public class EnumPrivacySetting<T extends Enum<T>> extends DefaultPrivacySetting
     }
     
     
+    @Override
+    public long parsePrimitive(String value) throws PrivacySettingValueException {
+        return ordinal(parseValue(value));
+    }
+    
+    
+    @Override
+    public boolean permits(T value, T reference) {
+        return ordinal(value) >= ordinal(reference);
+    }
+    
+    
+    @Override
+    public boolean permitsPrimitive(long value, long reference) {
+        return value >= reference;
+    }
+    
+    
     @Override
     public String valueToString(T value) {
         if (value == null) {
@@ -74,6 +95,15 @@ public class EnumPrivacySetting<T extends Enum<T>> extends DefaultPrivacySetting
     }
     
     
+    /**
+     * @param value
+     * @return the ordinal of value, -1 if it is null, so an unset value permits nothing
+     */
+    private static long ordinal(Enum<?> value) {
+        return (value == null) ? -1L : value.ordinal();
+    }
+    
+    
     @Override
     public IPrivacySettingView<T> makeView(Context context) {
         return new EnumView<T>(context, this.clazz);
@@ -19,39 +19,35 @@
  */
 package de.unistuttgart.ipvs.pmp.shared.resource.privacysetting.library;
 
-import java.util.Comparator;
-
 import android.content.Context;
 import de.unistuttgart.ipvs.pmp.shared.resource.privacysetting.DefaultPrivacySetting;
+import de.unistuttgart.ipvs.pmp.shared.resource.privacysetting.IPrimitivePrivacySetting;
 import de.unistuttgart.ipvs.pmp.shared.resource.privacysetting.IPrivacySettingView;
 import de.unistuttgart.ipvs.pmp.shared.resource.privacysetting.PrivacySettingValueException;
 import de.unistuttgart.ipvs.pmp.shared.resource.privacysetting.view.IntegerView;
 
 /**
- * {@link DefaultPrivacySetting} for {@link Integer}.
+ * {@link DefaultPrivacySetting} for {@link Integer}. Compares the plain int values, also for PMP via
+ * {@link IPrimitivePrivacySetting}.
  * 
  * @author Tobias Kuhn, Jakob Jarosch
  *         
  */
-public class IntegerPrivacySetting extends DefaultPrivacySetting<Integer> {
+public class IntegerPrivacySetting extends DefaultPrivacySetting<Integer> implements IPrimitivePrivacySetting {
     
     private int worstValue;
     
+    /**
+     * Whether greater values permit more.
+     */
+    private boolean ascending;
+    
     
     public IntegerPrivacySetting(final int worstValue, final int bestValue) {
-        super(new Comparator<Integer>() {
-            
-            @Override
-            public int compare(Integer object1, Integer object2) {
-                if (worstValue < bestValue) {
-                    return object1.compareTo(object2);
-                } else {
-                    return object2.compareTo(object1);
-                }
-            }
-        });
+        super();
         
         this.worstValue = worstValue;
+        this.ascending = worstValue < bestValue;
     }
     
     
@@ -64,6 +60,35 @@ public class IntegerPrivacySetting extends DefaultPrivacySetting<Integer> {
     }
     
     
+    @Override
+    public long parsePrimitive(String value) throws PrivacySettingValueException {
+        if (value == null || value.equals("")) {
+            return this.worstValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException nfe) {
+            throw new PrivacySettingValueException(nfe.getMessage(), nfe);
+        }
+    }
+    
+    
+    @Override
+    public boolean permits(Integer value, Integer reference) {
+        return permitsPrimitive(value.intValue(), reference.intValue());
+    }
+    
+    
+    @Override
+    public boolean permitsPrimitive(long value, long reference) {
+        if (this.ascending) {
+            return value >= reference;
+        } else {
+            return value <= reference;
+        }
+    }
+    
+    
     @Override
     public String valueToString(Integer value) {
         return StringConverter.forIntegerSafe.toString(value);
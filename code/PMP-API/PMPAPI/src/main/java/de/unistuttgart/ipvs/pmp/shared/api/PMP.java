@@ -25,6 +25,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
@@ -35,6 +36,7 @@ import android.app.Activity;
 import android.app.Application;
 import android.os.Bundle;
 import android.os.IBinder;
+import de.unistuttgart.ipvs.pmp.shared.Constants;
 import de.unistuttgart.ipvs.pmp.shared.Log;
 import de.unistuttgart.ipvs.pmp.shared.api.handler.AbortIPCException;
 import de.unistuttgart.ipvs.pmp.shared.api.handler.PMPRegistrationHandler;
@@ -78,6 +80,11 @@ public class PMP implements IPMP {
      */
     private final ConcurrentMap<String, Boolean> sfsCache;
     
+    /**
+     * The version of the last service feature update applied to {@link #sfsCache}.
+     */
+    private long sfsVersion;
+    
     /**
      * The cache of Resource {@link IBinder}s.
      */
@@ -155,14 +162,41 @@ public class PMP implements IPMP {
     
     /**
      * Method to be called when service features change, so they can be cached. Can be called from an arbitrary thread.
+     * Updates only containing the changed service features are applied on top of the cache, if one went missing all
+     * the service features are requested again.
      * 
      * @param update
      */
     protected void onServiceFeatureUpdate(final Bundle update) {
         Log.d(this, " caching service features...");
-        for (String sfId : update.keySet()) {
-            Log.v(this, " received " + sfId + " = " + update.getBoolean(sfId));
-            this.sfsCache.put(sfId, update.getBoolean(sfId));
+        
+        // updates without the flag contain everything
+        boolean complete = update.getBoolean(Constants.SERVICE_FEATURE_UPDATE_COMPLETE, true);
+        long version = update.getLong(Constants.SERVICE_FEATURE_UPDATE_VERSION, 0L);
+        
+        final Bundle serviceFeatures = new Bundle();
+        synchronized (this.sfsCache) {
+            if (!complete && (version != this.sfsVersion + 1)) {
+                Log.w(this, " missed service feature update " + (this.sfsVersion + 1) + ", requesting all again");
+                updateServiceFeatures();
+            }
+            this.sfsVersion = version;
+            
+            for (String sfId : update.keySet()) {
+                if (sfId.equals(Constants.SERVICE_FEATURE_UPDATE_COMPLETE)
+                        || sfId.equals(Constants.SERVICE_FEATURE_UPDATE_VERSION)) {
+                    continue;
+                }
+                Log.v(this, " received " + sfId + " = " + update.getBoolean(sfId));
+                this.sfsCache.put(sfId, update.getBoolean(sfId));
+            }
+            if (complete) {
+                this.sfsCache.keySet().retainAll(update.keySet());
+            }
+            
+            for (Entry<String, Boolean> e : this.sfsCache.entrySet()) {
+                serviceFeatures.putBoolean(e.getKey(), e.getValue());
+            }
         }
         
         while (!this.callOnUpdate.isEmpty()) {
@@ -171,7 +205,7 @@ public class PMP implements IPMP {
                 
                 @Override
                 public void run() {
-                    pmpsfuh.onUpdate(update);
+                    pmpsfuh.onUpdate(serviceFeatures);
                 };
             }.start();
         }
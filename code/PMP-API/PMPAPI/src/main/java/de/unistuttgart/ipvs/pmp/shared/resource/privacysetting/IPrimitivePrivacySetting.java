@@ -0,0 +1,57 @@
+/*
+ * Copyright 2012 pmp-android development team
+ * Project: PMP-API
+ * Project-Site: https://github.com/stachch/Privacy_Management_Platform
+ *
+ * ---------------------------------------------------------------------
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unistuttgart.ipvs.pmp.shared.resource.privacysetting;
+
+/**
+ * <p>
+ * An {@link AbstractPrivacySetting} whose values can be represented by a single <code>long</code>. PMP detects this
+ * interface and checks the "permits more or equal" partial order by comparing these numbers instead of parsed objects.
+ * </p>
+ * <p>
+ * The values are still stored as the strings of the {@link AbstractPrivacySetting}, so both methods must agree with
+ * {@link AbstractPrivacySetting#parseValue(String)} and {@link AbstractPrivacySetting#permits(Object, Object)}.
+ * </p>
+ */
+public interface IPrimitivePrivacySetting {
+    
+    /**
+     * Creates the primitive representation of a string value, like {@link AbstractPrivacySetting#parseValue(String)}.
+     * 
+     * @param value
+     *            the value stored in PMP
+     * @return the number corresponding to value, the one corresponding to "no privacy setting value set", if value is
+     *         null
+     * @throws PrivacySettingValueException
+     *             if the supplied value does not match the format criteria.
+     */
+    public long parsePrimitive(String value) throws PrivacySettingValueException;
+    
+    
+    /**
+     * Like {@link AbstractPrivacySetting#permits(Object, Object)} for the primitive representations.
+     * 
+     * @param value
+     *            the value that needs to permit more or equal than reference
+     * @param reference
+     *            the reference for the check
+     * @return true, if value permits more or equal to reference
+     */
+    public boolean permitsPrimitive(long value, long reference);
+}
@@ -6,4 +6,6 @@ DELETE FROM Preset;
 DELETE FROM ServiceFeature_RequiredPrivacySettingValue;
 DELETE FROM Preset_GrantedPrivacySettingValue;
 DELETE FROM Preset_AssignedApp;
-DELETE FROM Context_AnnotatedPrivacySettingValue;
\ No newline at end of file
+DELETE FROM Context_AnnotatedPrivacySettingValue;
+DELETE FROM ResourceGroupCatalog;
+DELETE FROM ResourceGroupCatalogState;
\ No newline at end of file
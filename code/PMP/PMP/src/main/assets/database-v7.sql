@@ -88,4 +88,57 @@ CREATE TABLE IF NOT EXISTS Context_AnnotatedPrivacySettingValue (
 				PresetCreator,
 				PresetIdentifier,
 				PresetPrivacySettingAnnotationID)
-);
\ No newline at end of file
+);
+
+
+CREATE TABLE IF NOT EXISTS ResourceGroupCatalog (
+	Language TEXT NOT NULL,
+	Identifier TEXT NOT NULL,
+	Name TEXT NOT NULL,
+	Description TEXT NOT NULL,
+	Revision INT NOT NULL,
+	PRIMARY KEY(Language,
+	            Identifier)
+);
+
+
+CREATE TABLE IF NOT EXISTS ResourceGroupCatalogState (
+	Language TEXT NOT NULL,
+	Hash BLOB NOT NULL,
+	Updated INT NOT NULL,
+	PRIMARY KEY(Language)
+);
+
+
+-- indexes matching the access paths of the persistence providers, the primary keys above start with the
+-- privacy setting columns and can therefore not serve the lookups per service feature or preset
+
+
+CREATE INDEX IF NOT EXISTS ServiceFeature_RequiredPrivacySettingValue_ServiceFeature
+	ON ServiceFeature_RequiredPrivacySettingValue (ServiceFeatureAppPackage,
+	                                               ServiceFeatureIdentifier,
+	                                               PrivacySettingResourceGroupPackage,
+	                                               PrivacySettingIdentifier,
+	                                               RequiredValue);
+
+
+CREATE INDEX IF NOT EXISTS Preset_GrantedPrivacySettingValue_Preset
+	ON Preset_GrantedPrivacySettingValue (PresetCreator,
+	                                      PresetIdentifier,
+	                                      PrivacySettingResourceGroupPackage,
+	                                      PrivacySettingIdentifier,
+	                                      GrantedValue);
+
+
+CREATE INDEX IF NOT EXISTS Preset_AssignedApp_App
+	ON Preset_AssignedApp (AppPackage);
+
+
+CREATE INDEX IF NOT EXISTS Context_AnnotatedPrivacySettingValue_Preset
+	ON Context_AnnotatedPrivacySettingValue (PresetCreator,
+	                                         PresetIdentifier);
+
+
+CREATE INDEX IF NOT EXISTS ResourceGroupCatalog_Name
+	ON ResourceGroupCatalog (Language,
+	                         Name COLLATE NOCASE);
\ No newline at end of file
@@ -19,6 +19,7 @@
  */
 package de.unistuttgart.ipvs.pmp.gui.app;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import android.app.Activity;
@@ -174,7 +175,7 @@ public class ActivityApps extends Activity {
      * Updates the AppsList, when a change occurred (like an App was installed or removed).
      */
     private void updateAppsList() {
-        this.appsList = ModelProxy.get().getApps();
+        this.appsList = new ArrayList<IApp>(ModelProxy.get().getApps());
         this.appsAdapter = new AdapterApps(this, this.appsList);
         this.appsViewList.setAdapter(this.appsAdapter);
         
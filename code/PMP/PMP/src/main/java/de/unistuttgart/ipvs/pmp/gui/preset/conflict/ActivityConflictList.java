@@ -81,9 +81,14 @@ public class ActivityConflictList extends Activity {
     
     
     /**
-     * Updates the list of conflicts (opens a dialog for processing).
+     * Updates the list of conflicts (opens a dialog for processing, if they are not up to date yet).
      */
     private void updateConflicts() {
+        if (ConflictModel.getInstance().isUpToDate()) {
+            refresh();
+            return;
+        }
+        
         new ScanningProgressDialog(this, new ScanningProgressDialog.ICallback() {
             
             @Override
@@ -104,6 +109,9 @@ public class ActivityConflictList extends Activity {
     protected void onDestroy() {
         super.onDestroy();
         
+        /* The user left, no need to complete the scan now. */
+        ConflictModel.getInstance().cancelCalculation();
+        
         unregisterReceiver(this.akr);
     }
     
@@ -112,6 +120,8 @@ public class ActivityConflictList extends Activity {
      * Refreshes the list of conflicts.
      */
     public void refresh() {
+        this.conflictList.clear();
+        this.conflictList.addAll(ConflictModel.getInstance().getConflicts());
         this.conflictAdapter.notifyDataSetChanged();
         
         TextView noConflicts = (TextView) findViewById(R.id.TextView_NoConflicts);
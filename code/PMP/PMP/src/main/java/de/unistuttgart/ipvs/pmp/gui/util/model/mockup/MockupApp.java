@@ -19,14 +19,12 @@
  */
 package de.unistuttgart.ipvs.pmp.gui.util.model.mockup;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 
 import android.graphics.drawable.Drawable;
 import de.unistuttgart.ipvs.pmp.model.element.ElementPersistenceProvider;
 import de.unistuttgart.ipvs.pmp.model.element.ModelElement;
 import de.unistuttgart.ipvs.pmp.model.element.app.App;
-import de.unistuttgart.ipvs.pmp.model.element.preset.Preset;
 import de.unistuttgart.ipvs.pmp.model.element.servicefeature.ServiceFeature;
 import de.unistuttgart.ipvs.pmp.xmlutil.ais.IAIS;
 
@@ -46,7 +44,7 @@ public class MockupApp extends App {
         this.icon = icon;
         this.ais = ais;
         this.serviceFeatures = new HashMap<String, ServiceFeature>();
-        this.assignedPresets = new ArrayList<Preset>();
+        this.assignments = MockupModel.instance.getAssignments();
     }
     
     
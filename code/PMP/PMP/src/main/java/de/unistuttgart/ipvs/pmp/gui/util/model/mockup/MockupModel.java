@@ -24,6 +24,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import de.unistuttgart.ipvs.pmp.model.AssignmentIndex;
 import de.unistuttgart.ipvs.pmp.model.IModel;
 import de.unistuttgart.ipvs.pmp.model.ModelCache;
 import de.unistuttgart.ipvs.pmp.model.assertion.Assert;
@@ -58,6 +59,14 @@ public class MockupModel implements IModel {
     }
     
     
+    /**
+     * @return the assignments between the mockup presets and apps
+     */
+    public AssignmentIndex getAssignments() {
+        return this.cache.getAssignments();
+    }
+    
+    
     @Override
     public List<IApp> getApps() {
         return new ArrayList<IApp>(this.cache.getApps().values());
@@ -99,6 +108,7 @@ public class MockupModel implements IModel {
             }
         }
         
+        this.cache.getAssignments().removeApp(app);
         return this.cache.getApps().remove(identifier) != null;
     }
     
@@ -134,6 +144,12 @@ public class MockupModel implements IModel {
     }
     
     
+    @Override
+    public void warmUpResourceGroups() {
+        // mockup resource groups have no plugins
+    }
+    
+    
     @Override
     public List<IPreset> getPresets() {
         return new ArrayList<IPreset>(this.cache.getAllPresets());
@@ -203,11 +219,10 @@ public class MockupModel implements IModel {
         } else {
             Preset p = creatorMap.get(identifier);
             
-            for (IApp app : p.getAssignedApps()) {
-                // this time, there's no way but to cast (or run manually through all apps)
-                Assert.instanceOf(app, App.class, ModelIntegrityError.class, Assert.ILLEGAL_CLASS, "app", app);
-                App castApp = (App) app;
-                castApp.removePreset(p);
+            List<IApp> assignedApps = p.getAssignedApps();
+            this.cache.getAssignments().removePreset(p);
+            for (IApp app : assignedApps) {
+                app.verifyServiceFeatures();
             }
             
             return creatorMap.remove(identifier) != null;
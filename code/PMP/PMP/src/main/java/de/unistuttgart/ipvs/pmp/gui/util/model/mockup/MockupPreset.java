@@ -43,7 +43,7 @@ public class MockupPreset extends Preset {
         this.name = name;
         this.description = description;
         this.deleted = false;
-        this.assignedApps = new ArrayList<IApp>();
+        this.assignments = MockupModel.instance.getAssignments();
         this.missingPrivacySettings = new ArrayList<MissingPrivacySettingValue>();
         this.missingApps = new ArrayList<MissingApp>();
         this.privacySettingValues = new HashMap<IPrivacySetting, String>();
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2012 pmp-android development team
+ * Project: PMP
+ * Project-Site: https://github.com/stachch/Privacy_Management_Platform
+ *
+ * ---------------------------------------------------------------------
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unistuttgart.ipvs.pmp.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.unistuttgart.ipvs.pmp.model.element.app.IApp;
+import de.unistuttgart.ipvs.pmp.model.element.preset.Preset;
+
+/**
+ * <p>
+ * Assignments of {@link Preset}s to apps kept inside the {@link ModelCache}, indexed in both directions. Both the
+ * {@link Preset}s and the apps read their assignments from here, so there is only one place to update.
+ * </p>
+ * 
+ * <p>
+ * Other than the {@link DependencyIndex} it is exact, but only contains the apps which are currently present.
+ * </p>
+ * 
+ * <p>
+ * The index is copy-on-write: every change publishes new maps, so the binder threads can read it without locking
+ * while the model is changed. Changes are serialized by the index itself. Loading many assignments has to go through
+ * {@link #setAll(Map)}, which copies the maps only once.
+ * </p>
+ */
+public class AssignmentIndex {
+    
+    /**
+     * The current, never modified, maps. Replaced as a whole, so both directions always match.
+     */
+    private volatile Maps maps;
+    
+    
+    public AssignmentIndex() {
+        this.maps = new Maps(new HashMap<Preset, Set<IApp>>(), new HashMap<IApp, Set<Preset>>());
+    }
+    
+    
+    private static <K, V> void add(Map<K, Set<V>> index, K key, V value) {
+        Set<V> set = index.get(key);
+        Set<V> copy = (set == null) ? new LinkedHashSet<V>() : new LinkedHashSet<V>(set);
+        copy.add(value);
+        index.put(key, Collections.unmodifiableSet(copy));
+    }
+    
+    
+    private static <K, V> void remove(Map<K, Set<V>> index, K key, V value) {
+        Set<V> set = index.get(key);
+        if ((set != null) && set.contains(value)) {
+            if (set.size() == 1) {
+                index.remove(key);
+            } else {
+                Set<V> copy = new LinkedHashSet<V>(set);
+                copy.remove(value);
+                index.put(key, Collections.unmodifiableSet(copy));
+            }
+        }
+    }
+    
+    
+    /**
+     * @return a modifiable copy of the current maps, publish it with {@link #maps}
+     */
+    private Maps copy() {
+        return new Maps(new HashMap<Preset, Set<IApp>>(this.maps.presetApps), new HashMap<IApp, Set<Preset>>(
+                this.maps.appPresets));
+    }
+    
+    
+    /**
+     * Assigns a preset to an app.
+     * 
+     * @param preset
+     * @param app
+     */
+    public synchronized void assign(Preset preset, IApp app) {
+        Maps copy = copy();
+        add(copy.presetApps, preset, app);
+        add(copy.appPresets, app, preset);
+        this.maps = copy;
+    }
+    
+    
+    /**
+     * Removes the assignment of a preset to an app.
+     * 
+     * @param preset
+     * @param app
+     */
+    public synchronized void remove(Preset preset, IApp app) {
+        Maps copy = copy();
+        remove(copy.presetApps, preset, app);
+        remove(copy.appPresets, app, preset);
+        this.maps = copy;
+    }
+    
+    
+    /**
+     * 
+     * @param preset
+     * @param app
+     * @return whether the preset is assigned to the app
+     */
+    public boolean isAssigned(Preset preset, IApp app) {
+        Set<IApp> apps = this.maps.presetApps.get(preset);
+        return (apps != null) && apps.contains(app);
+    }
+    
+    
+    /**
+     * 
+     * @param preset
+     * @return all the apps the preset is assigned to
+     */
+    public List<IApp> getApps(Preset preset) {
+        Set<IApp> apps = this.maps.presetApps.get(preset);
+        if (apps == null) {
+            return new ArrayList<IApp>();
+        }
+        return new ArrayList<IApp>(apps);
+    }
+    
+    
+    /**
+     * 
+     * @param app
+     * @return all the presets assigned to the app
+     */
+    public List<Preset> getPresets(IApp app) {
+        Set<Preset> presets = this.maps.appPresets.get(app);
+        if (presets == null) {
+            return new ArrayList<Preset>();
+        }
+        return new ArrayList<Preset>(presets);
+    }
+    
+    
+    /**
+     * Replaces all the assignments of a preset, e.g. after it was read again from the persistence.
+     * 
+     * @param preset
+     * @param apps
+     */
+    public void setApps(Preset preset, Collection<? extends IApp> apps) {
+        setAll(Collections.singletonMap(preset, apps));
+    }
+    
+    
+    /**
+     * Replaces all the assignments of several presets at once, e.g. after they were read from the persistence. Builds
+     * the new maps once and publishes them together, so readers never see a preset without its apps.
+     * 
+     * @param assignments
+     *            the apps for each preset, presets which are not contained keep their assignments
+     */
+    public synchronized void setAll(Map<Preset, ? extends Collection<? extends IApp>> assignments) {
+        Map<Preset, Set<IApp>> presetApps = new HashMap<Preset, Set<IApp>>(this.maps.presetApps);
+        Map<IApp, Set<Preset>> appPresets = new HashMap<IApp, Set<Preset>>(this.maps.appPresets);
+        
+        // sets of the apps changed so far, still modifiable
+        Map<IApp, Set<Preset>> changed = new HashMap<IApp, Set<Preset>>();
+        
+        for (Map.Entry<Preset, ? extends Collection<? extends IApp>> entry : assignments.entrySet()) {
+            Preset preset = entry.getKey();
+            Set<IApp> oldApps = presetApps.remove(preset);
+            if (oldApps != null) {
+                for (IApp app : oldApps) {
+                    modifiable(changed, appPresets, app).remove(preset);
+                }
+            }
+            
+            if (!entry.getValue().isEmpty()) {
+                presetApps.put(preset, Collections.unmodifiableSet(new LinkedHashSet<IApp>(entry.getValue())));
+                for (IApp app : entry.getValue()) {
+                    modifiable(changed, appPresets, app).add(preset);
+                }
+            }
+        }
+        
+        for (Map.Entry<IApp, Set<Preset>> entry : changed.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                appPresets.remove(entry.getKey());
+            } else {
+                appPresets.put(entry.getKey(), Collections.unmodifiableSet(entry.getValue()));
+            }
+        }
+        
+        this.maps = new Maps(presetApps, appPresets);
+    }
+    
+    
+    /**
+     * 
+     * @param changed
+     *            the sets already copied
+     * @param index
+     *            the index to copy the set from
+     * @param key
+     * @return a modifiable copy of the set of key, which is only copied once
+     */
+    private static <K, V> Set<V> modifiable(Map<K, Set<V>> changed, Map<K, Set<V>> index, K key) {
+        Set<V> set = changed.get(key);
+        if (set == null) {
+            Set<V> current = index.get(key);
+            set = (current == null) ? new LinkedHashSet<V>() : new LinkedHashSet<V>(current);
+            changed.put(key, set);
+        }
+        return set;
+    }
+    
+    
+    /**
+     * Forgets all the assignments of a preset.
+     * 
+     * @param preset
+     */
+    public synchronized void removePreset(Preset preset) {
+        Maps copy = copy();
+        removePreset(copy, preset);
+        this.maps = copy;
+    }
+    
+    
+    private static void removePreset(Maps maps, Preset preset) {
+        Set<IApp> apps = maps.presetApps.remove(preset);
+        if (apps != null) {
+            for (IApp app : apps) {
+                remove(maps.appPresets, app, preset);
+            }
+        }
+    }
+    
+    
+    /**
+     * Forgets all the assignments of an app.
+     * 
+     * @param app
+     */
+    public synchronized void removeApp(IApp app) {
+        Maps copy = copy();
+        Set<Preset> presets = copy.appPresets.remove(app);
+        if (presets != null) {
+            for (Preset preset : presets) {
+                remove(copy.presetApps, preset, app);
+            }
+        }
+        this.maps = copy;
+    }
+    
+    
+    /**
+     * Both directions of the index.
+     */
+    private static class Maps {
+        
+        private final Map<Preset, Set<IApp>> presetApps;
+        private final Map<IApp, Set<Preset>> appPresets;
+        
+        
+        public Maps(Map<Preset, Set<IApp>> presetApps, Map<IApp, Set<Preset>> appPresets) {
+            this.presetApps = presetApps;
+            this.appPresets = appPresets;
+        }
+    }
+}
@@ -36,7 +36,7 @@ import de.unistuttgart.ipvs.pmp.shared.Log;
 /**
  * This is a helper for opening the database used by PMP.<br/>
  * It automatically creates the required tables in the SQLite database.<br/>
- * A database instance can be got by calling {@link DatabaseOpenHelper#getWritableDatabase()}.
+ * The shared database instance can be got by calling {@link DatabaseOpenHelper#open()}.
  * 
  * @author Jakob Jarosch
  */
@@ -52,7 +52,13 @@ public class DatabaseOpenHelper extends SQLiteOpenHelper {
     /**
      * Current database version.
      */
-    private static final int DB_VERSION = 5;
+    private static final int DB_VERSION = 7;
+    
+    /**
+     * Oldest database version whose tables are still compatible with the current one. Databases of this version or
+     * newer are migrated in place by re-running the idempotent creation script, older ones are recreated.
+     */
+    private static final int DB_MIGRATABLE_VERSION = 5;
     
     /**
      * The context used to open the files from assets folder.
@@ -64,6 +70,16 @@ public class DatabaseOpenHelper extends SQLiteOpenHelper {
      */
     private SQLiteQueryBuilder sqlqb;
     
+    /**
+     * The connection shared by all the users of this helper, kept open until {@link #close()}.
+     */
+    private SQLiteDatabase connection;
+    
+    /**
+     * How many write batches the current thread has started.
+     */
+    private final ThreadLocal<Integer> batchDepth;
+    
     
     /**
      * List of all SQL-files for database-creation, the key is the version of the database.
@@ -88,6 +104,7 @@ public class DatabaseOpenHelper extends SQLiteOpenHelper {
         super(context, DB_NAME, null, DB_VERSION);
         this.context = context;
         this.sqlqb = new SQLiteQueryBuilder();
+        this.batchDepth = new ThreadLocal<Integer>();
     }
     
     
@@ -119,7 +136,13 @@ public class DatabaseOpenHelper extends SQLiteOpenHelper {
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         Log.d(this, "Update request " + oldVersion + " to " + newVersion);
         
-        if ((newVersion == DB_VERSION) && (oldVersion < DB_VERSION)) {
+        if ((newVersion == DB_VERSION) && (oldVersion >= DB_MIGRATABLE_VERSION) && (oldVersion < DB_VERSION)) {
+            Log.d(this, "Migrating db in place");
+            
+            // the existing tables are unchanged, only the missing tables and indexes get created
+            onCreate(db);
+            
+        } else if ((newVersion == DB_VERSION) && (oldVersion < DB_VERSION)) {
             Log.d(this, "Forcing db re-creation");
             
             // delete everything in sight
@@ -138,6 +161,83 @@ public class DatabaseOpenHelper extends SQLiteOpenHelper {
     }
     
     
+    /**
+     * Returns the database connection shared by the model. Contrary to {@link #getWritableDatabase()} the returned
+     * object must <b>not</b> be closed, it stays open until {@link #close()} is called. If the current thread is inside
+     * a write batch, the batch's transaction is started on first use.
+     * 
+     * @return the shared {@link SQLiteDatabase}
+     */
+    public SQLiteDatabase open() {
+        SQLiteDatabase db = connection();
+        
+        // outside the synchronized block, beginning might have to wait for another thread's batch
+        if ((getBatchDepth() > 0) && !db.inTransaction()) {
+            db.beginTransaction();
+        }
+        
+        return db;
+    }
+    
+    
+    private synchronized SQLiteDatabase connection() {
+        if ((this.connection == null) || !this.connection.isOpen()) {
+            this.connection = getWritableDatabase();
+        }
+        return this.connection;
+    }
+    
+    
+    private int getBatchDepth() {
+        Integer depth = this.batchDepth.get();
+        return (depth == null) ? 0 : depth;
+    }
+    
+    
+    /**
+     * Starts a write batch for the current thread. All the statements the current thread executes on {@link #open()}
+     * until the matching {@link #endBatch()} are grouped into one transaction. Batches can be nested, only the
+     * outermost one is committed. Be sure to always call {@link #endBatch()} afterwards, other threads cannot access
+     * the database while the batch holds its transaction.
+     */
+    public void startBatch() {
+        this.batchDepth.set(getBatchDepth() + 1);
+    }
+    
+    
+    /**
+     * Ends a write batch started by {@link #startBatch()} and commits its transaction, if it was the outermost one.
+     */
+    public void endBatch() {
+        int depth = getBatchDepth();
+        if (depth == 0) {
+            Log.w(this, "Ending a write batch that was never started.");
+            return;
+        }
+        
+        this.batchDepth.set(depth - 1);
+        if (depth == 1) {
+            SQLiteDatabase db;
+            synchronized (this) {
+                db = this.connection;
+            }
+            
+            // the single statements were not undoable before either, so always commit
+            if ((db != null) && db.isOpen() && db.inTransaction()) {
+                db.setTransactionSuccessful();
+                db.endTransaction();
+            }
+        }
+    }
+    
+    
+    @Override
+    public synchronized void close() {
+        super.close();
+        this.connection = null;
+    }
+    
+    
     /**
      * Cleans all data from the tables.
      */
@@ -148,15 +248,10 @@ public class DatabaseOpenHelper extends SQLiteOpenHelper {
         
         if (sqlQueries != null) {
             Log.d(this, "Executing " + whereIsCleanSql(DB_VERSION) + " ...");
-            SQLiteDatabase sqldb = getWritableDatabase();
-            try {
-                if (DatabaseOpenHelper.executeMultipleQueries(sqldb, sqlQueries)) {
-                    Log.d(this, "Cleaned database");
-                } else {
-                    Log.w(this, "Database not cleaned");
-                }
-            } finally {
-                sqldb.close();
+            if (DatabaseOpenHelper.executeMultipleQueries(open(), sqlQueries)) {
+                Log.d(this, "Cleaned database");
+            } else {
+                Log.w(this, "Database not cleaned");
             }
         }
     }
@@ -248,38 +343,34 @@ public class DatabaseOpenHelper extends SQLiteOpenHelper {
      * Go in there, print everything you can find on LogCat.
      */
     public void debug() {
-        SQLiteDatabase db = getReadableDatabase();
-        try {
-            Cursor c = db.rawQuery(
-                    "SELECT name FROM sqlite_master WHERE type = 'table' AND name != 'android_metadata'", null);
-            if (c.moveToFirst()) {
-                do {
-                    String tbl = c.getString(c.getColumnIndex("name"));
-                    Log.d(this, "TABLE '" + tbl + "'");
-                    this.sqlqb.setTables(tbl);
-                    
-                    // null anyone?
-                    Cursor c2 = this.sqlqb.query(db, null, null, null, null, null, null);
-                    if (c2.moveToFirst()) {
-                        do {
-                            Log.d(this, "  row " + (1 + c2.getPosition()) + " of " + c2.getCount());
-                            
-                            for (int i = 0; i < c2.getColumnCount(); i++) {
-                                Log.d(this, "     " + c2.getColumnName(i) + " => '" + c2.getString(i) + "'");
-                            }
-                            
-                        } while (c2.moveToNext());
-                    } else {
-                        Log.d(this, "  empty table");
-                    }
-                    c2.close();
-                    
-                } while (c.moveToNext());
-            }
-            c.close();
-        } finally {
-            db.close();
+        SQLiteDatabase db = open();
+        Cursor c = db.rawQuery(
+                "SELECT name FROM sqlite_master WHERE type = 'table' AND name != 'android_metadata'", null);
+        if (c.moveToFirst()) {
+            do {
+                String tbl = c.getString(c.getColumnIndex("name"));
+                Log.d(this, "TABLE '" + tbl + "'");
+                this.sqlqb.setTables(tbl);
+                
+                // null anyone?
+                Cursor c2 = this.sqlqb.query(db, null, null, null, null, null, null);
+                if (c2.moveToFirst()) {
+                    do {
+                        Log.d(this, "  row " + (1 + c2.getPosition()) + " of " + c2.getCount());
+                        
+                        for (int i = 0; i < c2.getColumnCount(); i++) {
+                            Log.d(this, "     " + c2.getColumnName(i) + " => '" + c2.getString(i) + "'");
+                        }
+                        
+                    } while (c2.moveToNext());
+                } else {
+                    Log.d(this, "  empty table");
+                }
+                c2.close();
+                
+            } while (c.moveToNext());
         }
+        c.close();
     }
     
 }
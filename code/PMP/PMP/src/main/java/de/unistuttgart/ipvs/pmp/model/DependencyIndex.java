@@ -0,0 +1,260 @@
+/*
+ * Copyright 2012 pmp-android development team
+ * Project: PMP
+ * Project-Site: https://github.com/stachch/Privacy_Management_Platform
+ *
+ * ---------------------------------------------------------------------
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unistuttgart.ipvs.pmp.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.unistuttgart.ipvs.pmp.model.element.preset.Preset;
+import de.unistuttgart.ipvs.pmp.model.element.servicefeature.ServiceFeature;
+
+/**
+ * <p>
+ * Reverse dependency index kept inside the {@link ModelCache}. Maps resource group packages to the
+ * {@link ServiceFeature}s and {@link Preset}s referencing them and app packages to the {@link Preset}s they are
+ * assigned to, including references that are currently missing.
+ * </p>
+ * 
+ * <p>
+ * The index may contain more elements than are actually affected (e.g. after a privacy setting was removed from a
+ * preset), but never less. Callers therefore still have to check whether the element really changed.
+ * </p>
+ * 
+ * <p>
+ * Like the {@link AssignmentIndex} it is copy-on-write, so it can be read without locking while the model is changed.
+ * Loading many references has to collect them in a {@link Builder} first, which is published with
+ * {@link #addAll(Builder)} by copying the maps only once.
+ * </p>
+ */
+public class DependencyIndex {
+    
+    /*
+     * never modified, replaced on every change
+     */
+    private volatile Map<String, Set<ServiceFeature>> rgServiceFeatures;
+    private volatile Map<String, Set<Preset>> rgPresets;
+    private volatile Map<String, Set<Preset>> appPresets;
+    
+    
+    public DependencyIndex() {
+        this.rgServiceFeatures = new HashMap<String, Set<ServiceFeature>>();
+        this.rgPresets = new HashMap<String, Set<Preset>>();
+        this.appPresets = new HashMap<String, Set<Preset>>();
+    }
+    
+    
+    private static <T> Map<String, Set<T>> add(Map<String, Set<T>> index, String key, T element) {
+        Set<T> set = index.get(key);
+        if ((set != null) && set.contains(element)) {
+            return index;
+        }
+        
+        Set<T> copy = (set == null) ? new HashSet<T>() : new HashSet<T>(set);
+        copy.add(element);
+        Map<String, Set<T>> result = new HashMap<String, Set<T>>(index);
+        result.put(key, Collections.unmodifiableSet(copy));
+        return result;
+    }
+    
+    
+    private static <T> Map<String, Set<T>> addAll(Map<String, Set<T>> index, Map<String, Set<T>> additions) {
+        if (additions.isEmpty()) {
+            return index;
+        }
+        
+        Map<String, Set<T>> result = new HashMap<String, Set<T>>(index);
+        for (Map.Entry<String, Set<T>> entry : additions.entrySet()) {
+            Set<T> set = index.get(entry.getKey());
+            Set<T> merged = (set == null) ? new HashSet<T>(entry.getValue()) : new HashSet<T>(set);
+            merged.addAll(entry.getValue());
+            result.put(entry.getKey(), Collections.unmodifiableSet(merged));
+        }
+        return result;
+    }
+    
+    
+    private static <T> List<T> get(Map<String, Set<T>> index, String key) {
+        Set<T> set = index.get(key);
+        if (set == null) {
+            return new ArrayList<T>();
+        }
+        return new ArrayList<T>(set);
+    }
+    
+    
+    private static <T> Map<String, Set<T>> remove(Map<String, Set<T>> index, T element) {
+        Map<String, Set<T>> result = new HashMap<String, Set<T>>(index);
+        for (Map.Entry<String, Set<T>> entry : index.entrySet()) {
+            if (entry.getValue().contains(element)) {
+                Set<T> copy = new HashSet<T>(entry.getValue());
+                copy.remove(element);
+                result.put(entry.getKey(), Collections.unmodifiableSet(copy));
+            }
+        }
+        return result;
+    }
+    
+    
+    /**
+     * Remembers that a service feature requires a privacy setting of a resource group.
+     * 
+     * @param rgPackage
+     * @param sf
+     */
+    public synchronized void addServiceFeature(String rgPackage, ServiceFeature sf) {
+        this.rgServiceFeatures = add(this.rgServiceFeatures, rgPackage, sf);
+    }
+    
+    
+    /**
+     * Remembers that a preset grants a privacy setting of a resource group.
+     * 
+     * @param rgPackage
+     * @param preset
+     */
+    public synchronized void addPresetResourceGroup(String rgPackage, Preset preset) {
+        this.rgPresets = add(this.rgPresets, rgPackage, preset);
+    }
+    
+    
+    /**
+     * Remembers that a preset is assigned to an app.
+     * 
+     * @param appPackage
+     * @param preset
+     */
+    public synchronized void addPresetApp(String appPackage, Preset preset) {
+        this.appPresets = add(this.appPresets, appPackage, preset);
+    }
+    
+    
+    /**
+     * Remembers all the references collected in a {@link Builder} at once.
+     * 
+     * @param builder
+     */
+    public synchronized void addAll(Builder builder) {
+        this.rgServiceFeatures = addAll(this.rgServiceFeatures, builder.rgServiceFeatures);
+        this.rgPresets = addAll(this.rgPresets, builder.rgPresets);
+        this.appPresets = addAll(this.appPresets, builder.appPresets);
+    }
+    
+    
+    /**
+     * 
+     * @param rgPackage
+     * @return all the service features which may require privacy settings of the resource group
+     */
+    public List<ServiceFeature> getServiceFeatures(String rgPackage) {
+        return get(this.rgServiceFeatures, rgPackage);
+    }
+    
+    
+    /**
+     * 
+     * @param rgPackage
+     * @return all the presets which may grant privacy settings of the resource group
+     */
+    public List<Preset> getResourceGroupPresets(String rgPackage) {
+        return get(this.rgPresets, rgPackage);
+    }
+    
+    
+    /**
+     * 
+     * @param appPackage
+     * @return all the presets which may be assigned to the app
+     */
+    public List<Preset> getAppPresets(String appPackage) {
+        return get(this.appPresets, appPackage);
+    }
+    
+    
+    /**
+     * Forgets a deleted service feature.
+     * 
+     * @param sf
+     */
+    public synchronized void removeServiceFeature(ServiceFeature sf) {
+        this.rgServiceFeatures = remove(this.rgServiceFeatures, sf);
+    }
+    
+    
+    /**
+     * Forgets a deleted preset.
+     * 
+     * @param preset
+     */
+    public synchronized void removePreset(Preset preset) {
+        this.rgPresets = remove(this.rgPresets, preset);
+        this.appPresets = remove(this.appPresets, preset);
+    }
+    
+    
+    /**
+     * Modifiable collection of references, not visible to any reader until it is added with
+     * {@link DependencyIndex#addAll(Builder)}.
+     */
+    public static class Builder {
+        
+        private final Map<String, Set<ServiceFeature>> rgServiceFeatures = new HashMap<String, Set<ServiceFeature>>();
+        private final Map<String, Set<Preset>> rgPresets = new HashMap<String, Set<Preset>>();
+        private final Map<String, Set<Preset>> appPresets = new HashMap<String, Set<Preset>>();
+        
+        
+        private static <T> void collect(Map<String, Set<T>> index, String key, T element) {
+            Set<T> set = index.get(key);
+            if (set == null) {
+                set = new HashSet<T>();
+                index.put(key, set);
+            }
+            set.add(element);
+        }
+        
+        
+        /**
+         * @see DependencyIndex#addServiceFeature(String, ServiceFeature)
+         */
+        public void addServiceFeature(String rgPackage, ServiceFeature sf) {
+            collect(this.rgServiceFeatures, rgPackage, sf);
+        }
+        
+        
+        /**
+         * @see DependencyIndex#addPresetResourceGroup(String, Preset)
+         */
+        public void addPresetResourceGroup(String rgPackage, Preset preset) {
+            collect(this.rgPresets, rgPackage, preset);
+        }
+        
+        
+        /**
+         * @see DependencyIndex#addPresetApp(String, Preset)
+         */
+        public void addPresetApp(String appPackage, Preset preset) {
+            collect(this.appPresets, appPackage, preset);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2012 pmp-android development team
+ * Project: PMP
+ * Project-Site: https://github.com/stachch/Privacy_Management_Platform
+ *
+ * ---------------------------------------------------------------------
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unistuttgart.ipvs.pmp.model;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.unistuttgart.ipvs.pmp.model.element.app.IApp;
+import de.unistuttgart.ipvs.pmp.model.element.preset.IPreset;
+import de.unistuttgart.ipvs.pmp.model.element.privacysetting.IPrivacySetting;
+
+/**
+ * <p>
+ * Materialized table of the effective privacy setting values, i.e. the results of
+ * {@link PresetController#findBestValue(IApp, IPrivacySetting)}, keyed by app and privacy setting.
+ * </p>
+ * 
+ * <p>
+ * Rows are filled lazily by the {@link PresetController} and dropped per app whenever something that influences the
+ * app's values changes (rollouts, preset assignments, context changes, (un)installs). A dropped row is rebuilt on the
+ * next request, so each permission check in between is a plain hash lookup.
+ * </p>
+ */
+public class EffectiveValueTable {
+    
+    /**
+     * Marker for privacy settings which are known to have no granted value, since the maps cannot hold null.
+     */
+    private static final String NOT_GRANTED = new String("<not granted>");
+    
+    /**
+     * The rows of the table, mapping the app package to the privacy setting values.
+     */
+    private final ConcurrentMap<String, ConcurrentMap<IPrivacySetting, String>> rows;
+    
+    /**
+     * Statistics
+     */
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong rebuilds;
+    
+    /**
+     * Singleton stuff
+     */
+    private static final EffectiveValueTable instance = new EffectiveValueTable();
+    
+    
+    public static EffectiveValueTable getInstance() {
+        return instance;
+    }
+    
+    
+    /**
+     * Singleton constructor
+     */
+    private EffectiveValueTable() {
+        this.rows = new ConcurrentHashMap<String, ConcurrentMap<IPrivacySetting, String>>();
+        this.hits = new AtomicLong(0L);
+        this.misses = new AtomicLong(0L);
+        this.rebuilds = new AtomicLong(0L);
+    }
+    
+    
+    /**
+     * Fetches the row for an app, creating it if necessary. Values must always be written to the row object that was
+     * returned before they were calculated, so results of a calculation that overlapped with an invalidation end up in
+     * the discarded row.
+     * 
+     * @param app
+     *            the app whose row shall be fetched
+     * @return the current row of <code>app</code>
+     */
+    protected Map<IPrivacySetting, String> row(IApp app) {
+        ConcurrentMap<IPrivacySetting, String> row = this.rows.get(app.getIdentifier());
+        if (row == null) {
+            ConcurrentMap<IPrivacySetting, String> newRow = new ConcurrentHashMap<IPrivacySetting, String>();
+            row = this.rows.putIfAbsent(app.getIdentifier(), newRow);
+            if (row == null) {
+                row = newRow;
+            }
+        }
+        return row;
+    }
+    
+    
+    /**
+     * Looks up a value in a row fetched by {@link #row(IApp)}.
+     * 
+     * @param row
+     *            the row to look in
+     * @param ps
+     *            the privacy setting whose value is looked up
+     * @return true, if the value is present in the table (it may still be a not granted one), false otherwise
+     */
+    protected boolean contains(Map<IPrivacySetting, String> row, IPrivacySetting ps) {
+        if (row.containsKey(ps)) {
+            this.hits.incrementAndGet();
+            return true;
+        } else {
+            this.misses.incrementAndGet();
+            return false;
+        }
+    }
+    
+    
+    /**
+     * Reads a value from a row fetched by {@link #row(IApp)} for which {@link #contains(Map, IPrivacySetting)} was
+     * true.
+     * 
+     * @param row
+     * @param ps
+     * @return the effective value, or null, if none is granted
+     */
+    protected static String read(Map<IPrivacySetting, String> row, IPrivacySetting ps) {
+        String value = row.get(ps);
+        return (value == NOT_GRANTED) ? null : value;
+    }
+    
+    
+    /**
+     * Stores a freshly calculated value in a row fetched by {@link #row(IApp)}.
+     * 
+     * @param row
+     * @param ps
+     * @param value
+     *            the effective value, may be null if none is granted
+     */
+    protected static void write(Map<IPrivacySetting, String> row, IPrivacySetting ps, String value) {
+        row.put(ps, (value == null) ? NOT_GRANTED : value);
+    }
+    
+    
+    /**
+     * Drops the row of an app, so it will be rebuilt on the next request.
+     * 
+     * @param app
+     *            the app whose values could have changed
+     */
+    public void invalidate(IApp app) {
+        invalidate(app.getIdentifier());
+    }
+    
+    
+    /**
+     * Drops the row of an app, so it will be rebuilt on the next request.
+     * 
+     * @param appPackage
+     *            the package of the app whose values could have changed
+     */
+    public void invalidate(String appPackage) {
+        if (this.rows.remove(appPackage) != null) {
+            this.rebuilds.incrementAndGet();
+        }
+    }
+    
+    
+    /**
+     * Drops the rows of all the apps assigned to a preset.
+     * 
+     * @param preset
+     *            the preset whose values could have changed
+     */
+    public void invalidate(IPreset preset) {
+        for (IApp app : preset.getAssignedApps()) {
+            invalidate(app);
+        }
+    }
+    
+    
+    /**
+     * Drops the complete table. Necessary when privacy settings themselves appear or disappear.
+     */
+    public void invalidateAll() {
+        this.rebuilds.addAndGet(this.rows.size());
+        this.rows.clear();
+    }
+    
+    
+    /**
+     * @return the number of requests that were answered from the table
+     */
+    public long getHitCount() {
+        return this.hits.get();
+    }
+    
+    
+    /**
+     * @return the number of requests that had to be calculated
+     */
+    public long getMissCount() {
+        return this.misses.get();
+    }
+    
+    
+    /**
+     * @return the number of rows that were dropped and have to be rebuilt
+     */
+    public long getRebuildCount() {
+        return this.rebuilds.get();
+    }
+    
+    
+    @Override
+    public String toString() {
+        return String.format("EffectiveValueTable [rows = %d, hits = %d, misses = %d, rebuilds = %d]",
+                this.rows.size(), getHitCount(), getMissCount(), getRebuildCount());
+    }
+}
@@ -43,7 +43,7 @@ import de.unistuttgart.ipvs.pmp.shared.service.pmp.RegistrationResult;
 public interface IModel {
     
     /**
-     * @return all {@link IApp}s known by PMP.
+     * @return all {@link IApp}s known by PMP, as an unmodifiable list.
      */
     public List<IApp> getApps();
     
@@ -85,7 +85,7 @@ public interface IModel {
     
     
     /**
-     * @return all {@link IResourceGroup}s known by PMP.
+     * @return all {@link IResourceGroup}s known by PMP, as an unmodifiable list.
      */
     public List<IResourceGroup> getResourceGroups();
     
@@ -134,7 +134,15 @@ public interface IModel {
     
     
     /**
-     * @return all {@link IPreset}s known by PMP.
+     * Starts loading the plugins of all installed {@link IResourceGroup}s in the background, except for those that
+     * must not be loaded again before PMP is restarted. Returns immediately. Meant to be called once when the service
+     * starts.
+     */
+    public void warmUpResourceGroups();
+    
+    
+    /**
+     * @return all {@link IPreset}s known by PMP, as an unmodifiable list.
      */
     public List<IPreset> getPresets();
     
@@ -143,7 +151,7 @@ public interface IModel {
      * @param creator
      *            null, if the user created this preset, the {@link IApp} or {@link IResourceGroup} if the
      *            {@link IPreset} is bundled.
-     * @return all {@link IPreset}s which were created by creator or null, if none found
+     * @return all {@link IPreset}s which were created by creator as an unmodifiable list, empty if none found
      */
     public List<IPreset> getPresets(ModelElement creator);
     
@@ -207,7 +215,7 @@ public interface IModel {
     
     /**
      * 
-     * @return all {@link IContext}s known by PMP.
+     * @return all {@link IContext}s known by PMP, as an unmodifiable list.
      */
     public List<IContext> getContexts();
     
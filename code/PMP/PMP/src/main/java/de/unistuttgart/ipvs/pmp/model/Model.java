@@ -19,9 +19,6 @@
  */
 package de.unistuttgart.ipvs.pmp.model;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -41,7 +38,9 @@ import de.unistuttgart.ipvs.pmp.PMPApplication;
 import de.unistuttgart.ipvs.pmp.model.assertion.Assert;
 import de.unistuttgart.ipvs.pmp.model.assertion.ModelIntegrityError;
 import de.unistuttgart.ipvs.pmp.model.assertion.ModelMisuseError;
+import de.unistuttgart.ipvs.pmp.model.conflicts.ConflictModel;
 import de.unistuttgart.ipvs.pmp.model.context.IContext;
+import de.unistuttgart.ipvs.pmp.model.descriptor.DescriptorCache;
 import de.unistuttgart.ipvs.pmp.model.element.ElementPersistenceProvider;
 import de.unistuttgart.ipvs.pmp.model.element.IModelElement;
 import de.unistuttgart.ipvs.pmp.model.element.ModelElement;
@@ -104,9 +103,10 @@ import de.unistuttgart.ipvs.pmp.xmlutil.validator.issue.IIssue;
 public class Model implements IModel, Observer {
     
     /**
-     * Actual model content. May be null if no cache is present.
+     * Actual model content. May be null if no cache is present. Reads are served from its published
+     * {@link ModelSnapshot} without locking, writes are serialized on the model and publish a new snapshot.
      */
-    private ModelCache cache;
+    private volatile ModelCache cache;
     
     /**
      * Security-mechanism against using the same dex class loader twice for the same dexs, producing a SIGBUS.
@@ -114,6 +114,11 @@ public class Model implements IModel, Observer {
      */
     private Set<String> unallowedInstall;
     
+    /**
+     * The resource groups currently downloaded and checked by {@link #installResourceGroup(String, boolean)}.
+     */
+    private Set<String> installing;
+    
     /**
      * Singleton stuff
      */
@@ -123,6 +128,7 @@ public class Model implements IModel, Observer {
     private Model() {
         this.cache = null;
         this.unallowedInstall = new HashSet<String>();
+        this.installing = new HashSet<String>();
         PersistenceProvider.getInstance().addObserver(this);
     }
     
@@ -143,6 +149,17 @@ public class Model implements IModel, Observer {
     }
     
     
+    /**
+     * Checks whether the model is already cached and returns the last published {@link ModelSnapshot}.
+     * 
+     * @return the current snapshot of the model
+     */
+    private ModelSnapshot snapshot() {
+        checkCached();
+        return this.cache.getSnapshot();
+    }
+    
+    
     @Override
     public void update(Observable observable, Object data) {
         // new ModelCache from the PersistenceProvider
@@ -156,22 +173,20 @@ public class Model implements IModel, Observer {
     
     @Override
     public List<IApp> getApps() {
-        checkCached();
-        return new ArrayList<IApp>(this.cache.getApps().values());
+        return snapshot().getApps();
     }
     
     
     @Override
     public IApp getApp(String appPackage) {
-        checkCached();
         Assert.nonNull(appPackage, ModelMisuseError.class, Assert.ILLEGAL_NULL, "appPackage", appPackage);
         
-        return this.cache.getApps().get(appPackage);
+        return snapshot().getApp(appPackage);
     }
     
     
     @Override
-    public RegistrationResult registerApp(final String appPackage) {
+    public synchronized RegistrationResult registerApp(final String appPackage) {
         checkCached();
         Assert.nonNull(appPackage, ModelMisuseError.class, Assert.ILLEGAL_NULL, "appPackage", appPackage);
         Assert.isNull(getApp(appPackage), ModelMisuseError.class, Assert.ILLEGAL_ALREADY_INSTALLED, "appPackage",
@@ -179,10 +194,10 @@ public class Model implements IModel, Observer {
         
         // check XML
         try {
-            InputStream xmlStream = PMPApplication.getContext().getPackageManager()
-                    .getResourcesForApplication(appPackage).getAssets().open(PersistenceConstants.APP_XML_NAME);
-            
-            IAIS ais = XMLUtilityProxy.getAppUtil().parse(xmlStream);
+            IAIS ais = DescriptorCache.getInstance().getAIS(appPackage);
+            if (ais == null) {
+                throw new NameNotFoundException(appPackage);
+            }
             
             List<IIssue> validation = XMLUtilityProxy.getAppUtil().getValidator().validateAIS(ais, false);
             if (validation.size() > 0) {
@@ -251,12 +266,17 @@ public class Model implements IModel, Observer {
                         sf.getIdentifier(), sf.getRequiredResourceGroups());
                 Assert.nonNull(newSF, ModelIntegrityError.class, Assert.ILLEGAL_NULL, "newSF", newSF);
                 this.cache.getServiceFeatures().get(newApp).put(sf.getIdentifier(), newSF);
+                for (IAISRequiredResourceGroup aisrrg : sf.getRequiredResourceGroups()) {
+                    this.cache.getDependencies().addServiceFeature(aisrrg.getIdentifier(), newSF);
+                }
             }
+            this.cache.publish();
             
             // remember that illegal presets have to be enabled once their missing apps get installed
             IPCProvider.getInstance().startUpdate();
+            PersistenceProvider.getInstance().startBatch();
             try {
-                for (Preset p : this.cache.getAllPresets()) {
+                for (Preset p : this.cache.getDependencies().getAppPresets(appPackage)) {
                     if (!p.isAvailable() && !p.isDeleted()) {
                         p.forceRecache();
                         
@@ -267,6 +287,7 @@ public class Model implements IModel, Observer {
                     }
                 }
             } finally {
+                PersistenceProvider.getInstance().endBatch();
                 IPCProvider.getInstance().endUpdate();
             }
             
@@ -297,7 +318,7 @@ public class Model implements IModel, Observer {
     
     
     @Override
-    public boolean unregisterApp(String appPackage) {
+    public synchronized boolean unregisterApp(String appPackage) {
         checkCached();
         Assert.nonNull(appPackage, ModelMisuseError.class, Assert.ILLEGAL_NULL, "appPackage", appPackage);
         
@@ -308,11 +329,26 @@ public class Model implements IModel, Observer {
             
             app.lightweightDelete();
             this.cache.getApps().remove(appPackage);
+            for (ServiceFeature sf : this.cache.getServiceFeatures().get(app).values()) {
+                this.cache.getDependencies().removeServiceFeature(sf);
+            }
+            EffectiveValueTable.getInstance().invalidate(appPackage);
+            IPCProvider.getInstance().forgetApp(appPackage);
+            DescriptorCache.getInstance().invalidate(appPackage);
+            
+            List<IPreset> assignedPresets = app.getAssignedPresets();
+            for (IPreset preset : assignedPresets) {
+                Assert.instanceOf(preset, Preset.class, ModelIntegrityError.class, Assert.ILLEGAL_CLASS, "preset",
+                        preset);
+                ((Preset) preset).removeDeletedApp(app);
+            }
+            this.cache.publish();
             
             IPCProvider.getInstance().startUpdate();
+            PersistenceProvider.getInstance().startBatch();
             try {
                 // remember that presets have to be disabled once their required apps get uninstalled
-                for (IPreset preset : app.getAssignedPresets()) {
+                for (IPreset preset : assignedPresets) {
                     // this time, there's no way but to cast (or run manually through all apps)                     
                     Assert.instanceOf(preset, Preset.class, ModelIntegrityError.class, Assert.ILLEGAL_CLASS, "preset",
                             preset);
@@ -326,6 +362,7 @@ public class Model implements IModel, Observer {
                     
                 }
             } finally {
+                PersistenceProvider.getInstance().endBatch();
                 IPCProvider.getInstance().endUpdate();
             }
             
@@ -338,57 +375,56 @@ public class Model implements IModel, Observer {
     
     @Override
     public List<IResourceGroup> getResourceGroups() {
-        checkCached();
-        return new ArrayList<IResourceGroup>(this.cache.getResourceGroups().values());
+        return snapshot().getResourceGroups();
     }
     
     
     @Override
     public IResourceGroup getResourceGroup(String rgPackage) {
-        checkCached();
         Assert.nonNull(rgPackage, ModelMisuseError.class, Assert.ILLEGAL_NULL, "rgPackage", rgPackage);
-        return this.cache.getResourceGroups().get(rgPackage);
+        return snapshot().getResourceGroup(rgPackage);
     }
     
     
     @Override
     public boolean installResourceGroup(String rgPackage, boolean dontDownload) throws InvalidXMLException,
             InvalidPluginException {
-        checkCached();
         Assert.nonNull(rgPackage, ModelMisuseError.class, Assert.ILLEGAL_NULL, "rgPackage", rgPackage);
-        Assert.isNull(getResourceGroup(rgPackage), ModelMisuseError.class, Assert.ILLEGAL_ALREADY_INSTALLED,
-                "rgPackage", rgPackage);
-        if (this.unallowedInstall.contains(rgPackage)) {
-            throw new ModelMisuseError(Assert.format(Assert.ILLEGAL_SIGBUS_INSTALL, "rgPackage", rgPackage));
+        
+        // the download and checks run without the model lock, so the other writers do not wait for the server
+        synchronized (this) {
+            checkCached();
+            Assert.isNull(getResourceGroup(rgPackage), ModelMisuseError.class, Assert.ILLEGAL_ALREADY_INSTALLED,
+                    "rgPackage", rgPackage);
+            if (this.unallowedInstall.contains(rgPackage)) {
+                throw new ModelMisuseError(Assert.format(Assert.ILLEGAL_SIGBUS_INSTALL, "rgPackage", rgPackage));
+            }
+            if (!this.installing.add(rgPackage)) {
+                throw new ModelMisuseError(Assert.format(Assert.ILLEGAL_ALREADY_INSTALLED, "rgPackage", rgPackage));
+            }
         }
         
         try {
             
             if (!dontDownload) {
                 // download the plugin
-                File temp = ServerProvider.getInstance().downloadResourceGroup(rgPackage);
-                Assert.nonNull(temp, PluginNotFoundException.class, Assert.ILLEGAL_PACKAGE, "rgPackage", rgPackage);
+                InputStream apk = ServerProvider.getInstance().downloadResourceGroup(rgPackage);
+                Assert.nonNull(apk, PluginNotFoundException.class, Assert.ILLEGAL_PACKAGE, "rgPackage", rgPackage);
                 
-                // add it
-                FileInputStream fis;
+                // add it, writing it only once
                 try {
-                    fis = new FileInputStream(temp);
+                    PluginProvider.getInstance().injectFile(rgPackage, apk);
+                } catch (IOException ioe) {
+                    FileLog.get().logWithForward(this, ioe, FileLog.GRANULARITY_COMPONENT_CHANGES, Level.WARNING,
+                            "ResourceGroup '%s' has failed registration with PMP: Downloaded apk is corrupt.",
+                            rgPackage);
+                    throw new InvalidPluginException("Downloaded apk is corrupt.", ioe);
+                } finally {
                     try {
-                        PluginProvider.getInstance().injectFile(rgPackage, fis);
-                    } finally {
-                        try {
-                            fis.close();
-                        } catch (IOException ioe) {
-                            Log.e(this, "IO exception during install RG", ioe);
-                        }
+                        apk.close();
+                    } catch (IOException ioe) {
+                        Log.e(this, "IO exception during install RG", ioe);
                     }
-                } catch (FileNotFoundException fnfe) {
-                    throw new ModelIntegrityError(Assert.format(Assert.ILLEGAL_MISSING_FILE, rgPackage, rgPackage));
-                }
-                
-                // remove temporary file
-                if (!temp.delete()) {
-                    Log.e(this, "Could not delete temporary file: " + temp.getAbsolutePath());
                 }
             }
             
@@ -598,62 +634,8 @@ public class Model implements IModel, Observer {
                 
             }
             
-            // apply new RG to DB, then model
-            ResourceGroup newRG = new ResourceGroupPersistenceProvider(null).createElementData(rgPackage);
-            Assert.nonNull(newRG, ModelIntegrityError.class, Assert.ILLEGAL_NULL, "newRG", newRG);
-            this.cache.getResourceGroups().put(rgPackage, newRG);
-            this.cache.getPrivacySettings().put(newRG, new HashMap<String, PrivacySetting>());
-            
-            // create the mock/cloak PS
-            PrivacySetting modePS = new PrivacySettingPersistenceProvider(null).createElementData(newRG,
-                    PersistenceConstants.MODE_PRIVACY_SETTING, false);
-            this.cache.getPrivacySettings().get(newRG).put(PersistenceConstants.MODE_PRIVACY_SETTING, modePS);
-            
-            // apply new PS to DB, then model
-            for (IRGISPrivacySetting ps : rgis.getPrivacySettings()) {
-                PrivacySetting newPS = new PrivacySettingPersistenceProvider(null).createElementData(newRG,
-                        ps.getIdentifier(), ps.isRequestable());
-                Assert.nonNull(newPS, ModelIntegrityError.class, Assert.ILLEGAL_NULL, "newPS", newPS);
-                this.cache.getPrivacySettings().get(newRG).put(ps.getIdentifier(), newPS);
-            }
-            
-            IPCProvider.getInstance().startUpdate();
-            try {
-                // remember that illegal service features have to be enabled once their missing PS get installed
-                for (App app : this.cache.getApps().values()) {
-                    boolean appChanged = false;
-                    
-                    for (ServiceFeature sf : this.cache.getServiceFeatures().get(app).values()) {
-                        if (!sf.isAvailable()) {
-                            sf.forceRecache();
-                            
-                            // if the service feature was only missing this RG, rollout the changes
-                            if (sf.isAvailable()) {
-                                appChanged = true;
-                            }
-                        }
-                    }
-                    
-                    if (appChanged) {
-                        app.verifyServiceFeatures();
-                    }
-                }
-                
-                // remember that illegal presets have to be enabled once their missing PS get installed
-                for (Preset p : this.cache.getAllPresets()) {
-                    if (!p.isAvailable()) {
-                        p.forceRecache();
-                        
-                        // if the preset was only missing this RG, rollout the changes
-                        if (p.isAvailable()) {
-                            p.rollout();
-                        }
-                    }
-                }
-                
-            } finally {
-                IPCProvider.getInstance().endUpdate();
-            }
+            // only now the model is changed
+            registerResourceGroup(rgPackage, rgis);
             
             FileLog.get().logWithForward(this, null, FileLog.GRANULARITY_COMPONENT_CHANGES, Level.CONFIG,
                     "ResourceGroup '%s' has been successfully installed.", rgPackage);
@@ -679,12 +661,87 @@ public class Model implements IModel, Observer {
             FileLog.get().logWithForward(this, xmlpe, FileLog.GRANULARITY_COMPONENT_CHANGES, Level.WARNING,
                     "ResourceGroup '%s' has failed registration with PMP: Could not verify XML file.", rgPackage);
             throw new InvalidXMLException("Could not verify XML file.", xmlpe);
+        } finally {
+            synchronized (this) {
+                this.installing.remove(rgPackage);
+            }
+        }
+    }
+    
+    
+    /**
+     * Adds an installed and checked resource group to the persistence and the model.
+     * 
+     * @param rgPackage
+     * @param rgis
+     */
+    private synchronized void registerResourceGroup(String rgPackage, IRGIS rgis) {
+        checkCached();
+        
+        // apply new RG to DB, then model
+        ResourceGroup newRG = new ResourceGroupPersistenceProvider(null).createElementData(rgPackage);
+        Assert.nonNull(newRG, ModelIntegrityError.class, Assert.ILLEGAL_NULL, "newRG", newRG);
+        this.cache.getResourceGroups().put(rgPackage, newRG);
+        this.cache.getPrivacySettings().put(newRG, new HashMap<String, PrivacySetting>());
+        
+        // create the mock/cloak PS
+        PrivacySetting modePS = new PrivacySettingPersistenceProvider(null).createElementData(newRG,
+                PersistenceConstants.MODE_PRIVACY_SETTING, false);
+        this.cache.getPrivacySettings().get(newRG).put(PersistenceConstants.MODE_PRIVACY_SETTING, modePS);
+        
+        // apply new PS to DB, then model
+        for (IRGISPrivacySetting ps : rgis.getPrivacySettings()) {
+            PrivacySetting newPS = new PrivacySettingPersistenceProvider(null).createElementData(newRG,
+                    ps.getIdentifier(), ps.isRequestable());
+            Assert.nonNull(newPS, ModelIntegrityError.class, Assert.ILLEGAL_NULL, "newPS", newPS);
+            this.cache.getPrivacySettings().get(newRG).put(ps.getIdentifier(), newPS);
+        }
+        this.cache.publish();
+        
+        // the set of privacy settings changed, so all the values may be obsolete
+        EffectiveValueTable.getInstance().invalidateAll();
+        
+        IPCProvider.getInstance().startUpdate();
+        PersistenceProvider.getInstance().startBatch();
+        try {
+            // remember that illegal service features have to be enabled once their missing PS get installed
+            Set<IApp> changedApps = new HashSet<IApp>();
+            for (ServiceFeature sf : this.cache.getDependencies().getServiceFeatures(rgPackage)) {
+                if (!sf.isAvailable()) {
+                    sf.forceRecache();
+                    
+                    // if the service feature was only missing this RG, rollout the changes
+                    if (sf.isAvailable()) {
+                        changedApps.add(sf.getApp());
+                    }
+                }
+            }
+            
+            for (IApp app : changedApps) {
+                app.verifyServiceFeatures();
+            }
+            
+            // remember that illegal presets have to be enabled once their missing PS get installed
+            for (Preset p : this.cache.getDependencies().getResourceGroupPresets(rgPackage)) {
+                if (!p.isAvailable()) {
+                    p.forceRecache();
+                    
+                    // if the preset was only missing this RG, rollout the changes
+                    if (p.isAvailable()) {
+                        p.rollout();
+                    }
+                }
+            }
+            
+        } finally {
+            PersistenceProvider.getInstance().endBatch();
+            IPCProvider.getInstance().endUpdate();
         }
     }
     
     
     @Override
-    public boolean uninstallResourceGroup(String rgPackage) {
+    public synchronized boolean uninstallResourceGroup(String rgPackage) {
         checkCached();
         Assert.nonNull(rgPackage, ModelMisuseError.class, Assert.ILLEGAL_NULL, "rgPackage", rgPackage);
         
@@ -698,31 +755,31 @@ public class Model implements IModel, Observer {
             PluginProvider.getInstance().uninstall(rgPackage);
             this.unallowedInstall.add(rgPackage);
             this.cache.getResourceGroups().remove(rgPackage);
+            this.cache.publish();
+            EffectiveValueTable.getInstance().invalidateAll();
             
             IPCProvider.getInstance().startUpdate();
+            PersistenceProvider.getInstance().startBatch();
             try {
                 // remember that service features have to be disabled once their required PS get uninstalled
-                for (App app : this.cache.getApps().values()) {
-                    boolean appChanged = false;
-                    
-                    for (ServiceFeature sf : this.cache.getServiceFeatures().get(app).values()) {
-                        if (sf.isAvailable()) {
-                            sf.forceRecache();
-                            
-                            // if the service feature will be missing this RG, rollout the changes
-                            if (!sf.isAvailable()) {
-                                appChanged = true;
-                            }
+                Set<IApp> changedApps = new HashSet<IApp>();
+                for (ServiceFeature sf : this.cache.getDependencies().getServiceFeatures(rgPackage)) {
+                    if (sf.isAvailable()) {
+                        sf.forceRecache();
+                        
+                        // if the service feature will be missing this RG, rollout the changes
+                        if (!sf.isAvailable()) {
+                            changedApps.add(sf.getApp());
                         }
                     }
-                    
-                    if (appChanged) {
-                        app.verifyServiceFeatures();
-                    }
+                }
+                
+                for (IApp app : changedApps) {
+                    app.verifyServiceFeatures();
                 }
                 
                 // remember that presets have to be disabled once their required PS get uninstalled
-                for (Preset preset : this.cache.getAllPresets()) {
+                for (Preset preset : this.cache.getDependencies().getResourceGroupPresets(rgPackage)) {
                     if (preset.isAvailable() && !preset.isDeleted()) {
                         preset.forceRecache();
                         
@@ -733,6 +790,7 @@ public class Model implements IModel, Observer {
                     }
                 }
             } finally {
+                PersistenceProvider.getInstance().endBatch();
                 IPCProvider.getInstance().endUpdate();
             }
             
@@ -743,44 +801,46 @@ public class Model implements IModel, Observer {
     }
     
     
+    @Override
+    public void warmUpResourceGroups() {
+        List<String> rgPackages = new ArrayList<String>();
+        List<IResourceGroup> rgs = snapshot().getResourceGroups();
+        synchronized (this) {
+            for (IResourceGroup rg : rgs) {
+                if (!this.unallowedInstall.contains(rg.getIdentifier())) {
+                    rgPackages.add(rg.getIdentifier());
+                }
+            }
+        }
+        PluginProvider.getInstance().warmUp(rgPackages);
+    }
+    
+    
     @Override
     public List<IPreset> getPresets() {
-        checkCached();
-        return new ArrayList<IPreset>(this.cache.getAllPresets());
+        return snapshot().getPresets();
     }
     
     
     @Override
     public List<IPreset> getPresets(ModelElement creator) {
-        checkCached();
         Assert.isValidCreator(creator, ModelMisuseError.class, Assert.ILLEGAL_CREATOR, "creator", creator);
         
-        Map<String, Preset> creatorPresets = this.cache.getPresets().get(creator);
-        if (creatorPresets == null) {
-            return new ArrayList<IPreset>();
-        } else {
-            return new ArrayList<IPreset>(creatorPresets.values());
-        }
+        return snapshot().getPresets(creator);
     }
     
     
     @Override
     public IPreset getPreset(IModelElement creator, String presetIdentifier) {
-        checkCached();
         Assert.isValidCreator(creator, ModelMisuseError.class, Assert.ILLEGAL_CREATOR, "creator", creator);
         Assert.nonNull(presetIdentifier, ModelMisuseError.class, Assert.ILLEGAL_NULL, "identifier", presetIdentifier);
         
-        Map<String, Preset> creatorPresets = this.cache.getPresets().get(creator);
-        if (creatorPresets == null) {
-            return null;
-        } else {
-            return creatorPresets.get(presetIdentifier);
-        }
+        return snapshot().getPreset(creator, presetIdentifier);
     }
     
     
     @Override
-    public IPreset addPreset(IModelElement creator, String presetIdentifier, String name, String description) {
+    public synchronized IPreset addPreset(IModelElement creator, String presetIdentifier, String name, String description) {
         checkCached();
         Assert.isValidCreator(creator, ModelMisuseError.class, Assert.ILLEGAL_CREATOR, "creator", creator);
         Assert.nonNull(presetIdentifier, ModelMisuseError.class, Assert.ILLEGAL_NULL, "identifier", presetIdentifier);
@@ -799,12 +859,14 @@ public class Model implements IModel, Observer {
             this.cache.getPresets().put(creator, creatorMap);
         }
         creatorMap.put(presetIdentifier, newPreset);
+        this.cache.publish();
+        ConflictModel.getInstance().invalidate();
         return newPreset;
     }
     
     
     @Override
-    public IPreset addUserPreset(String name, String description) {
+    public synchronized IPreset addUserPreset(String name, String description) {
         checkCached();
         Assert.nonNull(name, ModelMisuseError.class, Assert.ILLEGAL_NULL, "name", name);
         Assert.nonNull(description, ModelMisuseError.class, Assert.ILLEGAL_NULL, "description", description);
@@ -828,7 +890,7 @@ public class Model implements IModel, Observer {
     
     
     @Override
-    public boolean removePreset(IModelElement creator, String presetIdentifier) {
+    public synchronized boolean removePreset(IModelElement creator, String presetIdentifier) {
         checkCached();
         Assert.nonNull(presetIdentifier, ModelMisuseError.class, Assert.ILLEGAL_NULL, "identifier", presetIdentifier);
         Assert.isValidCreator(creator, ModelMisuseError.class, Assert.ILLEGAL_CREATOR, "creator", creator);
@@ -848,19 +910,24 @@ public class Model implements IModel, Observer {
                 
                 // update model
                 creatorMap.remove(presetIdentifier);
+                this.cache.getDependencies().removePreset(p);
                 
                 // remove old CAs
                 this.cache.getContextAnnotations().remove(p);
                 
+                List<IApp> assignedApps = p.getAssignedApps();
+                this.cache.getAssignments().removePreset(p);
+                this.cache.publish();
+                ConflictModel.getInstance().invalidate();
+                
                 IPCProvider.getInstance().startUpdate();
+                PersistenceProvider.getInstance().startBatch();
                 try {
-                    for (IApp app : p.getAssignedApps()) {
-                        // this time, there's no way but to cast (or run manually through all apps)
-                        Assert.instanceOf(app, App.class, ModelIntegrityError.class, Assert.ILLEGAL_CLASS, "app", app);
-                        App castApp = (App) app;
-                        castApp.removePreset(p);
+                    for (IApp app : assignedApps) {
+                        app.verifyServiceFeatures();
                     }
                 } finally {
+                    PersistenceProvider.getInstance().endBatch();
                     IPCProvider.getInstance().endUpdate();
                 }
                 
@@ -871,7 +938,7 @@ public class Model implements IModel, Observer {
     
     
     @Override
-    public void clearAll() {
+    public synchronized void clearAll() {
         PersistenceProvider.getInstance().getDoh().cleanTables();
         PersistenceProvider.getInstance().releaseCache();
     }
@@ -879,8 +946,7 @@ public class Model implements IModel, Observer {
     
     @Override
     public List<IContext> getContexts() {
-        checkCached();
-        return new ArrayList<IContext>(this.cache.getContexts());
+        return snapshot().getContexts();
     }
     
     
@@ -55,6 +55,18 @@ public class ModelCache {
     private List<IContext> contexts;
     private Map<Preset, Map<IPrivacySetting, List<ContextAnnotation>>> contextAnnotations;
     
+    /**
+     * the reverse dependencies and assignments between the data stored in the cache
+     */
+    private DependencyIndex dependencies;
+    private AssignmentIndex assignments;
+    
+    /**
+     * the last published immutable view on the data, replaced as a whole on every {@link #publish()}
+     */
+    private volatile ModelSnapshot snapshot;
+    private long version;
+    
     
     public ModelCache() {
         this.apps = new HashMap<String, App>();
@@ -64,6 +76,10 @@ public class ModelCache {
         this.serviceFeatures = new HashMap<App, Map<String, ServiceFeature>>();
         this.contexts = new ArrayList<IContext>();
         this.contextAnnotations = new HashMap<Preset, Map<IPrivacySetting, List<ContextAnnotation>>>();
+        this.dependencies = new DependencyIndex();
+        this.assignments = new AssignmentIndex();
+        this.version = 0L;
+        this.snapshot = new ModelSnapshot(this.version, this);
     }
     
     
@@ -121,4 +137,32 @@ public class ModelCache {
         }
         return result;
     }
+    
+    
+    public DependencyIndex getDependencies() {
+        return this.dependencies;
+    }
+    
+    
+    public AssignmentIndex getAssignments() {
+        return this.assignments;
+    }
+    
+    
+    /**
+     * @return the last published {@link ModelSnapshot}, never null
+     */
+    public ModelSnapshot getSnapshot() {
+        return this.snapshot;
+    }
+    
+    
+    /**
+     * Publishes a new {@link ModelSnapshot} reflecting the current data. Must be called by the writer after each change
+     * to the apps, resource groups or presets, while no other writer is changing them.
+     */
+    public synchronized void publish() {
+        this.version++;
+        this.snapshot = new ModelSnapshot(this.version, this);
+    }
 }
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2012 pmp-android development team
+ * Project: PMP
+ * Project-Site: https://github.com/stachch/Privacy_Management_Platform
+ *
+ * ---------------------------------------------------------------------
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unistuttgart.ipvs.pmp.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import de.unistuttgart.ipvs.pmp.model.context.IContext;
+import de.unistuttgart.ipvs.pmp.model.element.IModelElement;
+import de.unistuttgart.ipvs.pmp.model.element.app.App;
+import de.unistuttgart.ipvs.pmp.model.element.app.IApp;
+import de.unistuttgart.ipvs.pmp.model.element.preset.IPreset;
+import de.unistuttgart.ipvs.pmp.model.element.preset.Preset;
+import de.unistuttgart.ipvs.pmp.model.element.resourcegroup.IResourceGroup;
+import de.unistuttgart.ipvs.pmp.model.element.resourcegroup.ResourceGroup;
+
+/**
+ * Immutable view of the top level elements of a {@link ModelCache} at one point in time. Readers obtain the current
+ * snapshot without any locking and may iterate or hand out its lists freely, since a change to the model never alters
+ * a published snapshot but publishes a new one instead.
+ */
+public class ModelSnapshot {
+    
+    /**
+     * the number of the publication that created this snapshot
+     */
+    private final long version;
+    
+    /**
+     * the elements at the time of the publication
+     */
+    private final Map<String, App> apps;
+    private final List<IApp> appList;
+    private final Map<String, ResourceGroup> resourceGroups;
+    private final List<IResourceGroup> resourceGroupList;
+    private final Map<IModelElement, Map<String, Preset>> presets;
+    private final Map<IModelElement, List<IPreset>> presetLists;
+    private final List<IPreset> presetList;
+    private final List<IContext> contexts;
+    
+    
+    /**
+     * Copies the top level elements of the cache. Must not run concurrently to a modification of the cache.
+     * 
+     * @param version
+     *            the publication number of this snapshot
+     * @param cache
+     *            the cache to copy
+     */
+    protected ModelSnapshot(long version, ModelCache cache) {
+        this.version = version;
+        
+        this.apps = Collections.unmodifiableMap(new HashMap<String, App>(cache.getApps()));
+        this.appList = Collections.unmodifiableList(new ArrayList<IApp>(cache.getApps().values()));
+        
+        this.resourceGroups = Collections.unmodifiableMap(new HashMap<String, ResourceGroup>(cache
+                .getResourceGroups()));
+        this.resourceGroupList = Collections.unmodifiableList(new ArrayList<IResourceGroup>(cache.getResourceGroups()
+                .values()));
+        
+        Map<IModelElement, Map<String, Preset>> presets = new HashMap<IModelElement, Map<String, Preset>>();
+        Map<IModelElement, List<IPreset>> presetLists = new HashMap<IModelElement, List<IPreset>>();
+        List<IPreset> presetList = new ArrayList<IPreset>();
+        for (Entry<IModelElement, Map<String, Preset>> e : cache.getPresets().entrySet()) {
+            presets.put(e.getKey(), Collections.unmodifiableMap(new HashMap<String, Preset>(e.getValue())));
+            presetLists.put(e.getKey(), Collections.unmodifiableList(new ArrayList<IPreset>(e.getValue().values())));
+            presetList.addAll(e.getValue().values());
+        }
+        this.presets = presets;
+        this.presetLists = presetLists;
+        this.presetList = Collections.unmodifiableList(presetList);
+        
+        this.contexts = Collections.unmodifiableList(new ArrayList<IContext>(cache.getContexts()));
+    }
+    
+    
+    public long getVersion() {
+        return this.version;
+    }
+    
+    
+    public App getApp(String appPackage) {
+        return this.apps.get(appPackage);
+    }
+    
+    
+    public List<IApp> getApps() {
+        return this.appList;
+    }
+    
+    
+    public ResourceGroup getResourceGroup(String rgPackage) {
+        return this.resourceGroups.get(rgPackage);
+    }
+    
+    
+    public List<IResourceGroup> getResourceGroups() {
+        return this.resourceGroupList;
+    }
+    
+    
+    public Preset getPreset(IModelElement creator, String presetIdentifier) {
+        Map<String, Preset> creatorPresets = this.presets.get(creator);
+        if (creatorPresets == null) {
+            return null;
+        } else {
+            return creatorPresets.get(presetIdentifier);
+        }
+    }
+    
+    
+    public List<IPreset> getPresets(IModelElement creator) {
+        List<IPreset> creatorPresets = this.presetLists.get(creator);
+        if (creatorPresets == null) {
+            return Collections.emptyList();
+        } else {
+            return creatorPresets;
+        }
+    }
+    
+    
+    public List<IPreset> getPresets() {
+        return this.presetList;
+    }
+    
+    
+    public List<IContext> getContexts() {
+        return this.contexts;
+    }
+}
@@ -73,6 +73,16 @@ public interface PersistenceConstants {
      */
     static final String TBL_CONTEXT_ANNOTATIONS = "Context_AnnotatedPrivacySettingValue";
     
+    /**
+     * table mirroring the resource group catalog of the server
+     */
+    static final String TBL_RESOURCEGROUP_CATALOG = "ResourceGroupCatalog";
+    
+    /**
+     * table storing the hash and update time of the mirrored catalog per language
+     */
+    static final String TBL_RESOURCEGROUP_CATALOG_STATE = "ResourceGroupCatalogState";
+    
     /*
      * identifying columns
      */
@@ -105,6 +115,10 @@ public interface PersistenceConstants {
     static final String CONTEXT_CONDITION = "ContextCondition";
     static final String OVERRIDE_GRANTED_VALUE = "OverrideGrantedValue";
     static final String REQUESTABLE = "Requestable";
+    static final String LANGUAGE = "Language";
+    static final String REVISION = "Revision";
+    static final String HASH = "Hash";
+    static final String UPDATED = "Updated";
     
     /*
      * meta data constants
@@ -37,6 +37,7 @@ import de.unistuttgart.ipvs.pmp.model.context.location.LocationContext;
 import de.unistuttgart.ipvs.pmp.model.context.time.TimeContext;
 import de.unistuttgart.ipvs.pmp.model.element.IModelElement;
 import de.unistuttgart.ipvs.pmp.model.element.app.App;
+import de.unistuttgart.ipvs.pmp.model.element.app.IApp;
 import de.unistuttgart.ipvs.pmp.model.element.app.AppPersistenceProvider;
 import de.unistuttgart.ipvs.pmp.model.element.contextannotation.ContextAnnotation;
 import de.unistuttgart.ipvs.pmp.model.element.contextannotation.ContextAnnotationPersistenceProvider;
@@ -105,6 +106,9 @@ public class PersistenceProvider extends Observable implements PersistenceConsta
      * {@link PMPApplication#getContext()}.
      */
     public void reloadDatabaseConnection() {
+        if (this.doh != null) {
+            this.doh.close();
+        }
         this.doh = new DatabaseOpenHelper(PMPApplication.getContext());
         regenerateCache();
     }
@@ -117,11 +121,33 @@ public class PersistenceProvider extends Observable implements PersistenceConsta
      */
     public void releaseCache() {
         this.cache = null;
+        EffectiveValueTable.getInstance().invalidateAll();
         setChanged();
         notifyObservers(this.cache);
     }
     
     
+    /**
+     * Starts a write batch for the current thread, see {@link DatabaseOpenHelper#startBatch()}. Be sure to always call
+     * {@link #endBatch()} afterwards.
+     */
+    public void startBatch() {
+        if (this.doh != null) {
+            this.doh.startBatch();
+        }
+    }
+    
+    
+    /**
+     * Ends a write batch started by {@link #startBatch()}.
+     */
+    public void endBatch() {
+        if (this.doh != null) {
+            this.doh.endBatch();
+        }
+    }
+    
+    
     /**
      * 
      * @return the {@link DatabaseOpenHelper} for this persistence layer.
@@ -155,32 +181,52 @@ public class PersistenceProvider extends Observable implements PersistenceConsta
         for (ResourceGroup rg : this.cache.getResourceGroups().values()) {
             rg.checkCached();
         }
+        
+        // load the remaining elements type by type, so every table is read only once
+        List<PrivacySetting> pss = new ArrayList<PrivacySetting>();
         for (Map<String, PrivacySetting> psMap : this.cache.getPrivacySettings().values()) {
-            for (PrivacySetting pl : psMap.values()) {
-                pl.checkCached();
-            }
+            pss.addAll(psMap.values());
         }
-        for (App a : this.cache.getApps().values()) {
-            a.checkCached();
+        List<Preset> presets = new ArrayList<Preset>();
+        for (Map<String, Preset> pMap : this.cache.getPresets().values()) {
+            presets.addAll(pMap.values());
         }
+        List<ServiceFeature> sfs = new ArrayList<ServiceFeature>();
         for (Map<String, ServiceFeature> sfMap : this.cache.getServiceFeatures().values()) {
-            for (ServiceFeature sl : sfMap.values()) {
-                sl.checkCached();
-            }
-        }
-        for (Map<String, Preset> pMap : this.cache.getPresets().values()) {
-            for (Preset p : pMap.values()) {
-                p.checkCached();
-            }
+            sfs.addAll(sfMap.values());
         }
+        List<ContextAnnotation> cas = new ArrayList<ContextAnnotation>();
         for (Map<IPrivacySetting, List<ContextAnnotation>> psMap : this.cache.getContextAnnotations().values()) {
             for (List<ContextAnnotation> caList : psMap.values()) {
-                for (ContextAnnotation ca : caList) {
-                    ca.checkCached();
-                }
+                cas.addAll(caList);
             }
         }
         
+        SQLiteDatabase db = this.doh.open();
+        PrivacySettingPersistenceProvider.loadElementData(db, this.doh.builder(), pss);
+        PresetPersistenceProvider.loadElementData(db, this.doh.builder(), presets);
+        ServiceFeaturePersistenceProvider.loadElementData(db, this.doh.builder(), sfs);
+        ContextAnnotationPersistenceProvider.loadElementData(db, this.doh.builder(), cas);
+        
+        // the leftovers (i.e. inconsistent ones) will fail just as they did before
+        for (PrivacySetting ps : pss) {
+            ps.checkCached();
+        }
+        for (Preset p : presets) {
+            p.checkCached();
+        }
+        for (ServiceFeature sf : sfs) {
+            sf.checkCached();
+        }
+        for (ContextAnnotation ca : cas) {
+            ca.checkCached();
+        }
+        
+        // apps last, they evaluate their presets and service features
+        for (App a : this.cache.getApps().values()) {
+            a.checkCached();
+        }
+        
     }
     
     
@@ -190,19 +236,16 @@ public class PersistenceProvider extends Observable implements PersistenceConsta
      */
     private void regenerateCache() {
         this.cache = new ModelCache();
+        EffectiveValueTable.getInstance().invalidateAll();
         
-        SQLiteDatabase db = this.doh.getReadableDatabase();
-        try {
-            
-            cacheAppsSFs(db);
-            cacheRGsPSs(db);
-            cachePresets(db);
-            cacheCAs(db);
-            cacheContexts(db);
-            
-        } finally {
-            db.close();
-        }
+        SQLiteDatabase db = this.doh.open();
+        cacheAppsSFs(db);
+        cacheRGsPSs(db);
+        cachePresets(db);
+        cacheDependencies(db);
+        cacheCAs(db);
+        cacheContexts(db);
+        this.cache.publish();
         
         setChanged();
         notifyObservers(this.cache);
@@ -226,31 +269,31 @@ public class PersistenceProvider extends Observable implements PersistenceConsta
                 App app = new App(appPackage);
                 app.setPersistenceProvider(new AppPersistenceProvider(app));
                 
-                Map<String, ServiceFeature> thisAppsSFs = new HashMap<String, ServiceFeature>();
-                
-                // find the local SFs (don't think join is a wise idea)
-                builder.setTables(TBL_SERVICEFEATURE);
-                
-                Cursor sfCursor = builder.query(db, new String[] { IDENTIFIER }, APP_PACKAGE + " = ?",
-                        new String[] { appPackage }, null, null, null);
-                
-                if (sfCursor.moveToFirst()) {
-                    do {
-                        String sfIdentifier = sfCursor.getString(sfCursor.getColumnIndex(IDENTIFIER));
-                        ServiceFeature sf = new ServiceFeature(app, sfIdentifier);
-                        sf.setPersistenceProvider(new ServiceFeaturePersistenceProvider(sf));
-                        
-                        thisAppsSFs.put(sfIdentifier, sf);
-                    } while (sfCursor.moveToNext());
-                }
-                sfCursor.close();
-                
-                // finalize App
-                this.cache.getServiceFeatures().put(app, thisAppsSFs);
+                this.cache.getServiceFeatures().put(app, new HashMap<String, ServiceFeature>());
                 this.cache.getApps().put(appPackage, app);
             } while (appCursor.moveToNext());
         }
         appCursor.close();
+        
+        // find all the SFs at once and distribute them to their apps
+        builder.setTables(TBL_SERVICEFEATURE);
+        Cursor sfCursor = builder.query(db, new String[] { APP_PACKAGE, IDENTIFIER }, null, null, null, null, null);
+        
+        if (sfCursor.moveToFirst()) {
+            do {
+                App app = this.cache.getApps().get(sfCursor.getString(sfCursor.getColumnIndex(APP_PACKAGE)));
+                if (app == null) {
+                    continue;
+                }
+                
+                String sfIdentifier = sfCursor.getString(sfCursor.getColumnIndex(IDENTIFIER));
+                ServiceFeature sf = new ServiceFeature(app, sfIdentifier);
+                sf.setPersistenceProvider(new ServiceFeaturePersistenceProvider(sf));
+                
+                this.cache.getServiceFeatures().get(app).put(sfIdentifier, sf);
+            } while (sfCursor.moveToNext());
+        }
+        sfCursor.close();
     }
     
     
@@ -271,30 +314,33 @@ public class PersistenceProvider extends Observable implements PersistenceConsta
                 ResourceGroup rg = new ResourceGroup(rgPackage);
                 rg.setPersistenceProvider(new ResourceGroupPersistenceProvider(rg));
                 
-                Map<String, PrivacySetting> thisRGsPSs = new HashMap<String, PrivacySetting>();
-                
-                // find the local PSs (don't think join is a wise idea)
-                builder.setTables(TBL_PRIVACYSETTING);
-                Cursor psCursor = builder.query(db, new String[] { IDENTIFIER }, RESOURCEGROUP_PACKAGE + " = ?",
-                        new String[] { rgPackage }, null, null, null);
-                
-                if (psCursor.moveToFirst()) {
-                    do {
-                        String psIdentifier = psCursor.getString(psCursor.getColumnIndex(IDENTIFIER));
-                        PrivacySetting ps = new PrivacySetting(rg, psIdentifier);
-                        ps.setPersistenceProvider(new PrivacySettingPersistenceProvider(ps));
-                        
-                        thisRGsPSs.put(psIdentifier, ps);
-                    } while (psCursor.moveToNext());
-                }
-                psCursor.close();
-                
-                // finalize RG
-                this.cache.getPrivacySettings().put(rg, thisRGsPSs);
+                this.cache.getPrivacySettings().put(rg, new HashMap<String, PrivacySetting>());
                 this.cache.getResourceGroups().put(rgPackage, rg);
             } while (rgCursor.moveToNext());
         }
         rgCursor.close();
+        
+        // find all the PSs at once and distribute them to their RGs
+        builder.setTables(TBL_PRIVACYSETTING);
+        Cursor psCursor = builder.query(db, new String[] { RESOURCEGROUP_PACKAGE, IDENTIFIER }, null, null, null, null,
+                null);
+        
+        if (psCursor.moveToFirst()) {
+            do {
+                ResourceGroup rg = this.cache.getResourceGroups().get(
+                        psCursor.getString(psCursor.getColumnIndex(RESOURCEGROUP_PACKAGE)));
+                if (rg == null) {
+                    continue;
+                }
+                
+                String psIdentifier = psCursor.getString(psCursor.getColumnIndex(IDENTIFIER));
+                PrivacySetting ps = new PrivacySetting(rg, psIdentifier);
+                ps.setPersistenceProvider(new PrivacySettingPersistenceProvider(ps));
+                
+                this.cache.getPrivacySettings().get(rg).put(psIdentifier, ps);
+            } while (psCursor.moveToNext());
+        }
+        psCursor.close();
     }
     
     
@@ -338,6 +384,112 @@ public class PersistenceProvider extends Observable implements PersistenceConsta
     }
     
     
+    /**
+     * Fills the {@link DependencyIndex} and the {@link AssignmentIndex} of the cache from the reference tables, so
+     * changes of one package can be rolled out to the affected {@link ServiceFeature}s and {@link Preset}s only.
+     * 
+     * @param db
+     */
+    private void cacheDependencies(SQLiteDatabase db) {
+        SQLiteQueryBuilder builder = this.doh.builder();
+        // published once at the end, copying the indexes per row would make loading quadratic
+        DependencyIndex.Builder index = new DependencyIndex.Builder();
+        Map<Preset, List<IApp>> assignments = new HashMap<Preset, List<IApp>>();
+        
+        // RG -> service features
+        builder.setTables(TBL_SFReqPSValue);
+        Cursor sfCursor = builder.query(db, new String[] { SERVICEFEATURE_APP_PACKAGE, SERVICEFEATURE_IDENTIFIER,
+                PRIVACYSETTING_RESOURCEGROUP_PACKAGE }, null, null, null, null, null);
+        
+        if (sfCursor.moveToFirst()) {
+            do {
+                String appPackage = sfCursor.getString(sfCursor.getColumnIndex(SERVICEFEATURE_APP_PACKAGE));
+                String sfIdentifier = sfCursor.getString(sfCursor.getColumnIndex(SERVICEFEATURE_IDENTIFIER));
+                String rgPackage = sfCursor.getString(sfCursor.getColumnIndex(PRIVACYSETTING_RESOURCEGROUP_PACKAGE));
+                
+                App app = this.cache.getApps().get(appPackage);
+                if (app != null) {
+                    ServiceFeature sf = this.cache.getServiceFeatures().get(app).get(sfIdentifier);
+                    if (sf != null) {
+                        index.addServiceFeature(rgPackage, sf);
+                    }
+                }
+            } while (sfCursor.moveToNext());
+        }
+        sfCursor.close();
+        
+        // RG -> presets
+        builder.setTables(TBL_GrantPSValue);
+        Cursor psCursor = builder.query(db, new String[] { PRESET_CREATOR, PRESET_IDENTIFIER,
+                PRIVACYSETTING_RESOURCEGROUP_PACKAGE }, null, null, null, null, null);
+        
+        if (psCursor.moveToFirst()) {
+            do {
+                Preset preset = findCachedPreset(psCursor.getString(psCursor.getColumnIndex(PRESET_CREATOR)),
+                        psCursor.getString(psCursor.getColumnIndex(PRESET_IDENTIFIER)));
+                if (preset != null) {
+                    index.addPresetResourceGroup(
+                            psCursor.getString(psCursor.getColumnIndex(PRIVACYSETTING_RESOURCEGROUP_PACKAGE)), preset);
+                }
+            } while (psCursor.moveToNext());
+        }
+        psCursor.close();
+        
+        // app -> presets, also the exact assignments for the apps without loading every preset
+        builder.setTables(TBL_PresetAssignedApp);
+        Cursor appCursor = builder.query(db, new String[] { PRESET_CREATOR, PRESET_IDENTIFIER, APP_PACKAGE }, null,
+                null, null, null, null);
+        
+        if (appCursor.moveToFirst()) {
+            do {
+                Preset preset = findCachedPreset(appCursor.getString(appCursor.getColumnIndex(PRESET_CREATOR)),
+                        appCursor.getString(appCursor.getColumnIndex(PRESET_IDENTIFIER)));
+                if (preset != null) {
+                    String appPackage = appCursor.getString(appCursor.getColumnIndex(APP_PACKAGE));
+                    index.addPresetApp(appPackage, preset);
+                    
+                    App app = this.cache.getApps().get(appPackage);
+                    if (app != null) {
+                        List<IApp> apps = assignments.get(preset);
+                        if (apps == null) {
+                            apps = new ArrayList<IApp>();
+                            assignments.put(preset, apps);
+                        }
+                        apps.add(app);
+                    }
+                }
+            } while (appCursor.moveToNext());
+        }
+        appCursor.close();
+        
+        this.cache.getDependencies().addAll(index);
+        this.cache.getAssignments().setAll(assignments);
+    }
+    
+    
+    /**
+     * Translates the DB strings of a preset into the cached {@link Preset}.
+     * 
+     * @param creator
+     *            the creator string as stored in the DB
+     * @param identifier
+     *            the identifier of the preset
+     * @return the cached {@link Preset} or null, if it is not present
+     */
+    private Preset findCachedPreset(String creator, String identifier) {
+        IModelElement creatorElement = this.cache.getApps().get(creator);
+        if (creatorElement == null) {
+            creatorElement = this.cache.getResourceGroups().get(creator);
+        }
+        
+        Map<String, Preset> creatorPresets = this.cache.getPresets().get(creatorElement);
+        if (creatorPresets == null) {
+            return null;
+        }
+        return creatorPresets.get(identifier);
+    }
+    
+    
     /**
      * Caches all the {@link ContextAnnotation}s.
      * 
@@ -414,13 +566,11 @@ public class PersistenceProvider extends Observable implements PersistenceConsta
         cursor.close();
         
         // remove CAs where objects where missing
-        SQLiteDatabase wdb = this.doh.getWritableDatabase();
         for (String[] ids : missing) {
-            wdb.execSQL("DELETE FROM " + TBL_CONTEXT_ANNOTATIONS + " WHERE " + PRESET_CREATOR + " = ? AND "
+            db.execSQL("DELETE FROM " + TBL_CONTEXT_ANNOTATIONS + " WHERE " + PRESET_CREATOR + " = ? AND "
                     + PRESET_IDENTIFIER + " = ? AND " + PRIVACYSETTING_RESOURCEGROUP_PACKAGE + " = ? AND "
                     + PRIVACYSETTING_IDENTIFIER + " = ?", ids);
         }
-        wdb.close();
         
     }
     
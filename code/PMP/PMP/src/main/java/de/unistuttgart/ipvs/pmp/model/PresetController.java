@@ -94,7 +94,8 @@ public class PresetController {
     
     /**
      * Finds all the granted {@link IPrivacySetting} with their values for a specific {@link App} limiting the search to
-     * the {@link IPrivacySetting}s in relevant.
+     * the {@link IPrivacySetting}s in relevant. Values are taken from the {@link EffectiveValueTable} where possible,
+     * the missing ones are calculated and stored there.
      * 
      * @param app
      *            the app to be searched for
@@ -107,6 +108,53 @@ public class PresetController {
      */
     private static Map<IPrivacySetting, String> findGranted(IApp app, Collection<IPrivacySetting> relevant)
             throws PrivacySettingValueException {
+        EffectiveValueTable table = EffectiveValueTable.getInstance();
+        Map<IPrivacySetting, String> row = table.row(app);
+        
+        Map<IPrivacySetting, String> granted = new HashMap<IPrivacySetting, String>();
+        List<IPrivacySetting> missing = new ArrayList<IPrivacySetting>();
+        
+        // look up what is already known
+        for (IPrivacySetting ps : relevant) {
+            if (table.contains(row, ps)) {
+                String value = EffectiveValueTable.read(row, ps);
+                if (value != null) {
+                    granted.put(ps, value);
+                }
+            } else {
+                missing.add(ps);
+            }
+        }
+        
+        if (missing.size() > 0) {
+            Map<IPrivacySetting, String> calculated = calculateGranted(app, missing);
+            for (IPrivacySetting ps : missing) {
+                String value = calculated.get(ps);
+                EffectiveValueTable.write(row, ps, value);
+                if (value != null) {
+                    granted.put(ps, value);
+                }
+            }
+        }
+        
+        return granted;
+    }
+    
+    
+    /**
+     * Calculates all the granted {@link IPrivacySetting} with their values for a specific {@link App} limiting the
+     * calculation to the {@link IPrivacySetting}s in relevant, without consulting the {@link EffectiveValueTable}.
+     * 
+     * @param app
+     *            the app to be searched for
+     * @param relevant
+     *            the privacy settings which are actually necessary to be searched for
+     * @return a map mapping the privacy setting to its value
+     * @throws PrivacySettingValueException
+     *             if a value was rejected by the privacy setting
+     */
+    private static Map<IPrivacySetting, String> calculateGranted(IApp app, Collection<IPrivacySetting> relevant)
+            throws PrivacySettingValueException {
         Map<IPrivacySetting, String> granted = new HashMap<IPrivacySetting, String>();
         // for all presets
         for (IPreset p : app.getAssignedPresets()) {
@@ -21,37 +21,143 @@ package de.unistuttgart.ipvs.pmp.model.conflicts;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import de.unistuttgart.ipvs.pmp.gui.util.model.ModelProxy;
+import de.unistuttgart.ipvs.pmp.model.element.app.IApp;
 import de.unistuttgart.ipvs.pmp.model.element.preset.IPreset;
+import de.unistuttgart.ipvs.pmp.model.element.privacysetting.IPrivacySetting;
+import de.unistuttgart.ipvs.pmp.shared.Log;
 
 /**
  * Implementation of the {@link IConflictModel}.
  * 
+ * <p>
+ * Changed presets are detected by their {@link IPreset#getModificationCount()}. A changed preset is only compared to
+ * the presets sharing an assigned app and a granted privacy setting with it, since all other presets cannot be in
+ * conflict with it. Every change of a preset schedules such an update in the background, so the conflicts usually are
+ * up to date when they are requested.
+ * </p>
+ * 
+ * <p>
+ * Large updates, e.g. the first calculation or one after an import, compare the Presets on several threads. A
+ * calculation can be cancelled by {@link #cancelCalculation()}.
+ * </p>
+ * 
  * @author Jakob Jarosch
  */
 public class ConflictModel implements IConflictModel {
     
+    /**
+     * Time in milliseconds a background update waits for further changes of presets.
+     */
+    private static final long UPDATE_DELAY = 1000L;
+    
+    /**
+     * Number of threads comparing the Presets, and the number of updated Presets each of them gets at least.
+     */
+    private static final int WORKERS = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private static final int PARALLEL_THRESHOLD = 32;
+    
+    /**
+     * Minimum time in milliseconds between two progress updates.
+     */
+    private static final long PROGRESS_INTERVAL = 100L;
+    
     private static final ConflictModel instance = new ConflictModel();
     
     /**
-     * List holds all hashes from the Presets used in the last update.
+     * Map holds the modification counts of the Presets used in the last update.
      */
-    private Map<IPreset, String> lastUpdatedHashes = new HashMap<IPreset, String>();
+    private Map<IPreset, Integer> lastUpdatedCounts = new ConcurrentHashMap<IPreset, Integer>();
     
     /**
-     * List holds all conflicting pairs found during the last calculation.
+     * Index from the assigned apps and granted privacy settings to the Presets, as of the last update.
      */
-    private List<ConflictPair> conflictPairs = new ArrayList<ConflictPair>();
+    private Map<IApp, Map<IPrivacySetting, Set<IPreset>>> index;
+    
+    /**
+     * The entries of the {@link #index} each Preset is contained in.
+     */
+    private Map<IPreset, List<Set<IPreset>>> indexed = new HashMap<IPreset, List<Set<IPreset>>>();
+    
+    /**
+     * Set holds all conflicting pairs found during the last calculation.
+     */
+    private Set<ConflictPair> conflictPairs = new HashSet<ConflictPair>();
+    
+    /**
+     * The conflicting pairs as of the last finished calculation, readable while another one is running.
+     */
+    private volatile List<ConflictPair> conflicts = new ArrayList<ConflictPair>();
+    private volatile boolean updating = false;
+    private volatile boolean cancelled = false;
+    private final AtomicLong lastProgress = new AtomicLong(0L);
+    
+    /**
+     * Background thread for the updates after changes of presets.
+     */
+    private final ScheduledExecutorService updater;
+    private final AtomicBoolean updateScheduled = new AtomicBoolean(false);
+    
+    /**
+     * Threads comparing the Presets of large updates, and their number.
+     */
+    private final ExecutorService workers;
+    private final int workerCount;
     
     
     /**
      * Private constructor, singleton pattern.
      */
     private ConflictModel() {
+        this(WORKERS);
+    }
+    
+    
+    /**
+     * Creates a separate instance, so the benchmark can compare different numbers of workers.
+     * 
+     * @param workerCount
+     *            Number of threads comparing the Presets.
+     */
+    ConflictModel(int workerCount) {
+        this.workerCount = workerCount;
+        this.index = new HashMap<IApp, Map<IPrivacySetting, Set<IPreset>>>();
+        this.updater = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Conflict update");
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+        this.workers = Executors.newFixedThreadPool(workerCount, new ThreadFactory() {
+            
+            private final AtomicInteger count = new AtomicInteger(0);
+            
+            
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "Conflict scan " + this.count.incrementAndGet());
+            }
+        });
     }
     
     
@@ -69,11 +175,43 @@ public class ConflictModel implements IConflictModel {
     }
     
     
+    @Override
+    public void cancelCalculation() {
+        if (this.updating) {
+            this.cancelled = true;
+        }
+    }
+    
+    
+    @Override
+    public void invalidate() {
+        if (this.updateScheduled.compareAndSet(false, true)) {
+            this.updater.schedule(new Runnable() {
+                
+                @Override
+                public void run() {
+                    ConflictModel.this.updateScheduled.set(false);
+                    update(new NullProcessingCallback());
+                }
+            }, UPDATE_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    
     @Override
     public boolean isUpToDate() {
+        if (this.updating) {
+            return false;
+        }
         
-        for (IPreset preset : ModelProxy.get().getPresets()) {
-            if (!preset.toString().equals(this.lastUpdatedHashes.get(preset))) {
+        List<IPreset> presets = ModelProxy.get().getPresets();
+        if (presets.size() != this.lastUpdatedCounts.size()) {
+            return false;
+        }
+        
+        for (IPreset preset : presets) {
+            Integer count = this.lastUpdatedCounts.get(preset);
+            if ((count == null) || (count != preset.getModificationCount())) {
                 return false;
             }
         }
@@ -84,7 +222,274 @@ public class ConflictModel implements IConflictModel {
     
     @Override
     public List<ConflictPair> getConflicts() {
-        return this.conflictPairs;
+        return new ArrayList<ConflictPair>(this.conflicts);
+    }
+    
+    
+    /**
+     * Updates the conflicts of all the Presets changed, added or removed since the last update.
+     * 
+     * @param callback
+     *            The callback is invoked during the calculation.
+     */
+    private void update(IProcessingCallback callback) {
+        update(ModelProxy.get().getPresets(), callback);
+    }
+    
+    
+    /**
+     * Updates the conflicts of all the Presets changed, added or removed since the last update.
+     * 
+     * @param presets
+     *            All the Presets of the model.
+     * @param callback
+     *            The callback is invoked during the calculation.
+     */
+    synchronized void update(List<IPreset> presets, IProcessingCallback callback) {
+        this.updating = true;
+        try {
+            calculate(presets, callback);
+        } finally {
+            this.conflicts = new ArrayList<ConflictPair>(this.conflictPairs);
+            this.cancelled = false;
+            this.updating = false;
+        }
+        
+        callback.finished();
+    }
+    
+    
+    /**
+     * Performs the actual update of {@link #update(List, IProcessingCallback)}.
+     * 
+     * @param presets
+     *            All the Presets of the model.
+     * @param callback
+     *            The callback is invoked during the calculation.
+     */
+    private void calculate(List<IPreset> presets, IProcessingCallback callback) {
+        callback.stepMessage("Checking for updated Presets...");
+        
+        /* temporary store all to be updated presets. */
+        Set<IPreset> removedPresets = new HashSet<IPreset>(this.lastUpdatedCounts.keySet());
+        List<IPreset> updatedPresets = new ArrayList<IPreset>();
+        int currentCount = 0;
+        int totalCount = presets.size();
+        
+        for (IPreset preset : presets) {
+            currentCount++;
+            reportProgress(callback, currentCount, totalCount);
+            removedPresets.remove(preset);
+            
+            int count = preset.getModificationCount();
+            Integer lastCount = this.lastUpdatedCounts.get(preset);
+            if ((lastCount == null) || (lastCount != count)) {
+                updatedPresets.add(preset);
+                
+                /* directly update the stored count, following execution will update the conflicts */
+                this.lastUpdatedCounts.put(preset, count);
+            }
+        }
+        
+        /* Remove all index entries and conflict pairs where an updated or removed preset is inside. */
+        Set<IPreset> outdated = new HashSet<IPreset>(removedPresets);
+        outdated.addAll(updatedPresets);
+        for (IPreset preset : outdated) {
+            unindex(preset);
+        }
+        for (IPreset preset : removedPresets) {
+            this.lastUpdatedCounts.remove(preset);
+        }
+        
+        Iterator<ConflictPair> iter = this.conflictPairs.iterator();
+        while (iter.hasNext()) {
+            ConflictPair pair = iter.next();
+            if (outdated.contains(pair.getPreset1()) || outdated.contains(pair.getPreset2())) {
+                iter.remove();
+            }
+        }
+        
+        for (IPreset preset : updatedPresets) {
+            index(preset);
+        }
+        
+        callback.stepMessage("Checking for possible conflicts...");
+        /* now comparing all updated presets with the ones sharing an app and a privacy setting */
+        compare(updatedPresets, callback);
+    }
+    
+    
+    /**
+     * Compares the updated Presets to the Presets sharing an entry of the {@link #index} with them and adds the
+     * conflicting pairs. Many updated Presets, e.g. after an import, are distributed across the {@link #workers}. All
+     * the Presets were cached while indexing them, so the workers only read them. Presets not compared due to a
+     * cancellation are compared again by the next update.
+     * 
+     * @param updatedPresets
+     *            Presets which were updated.
+     * @param callback
+     *            The callback is invoked during the calculation.
+     */
+    private void compare(final List<IPreset> updatedPresets, final IProcessingCallback callback) {
+        final Map<ConflictPair, Boolean> found = new ConcurrentHashMap<ConflictPair, Boolean>();
+        final Map<IPreset, Boolean> compared = new ConcurrentHashMap<IPreset, Boolean>();
+        final AtomicInteger next = new AtomicInteger(0);
+        final AtomicInteger completed = new AtomicInteger(0);
+        final int totalCount = updatedPresets.size();
+        
+        Runnable worker = new Runnable() {
+            
+            @Override
+            public void run() {
+                int i;
+                while (!ConflictModel.this.cancelled && ((i = next.getAndIncrement()) < totalCount)) {
+                    IPreset preset = updatedPresets.get(i);
+                    compare(preset, found);
+                    compared.put(preset, Boolean.TRUE);
+                    reportProgress(callback, completed.incrementAndGet(), totalCount);
+                }
+            }
+        };
+        
+        int threads = Math.min(this.workerCount, totalCount / PARALLEL_THRESHOLD);
+        if (threads <= 1) {
+            worker.run();
+        } else {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(this.workers.submit(worker));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException ie) {
+                    this.cancelled = true;
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException ee) {
+                    Log.e(this, "Conflict scan failed: ", ee.getCause());
+                }
+            }
+        }
+        
+        this.conflictPairs.addAll(found.keySet());
+        for (IPreset preset : updatedPresets) {
+            if (!compared.containsKey(preset)) {
+                this.lastUpdatedCounts.remove(preset);
+            }
+        }
+    }
+    
+    
+    /**
+     * Compares one updated Preset to the Presets sharing an entry of the {@link #index} with it.
+     * 
+     * @param preset
+     *            Preset which was updated.
+     * @param found
+     *            The conflicting pairs found so far.
+     */
+    private void compare(IPreset preset, Map<ConflictPair, Boolean> found) {
+        Set<IPreset> comparedPresets = new HashSet<IPreset>();
+        for (Set<IPreset> entry : this.indexed.get(preset)) {
+            comparedPresets.addAll(entry);
+        }
+        comparedPresets.remove(preset);
+        
+        for (IPreset comparedPreset : comparedPresets) {
+            ConflictPair pair = new ConflictPair(preset, comparedPreset);
+            
+            /* For optimization skip all already known conflicts. */
+            if (!this.conflictPairs.contains(pair) && !found.containsKey(pair)) {
+                if (isConflicting(preset, comparedPreset) || isConflicting(comparedPreset, preset)) {
+                    found.put(pair, Boolean.TRUE);
+                }
+            }
+        }
+    }
+    
+    
+    /**
+     * Reports the progress to the callback, at most once per {@link #PROGRESS_INTERVAL} besides the final report.
+     * 
+     * @param callback
+     *            The callback to inform.
+     * @param completed
+     *            Number of completed tasks.
+     * @param fullCount
+     *            Number of all tasks.
+     */
+    private void reportProgress(IProcessingCallback callback, int completed, int fullCount) {
+        long now = System.currentTimeMillis();
+        long last = this.lastProgress.get();
+        if ((completed == fullCount)
+                || ((now - last >= PROGRESS_INTERVAL) && this.lastProgress.compareAndSet(last, now))) {
+            callback.progressUpdate(completed, fullCount);
+        }
+    }
+    
+    
+    /**
+     * Adds a Preset to the {@link #index} for all of its assigned apps and granted privacy settings. Context
+     * annotations are always attached to granted privacy settings, so they need no entries of their own.
+     * 
+     * @param preset
+     *            Preset which should be added.
+     */
+    private void index(IPreset preset) {
+        List<Set<IPreset>> entries = new ArrayList<Set<IPreset>>();
+        List<IPrivacySetting> privacySettings = preset.getGrantedPrivacySettings();
+        
+        for (IApp app : preset.getAssignedApps()) {
+            Map<IPrivacySetting, Set<IPreset>> appIndex = this.index.get(app);
+            if (appIndex == null) {
+                appIndex = new HashMap<IPrivacySetting, Set<IPreset>>();
+                this.index.put(app, appIndex);
+            }
+            
+            for (IPrivacySetting ps : privacySettings) {
+                Set<IPreset> entry = appIndex.get(ps);
+                if (entry == null) {
+                    entry = new HashSet<IPreset>();
+                    appIndex.put(ps, entry);
+                }
+                entry.add(preset);
+                entries.add(entry);
+            }
+        }
+        
+        this.indexed.put(preset, entries);
+    }
+    
+    
+    /**
+     * Removes a Preset from the {@link #index}.
+     * 
+     * @param preset
+     *            Preset which should be removed.
+     */
+    private void unindex(IPreset preset) {
+        List<Set<IPreset>> entries = this.indexed.remove(preset);
+        if (entries != null) {
+            for (Set<IPreset> entry : entries) {
+                entry.remove(preset);
+            }
+        }
+    }
+    
+    
+    /**
+     * Checks whether one of the Presets could override the values of the other one.
+     * 
+     * @param preset
+     *            Preset which should be checked.
+     * @param comparedPreset
+     *            Preset which could override the values.
+     * @return Returns true when there is at least one conflict, otherwise false.
+     */
+    private boolean isConflicting(IPreset preset, IPreset comparedPreset) {
+        return preset.getPSPSConflicts(comparedPreset).size() > 0
+                || preset.getCACAConflicts(comparedPreset).size() > 0
+                || preset.getCAPSConflicts(comparedPreset).size() > 0;
     }
     
     /**
@@ -109,61 +514,7 @@ public class ConflictModel implements IConflictModel {
         
         @Override
         public void run() {
-            this.callback.stepMessage("Checking for updated Presets...");
-            
-            /* temporary store all to be updated presets. */
-            List<IPreset> presets = ModelProxy.get().getPresets();
-            List<IPreset> updatedPresets = new ArrayList<IPreset>();
-            int currentCount = 0;
-            int totalCount = presets.size();
-            
-            for (IPreset preset : presets) {
-                currentCount++;
-                this.callback.progressUpdate(currentCount, totalCount);
-                
-                String presetString = preset.toString();
-                if (!presetString.equals(ConflictModel.this.lastUpdatedHashes.get(preset))) {
-                    updatedPresets.add(preset);
-                    
-                    /* directly update the stored hash, following execution will update the conflicts */
-                    ConflictModel.this.lastUpdatedHashes.put(preset, presetString);
-                    
-                    /* Remove all conflict pairs where the updated preset is inside. */
-                    Iterator<ConflictPair> iter = ConflictModel.this.conflictPairs.iterator();
-                    while (iter.hasNext()) {
-                        if (iter.next().inPair(preset)) {
-                            iter.remove();
-                        }
-                    }
-                }
-            }
-            
-            this.callback.stepMessage("Checking for possible conflicts...");
-            /* now iterating over all updated presets and compare them with all others */
-            currentCount = 0;
-            totalCount = updatedPresets.size() * presets.size();
-            
-            for (IPreset preset : updatedPresets) {
-                for (IPreset comparedPreset : presets) {
-                    if (comparedPreset.equals(preset)) {
-                        continue;
-                    }
-                    
-                    currentCount++;
-                    this.callback.progressUpdate(currentCount, totalCount);
-                    
-                    /* For optimization skip all already known conflicts. */
-                    if (!ConflictModel.this.conflictPairs.contains(new ConflictPair(preset, comparedPreset))) {
-                        if (preset.getPSPSConflicts(comparedPreset).size() > 0
-                                || preset.getCACAConflicts(comparedPreset).size() > 0
-                                || preset.getCAPSConflicts(comparedPreset).size() > 0) {
-                            ConflictModel.this.conflictPairs.add(new ConflictPair(preset, comparedPreset));
-                        }
-                    }
-                }
-            }
-            
-            this.callback.finished();
+            update(this.callback);
         }
     }
 }
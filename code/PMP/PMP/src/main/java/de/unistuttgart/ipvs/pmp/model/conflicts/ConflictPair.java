@@ -90,6 +90,13 @@ public class ConflictPair {
     }
     
     
+    @Override
+    public int hashCode() {
+        /* Symmetric, like equals(). */
+        return this.preset1.hashCode() ^ this.preset2.hashCode();
+    }
+    
+    
     /**
      * Check if a given Preset is part of the {@link ConflictPair}.
      * 
@@ -38,6 +38,13 @@ public interface IConflictModel {
     public void calculateConflicts(IProcessingCallback callback);
     
     
+    /**
+     * Cancels a running calculation. The conflicts found so far are kept, the rest is calculated by the next
+     * calculation.
+     */
+    public void cancelCalculation();
+    
+    
     /**
      * Returns true when the list of conflicts is up to date, otherwise false.
      * To bring the List up to date invoke {@link IConflictModel#calculateConflicts(IProcessingCallback)}.
@@ -47,6 +54,12 @@ public interface IConflictModel {
     public boolean isUpToDate();
     
     
+    /**
+     * Tells the {@link IConflictModel} that presets have changed. The conflicts will then be updated in the background.
+     */
+    public void invalidate();
+    
+    
     /**
      * @return Returns all conflict pairs.
      */
@@ -78,6 +78,17 @@ public interface IContext {
     public long update(Context context);
     
     
+    /**
+     * Estimates when the state of condition could change next, based on the last state update.
+     * 
+     * @param condition
+     *            the condition String for this to check
+     * @return the time in {@link System#currentTimeMillis()} domain before which condition will not change its state,
+     *         or {@link Long#MAX_VALUE}, if it never will or condition is invalid
+     */
+    public long getNextTransition(String condition);
+    
+    
     /**
      * Validates the last state against condition.
      * 
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2012 pmp-android development team
+ * Project: PMP
+ * Project-Site: https://github.com/stachch/Privacy_Management_Platform
+ *
+ * ---------------------------------------------------------------------
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unistuttgart.ipvs.pmp.model.context.location;
+
+import java.util.List;
+
+import de.unistuttgart.ipvs.pmp.shared.util.location.PMPGeoPoint;
+
+/**
+ * <p>
+ * A {@link LocationContextCondition} compiled for the evaluation, i.e. the polygon flattened into primitive arrays
+ * with its edge vectors and bounding box precomputed. For states outside the bounding box extended by the uncertainty
+ * the intersection test is skipped.
+ * </p>
+ * 
+ * <p>
+ * The conversion from meters to degrees only depends on the state, so it is done by the caller once per state, see
+ * {@link LocationContext}.
+ * </p>
+ */
+public class CompiledLocationContextCondition {
+    
+    /**
+     * Earth radius in kilometers. Assumes earth is a sphere.
+     */
+    private static final double EARTH_RADIUS = 6371.0;
+    
+    private final double uncertainty;
+    private final double hysteresis;
+    private final boolean negate;
+    
+    /**
+     * The points of the polygon and the vectors to the following point, i.e. the edges
+     */
+    private final double[] latitudes, longitudes;
+    private final double[] latitudeDirections, longitudeDirections;
+    
+    /**
+     * The bounding box of the polygon
+     */
+    private final double minLatitude, maxLatitude, minLongitude, maxLongitude;
+    
+    /**
+     * We save the result of the last check for this {@link CompiledLocationContextCondition} so that hysteresis is
+     * possible. We can do this because the {@link CompiledLocationContextCondition} are actually cached (see
+     * {@link LocationContextCondition#compile(String)}).
+     */
+    private boolean lastCheck;
+    
+    
+    public CompiledLocationContextCondition(LocationContextCondition condition) {
+        this.uncertainty = condition.getUncertainty();
+        this.hysteresis = condition.getHysteresis();
+        this.negate = condition.isNegated();
+        
+        List<PMPGeoPoint> polygon = condition.getPolygon();
+        int edges = polygon.size() - 1;
+        this.latitudes = condition.getPolygonLatitudeArray();
+        this.longitudes = condition.getPolygonLongitudeArray();
+        this.latitudeDirections = new double[edges];
+        this.longitudeDirections = new double[edges];
+        
+        double minLat = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE;
+        double minLon = Double.MAX_VALUE, maxLon = -Double.MAX_VALUE;
+        for (int i = 0; i < this.latitudes.length; i++) {
+            minLat = Math.min(minLat, this.latitudes[i]);
+            maxLat = Math.max(maxLat, this.latitudes[i]);
+            minLon = Math.min(minLon, this.longitudes[i]);
+            maxLon = Math.max(maxLon, this.longitudes[i]);
+            
+            if (i < edges) {
+                this.latitudeDirections[i] = this.latitudes[i + 1] - this.latitudes[i];
+                this.longitudeDirections[i] = this.longitudes[i + 1] - this.longitudes[i];
+            }
+        }
+        this.minLatitude = minLat;
+        this.maxLatitude = maxLat;
+        this.minLongitude = minLon;
+        this.maxLongitude = maxLon;
+        
+        this.lastCheck = false;
+    }
+    
+    
+    public double getUncertainty() {
+        return this.uncertainty;
+    }
+    
+    
+    public double getHysteresis() {
+        return this.hysteresis;
+    }
+    
+    
+    /**
+     * Checks whether the condition is satisfied in the state
+     * 
+     * @param state
+     * @param latitudePerMeter
+     *            degrees latitude per meter northwards at the state, see {@link PMPGeoPoint#getNorthDistance(double)}
+     * @param longitudePerMeter
+     *            degrees longitude per meter eastwards at the state, see {@link PMPGeoPoint#getEastDistance(double)}
+     * @return
+     */
+    public boolean satisfiedIn(LocationContextState state, double latitudePerMeter, double longitudePerMeter) {
+        // change the desired uncertainty based on the last state and the hysteresis
+        double uncertainty = this.uncertainty + (this.lastCheck ? this.hysteresis : -this.hysteresis);
+        double dist = state.getAccuracy() + uncertainty;
+        double latDistDeg = dist * latitudePerMeter;
+        double lonDistDeg = dist * longitudePerMeter;
+        
+        double latMargin = Math.abs(latDistDeg);
+        double lonMargin = Math.abs(lonDistDeg);
+        
+        if ((state.getLatitude() + latMargin < this.minLatitude) || (state.getLatitude() - latMargin > this.maxLatitude)
+                || (state.getLongitude() + lonMargin < this.minLongitude)
+                || (state.getLongitude() - lonMargin > this.maxLongitude)) {
+            // cannot touch the polygon
+            this.lastCheck = pointInPolygon(state);
+            
+        } else {
+            // we do this first because the point-in-polygon test might suffer problems
+            // if the single point is too close to the polygon
+            this.lastCheck = geoEllipseIntersectsPolygon(state, latDistDeg, lonDistDeg) || pointInPolygon(state);
+        }
+        
+        return this.lastCheck;
+    }
+    
+    
+    /**
+     * Tests whether a lat/lon correct ellipse around p with the half axes does intersect the polygon.
+     * 
+     * @param p
+     * @param latDistDeg
+     * @param lonDistDeg
+     * @return
+     */
+    private boolean geoEllipseIntersectsPolygon(PMPGeoPoint p, double latDistDeg, double lonDistDeg) {
+        double latDistDegSqr = latDistDeg * latDistDeg;
+        double lonDistDegSqr = lonDistDeg * lonDistDeg;
+        
+        // for each line in the polygon
+        for (int i = 0; i < this.latitudeDirections.length; i++) {
+            double latDir = this.latitudeDirections[i];
+            double lonDir = this.longitudeDirections[i];
+            
+            // transform the ray into the MCS of p
+            double latOrig = this.latitudes[i] - p.getLatitude();
+            double lonOrig = this.longitudes[i] - p.getLongitude();
+            
+            // o + t*d where t needs to be in [0;1] to be the polygon's edge
+            // (centered in p)
+            // x²/a² + y²/b² = 1 (ellipse)
+            // p = (x,y):
+            // t² ( dx²/a² + dy²/b²) + 2t (ox*dx/a² + oy*dy/b²) + (ox²/a² + oy²/b² - 1) = 0
+            // note that x = Longitude and y = Latitude
+            // thus a = lonDistDeg, b = latDistDeg
+            
+            double a = (lonDir * lonDir) / lonDistDegSqr + (latDir * latDir) / latDistDegSqr;
+            double b = 2.0 * (((lonOrig * lonDir) / lonDistDegSqr) + ((latOrig * latDir) / latDistDegSqr));
+            double c = (lonOrig * lonOrig) / lonDistDegSqr + (latOrig * latOrig) / latDistDegSqr - 1.0;
+            
+            if (hasSolutionInUnitInterval(a, b, c)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    
+    /**
+     * Solves a quadratic equation without introducing FP numeric subtraction loss of significance.
+     * 
+     * @param a
+     * @param b
+     * @param c
+     * @return whether there is an x in [0;1] so, that ax<sup>2</sup>+bx+c = 0
+     */
+    private static boolean hasSolutionInUnitInterval(double a, double b, double c) {
+        double det = b * b - 4 * a * c;
+        
+        if (det < 0) {
+            // imaginary result
+            return false;
+        }
+        det = Math.sqrt(det);
+        
+        double q = -0.5 * (b + ((b >= 0) ? +1 : -1) * det);
+        double x1 = q / a;
+        double x2 = c / q;
+        
+        return ((x1 >= 0.0) && (x1 <= 1.0)) || ((x2 >= 0.0) && (x2 <= 1.0));
+    }
+    
+    
+    /**
+     * Tests point in polygon by using the even-odd crossing algorithm. May suffer problems if the point is too near to
+     * the polygon.
+     * 
+     * @param p
+     * @return
+     */
+    private boolean pointInPolygon(PMPGeoPoint p) {
+        /*
+         * imagine a ray cast from p in direction (1,1) for simplicity's sake
+         */
+        
+        int intersections = this.negate ? 1 : 0;
+        
+        // for each line in the polygon
+        for (int i = 0; i < this.latitudeDirections.length; i++) {
+            double lat = this.latitudes[i];
+            double lon = this.longitudes[i];
+            double latD = this.latitudeDirections[i];
+            double lonD = this.longitudeDirections[i];
+            
+            // o+seg*d = 0+1t
+            
+            // find the segment parameter, i.e. whether the intersection
+            // is on the selected part of the line segment, i.e. seg in [0,1]
+            double seg = (p.getLatitude() + lon - p.getLongitude() - lat) / (latD + lonD);
+            if ((seg < 0) || (seg > 1)) {
+                continue;
+            }
+            
+            // find whether it intersects the ray or the line behind zero, i.e. t < 0
+            double t = p.getLatitude() + seg * latD - lat;
+            if (t > 0) {
+                intersections++;
+            }
+            
+        }
+        return intersections % 2 == 1;
+    }
+    
+    
+    /**
+     * Approximates the distance of a point to the border of the polygon, assuming the earth is flat around the point.
+     * 
+     * @param p
+     * @return the distance in meters
+     */
+    public double getDistanceToBorder(PMPGeoPoint p) {
+        double latScale = 2.0 * Math.PI * EARTH_RADIUS * 1000.0 / 360.0;
+        double lonScale = latScale * Math.cos(Math.toRadians(p.getLatitude()));
+        double result = Double.MAX_VALUE;
+        
+        // for each line in the polygon
+        for (int i = 0; i < this.latitudeDirections.length; i++) {
+            // transform the line into meters around p
+            double y = (this.latitudes[i] - p.getLatitude()) * latScale;
+            double x = (this.longitudes[i] - p.getLongitude()) * lonScale;
+            double dy = this.latitudeDirections[i] * latScale;
+            double dx = this.longitudeDirections[i] * lonScale;
+            
+            // closest point to p on the line
+            double lengthSqr = dx * dx + dy * dy;
+            double t = (lengthSqr > 0.0) ? -(x * dx + y * dy) / lengthSqr : 0.0;
+            t = Math.max(0.0, Math.min(1.0, t));
+            
+            result = Math.min(result, Math.sqrt((x + t * dx) * (x + t * dx) + (y + t * dy) * (y + t * dy)));
+        }
+        return result;
+    }
+}
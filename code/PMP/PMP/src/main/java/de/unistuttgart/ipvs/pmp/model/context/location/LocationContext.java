@@ -64,6 +64,28 @@ public class LocationContext implements IContext, LocationListener {
      */
     // FIXME
     private static final long TIME_DELTA_REJECT_LIMIT = 300000L;
+    
+    /**
+     * The speed in meters per second nobody is assumed to exceed, to estimate when a condition could change
+     */
+    private static final double MAXIMUM_SPEED = 50.0;
+    
+    /**
+     * The minimum time between two location updates, the interval the service polled every context in before. Each
+     * update requests a location fix, so it must not happen more often than that.
+     */
+    private static final long MINIMUM_UPDATE_INTERVAL = 300000L;
+    
+    /**
+     * The maximum time between two location updates, in case the assumptions did not hold
+     */
+    private static final long MAXIMUM_UPDATE_INTERVAL = 1800000L;
+    
+    /**
+     * The distance in meters used to determine the degrees per meter at a state
+     */
+    private static final double SCALE_DISTANCE = 1000.0;
+    
     /**
      * The possibly waiting {@link Thread}.
      */
@@ -73,9 +95,15 @@ public class LocationContext implements IContext, LocationListener {
     
     private LocationContextState lastState;
     
+    /**
+     * Degrees per meter at the last state, NaN if not yet computed for it
+     */
+    private double latitudePerMeter, longitudePerMeter;
+    
     
     public LocationContext() {
         this.lastState = new LocationContextState();
+        this.latitudePerMeter = Double.NaN;
     }
     
     
@@ -116,6 +144,7 @@ public class LocationContext implements IContext, LocationListener {
     @Override
     public long update(Context context) {
         this.lastState.unset();
+        this.latitudePerMeter = Double.NaN;
         this.waiter = null;
         
         final LocationManager lm = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
@@ -168,8 +197,15 @@ public class LocationContext implements IContext, LocationListener {
     public boolean getLastState(String condition) {
         try {
             if (this.lastState.isSet()) {
-                LocationContextCondition lcc = LocationContextCondition.parse(condition);
-                return lcc.satisfiedIn(this.lastState);
+                CompiledLocationContextCondition clcc = LocationContextCondition.compile(condition);
+                
+                // the conversion is linear for any reasonable distance, so it is the same for all conditions
+                if (Double.isNaN(this.latitudePerMeter)) {
+                    this.latitudePerMeter = this.lastState.getNorthDistance(SCALE_DISTANCE) / SCALE_DISTANCE;
+                    this.longitudePerMeter = this.lastState.getEastDistance(SCALE_DISTANCE) / SCALE_DISTANCE;
+                }
+                
+                return clcc.satisfiedIn(this.lastState, this.latitudePerMeter, this.longitudePerMeter);
             } else {
                 return false;
             }
@@ -179,6 +215,28 @@ public class LocationContext implements IContext, LocationListener {
     }
     
     
+    @Override
+    public long getNextTransition(String condition) {
+        long earliest = System.currentTimeMillis() + MINIMUM_UPDATE_INTERVAL;
+        if (!this.lastState.isSet()) {
+            return earliest;
+        }
+        
+        try {
+            CompiledLocationContextCondition clcc = LocationContextCondition.compile(condition);
+            
+            // how far one has to move at least to change the state
+            double margin = clcc.getDistanceToBorder(this.lastState) - this.lastState.getAccuracy()
+                    - clcc.getUncertainty() - clcc.getHysteresis();
+            long interval = (long) (1000.0 * Math.max(0.0, margin) / MAXIMUM_SPEED);
+            
+            return Math.max(earliest, this.lastState.getTime() + Math.min(interval, MAXIMUM_UPDATE_INTERVAL));
+        } catch (InvalidConditionException ice) {
+            return Long.MAX_VALUE;
+        }
+    }
+    
+    
     @Override
     public void onLocationChanged(Location location) {
         if (location == null) {
@@ -209,6 +267,7 @@ public class LocationContext implements IContext, LocationListener {
         
         if (update) {
             this.lastState.update(location);
+            this.latitudePerMeter = Double.NaN;
         }
         
         // if that's enough, interrupt the waiting
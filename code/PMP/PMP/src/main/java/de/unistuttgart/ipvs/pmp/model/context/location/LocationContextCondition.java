@@ -20,10 +20,10 @@
 package de.unistuttgart.ipvs.pmp.model.context.location;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -43,7 +43,8 @@ public class LocationContextCondition {
      */
     private static final double EARTH_RADIUS = 6371.0;
     
-    private static Map<String, LocationContextCondition> cache = new HashMap<String, LocationContextCondition>();
+    private static Map<String, LocationContextCondition> cache = new ConcurrentHashMap<String, LocationContextCondition>();
+    private static Map<String, CompiledLocationContextCondition> compiled = new ConcurrentHashMap<String, CompiledLocationContextCondition>();
     
     private static Pattern CONDITION_PATTERN = Pattern
             .compile("([0-9\\.]+);([0-9\\.]+);(1|0);(([0-9\\.]+~[0-9\\.]+--)+)");
@@ -62,20 +63,7 @@ public class LocationContextCondition {
         LocationContextCondition result = cache.get(condition);
         
         if (result == null) {
-            Matcher match = CONDITION_PATTERN.matcher(condition);
-            if (!match.matches()) {
-                throw new InvalidConditionException("LocationContextCondition was not formatted properly: " + condition);
-            }
-            
-            List<PMPGeoPoint> poly = new ArrayList<PMPGeoPoint>();
-            String[] coords = match.group(4).split("--");
-            for (String coord2 : coords) {
-                String[] coord = coord2.split("~");
-                poly.add(new PMPGeoPoint(Double.valueOf(coord[0]), Double.valueOf(coord[1])));
-            }
-            
-            result = new LocationContextCondition(Double.parseDouble(match.group(1)),
-                    Double.parseDouble(match.group(2)), match.group(3).equals("1"), poly);
+            result = parseUncached(condition);
             cache.put(condition, result);
         }
         
@@ -83,6 +71,46 @@ public class LocationContextCondition {
     }
     
     
+    /**
+     * Compiles a {@link LocationContextCondition} from a string. Other than {@link #parse(String)} the result cannot be
+     * modified by a view, so it is safe to cache for the evaluation.
+     * 
+     * @param condition
+     * @return
+     */
+    public static CompiledLocationContextCondition compile(String condition) throws InvalidConditionException {
+        if (condition == null) {
+            throw new InvalidConditionException("LocationContextCondition may not be null.");
+        }
+        CompiledLocationContextCondition result = compiled.get(condition);
+        
+        if (result == null) {
+            result = new CompiledLocationContextCondition(parseUncached(condition));
+            compiled.put(condition, result);
+        }
+        
+        return result;
+    }
+    
+    
+    private static LocationContextCondition parseUncached(String condition) throws InvalidConditionException {
+        Matcher match = CONDITION_PATTERN.matcher(condition);
+        if (!match.matches()) {
+            throw new InvalidConditionException("LocationContextCondition was not formatted properly: " + condition);
+        }
+        
+        List<PMPGeoPoint> poly = new ArrayList<PMPGeoPoint>();
+        String[] coords = match.group(4).split("--");
+        for (String coord2 : coords) {
+            String[] coord = coord2.split("~");
+            poly.add(new PMPGeoPoint(Double.valueOf(coord[0]), Double.valueOf(coord[1])));
+        }
+        
+        return new LocationContextCondition(Double.parseDouble(match.group(1)), Double.parseDouble(match.group(2)),
+                match.group(3).equals("1"), poly);
+    }
+    
+    
     @Override
     public boolean equals(Object o) {
         if (o == null || !(o instanceof LocationContextCondition)) {
@@ -91,7 +119,7 @@ public class LocationContextCondition {
         
         LocationContextCondition lcc = (LocationContextCondition) o;
         return this.polygon.equals(lcc.polygon) && this.uncertainty == lcc.uncertainty
-                && this.hysteresis == lcc.hysteresis && this.negate == lcc.negate && this.lastCheck == lcc.lastCheck;
+                && this.hysteresis == lcc.hysteresis && this.negate == lcc.negate;
     }
     
     
@@ -125,13 +153,7 @@ public class LocationContextCondition {
      */
     private boolean negate;
     
-    /**
-     * We save the result of the last check for this {@link LocationContextCondition} so that hysteresis is possible.
-     * We can do this because the {@link LocationContextCondition} are actually cached (see static methods).
-     */
-    private boolean lastCheck;
-    
-    
+
     public LocationContextCondition(double uncertainty, double hysteresis, boolean negate, List<PMPGeoPoint> polygon) {
         if (hysteresis >= uncertainty) {
             throw new IllegalArgumentException("Hysteresis must not be equal or larger than uncertainty.");
@@ -150,7 +172,6 @@ public class LocationContextCondition {
         this.hysteresis = hysteresis;
         this.negate = negate;
         this.polygon = polygon;
-        this.lastCheck = false;
     }
     
     
@@ -169,209 +190,6 @@ public class LocationContextCondition {
     }
     
     
-    /**
-     * Checks whether the condition is satisfied in the state
-     * 
-     * @param state
-     * @return
-     */
-    public boolean satisfiedIn(LocationContextState state) {
-        // change the desired uncertainty based on the last state and the hysteresis
-        double uncertainty = this.uncertainty + (this.lastCheck ? this.hysteresis : -this.hysteresis);
-        
-        // we do this first because the point-in-polygon test might suffer problems
-        // if the single point is too close to the polygon
-        if (geoEllipseIntersectsPolygon(state, state.getAccuracy() + uncertainty)) {
-            this.lastCheck = true;
-            return true;
-            
-        } else if (pointInPolygon(state)) {
-            this.lastCheck = true;
-            return true;
-        }
-        
-        this.lastCheck = false;
-        return false;
-    }
-    
-    
-    /**
-     * Tests whether a circle around p with diameter dist meters does intersect the polygon.
-     * 
-     * @param p
-     * @param dist
-     * @return
-     * @deprecated I believe {@link #geoEllipseIntersectsPolygon(PMPGeoPoint, double)} works better, but I'm not sure
-     *             yet.
-     */
-    @SuppressWarnings("unused")
-    @Deprecated
-    private boolean geoCircleIntersectsPolygon(PMPGeoPoint p, double dist) {
-        
-        // TODO this could be bogus, this is actually an ellipse-ray-intersection (for spheres)
-        // as defined by p.getNorthDistance() and p.getEastDistance()
-        
-        // convert dist from km in degrees (this is an approximation)
-        double distDeg = dist / (2.0 * 1000.0 * Math.PI * EARTH_RADIUS);
-        if (distDeg > 180.0) {
-            distDeg -= 180.0;
-        }
-        
-        // for each line in the polygon
-        for (int i = 0; i < this.polygon.size() - 1; i++) {
-            double latOrig = this.polygon.get(i).getLatitude();
-            double lonOrig = this.polygon.get(i).getLongitude();
-            double latDir = this.polygon.get(i + 1).getLatitude() - latOrig;
-            double lonDir = this.polygon.get(i + 1).getLongitude() - lonOrig;
-            
-            // |o + t*d| = dist^2 (for sphere in 0,0)
-            // <o+td, o+td> = dist^2
-            // o^2 + t^2d^2 + 2td = dist^2
-            // t^2d^2 + 2otd + o^2 - dist^2 = 0
-            
-            // transform the ray into the MCS of p
-            latOrig -= p.getLatitude();
-            lonOrig -= p.getLongitude();
-            
-            double a = latDir * latDir + lonDir * lonDir;
-            double b = 2.0 * (latOrig * latDir + lonOrig * lonDir);
-            double c = latOrig * latOrig + lonOrig * lonOrig - distDeg * distDeg;
-            
-            double t[] = solveQE(a, b, c);
-            for (double solution : t) {
-                if ((solution >= 0.0) && (solution <= 1.0)) {
-                    return true;
-                }
-            }
-        }
-        return false;
-    }
-    
-    
-    /**
-     * Tests whether a lat/lon correct ellipse around p with half axes dist meters does intersect the polygon.
-     * 
-     * @param p
-     * @param dist
-     * @return
-     */
-    private boolean geoEllipseIntersectsPolygon(PMPGeoPoint p, double dist) {
-        
-        // convert dist from km in degrees
-        double latDistDeg = p.getNorthDistance(dist);
-        double lonDistDeg = p.getEastDistance(dist);
-        
-        // for each line in the polygon
-        for (int i = 0; i < this.polygon.size() - 1; i++) {
-            double latOrig = this.polygon.get(i).getLatitude();
-            double lonOrig = this.polygon.get(i).getLongitude();
-            double latDir = this.polygon.get(i + 1).getLatitude() - latOrig;
-            double lonDir = this.polygon.get(i + 1).getLongitude() - lonOrig;
-            
-            // transform the ray into the MCS of p
-            latOrig -= p.getLatitude();
-            lonOrig -= p.getLongitude();
-            
-            // o + t*d where t needs to be in [0;1] to be the polygon's edge
-            // (centered in p)
-            // x²/a² + y²/b² = 1 (ellipse)
-            // p = (x,y):
-            // t² ( dx²/a² + dy²/b²) + 2t (ox*dx/a² + oy*dy/b²) + (ox²/a² + oy²/b² - 1) = 0
-            // note that x = Longitude and y = Latitude
-            // thus a = lonDistDeg, b = latDistDeg
-            
-            double a = sqr(lonDir / lonDistDeg) + sqr(latDir / latDistDeg);
-            double b = 2.0 * (((lonOrig * lonDir) / sqr(lonDistDeg)) + ((latOrig * latDir) / sqr(latDistDeg)));
-            double c = sqr(lonOrig / lonDistDeg) + sqr(latOrig / latDistDeg) - 1.0;
-            
-            double[] t = solveQE(a, b, c);
-            for (double solution : t) {
-                if ((solution >= 0.0) && (solution <= 1.0)) {
-                    return true;
-                }
-            }
-        }
-        return false;
-    }
-    
-    
-    private double sqr(double arg) {
-        return arg * arg;
-    }
-    
-    
-    /**
-     * Solves a quadratic equation without introducing FP numeric subtraction loss of significance.
-     * 
-     * @param a
-     * @param b
-     * @param c
-     * @return zero, one or two x so, that ax<sup>2</sup>+bx+c = 0, whereas the x are sorted by their value
-     */
-    private double[] solveQE(double a, double b, double c) {
-        double det = b * b - 4 * a * c;
-        
-        if (det < 0) {
-            // imaginary result
-            return new double[0];
-        }
-        det = Math.sqrt(det);
-        
-        double q = -0.5 * (b + ((b >= 0) ? +1 : -1) * det);
-        double x1 = q / a;
-        double x2 = c / q;
-        
-        if (x1 < x2) {
-            return new double[] { x1, x2 };
-        } else if (x2 < x1) {
-            return new double[] { x2, x1 };
-        } else {
-            return new double[] { x1 };
-        }
-    }
-    
-    
-    /**
-     * Tests point in polygon by using the even-odd crossing algorithm. May suffer problems if the point is too near to
-     * the polygon.
-     * 
-     * @param p
-     * @return
-     */
-    private boolean pointInPolygon(PMPGeoPoint p) {
-        /*
-         * imagine a ray cast from p in direction (1,1) for simplicity's sake
-         */
-        
-        int intersections = this.negate ? 1 : 0;
-        
-        // for each line in the polygon
-        for (int i = 0; i < this.polygon.size() - 1; i++) {
-            double lat = this.polygon.get(i).getLatitude();
-            double lon = this.polygon.get(i).getLongitude();
-            double latD = this.polygon.get(i + 1).getLatitude() - lat;
-            double lonD = this.polygon.get(i + 1).getLongitude() - lon;
-            
-            // o+seg*d = 0+1t
-            
-            // find the segment parameter, i.e. whether the intersection
-            // is on the selected part of the line segment, i.e. seg in [0,1]
-            double seg = (p.getLatitude() + lon - p.getLongitude() - lat) / (latD + lonD);
-            if ((seg < 0) || (seg > 1)) {
-                continue;
-            }
-            
-            // find whether it intersects the ray or the line behind zero, i.e. t < 0
-            double t = p.getLatitude() + seg * latD - lat;
-            if (t > 0) {
-                intersections++;
-            }
-            
-        }
-        return intersections % 2 == 1;
-    }
-    
-    
     /*
      * Getters / Setters for view
      */
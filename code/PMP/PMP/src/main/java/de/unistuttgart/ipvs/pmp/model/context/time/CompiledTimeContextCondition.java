@@ -0,0 +1,258 @@
+/*
+ * Copyright 2012 pmp-android development team
+ * Project: PMP
+ * Project-Site: https://github.com/stachch/Privacy_Management_Platform
+ *
+ * ---------------------------------------------------------------------
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unistuttgart.ipvs.pmp.model.context.time;
+
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * <p>
+ * A {@link TimeContextCondition} compiled into primitives, i.e. a second-of-day range and a bitmask of the days for its
+ * {@link TimeContextIntervalType}. Instances are immutable and evaluate without allocating any objects, so they can be
+ * shared and cached for the hot path of the {@link TimeContext}.
+ * </p>
+ * 
+ * <p>
+ * Days are computed from the epoch directly, their numbering follows {@link java.util.Calendar}.
+ * </p>
+ */
+public class CompiledTimeContextCondition {
+    
+    private static final long MILLIS_PER_SECOND = 1000L;
+    private static final long MILLIS_PER_DAY = TimeContextTime.SECONDS_PER_DAY * MILLIS_PER_SECOND;
+    
+    /**
+     * How many days {@link #nextTransitionAfter(long, TimeZone)} looks ahead, enough for yearly repetitions.
+     */
+    private static final int TRANSITION_SEARCH_DAYS = 367;
+    
+    /**
+     * Day 0 of the epoch, 1970-01-01, was a {@link java.util.Calendar#THURSDAY}.
+     */
+    private static final int EPOCH_DAY_OF_WEEK = 5;
+    
+    private static final int DAY_BITS = 5;
+    private static final int DAY_MASK = (1 << DAY_BITS) - 1;
+    
+    private static final TimeZone UTC = TimeZone.getTimeZone("GMT");
+    
+    private final boolean isUTC;
+    
+    /**
+     * Begin and end in seconds of the day, wrapping if begin > end
+     */
+    private final int begin, end;
+    
+    private final TimeContextIntervalType interval;
+    
+    /**
+     * For {@link TimeContextIntervalType#REPEAT_WEEKLY} bit n is set for day of week n, for
+     * {@link TimeContextIntervalType#REPEAT_MONTHLY} bit n is set for day of month n.
+     */
+    private final int dayMask;
+    
+    /**
+     * For {@link TimeContextIntervalType#REPEAT_YEARLY} the month (zero-based) and day of month, -1 if invalid.
+     */
+    private final int month, dayOfMonth;
+    
+    
+    public CompiledTimeContextCondition(TimeContextCondition condition) {
+        this.isUTC = condition.isUTC();
+        this.begin = secondOfDay(condition.getBegin());
+        this.end = secondOfDay(condition.getEnd());
+        this.interval = condition.getInterval();
+        
+        List<Integer> days = condition.getDays();
+        int mask = 0;
+        for (Integer day : days) {
+            if ((day != null) && (day >= 0) && (day < Integer.SIZE)) {
+                mask |= 1 << day;
+            }
+        }
+        this.dayMask = mask;
+        
+        if (days.size() == 2) {
+            this.month = days.get(0);
+            this.dayOfMonth = days.get(1);
+        } else {
+            this.month = -1;
+            this.dayOfMonth = -1;
+        }
+    }
+    
+    
+    private static int secondOfDay(TimeContextTime time) {
+        return time.getHour() * TimeContextTime.SECONDS_PER_HOUR + time.getMinute()
+                * TimeContextTime.SECONDS_PER_MINUTE + time.getSecond();
+    }
+    
+    
+    /**
+     * @param local
+     *            the time zone of the user
+     * @return the time zone this condition is evaluated in
+     */
+    private TimeZone getTimeZone(TimeZone local) {
+        return this.isUTC ? UTC : local;
+    }
+    
+    
+    /**
+     * Checks whether the condition is satisfied in the state.
+     * 
+     * @param state
+     *            the time in {@link System#currentTimeMillis()} domain
+     * @param local
+     *            the time zone of the user, ignored for UTC conditions
+     * @return
+     */
+    public boolean satisfiedIn(long state, TimeZone local) {
+        long localMillis = state + getTimeZone(local).getOffset(state);
+        long day = floorDiv(localMillis, MILLIS_PER_DAY);
+        
+        if (!dayMatches(day)) {
+            return false;
+        }
+        
+        int now = (int) ((localMillis - day * MILLIS_PER_DAY) / MILLIS_PER_SECOND);
+        
+        boolean timeWraps = this.begin > this.end;
+        boolean dateBetweenBeginAndEnd = (this.begin <= now) && (this.end >= now);
+        
+        // either it's NOT wrapping AND     begin <= date <= end
+        //     or it's     wrapping AND NOT begin <= date <= end
+        return timeWraps ^ dateBetweenBeginAndEnd;
+    }
+    
+    
+    private boolean dayMatches(long day) {
+        switch (this.interval) {
+            case REPEAT_DAILY:
+                return true;
+            
+            case REPEAT_WEEKLY:
+                int dayOfWeek = (int) floorMod(day + EPOCH_DAY_OF_WEEK - 1, 7) + 1;
+                return (this.dayMask & (1 << dayOfWeek)) != 0;
+            
+            case REPEAT_MONTHLY:
+                return (this.dayMask & (1 << (monthAndDay(day) & DAY_MASK))) != 0;
+            
+            case REPEAT_YEARLY:
+                if (this.month < 0) {
+                    return false;
+                }
+                int monthAndDay = monthAndDay(day);
+                return ((monthAndDay >> DAY_BITS) == this.month) && ((monthAndDay & DAY_MASK) == this.dayOfMonth);
+            
+            default:
+                return false;
+        }
+    }
+    
+    
+    /**
+     * Finds the next point in time at which the satisfaction of this condition changes. It can only change at midnight,
+     * at the begin and right after the end, so only these are checked for the following days.
+     * 
+     * @param state
+     *            the time in {@link System#currentTimeMillis()} domain
+     * @param local
+     *            the time zone of the user, ignored for UTC conditions
+     * @return the first point in time after state in which {@link #satisfiedIn(long, TimeZone)} differs from state, or
+     *         {@link Long#MAX_VALUE}, if there is none
+     */
+    public long nextTransitionAfter(long state, TimeZone local) {
+        TimeZone tz = getTimeZone(local);
+        boolean current = satisfiedIn(state, local);
+        long day = floorDiv(state + tz.getOffset(state), MILLIS_PER_DAY);
+        
+        // candidates per day in ascending order
+        long first = Math.min(this.begin, this.end + 1L) * MILLIS_PER_SECOND;
+        long second = Math.max(this.begin, this.end + 1L) * MILLIS_PER_SECOND;
+        
+        for (int i = 0; i <= TRANSITION_SEARCH_DAYS; i++, day++) {
+            long midnight = day * MILLIS_PER_DAY;
+            
+            long candidate = toEpoch(midnight, tz);
+            if ((candidate > state) && (satisfiedIn(candidate, local) != current)) {
+                return candidate;
+            }
+            candidate = toEpoch(midnight + first, tz);
+            if ((candidate > state) && (satisfiedIn(candidate, local) != current)) {
+                return candidate;
+            }
+            candidate = toEpoch(midnight + second, tz);
+            if ((candidate > state) && (satisfiedIn(candidate, local) != current)) {
+                return candidate;
+            }
+        }
+        
+        return Long.MAX_VALUE;
+    }
+    
+    
+    /**
+     * Converts a local time back to the epoch, respecting a daylight saving change in between.
+     */
+    private static long toEpoch(long localMillis, TimeZone tz) {
+        int offset = tz.getOffset(localMillis - tz.getOffset(localMillis));
+        long epoch = localMillis - offset;
+        int actualOffset = tz.getOffset(epoch);
+        if (epoch + actualOffset != localMillis) {
+            // skipped by the daylight saving change, use the offset before like a lenient Calendar
+            epoch = localMillis - Math.min(offset, actualOffset);
+        }
+        return epoch;
+    }
+    
+    
+    private static long floorDiv(long x, long y) {
+        long r = x / y;
+        if (((x % y) != 0) && ((x ^ y) < 0)) {
+            r--;
+        }
+        return r;
+    }
+    
+    
+    private static long floorMod(long x, long y) {
+        return x - floorDiv(x, y) * y;
+    }
+    
+    
+    /**
+     * Converts days since the epoch to the proleptic gregorian calendar.
+     * 
+     * @param day
+     * @return the month (zero-based) shifted by {@link #DAY_BITS} or'ed with the day of month
+     */
+    private static int monthAndDay(long day) {
+        long z = day + 719468L;
+        long era = floorDiv(z, 146097L);
+        long doe = z - era * 146097L;
+        long yoe = (doe - doe / 1460L + doe / 36524L - doe / 146096L) / 365L;
+        long doy = doe - (365L * yoe + yoe / 4L - yoe / 100L);
+        long mp = (5L * doy + 2L) / 153L;
+        int dayOfMonth = (int) (doy - (153L * mp + 2L) / 5L + 1L);
+        int month = (int) (mp < 10L ? mp + 2L : mp - 10L);
+        return (month << DAY_BITS) | dayOfMonth;
+    }
+}
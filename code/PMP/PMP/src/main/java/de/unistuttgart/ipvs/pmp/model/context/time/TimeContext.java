@@ -19,6 +19,8 @@
  */
 package de.unistuttgart.ipvs.pmp.model.context.time;
 
+import java.util.TimeZone;
+
 import android.content.Context;
 import android.graphics.drawable.Drawable;
 import de.unistuttgart.ipvs.pmp.PMPApplication;
@@ -33,9 +35,15 @@ public class TimeContext implements IContext {
     
     private long lastState;
     
+    /**
+     * The user's time zone at the last state, looked up once per update instead of on every evaluation
+     */
+    private TimeZone lastTimeZone;
+    
     
     public TimeContext() {
         this.lastState = System.currentTimeMillis();
+        this.lastTimeZone = TimeZone.getDefault();
     }
     
     
@@ -76,6 +84,7 @@ public class TimeContext implements IContext {
     @Override
     public long update(Context context) {
         this.lastState = System.currentTimeMillis();
+        this.lastTimeZone = TimeZone.getDefault();
         return 0L;
     }
     
@@ -83,14 +92,25 @@ public class TimeContext implements IContext {
     @Override
     public boolean getLastState(String condition) {
         try {
-            TimeContextCondition tcc = TimeContextCondition.parse(condition);
-            return tcc.satisfiedIn(this.lastState);
+            CompiledTimeContextCondition ctcc = TimeContextCondition.compile(condition);
+            return ctcc.satisfiedIn(this.lastState, this.lastTimeZone);
         } catch (InvalidConditionException ice) {
             return false;
         }
     }
     
     
+    @Override
+    public long getNextTransition(String condition) {
+        try {
+            CompiledTimeContextCondition ctcc = TimeContextCondition.compile(condition);
+            return ctcc.nextTransitionAfter(this.lastState, this.lastTimeZone);
+        } catch (InvalidConditionException ice) {
+            return Long.MAX_VALUE;
+        }
+    }
+    
+    
     @Override
     public String makeHumanReadable(String condition) throws InvalidConditionException {
         return TimeContextCondition.parse(condition).getHumanReadable();
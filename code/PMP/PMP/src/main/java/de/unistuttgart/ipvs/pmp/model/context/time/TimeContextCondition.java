@@ -19,11 +19,10 @@
  */
 package de.unistuttgart.ipvs.pmp.model.context.time;
 
-import java.util.Calendar;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -37,7 +36,8 @@ import de.unistuttgart.ipvs.pmp.model.exception.InvalidConditionException;
  */
 public class TimeContextCondition {
     
-    private static Map<String, TimeContextCondition> cache = new HashMap<String, TimeContextCondition>();
+    private static Map<String, TimeContextCondition> cache = new ConcurrentHashMap<String, TimeContextCondition>();
+    private static Map<String, CompiledTimeContextCondition> compiled = new ConcurrentHashMap<String, CompiledTimeContextCondition>();
     
     private static Pattern CONDITION_PATTERN = Pattern
             .compile("((utc)?)([0-2][0-9]):([0-5][0-9]):([0-5][0-9])-([0-2][0-9]):([0-5][0-9]):([0-5][0-9])-(.)([0-9,]*)");
@@ -56,29 +56,56 @@ public class TimeContextCondition {
         TimeContextCondition result = cache.get(condition);
         
         if (result == null) {
-            Matcher match = CONDITION_PATTERN.matcher(condition);
-            if (!match.matches()) {
-                throw new InvalidConditionException("TimeContextCondition was not formatted properly: " + condition);
-            }
-            
-            boolean utc = match.group(1).length() > 0;
-            int beginHour = Integer.parseInt(match.group(3));
-            int beginMin = Integer.parseInt(match.group(4));
-            int beginSec = Integer.parseInt(match.group(5));
-            int endHour = Integer.parseInt(match.group(6));
-            int endMin = Integer.parseInt(match.group(7));
-            int endSec = Integer.parseInt(match.group(8));
-            TimeContextIntervalType tccit = TimeContextIntervalType.getForIdentifier(match.group(9).charAt(0));
-            List<Integer> tccdList = tccit.makeDays(match.group(10));
-            
-            result = new TimeContextCondition(utc, new TimeContextTime(beginHour, beginMin, beginSec),
-                    new TimeContextTime(endHour, endMin, endSec), tccit, tccdList);
+            result = parseUncached(condition);
             cache.put(condition, result);
         }
         
         return result;
     }
     
+    
+    /**
+     * Compiles a {@link TimeContextCondition} from a string. Other than {@link #parse(String)} the result cannot be
+     * modified by a view, so it is safe to cache for the evaluation.
+     * 
+     * @param condition
+     * @return
+     */
+    public static CompiledTimeContextCondition compile(String condition) throws InvalidConditionException {
+        if (condition == null) {
+            throw new InvalidConditionException("TimeContextCondition may not be null.");
+        }
+        CompiledTimeContextCondition result = compiled.get(condition);
+        
+        if (result == null) {
+            result = new CompiledTimeContextCondition(parseUncached(condition));
+            compiled.put(condition, result);
+        }
+        
+        return result;
+    }
+    
+    
+    private static TimeContextCondition parseUncached(String condition) throws InvalidConditionException {
+        Matcher match = CONDITION_PATTERN.matcher(condition);
+        if (!match.matches()) {
+            throw new InvalidConditionException("TimeContextCondition was not formatted properly: " + condition);
+        }
+        
+        boolean utc = match.group(1).length() > 0;
+        int beginHour = Integer.parseInt(match.group(3));
+        int beginMin = Integer.parseInt(match.group(4));
+        int beginSec = Integer.parseInt(match.group(5));
+        int endHour = Integer.parseInt(match.group(6));
+        int endMin = Integer.parseInt(match.group(7));
+        int endSec = Integer.parseInt(match.group(8));
+        TimeContextIntervalType tccit = TimeContextIntervalType.getForIdentifier(match.group(9).charAt(0));
+        List<Integer> tccdList = tccit.makeDays(match.group(10));
+        
+        return new TimeContextCondition(utc, new TimeContextTime(beginHour, beginMin, beginSec), new TimeContextTime(
+                endHour, endMin, endSec), tccit, tccdList);
+    }
+    
     /**
      * Whether the time is fixed at a point, i.e. e.g. 08:00 always at this time zone,
      * then the time is converted to UTC and the information is in UTC.
@@ -145,53 +172,21 @@ public class TimeContextCondition {
      * 
      * @param state
      * @return
+     * @see CompiledTimeContextCondition#satisfiedIn(long, TimeZone)
      */
     public boolean satisfiedIn(long state) {
-        Calendar cal;
-        if (this.isUTC) {
-            cal = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
-        } else {
-            cal = Calendar.getInstance();
-        }
-        cal.setTimeInMillis(state);
-        
-        // check day is okay
-        switch (this.interval) {
-            case REPEAT_DAILY:
-                break;
-            
-            case REPEAT_WEEKLY:
-                if (!this.days.contains(cal.get(Calendar.DAY_OF_WEEK))) {
-                    return false;
-                }
-                break;
-            
-            case REPEAT_MONTHLY:
-                if (!this.days.contains(cal.get(Calendar.DAY_OF_MONTH))) {
-                    return false;
-                }
-                break;
-            
-            case REPEAT_YEARLY:
-                if ((this.days.size() != 2) || (this.days.get(0) != cal.get(Calendar.MONTH))
-                        || (this.days.get(1) != cal.get(Calendar.DAY_OF_MONTH))) {
-                    return false;
-                }
-                break;
-        }
-        
-        // check time
-        int hour = cal.get(Calendar.HOUR_OF_DAY);
-        int min = cal.get(Calendar.MINUTE);
-        int sec = cal.get(Calendar.SECOND);
-        TimeContextTime now = new TimeContextTime(hour, min, sec);
-        
-        boolean timeWraps = this.begin.compareTo(this.end) > 0;
-        boolean dateBetweenBeginAndEnd = (this.begin.compareTo(now) <= 0) && (this.end.compareTo(now) >= 0);
-        
-        // either it's NOT wrapping AND     begin <= date <= end
-        //     or it's     wrapping AND NOT begin <= date <= end
-        return timeWraps ^ dateBetweenBeginAndEnd;
+        return new CompiledTimeContextCondition(this).satisfiedIn(state, TimeZone.getDefault());
+    }
+    
+    
+    /**
+     * @param state
+     * @return the first point in time after state in which {@link #satisfiedIn(long)} differs from state, or
+     *         {@link Long#MAX_VALUE}, if there is none
+     * @see CompiledTimeContextCondition#nextTransitionAfter(long, TimeZone)
+     */
+    public long nextTransition(long state) {
+        return new CompiledTimeContextCondition(this).nextTransitionAfter(state, TimeZone.getDefault());
     }
     
     
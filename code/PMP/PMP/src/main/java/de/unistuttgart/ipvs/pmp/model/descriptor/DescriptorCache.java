@@ -0,0 +1,351 @@
+/*
+ * Copyright 2012 pmp-android development team
+ * Project: PMP
+ * Project-Site: https://github.com/stachch/Privacy_Management_Platform
+ *
+ * ---------------------------------------------------------------------
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unistuttgart.ipvs.pmp.model.descriptor;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
+import de.unistuttgart.ipvs.pmp.PMPApplication;
+import de.unistuttgart.ipvs.pmp.model.PersistenceConstants;
+import de.unistuttgart.ipvs.pmp.model.assertion.Assert;
+import de.unistuttgart.ipvs.pmp.model.assertion.ModelMisuseError;
+import de.unistuttgart.ipvs.pmp.shared.Log;
+import de.unistuttgart.ipvs.pmp.util.ByteUtil;
+import de.unistuttgart.ipvs.pmp.xmlutil.XMLUtilityProxy;
+import de.unistuttgart.ipvs.pmp.xmlutil.ais.IAIS;
+import de.unistuttgart.ipvs.pmp.xmlutil.rgis.IRGIS;
+
+/**
+ * <p>
+ * Persistent cache for the parsed AIS and RGIS descriptors, so the XML files of apps and resource groups only have to
+ * be parsed once per version of the package.
+ * </p>
+ * 
+ * <p>
+ * Each entry is keyed by the package, its version code and the hash of its XML file, and additionally remembers the
+ * size and modification time of the file it was read from. As long as this file is unchanged, the descriptor is
+ * decoded from the compact binary form (see {@link DescriptorCodec}) without accessing the {@link PackageManager} or
+ * the XML at all. Otherwise the XML is read again, but only parsed if its hash changed.
+ * </p>
+ * 
+ * <p>
+ * Every call returns a new descriptor object, so callers may modify it freely.
+ * </p>
+ */
+public class DescriptorCache {
+    
+    private static final String CACHE_DIR_STR = "descriptors";
+    
+    private static final String AIS_STR = ".ais";
+    private static final String RGIS_STR = ".rgis";
+    private static final String TEMP_STR = ".tmp";
+    
+    /**
+     * Identifies the cache files and the version of their format.
+     */
+    private static final int MAGIC = 0x504d5044;
+    private static final int FORMAT = 1;
+    
+    /**
+     * Version code used for resource group entries, since they are identified by their XML file alone.
+     */
+    private static final int NO_VERSION_CODE = -1;
+    
+    /**
+     * The directory containing the cache files.
+     */
+    private final File directory;
+    
+    /**
+     * The entries already read from or written to the directory, by file name.
+     */
+    private final Map<String, Entry> entries;
+    
+    /**
+     * Singleton stuff
+     */
+    private static final DescriptorCache instance = new DescriptorCache();
+    
+    
+    public static DescriptorCache getInstance() {
+        return instance;
+    }
+    
+    
+    /**
+     * Singleton constructor
+     */
+    private DescriptorCache() {
+        this.directory = PMPApplication.getContext().getDir(CACHE_DIR_STR, Context.MODE_PRIVATE);
+        this.entries = new HashMap<String, Entry>();
+    }
+    
+    
+    /**
+     * Loads the AIS of an installed app.
+     * 
+     * @param appPackage
+     *            the package of the app
+     * @return a new AIS object for the app, or null, if no such package is installed
+     * @throws IOException
+     *             if the app contains no readable AIS
+     */
+    public synchronized IAIS getAIS(String appPackage) throws IOException {
+        Assert.nonNull(appPackage, ModelMisuseError.class, Assert.ILLEGAL_NULL, "appPackage", appPackage);
+        String fileName = appPackage + AIS_STR;
+        
+        Entry entry = getEntry(fileName);
+        if ((entry != null) && entry.isCurrent()) {
+            try {
+                return DescriptorCodec.decodeAIS(entry.data);
+            } catch (IOException ioe) {
+                Log.e(this, "Cached AIS of " + appPackage + " is corrupted.", ioe);
+                entry = null;
+            }
+        }
+        
+        // the package changed, so ask the package manager
+        PackageManager pm = PMPApplication.getContext().getPackageManager();
+        PackageInfo info;
+        byte[] xml;
+        try {
+            info = pm.getPackageInfo(appPackage, 0);
+            xml = ByteUtil.readAndClose(pm.getResourcesForApplication(info.applicationInfo).getAssets()
+                    .open(PersistenceConstants.APP_XML_NAME));
+        } catch (NameNotFoundException nnfe) {
+            invalidate(appPackage);
+            return null;
+        }
+        
+        byte[] hash = ByteUtil.sha1(xml);
+        byte[] data;
+        IAIS result;
+        if ((entry != null) && (entry.versionCode == info.versionCode) && Arrays.equals(entry.hash, hash)) {
+            data = entry.data;
+            result = DescriptorCodec.decodeAIS(data);
+        } else {
+            result = XMLUtilityProxy.getAppUtil().parse(new ByteArrayInputStream(xml));
+            data = DescriptorCodec.encodeAIS(result);
+        }
+        
+        putEntry(fileName, new Entry(new File(info.applicationInfo.sourceDir), info.versionCode, hash, data));
+        return result;
+    }
+    
+    
+    /**
+     * Loads the RGIS of a resource group.
+     * 
+     * @param rgPackage
+     *            the package of the resource group
+     * @param xmlFile
+     *            the extracted XML file of the resource group
+     * @return a new RGIS object for the resource group
+     * @throws IOException
+     *             if the XML file is not readable
+     */
+    public synchronized IRGIS getRGIS(String rgPackage, File xmlFile) throws IOException {
+        Assert.nonNull(rgPackage, ModelMisuseError.class, Assert.ILLEGAL_NULL, "rgPackage", rgPackage);
+        Assert.nonNull(xmlFile, ModelMisuseError.class, Assert.ILLEGAL_NULL, "xmlFile", xmlFile);
+        String fileName = rgPackage + RGIS_STR;
+        
+        Entry entry = getEntry(fileName);
+        if ((entry != null) && entry.source.equals(xmlFile.getPath()) && entry.isCurrent()) {
+            try {
+                return DescriptorCodec.decodeRGIS(entry.data);
+            } catch (IOException ioe) {
+                Log.e(this, "Cached RGIS of " + rgPackage + " is corrupted.", ioe);
+                entry = null;
+            }
+        }
+        
+        byte[] xml = ByteUtil.readAndClose(new FileInputStream(xmlFile));
+        byte[] hash = ByteUtil.sha1(xml);
+        byte[] data;
+        IRGIS result;
+        if ((entry != null) && Arrays.equals(entry.hash, hash)) {
+            data = entry.data;
+            result = DescriptorCodec.decodeRGIS(data);
+        } else {
+            result = XMLUtilityProxy.getRGUtil().parse(new ByteArrayInputStream(xml));
+            data = DescriptorCodec.encodeRGIS(result);
+        }
+        
+        putEntry(fileName, new Entry(xmlFile, NO_VERSION_CODE, hash, data));
+        return result;
+    }
+    
+    
+    /**
+     * Removes all the cached descriptors of a package, e.g. because it was uninstalled.
+     * 
+     * @param packageName
+     *            the package of the app or resource group
+     */
+    public synchronized void invalidate(String packageName) {
+        Assert.nonNull(packageName, ModelMisuseError.class, Assert.ILLEGAL_NULL, "packageName", packageName);
+        for (String fileName : new String[] { packageName + AIS_STR, packageName + RGIS_STR }) {
+            this.entries.remove(fileName);
+            File file = new File(this.directory, fileName);
+            if (file.exists() && !file.delete()) {
+                Log.e(this, "Error while deleting " + file.getPath());
+            }
+        }
+    }
+    
+    
+    /**
+     * Fetches an entry from memory or from its file.
+     * 
+     * @param fileName
+     * @return the entry, or null, if none exists or it is unreadable
+     */
+    private Entry getEntry(String fileName) {
+        Entry entry = this.entries.get(fileName);
+        if (entry != null) {
+            return entry;
+        }
+        
+        File file = new File(this.directory, fileName);
+        if (!file.exists()) {
+            return null;
+        }
+        
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(ByteUtil.readAndClose(new FileInputStream(
+                    file))));
+            if ((in.readInt() != MAGIC) || (in.readInt() != FORMAT)) {
+                throw new IOException("Unknown format.");
+            }
+            
+            String source = DescriptorCodec.readString(in);
+            long sourceModified = in.readLong();
+            long sourceLength = in.readLong();
+            int versionCode = in.readInt();
+            byte[] hash = new byte[in.readInt()];
+            in.readFully(hash);
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            
+            entry = new Entry(source, sourceModified, sourceLength, versionCode, hash, data);
+            this.entries.put(fileName, entry);
+            return entry;
+            
+        } catch (IOException ioe) {
+            Log.e(this, "Ignoring unreadable descriptor cache file " + file.getPath(), ioe);
+            return null;
+        } catch (RuntimeException re) {
+            // e.g. negative array sizes
+            Log.e(this, "Ignoring unreadable descriptor cache file " + file.getPath(), re);
+            return null;
+        }
+    }
+    
+    
+    /**
+     * Stores an entry in memory and writes it to its file. Failing to write is logged only, since the entry can always
+     * be recreated from the XML.
+     * 
+     * @param fileName
+     * @param entry
+     */
+    private void putEntry(String fileName, Entry entry) {
+        this.entries.put(fileName, entry);
+        
+        File temp = new File(this.directory, fileName + TEMP_STR);
+        try {
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(temp));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT);
+                DescriptorCodec.writeString(out, entry.source);
+                out.writeLong(entry.sourceModified);
+                out.writeLong(entry.sourceLength);
+                out.writeInt(entry.versionCode);
+                out.writeInt(entry.hash.length);
+                out.write(entry.hash);
+                out.writeInt(entry.data.length);
+                out.write(entry.data);
+            } finally {
+                out.close();
+            }
+            
+            if (!temp.renameTo(new File(this.directory, fileName))) {
+                throw new IOException("Could not rename " + temp.getPath());
+            }
+            
+        } catch (IOException ioe) {
+            Log.e(this, "Could not write descriptor cache file " + fileName, ioe);
+            temp.delete();
+        }
+    }
+    
+    
+    /**
+     * A cached descriptor together with the information identifying the version it was created from.
+     */
+    private static class Entry {
+        
+        private final String source;
+        private final long sourceModified;
+        private final long sourceLength;
+        private final int versionCode;
+        private final byte[] hash;
+        private final byte[] data;
+        
+        
+        public Entry(String source, long sourceModified, long sourceLength, int versionCode, byte[] hash, byte[] data) {
+            this.source = source;
+            this.sourceModified = sourceModified;
+            this.sourceLength = sourceLength;
+            this.versionCode = versionCode;
+            this.hash = hash;
+            this.data = data;
+        }
+        
+        
+        public Entry(File source, int versionCode, byte[] hash, byte[] data) {
+            this(source.getPath(), source.lastModified(), source.length(), versionCode, hash, data);
+        }
+        
+        
+        /**
+         * @return whether the file the entry was created from still exists unchanged
+         */
+        public boolean isCurrent() {
+            File file = new File(this.source);
+            return (file.lastModified() == this.sourceModified) && (file.length() == this.sourceLength)
+                    && (this.sourceModified != 0L);
+        }
+    }
+    
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2012 pmp-android development team
+ * Project: PMP
+ * Project-Site: https://github.com/stachch/Privacy_Management_Platform
+ *
+ * ---------------------------------------------------------------------
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unistuttgart.ipvs.pmp.model.descriptor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+import de.unistuttgart.ipvs.pmp.xmlutil.ais.AIS;
+import de.unistuttgart.ipvs.pmp.xmlutil.ais.AISRequiredPrivacySetting;
+import de.unistuttgart.ipvs.pmp.xmlutil.ais.AISRequiredResourceGroup;
+import de.unistuttgart.ipvs.pmp.xmlutil.ais.AISServiceFeature;
+import de.unistuttgart.ipvs.pmp.xmlutil.ais.IAIS;
+import de.unistuttgart.ipvs.pmp.xmlutil.ais.IAISRequiredPrivacySetting;
+import de.unistuttgart.ipvs.pmp.xmlutil.ais.IAISRequiredResourceGroup;
+import de.unistuttgart.ipvs.pmp.xmlutil.ais.IAISServiceFeature;
+import de.unistuttgart.ipvs.pmp.xmlutil.common.ILocalizedString;
+import de.unistuttgart.ipvs.pmp.xmlutil.common.LocalizedString;
+import de.unistuttgart.ipvs.pmp.xmlutil.rgis.IRGIS;
+import de.unistuttgart.ipvs.pmp.xmlutil.rgis.IRGISPrivacySetting;
+import de.unistuttgart.ipvs.pmp.xmlutil.rgis.RGIS;
+import de.unistuttgart.ipvs.pmp.xmlutil.rgis.RGISPrivacySetting;
+
+/**
+ * Compact binary form of {@link IAIS} and {@link IRGIS} objects used by the {@link DescriptorCache}. Only the
+ * information contained in the XML files is stored, validation issues are not.
+ */
+class DescriptorCodec {
+    
+    /**
+     * Markers for strings and locales that are null.
+     */
+    private static final byte NULL = 0;
+    private static final byte PRESENT = 1;
+    
+    
+    private DescriptorCodec() {
+    }
+    
+    
+    /**
+     * Encodes an AIS.
+     * 
+     * @param ais
+     *            the AIS to encode
+     * @return the binary form of ais
+     * @throws IOException
+     */
+    static byte[] encodeAIS(IAIS ais) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        
+        writeLocalizedStrings(out, ais.getNames());
+        writeLocalizedStrings(out, ais.getDescriptions());
+        
+        List<IAISServiceFeature> sfs = ais.getServiceFeatures();
+        out.writeInt(sfs.size());
+        for (IAISServiceFeature sf : sfs) {
+            writeString(out, sf.getIdentifier());
+            writeLocalizedStrings(out, sf.getNames());
+            writeLocalizedStrings(out, sf.getDescriptions());
+            
+            List<IAISRequiredResourceGroup> rrgs = sf.getRequiredResourceGroups();
+            out.writeInt(rrgs.size());
+            for (IAISRequiredResourceGroup rrg : rrgs) {
+                writeString(out, rrg.getIdentifier());
+                writeString(out, rrg.getMinRevision());
+                
+                List<IAISRequiredPrivacySetting> rpss = rrg.getRequiredPrivacySettings();
+                out.writeInt(rpss.size());
+                for (IAISRequiredPrivacySetting rps : rpss) {
+                    writeString(out, rps.getIdentifier());
+                    writeString(out, rps.getValue());
+                    out.writeBoolean(rps.isEmptyValue());
+                }
+            }
+        }
+        
+        out.flush();
+        return baos.toByteArray();
+    }
+    
+    
+    /**
+     * Decodes an AIS.
+     * 
+     * @param data
+     *            the binary form created by {@link #encodeAIS(IAIS)}
+     * @return a new AIS equal to the encoded one
+     * @throws IOException
+     *             if data is corrupted
+     */
+    static IAIS decodeAIS(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        AIS ais = new AIS();
+        
+        for (ILocalizedString name : readLocalizedStrings(in)) {
+            ais.addName(name);
+        }
+        for (ILocalizedString description : readLocalizedStrings(in)) {
+            ais.addDescription(description);
+        }
+        
+        int sfCount = in.readInt();
+        for (int i = 0; i < sfCount; i++) {
+            AISServiceFeature sf = new AISServiceFeature();
+            sf.setIdentifier(readString(in));
+            for (ILocalizedString name : readLocalizedStrings(in)) {
+                sf.addName(name);
+            }
+            for (ILocalizedString description : readLocalizedStrings(in)) {
+                sf.addDescription(description);
+            }
+            
+            int rrgCount = in.readInt();
+            for (int j = 0; j < rrgCount; j++) {
+                AISRequiredResourceGroup rrg = new AISRequiredResourceGroup();
+                rrg.setIdentifier(readString(in));
+                rrg.setMinRevision(readString(in));
+                
+                int rpsCount = in.readInt();
+                for (int k = 0; k < rpsCount; k++) {
+                    String identifier = readString(in);
+                    String value = readString(in);
+                    AISRequiredPrivacySetting rps = new AISRequiredPrivacySetting(identifier, value);
+                    rps.setIdentifier(identifier);
+                    rps.setValue(value);
+                    rps.setEmptyValue(in.readBoolean());
+                    rrg.addRequiredPrivacySetting(rps);
+                }
+                sf.addRequiredResourceGroup(rrg);
+            }
+            ais.addServiceFeature(sf);
+        }
+        
+        return ais;
+    }
+    
+    
+    /**
+     * Encodes an RGIS.
+     * 
+     * @param rgis
+     *            the RGIS to encode
+     * @return the binary form of rgis
+     * @throws IOException
+     */
+    static byte[] encodeRGIS(IRGIS rgis) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        
+        writeString(out, rgis.getIdentifier());
+        writeString(out, rgis.getIconLocation());
+        writeString(out, rgis.getClassName());
+        writeLocalizedStrings(out, rgis.getNames());
+        writeLocalizedStrings(out, rgis.getDescriptions());
+        
+        List<IRGISPrivacySetting> pss = rgis.getPrivacySettings();
+        out.writeInt(pss.size());
+        for (IRGISPrivacySetting ps : pss) {
+            writeString(out, ps.getIdentifier());
+            writeString(out, ps.getValidValueDescription());
+            out.writeBoolean(ps.isRequestable());
+            writeLocalizedStrings(out, ps.getNames());
+            writeLocalizedStrings(out, ps.getDescriptions());
+            writeLocalizedStrings(out, ps.getChangeDescriptions());
+        }
+        
+        out.flush();
+        return baos.toByteArray();
+    }
+    
+    
+    /**
+     * Decodes an RGIS.
+     * 
+     * @param data
+     *            the binary form created by {@link #encodeRGIS(IRGIS)}
+     * @return a new RGIS equal to the encoded one
+     * @throws IOException
+     *             if data is corrupted
+     */
+    static IRGIS decodeRGIS(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        RGIS rgis = new RGIS();
+        
+        rgis.setIdentifier(readString(in));
+        rgis.setIconLocation(readString(in));
+        rgis.setClassName(readString(in));
+        for (ILocalizedString name : readLocalizedStrings(in)) {
+            rgis.addName(name);
+        }
+        for (ILocalizedString description : readLocalizedStrings(in)) {
+            rgis.addDescription(description);
+        }
+        
+        int psCount = in.readInt();
+        for (int i = 0; i < psCount; i++) {
+            RGISPrivacySetting ps = new RGISPrivacySetting();
+            ps.setIdentifier(readString(in));
+            ps.setValidValueDescription(readString(in));
+            ps.setRequestable(in.readBoolean());
+            for (ILocalizedString name : readLocalizedStrings(in)) {
+                ps.addName(name);
+            }
+            for (ILocalizedString description : readLocalizedStrings(in)) {
+                ps.addDescription(description);
+            }
+            for (ILocalizedString changeDescription : readLocalizedStrings(in)) {
+                ps.addChangeDescription(changeDescription);
+            }
+            rgis.addPrivacySetting(ps);
+        }
+        
+        return rgis;
+    }
+    
+    
+    /*
+     * helpers 
+     */
+    
+    static void writeString(DataOutputStream out, String string) throws IOException {
+        if (string == null) {
+            out.writeByte(NULL);
+        } else {
+            out.writeByte(PRESENT);
+            byte[] bytes = string.getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+    
+    
+    static String readString(DataInputStream in) throws IOException {
+        if (in.readByte() == NULL) {
+            return null;
+        }
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Negative string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+    
+    
+    private static void writeLocalizedStrings(DataOutputStream out, List<ILocalizedString> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (ILocalizedString ls : strings) {
+            Locale locale = ls.getLocale();
+            if (locale == null) {
+                out.writeByte(NULL);
+            } else {
+                out.writeByte(PRESENT);
+                writeString(out, locale.getLanguage());
+                writeString(out, locale.getCountry());
+                writeString(out, locale.getVariant());
+            }
+            writeString(out, ls.getString());
+        }
+    }
+    
+    
+    private static ILocalizedString[] readLocalizedStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Negative localized string count " + count);
+        }
+        
+        ILocalizedString[] result = new ILocalizedString[count];
+        for (int i = 0; i < count; i++) {
+            LocalizedString ls = new LocalizedString();
+            if (in.readByte() != NULL) {
+                ls.setLocale(new Locale(readString(in), readString(in), readString(in)));
+            }
+            ls.setString(readString(in));
+            result[i] = ls;
+        }
+        return result;
+    }
+    
+}
@@ -55,12 +55,7 @@ public abstract class ElementPersistenceProvider<T extends ModelElement> extends
      * Internal call to activate loading of element data. Do not override this.
      */
     public void loadElementData() {
-        SQLiteDatabase rdb = getDoh().getReadableDatabase();
-        try {
-            loadElementData(rdb, getDoh().builder());
-        } finally {
-            rdb.close();
-        }
+        loadElementData(getDoh().open(), getDoh().builder());
     }
     
     
@@ -68,12 +63,7 @@ public abstract class ElementPersistenceProvider<T extends ModelElement> extends
      * Internal call to activate storing of element data. Do not override this.
      */
     public void storeElementData() {
-        SQLiteDatabase wdb = getDoh().getWritableDatabase();
-        try {
-            storeElementData(wdb, getDoh().builder());
-        } finally {
-            wdb.close();
-        }
+        storeElementData(getDoh().open(), getDoh().builder());
     }
     
     
@@ -81,12 +71,35 @@ public abstract class ElementPersistenceProvider<T extends ModelElement> extends
      * Internal call to delete the element. Do not override this.
      */
     public void deleteElementData() {
-        SQLiteDatabase wdb = getDoh().getWritableDatabase();
-        try {
-            deleteElementData(wdb, getDoh().builder());
-        } finally {
-            wdb.close();
+        deleteElementData(getDoh().open(), getDoh().builder());
+    }
+    
+    
+    /**
+     * Marks an element as cached whose data was filled in by a bulk load instead of {@link #loadElementData()}.
+     * 
+     * @param element
+     *            the element which is now completely loaded
+     */
+    protected static void markCached(ModelElement element) {
+        element.markCached();
+    }
+    
+    
+    /**
+     * Creates the key to match the rows of a bulk load to the elements.
+     * 
+     * @param parts
+     *            the identifying columns of the row
+     * @return a key unique for these identifying columns
+     */
+    protected static String bulkKey(String... parts) {
+        StringBuilder sb = new StringBuilder();
+        for (String part : parts) {
+            sb.append(part);
+            sb.append(PACKAGE_SEPARATOR);
         }
+        return sb.toString();
     }
     
     
@@ -94,7 +107,7 @@ public abstract class ElementPersistenceProvider<T extends ModelElement> extends
      * Loads the data of this element from the persistence.
      * 
      * @param rdb
-     *            a correctly initialized readable {@link SQLiteDatabase} that will be closed afterwards
+     *            a correctly initialized readable {@link SQLiteDatabase} that must not be closed
      * @param qb
      *            an {@link SQLiteQueryBuilder} for building queries
      */
@@ -105,7 +118,7 @@ public abstract class ElementPersistenceProvider<T extends ModelElement> extends
      * Stores the data of <b>THIS</b> element and only this element.
      * 
      * @param wdb
-     *            a correctly initialized writable {@link SQLiteDatabase} that will be closed afterwards
+     *            a correctly initialized writable {@link SQLiteDatabase} that must not be closed
      * @param qb
      *            an {@link SQLiteQueryBuilder} for building queries
      */
@@ -116,7 +129,7 @@ public abstract class ElementPersistenceProvider<T extends ModelElement> extends
      * Deletes <b>THIS</b> element and all possible references that are held on it and that it holds.
      * 
      * @param wdb
-     *            a correctly initialized writable {@link SQLiteDatabase} that will be closed afterwards
+     *            a correctly initialized writable {@link SQLiteDatabase} that must not be closed
      * @param qb
      *            an {@link SQLiteQueryBuilder} for building queries
      */
@@ -211,6 +211,15 @@ public abstract class ModelElement {
     }
     
     
+    /**
+     * Marks this element as cached after its data was filled in by a bulk load of its
+     * {@link ElementPersistenceProvider} instead of {@link #checkCached()}.
+     */
+    void markCached() {
+        this.cached = true;
+    }
+    
+    
     /**
      * 
      * @return true, if this element is cached i.e. it represents the current persistence state, false otherwise
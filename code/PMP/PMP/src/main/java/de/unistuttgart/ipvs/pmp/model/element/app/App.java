@@ -20,6 +20,7 @@
 package de.unistuttgart.ipvs.pmp.model.element.app;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -27,13 +28,13 @@ import java.util.Map;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.graphics.drawable.Drawable;
 import de.unistuttgart.ipvs.pmp.PMPApplication;
+import de.unistuttgart.ipvs.pmp.model.AssignmentIndex;
+import de.unistuttgart.ipvs.pmp.model.EffectiveValueTable;
 import de.unistuttgart.ipvs.pmp.model.PresetController;
 import de.unistuttgart.ipvs.pmp.model.assertion.Assert;
-import de.unistuttgart.ipvs.pmp.model.assertion.ModelIntegrityError;
 import de.unistuttgart.ipvs.pmp.model.assertion.ModelMisuseError;
 import de.unistuttgart.ipvs.pmp.model.element.ModelElement;
 import de.unistuttgart.ipvs.pmp.model.element.preset.IPreset;
-import de.unistuttgart.ipvs.pmp.model.element.preset.Preset;
 import de.unistuttgart.ipvs.pmp.model.element.privacysetting.IPrivacySetting;
 import de.unistuttgart.ipvs.pmp.model.element.servicefeature.IServiceFeature;
 import de.unistuttgart.ipvs.pmp.model.element.servicefeature.ServiceFeature;
@@ -59,7 +60,7 @@ public class App extends ModelElement implements IApp {
      * internal data & links
      */
     protected Map<String, ServiceFeature> serviceFeatures;
-    protected List<Preset> assignedPresets;
+    protected AssignmentIndex assignments;
     
     
     /* organizational */
@@ -74,7 +75,8 @@ public class App extends ModelElement implements IApp {
         return super.toString()
                 + String.format(" [ais = %s, sf = %s, ap = %s]", this.ais,
                         ModelElement.collapseMapToString(this.serviceFeatures),
-                        ModelElement.collapseListToString(this.assignedPresets));
+                        ModelElement.collapseListToString(this.assignments == null ? null : this.assignments
+                                .getPresets(this)));
     }
     
     
@@ -144,6 +146,12 @@ public class App extends ModelElement implements IApp {
     @Override
     public void verifyServiceFeatures() {
         checkCached();
+        // whatever triggered the verification may have changed the granted values
+        EffectiveValueTable.getInstance().invalidate(this);
+        if (IPCProvider.getInstance().defer(this)) {
+            return;
+        }
+        
         try {
             Map<ServiceFeature, Boolean> verification = PresetController.verifyServiceFeatures(this,
                     this.serviceFeatures.values());
@@ -159,7 +167,7 @@ public class App extends ModelElement implements IApp {
     @Override
     public List<IPreset> getAssignedPresets() {
         checkCached();
-        return new ArrayList<IPreset>(this.assignedPresets);
+        return Collections.<IPreset> unmodifiableList(this.assignments.getPresets(this));
     }
     
     
@@ -178,27 +186,6 @@ public class App extends ModelElement implements IApp {
     }
     
     
-    /**
-     * Removes the preset when it gets deleted.
-     * 
-     * @param p
-     */
-    public void removePreset(Preset p) {
-        checkCached();
-        Assert.nonNull(p, ModelIntegrityError.class, Assert.ILLEGAL_NULL, "p", p);
-        this.assignedPresets.remove(p);
-        verifyServiceFeatures();
-    }
-    
-    
-    public void addPreset(Preset p) {
-        checkCached();
-        Assert.nonNull(p, ModelIntegrityError.class, Assert.ILLEGAL_NULL, "p", p);
-        this.assignedPresets.add(p);
-        verifyServiceFeatures();
-    }
-    
-    
     /**
      * Used to remove the app without caching its expensive details like AIS. Required when deleting an app during an
      * Intent for {@link UninstallReceiver}. (the AIS is already gone then)
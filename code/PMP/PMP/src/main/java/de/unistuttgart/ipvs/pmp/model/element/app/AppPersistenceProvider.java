@@ -20,22 +20,17 @@
 package de.unistuttgart.ipvs.pmp.model.element.app;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.ArrayList;
 
 import android.content.ContentValues;
-import android.content.res.Resources;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
-import de.unistuttgart.ipvs.pmp.PMPApplication;
-import de.unistuttgart.ipvs.pmp.model.PersistenceConstants;
 import de.unistuttgart.ipvs.pmp.model.assertion.Assert;
 import de.unistuttgart.ipvs.pmp.model.assertion.ModelIntegrityError;
+import de.unistuttgart.ipvs.pmp.model.descriptor.DescriptorCache;
 import de.unistuttgart.ipvs.pmp.model.element.ElementPersistenceProvider;
-import de.unistuttgart.ipvs.pmp.model.element.preset.Preset;
 import de.unistuttgart.ipvs.pmp.model.element.servicefeature.ServiceFeature;
 import de.unistuttgart.ipvs.pmp.shared.Log;
-import de.unistuttgart.ipvs.pmp.xmlutil.XMLUtilityProxy;
+import de.unistuttgart.ipvs.pmp.xmlutil.ais.IAIS;
 
 /**
  * The persistence provider for {@link App}s.
@@ -62,26 +57,17 @@ public class AppPersistenceProvider extends ElementPersistenceProvider<App> {
         
         this.element.serviceFeatures = getCache().getServiceFeatures().get(this.element);
         
-        this.element.assignedPresets = new ArrayList<Preset>();
-        for (Preset p : getCache().getAllPresets()) {
-            if (p.isAppAssigned(this.element)) {
-                this.element.assignedPresets.add(p);
-            }
-        }
+        this.element.assignments = getCache().getAssignments();
         
         if (this.suppressResources) {
             // do not load AIS
             return;
         }
         
-        InputStream is = null;
         try {
-            Resources appResources = this.element.resourcesOfIdentifierPackage(PMPApplication.getContext());
-            Assert.nonNull(appResources, ModelIntegrityError.class, Assert.ILLEGAL_UNINSTALLED_ACCESS, "app",
-                    this.element);
-            
-            is = appResources.getAssets().open(PersistenceConstants.APP_XML_NAME);
-            this.element.ais = XMLUtilityProxy.getAppUtil().parse(is);
+            IAIS ais = DescriptorCache.getInstance().getAIS(this.element.getIdentifier());
+            Assert.nonNull(ais, ModelIntegrityError.class, Assert.ILLEGAL_UNINSTALLED_ACCESS, "app", this.element);
+            this.element.ais = ais;
             
         } catch (IOException e) {
             Log.e(this, "Did no longer find the app XML during loading its data.");
@@ -123,15 +109,11 @@ public class AppPersistenceProvider extends ElementPersistenceProvider<App> {
      */
     public App createElementData(String appPackage) {
         // store in db
-        SQLiteDatabase sqldb = getDoh().getWritableDatabase();
-        try {
-            ContentValues cv = new ContentValues();
-            cv.put(PACKAGE, appPackage);
-            if (sqldb.insert(TBL_APP, null, cv) == -1) {
-                return null;
-            }
-        } finally {
-            sqldb.close();
+        SQLiteDatabase sqldb = getDoh().open();
+        ContentValues cv = new ContentValues();
+        cv.put(PACKAGE, appPackage);
+        if (sqldb.insert(TBL_APP, null, cv) == -1) {
+            return null;
         }
         
         // create associated object
@@ -28,6 +28,7 @@ import de.unistuttgart.ipvs.pmp.model.element.preset.IPreset;
 import de.unistuttgart.ipvs.pmp.model.element.privacysetting.IPrivacySetting;
 import de.unistuttgart.ipvs.pmp.model.element.servicefeature.IServiceFeature;
 import de.unistuttgart.ipvs.pmp.model.element.servicefeature.ServiceFeature;
+import de.unistuttgart.ipvs.pmp.model.ipc.IPCProvider;
 import de.unistuttgart.ipvs.pmp.shared.resource.privacysetting.PrivacySettingValueException;
 
 /**
@@ -101,6 +102,11 @@ public interface IApp extends IModelElement {
      * The publishing itself is concurrent, the method will return without any information of the success of the
      * verification or the publishing.
      * </p>
+     * 
+     * <p>
+     * During an update session of the {@link IPCProvider}, the verification itself is deferred until the session ends,
+     * so an app is verified only once no matter how often this method was called.
+     * </p>
      */
     public void verifyServiceFeatures();
     
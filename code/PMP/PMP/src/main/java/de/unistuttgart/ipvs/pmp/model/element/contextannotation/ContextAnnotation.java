@@ -24,6 +24,7 @@ import java.util.List;
 import java.util.logging.Level;
 
 import de.unistuttgart.ipvs.pmp.PMPApplication;
+import de.unistuttgart.ipvs.pmp.model.EffectiveValueTable;
 import de.unistuttgart.ipvs.pmp.model.PersistenceConstants;
 import de.unistuttgart.ipvs.pmp.model.assertion.Assert;
 import de.unistuttgart.ipvs.pmp.model.assertion.ModelMisuseError;
@@ -31,6 +32,7 @@ import de.unistuttgart.ipvs.pmp.model.context.IContext;
 import de.unistuttgart.ipvs.pmp.model.element.ModelElement;
 import de.unistuttgart.ipvs.pmp.model.element.app.IApp;
 import de.unistuttgart.ipvs.pmp.model.element.preset.IPreset;
+import de.unistuttgart.ipvs.pmp.model.element.preset.Preset;
 import de.unistuttgart.ipvs.pmp.model.element.privacysetting.IPrivacySetting;
 import de.unistuttgart.ipvs.pmp.model.exception.InvalidConditionException;
 import de.unistuttgart.ipvs.pmp.shared.Log;
@@ -254,6 +256,10 @@ public class ContextAnnotation extends ModelElement implements IContextAnnotatio
     
     
     private void rolloutPreset() {
+        if (this.preset instanceof Preset) {
+            ((Preset) this.preset).modified();
+        }
+        EffectiveValueTable.getInstance().invalidate(this.preset);
         // will calculate the CA's activity first, then rollout the presets
         BootReceiver.startService(PMPApplication.getContext());
     }
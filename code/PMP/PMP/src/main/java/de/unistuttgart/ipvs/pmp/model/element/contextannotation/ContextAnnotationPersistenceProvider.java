@@ -19,6 +19,9 @@
  */
 package de.unistuttgart.ipvs.pmp.model.element.contextannotation;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Random;
 
 import android.content.ContentValues;
@@ -68,10 +71,72 @@ public class ContextAnnotationPersistenceProvider extends ElementPersistenceProv
             throw new ModelIntegrityError(Assert.format(Assert.ILLEGAL_DB, "ContextAnnotation", this));
         }
         
+        loadAnnotationRow(c);
+        c.close();
+    }
+    
+    
+    /**
+     * Loads the data of all the context annotations which are not yet cached at once, reading
+     * {@link #TBL_CONTEXT_ANNOTATIONS} only once. The context annotations found are marked cached afterwards.
+     * 
+     * @param rdb
+     *            a correctly initialized readable {@link SQLiteDatabase}
+     * @param qb
+     *            an {@link SQLiteQueryBuilder} for building queries
+     * @param contextAnnotations
+     *            the context annotations to load
+     */
+    public static void loadElementData(SQLiteDatabase rdb, SQLiteQueryBuilder qb,
+            Collection<ContextAnnotation> contextAnnotations) {
+        Map<String, ContextAnnotationPersistenceProvider> loading = new HashMap<String, ContextAnnotationPersistenceProvider>();
+        for (ContextAnnotation ca : contextAnnotations) {
+            if (!ca.isCached()) {
+                loading.put(
+                        bulkKey(PersistenceProvider.getPresetCreatorString(ca.preset), ca.preset.getLocalIdentifier(),
+                                ca.privacySetting.getResourceGroup().getIdentifier(),
+                                ca.privacySetting.getLocalIdentifier(), Integer.toString(ca.id)),
+                        new ContextAnnotationPersistenceProvider(ca));
+            }
+        }
+        
+        if (loading.isEmpty()) {
+            return;
+        }
+        
+        qb.setTables(TBL_CONTEXT_ANNOTATIONS);
+        Cursor c = qb.query(rdb, new String[] { PRESET_CREATOR, PRESET_IDENTIFIER,
+                PRIVACYSETTING_RESOURCEGROUP_PACKAGE, PRIVACYSETTING_IDENTIFIER, PRESET_PRIVACY_SETTING_ANNOTATION_ID,
+                CONTEXT_TYPE, CONTEXT_CONDITION, OVERRIDE_GRANTED_VALUE }, null, null, null, null, null);
+        if (c.moveToFirst()) {
+            do {
+                ContextAnnotationPersistenceProvider capp = loading.get(bulkKey(
+                        c.getString(c.getColumnIndex(PRESET_CREATOR)),
+                        c.getString(c.getColumnIndex(PRESET_IDENTIFIER)),
+                        c.getString(c.getColumnIndex(PRIVACYSETTING_RESOURCEGROUP_PACKAGE)),
+                        c.getString(c.getColumnIndex(PRIVACYSETTING_IDENTIFIER)),
+                        Integer.toString(c.getInt(c.getColumnIndex(PRESET_PRIVACY_SETTING_ANNOTATION_ID)))));
+                // the ones not found are left uncached, so they will complain when they are loaded lazily
+                if (capp != null) {
+                    capp.loadAnnotationRow(c);
+                    markCached(capp.element);
+                }
+            } while (c.moveToNext());
+        }
+        c.close();
+    }
+    
+    
+    /**
+     * Reads the values from a {@link #TBL_CONTEXT_ANNOTATIONS} row.
+     * 
+     * @param c
+     *            cursor pointing to the row
+     */
+    private void loadAnnotationRow(Cursor c) {
         this.element.context = PersistenceProvider.findContext(c.getString(c.getColumnIndex(CONTEXT_TYPE)));
         this.element.condition = c.getString(c.getColumnIndex(CONTEXT_CONDITION));
         this.element.overrideValue = c.getString(c.getColumnIndex(OVERRIDE_GRANTED_VALUE));
-        c.close();
     }
     
     
@@ -136,31 +201,26 @@ public class ContextAnnotationPersistenceProvider extends ElementPersistenceProv
         int noTries = 1;
         
         // store in db
-        SQLiteDatabase sqldb = getDoh().getWritableDatabase();
-        try {
-            ContentValues cv = new ContentValues();
-            cv.put(PRESET_CREATOR, PersistenceProvider.getPresetCreatorString(preset));
-            cv.put(PRESET_IDENTIFIER, preset.getLocalIdentifier());
-            cv.put(PRIVACYSETTING_RESOURCEGROUP_PACKAGE, privacySetting.getResourceGroup().getIdentifier());
-            cv.put(PRIVACYSETTING_IDENTIFIER, privacySetting.getLocalIdentifier());
+        SQLiteDatabase sqldb = getDoh().open();
+        ContentValues cv = new ContentValues();
+        cv.put(PRESET_CREATOR, PersistenceProvider.getPresetCreatorString(preset));
+        cv.put(PRESET_IDENTIFIER, preset.getLocalIdentifier());
+        cv.put(PRIVACYSETTING_RESOURCEGROUP_PACKAGE, privacySetting.getResourceGroup().getIdentifier());
+        cv.put(PRIVACYSETTING_IDENTIFIER, privacySetting.getLocalIdentifier());
+        cv.put(PRESET_PRIVACY_SETTING_ANNOTATION_ID, id);
+        cv.put(CONTEXT_TYPE, context.getIdentifier());
+        cv.put(CONTEXT_CONDITION, condition);
+        cv.put(OVERRIDE_GRANTED_VALUE, overrideValue);
+        
+        long newRow = 0L;
+        while (((newRow = sqldb.insert(TBL_CONTEXT_ANNOTATIONS, null, cv)) == -1) && (noTries < 10)) {
+            id = rng.nextInt();
             cv.put(PRESET_PRIVACY_SETTING_ANNOTATION_ID, id);
-            cv.put(CONTEXT_TYPE, context.getIdentifier());
-            cv.put(CONTEXT_CONDITION, condition);
-            cv.put(OVERRIDE_GRANTED_VALUE, overrideValue);
-            
-            long newRow = 0L;
-            while (((newRow = sqldb.insert(TBL_CONTEXT_ANNOTATIONS, null, cv)) == -1) && (noTries < 10)) {
-                id = rng.nextInt();
-                cv.put(PRESET_PRIVACY_SETTING_ANNOTATION_ID, id);
-                noTries++;
-            }
-            
-            if (newRow == -1) {
-                return null;
-            }
-            
-        } finally {
-            sqldb.close();
+            noTries++;
+        }
+        
+        if (newRow == -1) {
+            return null;
         }
         
         // create associated object
@@ -326,6 +326,13 @@ public interface IPreset extends IModelElement {
     public List<IPrivacySetting> getPSPSConflicts(IPreset preset);
     
     
+    /**
+     * @return a counter which changes whenever this preset is changed, e.g. to find out whether a result computed from
+     *         it is still valid.
+     */
+    public int getModificationCount();
+    
+    
     /**
      * 
      * @return a {@link PresetTransaction} that is capable of executing all the {@link IPreset} functionality in an
@@ -27,10 +27,14 @@ import java.util.Set;
 import java.util.logging.Level;
 
 import de.unistuttgart.ipvs.pmp.PMPApplication;
+import de.unistuttgart.ipvs.pmp.model.AssignmentIndex;
+import de.unistuttgart.ipvs.pmp.model.EffectiveValueTable;
 import de.unistuttgart.ipvs.pmp.model.PersistenceConstants;
+import de.unistuttgart.ipvs.pmp.model.PersistenceProvider;
 import de.unistuttgart.ipvs.pmp.model.assertion.Assert;
 import de.unistuttgart.ipvs.pmp.model.assertion.ModelIntegrityError;
 import de.unistuttgart.ipvs.pmp.model.assertion.ModelMisuseError;
+import de.unistuttgart.ipvs.pmp.model.conflicts.ConflictModel;
 import de.unistuttgart.ipvs.pmp.model.context.IContext;
 import de.unistuttgart.ipvs.pmp.model.element.IModelElement;
 import de.unistuttgart.ipvs.pmp.model.element.ModelElement;
@@ -73,13 +77,18 @@ public class Preset extends ModelElement implements IPreset {
      * internal data & links
      */
     protected Map<IPrivacySetting, String> privacySettingValues;
-    protected List<IApp> assignedApps;
+    protected AssignmentIndex assignments;
     protected Map<IPrivacySetting, List<ContextAnnotation>> contextAnnotations;
     
     protected List<MissingPrivacySettingValue> missingPrivacySettings;
     protected List<MissingApp> missingApps;
     protected boolean deleted;
     
+    /**
+     * counts the changes to this preset, see {@link #modified()}
+     */
+    protected volatile int modificationCount;
+    
     protected PresetTransaction transaction;
     
     
@@ -97,7 +106,8 @@ public class Preset extends ModelElement implements IPreset {
         return super.toString()
                 + String.format(" [name = %s, desc = %s, psv = %s, aa = %s, ca = %s, mps = %s, ma = %s, d = %s]",
                         this.name, this.description, ModelElement.collapseMapToString(this.privacySettingValues),
-                        ModelElement.collapseListToString(this.assignedApps),
+                        ModelElement.collapseListToString(this.assignments == null ? null : this.assignments
+                                .getApps(this)),
                         ModelElement.collapseMapToString(this.contextAnnotations),
                         ModelElement.collapseListToString(this.missingPrivacySettings),
                         ModelElement.collapseListToString(this.missingApps), String.valueOf(this.deleted));
@@ -137,6 +147,7 @@ public class Preset extends ModelElement implements IPreset {
         Assert.nonNull(name, ModelMisuseError.class, Assert.ILLEGAL_NULL, "name", name);
         this.name = name;
         persist();
+        modified();
     }
     
     
@@ -153,6 +164,7 @@ public class Preset extends ModelElement implements IPreset {
         Assert.nonNull(description, ModelMisuseError.class, Assert.ILLEGAL_NULL, "description", description);
         this.description = description;
         persist();
+        modified();
     }
     
     
@@ -174,7 +186,7 @@ public class Preset extends ModelElement implements IPreset {
     @Override
     public List<IApp> getAssignedApps() {
         checkCached();
-        return new ArrayList<IApp>(this.assignedApps);
+        return this.assignments.getApps(this);
     }
     
     
@@ -182,7 +194,7 @@ public class Preset extends ModelElement implements IPreset {
     public boolean isAppAssigned(IApp app) {
         checkCached();
         Assert.nonNull(app, ModelMisuseError.class, Assert.ILLEGAL_NULL, "app", app);
-        return this.assignedApps.contains(app);
+        return this.assignments.isAssigned(this, app);
     }
     
     
@@ -198,13 +210,10 @@ public class Preset extends ModelElement implements IPreset {
         if (this.persistenceProvider != null) {
             ((PresetPersistenceProvider) this.persistenceProvider).assignApp(app);
         }
-        this.assignedApps.add(app);
+        this.assignments.assign(this, app);
+        modified();
         
-        if (app instanceof App) {
-            ((App) app).addPreset(this);
-        } else {
-            throw new ModelIntegrityError(Assert.format(Assert.ILLEGAL_CLASS, "app", app));
-        }
+        app.verifyServiceFeatures();
     }
     
     
@@ -220,13 +229,10 @@ public class Preset extends ModelElement implements IPreset {
         if (this.persistenceProvider != null) {
             ((PresetPersistenceProvider) this.persistenceProvider).removeApp(app);
         }
-        this.assignedApps.remove(app);
+        this.assignments.remove(this, app);
+        modified();
         
-        if (app instanceof App) {
-            ((App) app).removePreset(this);
-        } else {
-            throw new ModelIntegrityError(Assert.format(Assert.ILLEGAL_CLASS, "app", app));
-        }
+        app.verifyServiceFeatures();
     }
     
     
@@ -247,6 +253,7 @@ public class Preset extends ModelElement implements IPreset {
             ((PresetPersistenceProvider) this.persistenceProvider).assignPrivacySetting(privacySetting, value);
         }
         this.privacySettingValues.put(privacySetting, value);
+        modified();
         
         rollout();
     }
@@ -265,6 +272,7 @@ public class Preset extends ModelElement implements IPreset {
             ((PresetPersistenceProvider) this.persistenceProvider).removePrivacySetting(privacySetting);
         }
         this.privacySettingValues.remove(privacySetting);
+        modified();
         
         rollout();
     }
@@ -279,12 +287,14 @@ public class Preset extends ModelElement implements IPreset {
                 "Requested to assign service feature '%s' to preset '%s'.", serviceFeature.getName(), getName());
         
         IPCProvider.getInstance().startUpdate();
+        PersistenceProvider.getInstance().startBatch();
         try {
             for (IPrivacySetting ps : serviceFeature.getRequiredPrivacySettings()) {
                 assignPrivacySetting(ps, serviceFeature.getRequiredPrivacySettingValue(ps));
             }
             
         } finally {
+            PersistenceProvider.getInstance().endBatch();
             IPCProvider.getInstance().endUpdate();
         }
     }
@@ -317,6 +327,7 @@ public class Preset extends ModelElement implements IPreset {
         this.deleted = deleted;
         persist();
         forceRecache();
+        modified();
         rollout();
     }
     
@@ -338,6 +349,7 @@ public class Preset extends ModelElement implements IPreset {
             
             // safe because App has no persistence and only uses identifier
             ((PresetPersistenceProvider) this.persistenceProvider).removeApp(new App(missingApp.getApp()));
+            modified();
             return true;
         }
         
@@ -392,7 +404,9 @@ public class Preset extends ModelElement implements IPreset {
         ContextAnnotation ca = new ContextAnnotationPersistenceProvider(null).createElementData(this, privacySetting,
                 context, contextCondition, overrideValue);
         psList.add(ca);
+        modified();
         
+        EffectiveValueTable.getInstance().invalidate(this);
         BootReceiver.startService(PMPApplication.getContext());
     }
     
@@ -416,6 +430,7 @@ public class Preset extends ModelElement implements IPreset {
         }
         ContextAnnotation removed = psList.remove(caLoc);
         removed.delete();
+        modified();
         
         rollout();
     }
@@ -467,6 +482,12 @@ public class Preset extends ModelElement implements IPreset {
     }
     
     
+    @Override
+    public int getModificationCount() {
+        return this.modificationCount;
+    }
+    
+    
     @Override
     public PresetTransaction getTransaction() {
         checkCached();
@@ -515,7 +536,9 @@ public class Preset extends ModelElement implements IPreset {
     /* inter-model communication */
     
     /**
-     * Forces a rollout to all the affected apps. Useful when this preset changed its active state.
+     * Forces a rollout to all the affected apps. Useful when this preset changed its active state. Does not count as a
+     * change, since the conflicts do not depend on the active state; changes have to call {@link #modified()}
+     * themselves.
      */
     public void rollout() {
         for (IApp app : getAssignedApps()) {
@@ -531,7 +554,31 @@ public class Preset extends ModelElement implements IPreset {
      */
     public void removeDeletedApp(App a) {
         Assert.nonNull(a, ModelIntegrityError.class, Assert.ILLEGAL_NULL, "a", a);
-        this.assignedApps.remove(a);
+        this.assignments.remove(this, a);
+        modified();
+    }
+    
+    
+    /**
+     * Re-reading the preset may change its assigned apps and granted privacy settings, e.g. when an app or resource
+     * group it refers to was (un)installed, so the re-cache counts as a change.
+     */
+    @Override
+    public boolean forceRecache() {
+        boolean result = super.forceRecache();
+        if (result) {
+            modified();
+        }
+        return result;
+    }
+    
+    
+    /**
+     * Counts a change to this preset and tells the {@link ConflictModel} about it.
+     */
+    public void modified() {
+        this.modificationCount++;
+        ConflictModel.getInstance().invalidate();
     }
     
     
@@ -20,14 +20,19 @@
 package de.unistuttgart.ipvs.pmp.model.element.preset;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import de.unistuttgart.ipvs.pmp.model.AssignmentIndex;
 import de.unistuttgart.ipvs.pmp.model.PersistenceConstants;
 import de.unistuttgart.ipvs.pmp.model.assertion.Assert;
 import de.unistuttgart.ipvs.pmp.model.assertion.ModelIntegrityError;
@@ -51,6 +56,12 @@ import de.unistuttgart.ipvs.pmp.shared.Log;
  */
 public class PresetPersistenceProvider extends ElementPersistenceProvider<Preset> {
     
+    /**
+     * The apps read while loading, published to the assignment index at once when all rows were read.
+     */
+    private List<IApp> loadedApps;
+    
+    
     public PresetPersistenceProvider(Preset element) {
         super(element);
     }
@@ -64,9 +75,7 @@ public class PresetPersistenceProvider extends ElementPersistenceProvider<Preset
                 null, null, null);
         
         if (c.moveToFirst()) {
-            this.element.name = c.getString(c.getColumnIndex(NAME));
-            this.element.description = c.getString(c.getColumnIndex(DESCRIPTION));
-            this.element.deleted = Boolean.valueOf(c.getString(c.getColumnIndex(DELETED)));
+            loadPresetRow(c);
         } else {
             throw new ModelIntegrityError(Assert.format(Assert.ILLEGAL_DB, "Preset", this));
         }
@@ -78,34 +87,11 @@ public class PresetPersistenceProvider extends ElementPersistenceProvider<Preset
                 GRANTEDVALUE }, PRESET_CREATOR + " = ? AND " + PRESET_IDENTIFIER + " = ?", new String[] {
                 getPresetCreatorString(this.element), this.element.getLocalIdentifier() }, null, null, null);
         
-        this.element.privacySettingValues = new HashMap<IPrivacySetting, String>();
-        this.element.missingPrivacySettings = new ArrayList<MissingPrivacySettingValue>();
-        this.element.missingApps = new ArrayList<MissingApp>();
+        initReferences();
         
         if (cps.moveToFirst()) {
             do {
-                String rgPackage = cps.getString(cps.getColumnIndex(PRIVACYSETTING_RESOURCEGROUP_PACKAGE));
-                String psIdentifier = cps.getString(cps.getColumnIndex(PRIVACYSETTING_IDENTIFIER));
-                String grantValue = cps.getString(cps.getColumnIndex(GRANTEDVALUE));
-                
-                ResourceGroup rg = getCache().getResourceGroups().get(rgPackage);
-                if (rg == null) {
-                    Log.w(this, String.format("Unavailable preset cached (RG '%s' not present).", rgPackage));
-                    this.element.missingPrivacySettings.add(new MissingPrivacySettingValue(rgPackage, psIdentifier,
-                            grantValue));
-                    
-                } else {
-                    PrivacySetting ps = getCache().getPrivacySettings().get(rg).get(psIdentifier);
-                    if (ps == null) {
-                        Log.w(this, String.format("Unavailable preset cached (PS '%s' not found in RG '%s').",
-                                psIdentifier, rg));
-                        this.element.missingPrivacySettings.add(new MissingPrivacySettingValue(rgPackage, psIdentifier,
-                                grantValue));
-                        
-                    } else {
-                        this.element.privacySettingValues.put(ps, grantValue);
-                    }
-                }
+                loadGrantedValueRow(cps);
             } while (cps.moveToNext());
         }
         cps.close();
@@ -115,31 +101,196 @@ public class PresetPersistenceProvider extends ElementPersistenceProvider<Preset
         Cursor capp = qb.query(rdb, new String[] { APP_PACKAGE }, PRESET_CREATOR + " = ? AND " + PRESET_IDENTIFIER
                 + " = ?", new String[] { getPresetCreatorString(this.element), this.element.getLocalIdentifier() },
                 null, null, null);
-        this.element.assignedApps = new ArrayList<IApp>();
         
         if (capp.moveToFirst()) {
             do {
-                String appPackage = capp.getString(capp.getColumnIndex(APP_PACKAGE));
-                
-                App app = getCache().getApps().get(appPackage);
-                if (app == null) {
-                    Log.w(this, String.format("Unavailable preset cached (App '%s' not found).", appPackage));
-                    this.element.missingApps.add(new MissingApp(appPackage));
-                    
-                } else {
-                    this.element.assignedApps.add(app);
+                loadAssignedAppRow(capp);
+            } while (capp.moveToNext());
+        }
+        capp.close();
+        this.element.assignments.setApps(this.element, this.loadedApps);
+        this.loadedApps = null;
+        
+        loadContextAnnotations();
+    }
+    
+    
+    /**
+     * Loads the data of all the presets which are not yet cached at once, reading each of the involved tables only
+     * once. The presets are marked cached afterwards.
+     * 
+     * @param rdb
+     *            a correctly initialized readable {@link SQLiteDatabase}
+     * @param qb
+     *            an {@link SQLiteQueryBuilder} for building queries
+     * @param presets
+     *            the presets to load
+     */
+    public static void loadElementData(SQLiteDatabase rdb, SQLiteQueryBuilder qb, Collection<Preset> presets) {
+        Map<String, PresetPersistenceProvider> loading = new HashMap<String, PresetPersistenceProvider>();
+        for (Preset p : presets) {
+            if (!p.isCached()) {
+                PresetPersistenceProvider ppp = new PresetPersistenceProvider(p);
+                ppp.initReferences();
+                loading.put(bulkKey(getPresetCreatorString(p), p.getLocalIdentifier()), ppp);
+            }
+        }
+        
+        if (loading.isEmpty()) {
+            return;
+        }
+        
+        // presets which are present in the DB, the others will complain when they are loaded lazily
+        Set<PresetPersistenceProvider> found = new HashSet<PresetPersistenceProvider>();
+        
+        qb.setTables(TBL_PRESET);
+        Cursor c = qb.query(rdb, new String[] { CREATOR, IDENTIFIER, NAME, DESCRIPTION, DELETED }, null, null, null,
+                null, null);
+        if (c.moveToFirst()) {
+            do {
+                PresetPersistenceProvider ppp = loading.get(bulkKey(c.getString(c.getColumnIndex(CREATOR)),
+                        c.getString(c.getColumnIndex(IDENTIFIER))));
+                if (ppp != null) {
+                    ppp.loadPresetRow(c);
+                    found.add(ppp);
+                }
+            } while (c.moveToNext());
+        }
+        c.close();
+        
+        qb.setTables(TBL_GrantPSValue);
+        Cursor cps = qb.query(rdb, new String[] { PRESET_CREATOR, PRESET_IDENTIFIER,
+                PRIVACYSETTING_RESOURCEGROUP_PACKAGE, PRIVACYSETTING_IDENTIFIER, GRANTEDVALUE }, null, null, null, null,
+                null);
+        if (cps.moveToFirst()) {
+            do {
+                PresetPersistenceProvider ppp = loading.get(bulkKey(cps.getString(cps.getColumnIndex(PRESET_CREATOR)),
+                        cps.getString(cps.getColumnIndex(PRESET_IDENTIFIER))));
+                if (ppp != null) {
+                    ppp.loadGrantedValueRow(cps);
+                }
+            } while (cps.moveToNext());
+        }
+        cps.close();
+        
+        qb.setTables(TBL_PresetAssignedApp);
+        Cursor capp = qb.query(rdb, new String[] { PRESET_CREATOR, PRESET_IDENTIFIER, APP_PACKAGE }, null, null, null,
+                null, null);
+        if (capp.moveToFirst()) {
+            do {
+                PresetPersistenceProvider ppp = loading.get(bulkKey(
+                        capp.getString(capp.getColumnIndex(PRESET_CREATOR)),
+                        capp.getString(capp.getColumnIndex(PRESET_IDENTIFIER))));
+                if (ppp != null) {
+                    ppp.loadAssignedAppRow(capp);
                 }
             } while (capp.moveToNext());
         }
         capp.close();
         
-        // load context annotations out of the cache
+        // all the presets share the index of the cache, publish all their apps at once
+        Map<Preset, List<IApp>> assignments = new HashMap<Preset, List<IApp>>();
+        AssignmentIndex index = null;
+        for (PresetPersistenceProvider ppp : loading.values()) {
+            assignments.put(ppp.element, ppp.loadedApps);
+            ppp.loadedApps = null;
+            index = ppp.element.assignments;
+        }
+        index.setAll(assignments);
+        
+        for (PresetPersistenceProvider ppp : found) {
+            ppp.loadContextAnnotations();
+            markCached(ppp.element);
+        }
+    }
+    
+    
+    /**
+     * Reads the basic values from a {@link #TBL_PRESET} row.
+     * 
+     * @param c
+     *            cursor pointing to the row
+     */
+    private void loadPresetRow(Cursor c) {
+        this.element.name = c.getString(c.getColumnIndex(NAME));
+        this.element.description = c.getString(c.getColumnIndex(DESCRIPTION));
+        this.element.deleted = Boolean.valueOf(c.getString(c.getColumnIndex(DELETED)));
+    }
+    
+    
+    /**
+     * Resets the references of the preset before the rows are read.
+     */
+    private void initReferences() {
+        this.element.privacySettingValues = new HashMap<IPrivacySetting, String>();
+        this.element.missingPrivacySettings = new ArrayList<MissingPrivacySettingValue>();
+        this.element.missingApps = new ArrayList<MissingApp>();
+        this.element.assignments = getCache().getAssignments();
+        this.loadedApps = new ArrayList<IApp>();
+    }
+    
+    
+    /**
+     * Reads one granted privacy setting value from a {@link #TBL_GrantPSValue} row.
+     * 
+     * @param cps
+     *            cursor pointing to the row
+     */
+    private void loadGrantedValueRow(Cursor cps) {
+        String rgPackage = cps.getString(cps.getColumnIndex(PRIVACYSETTING_RESOURCEGROUP_PACKAGE));
+        String psIdentifier = cps.getString(cps.getColumnIndex(PRIVACYSETTING_IDENTIFIER));
+        String grantValue = cps.getString(cps.getColumnIndex(GRANTEDVALUE));
+        
+        ResourceGroup rg = getCache().getResourceGroups().get(rgPackage);
+        if (rg == null) {
+            Log.w(this, String.format("Unavailable preset cached (RG '%s' not present).", rgPackage));
+            this.element.missingPrivacySettings.add(new MissingPrivacySettingValue(rgPackage, psIdentifier,
+                    grantValue));
+            
+        } else {
+            PrivacySetting ps = getCache().getPrivacySettings().get(rg).get(psIdentifier);
+            if (ps == null) {
+                Log.w(this, String.format("Unavailable preset cached (PS '%s' not found in RG '%s').", psIdentifier,
+                        rg));
+                this.element.missingPrivacySettings.add(new MissingPrivacySettingValue(rgPackage, psIdentifier,
+                        grantValue));
+                
+            } else {
+                this.element.privacySettingValues.put(ps, grantValue);
+            }
+        }
+    }
+    
+    
+    /**
+     * Reads one assigned app from a {@link #TBL_PresetAssignedApp} row.
+     * 
+     * @param capp
+     *            cursor pointing to the row
+     */
+    private void loadAssignedAppRow(Cursor capp) {
+        String appPackage = capp.getString(capp.getColumnIndex(APP_PACKAGE));
+        
+        App app = getCache().getApps().get(appPackage);
+        if (app == null) {
+            Log.w(this, String.format("Unavailable preset cached (App '%s' not found).", appPackage));
+            this.element.missingApps.add(new MissingApp(appPackage));
+            
+        } else {
+            this.loadedApps.add(app);
+        }
+    }
+    
+    
+    /**
+     * Links the context annotations out of the cache.
+     */
+    private void loadContextAnnotations() {
         if (!getCache().getContextAnnotations().containsKey(this.element)) {
             getCache().getContextAnnotations().put(this.element,
                     new HashMap<IPrivacySetting, List<ContextAnnotation>>());
         }
         this.element.contextAnnotations = getCache().getContextAnnotations().get(this.element);
-        
     }
     
     
@@ -180,67 +331,52 @@ public class PresetPersistenceProvider extends ElementPersistenceProvider<Preset
     
     
     protected void assignApp(IApp app) {
-        SQLiteDatabase wdb = getDoh().getWritableDatabase();
-        try {
-            ContentValues cv = new ContentValues();
-            cv.put(PRESET_IDENTIFIER, this.element.getLocalIdentifier());
-            cv.put(PRESET_CREATOR, getPresetCreatorString(this.element));
-            cv.put(APP_PACKAGE, app.getIdentifier());
-            
-            wdb.insert(PersistenceConstants.TBL_PresetAssignedApp, null, cv);
-        } finally {
-            wdb.close();
-        }
+        SQLiteDatabase wdb = getDoh().open();
+        ContentValues cv = new ContentValues();
+        cv.put(PRESET_IDENTIFIER, this.element.getLocalIdentifier());
+        cv.put(PRESET_CREATOR, getPresetCreatorString(this.element));
+        cv.put(APP_PACKAGE, app.getIdentifier());
+        
+        wdb.insert(PersistenceConstants.TBL_PresetAssignedApp, null, cv);
+        getCache().getDependencies().addPresetApp(app.getIdentifier(), this.element);
     }
     
     
     protected void removeApp(IApp app) {
-        SQLiteDatabase wdb = getDoh().getWritableDatabase();
-        try {
-            wdb.rawQuery("DELETE FROM " + TBL_PresetAssignedApp + " WHERE " + PRESET_CREATOR + " = ? AND "
-                    + PRESET_IDENTIFIER + " = ? AND " + APP_PACKAGE + " = ?", new String[] {
-                    getPresetCreatorString(this.element), this.element.getLocalIdentifier(), app.getIdentifier() });
-        } finally {
-            wdb.close();
-        }
+        SQLiteDatabase wdb = getDoh().open();
+        wdb.delete(TBL_PresetAssignedApp, PRESET_CREATOR + " = ? AND " + PRESET_IDENTIFIER + " = ? AND " + APP_PACKAGE
+                + " = ?", new String[] { getPresetCreatorString(this.element), this.element.getLocalIdentifier(),
+                app.getIdentifier() });
     }
     
     
     protected void assignPrivacySetting(IPrivacySetting ps, String value) {
-        SQLiteDatabase wdb = getDoh().getWritableDatabase();
+        SQLiteDatabase wdb = getDoh().open();
+        ContentValues cv = new ContentValues();
+        cv.put(PRIVACYSETTING_RESOURCEGROUP_PACKAGE, ps.getResourceGroup().getIdentifier());
+        cv.put(PRIVACYSETTING_IDENTIFIER, ps.getLocalIdentifier());
+        cv.put(PRESET_CREATOR, getPresetCreatorString(this.element));
+        cv.put(PRESET_IDENTIFIER, this.element.getLocalIdentifier());
+        cv.put(GRANTEDVALUE, value);
+        
         try {
-            ContentValues cv = new ContentValues();
-            cv.put(PRIVACYSETTING_RESOURCEGROUP_PACKAGE, ps.getResourceGroup().getIdentifier());
-            cv.put(PRIVACYSETTING_IDENTIFIER, ps.getLocalIdentifier());
-            cv.put(PRESET_CREATOR, getPresetCreatorString(this.element));
-            cv.put(PRESET_IDENTIFIER, this.element.getLocalIdentifier());
-            cv.put(GRANTEDVALUE, value);
-            
-            try {
-                wdb.insertOrThrow(TBL_GrantPSValue, null, cv);
-            } catch (SQLException sqle) {
-                wdb.update(TBL_GrantPSValue, cv, PRIVACYSETTING_RESOURCEGROUP_PACKAGE + " = ? AND "
-                        + PRIVACYSETTING_IDENTIFIER + " = ? AND " + PRESET_CREATOR + " = ? AND " + PRESET_IDENTIFIER
-                        + " = ?", new String[] { ps.getResourceGroup().getIdentifier(), ps.getLocalIdentifier(),
-                        getPresetCreatorString(this.element), this.element.getLocalIdentifier() });
-            }
-        } finally {
-            wdb.close();
+            wdb.insertOrThrow(TBL_GrantPSValue, null, cv);
+        } catch (SQLException sqle) {
+            wdb.update(TBL_GrantPSValue, cv, PRIVACYSETTING_RESOURCEGROUP_PACKAGE + " = ? AND "
+                    + PRIVACYSETTING_IDENTIFIER + " = ? AND " + PRESET_CREATOR + " = ? AND " + PRESET_IDENTIFIER
+                    + " = ?", new String[] { ps.getResourceGroup().getIdentifier(), ps.getLocalIdentifier(),
+                    getPresetCreatorString(this.element), this.element.getLocalIdentifier() });
         }
+        getCache().getDependencies().addPresetResourceGroup(ps.getResourceGroup().getIdentifier(), this.element);
     }
     
     
     protected void removePrivacySetting(IPrivacySetting ps) {
-        SQLiteDatabase wdb = getDoh().getWritableDatabase();
-        try {
-            wdb.rawQuery("DELETE FROM " + TBL_GrantPSValue + " WHERE " + PRIVACYSETTING_RESOURCEGROUP_PACKAGE
-                    + " = ? AND " + PRIVACYSETTING_IDENTIFIER + " = ? AND " + PRESET_CREATOR + " = ? AND "
-                    + PRESET_IDENTIFIER + " = ?",
-                    new String[] { ps.getResourceGroup().getIdentifier(), ps.getLocalIdentifier(),
-                            getPresetCreatorString(this.element), this.element.getLocalIdentifier() });
-        } finally {
-            wdb.close();
-        }
+        SQLiteDatabase wdb = getDoh().open();
+        wdb.delete(TBL_GrantPSValue, PRIVACYSETTING_RESOURCEGROUP_PACKAGE + " = ? AND " + PRIVACYSETTING_IDENTIFIER
+                + " = ? AND " + PRESET_CREATOR + " = ? AND " + PRESET_IDENTIFIER + " = ?", new String[] {
+                ps.getResourceGroup().getIdentifier(), ps.getLocalIdentifier(), getPresetCreatorString(this.element),
+                this.element.getLocalIdentifier() });
     }
     
     
@@ -261,19 +397,15 @@ public class PresetPersistenceProvider extends ElementPersistenceProvider<Preset
      */
     public Preset createElementData(IModelElement creator, String identifier, String name, String description) {
         // store in db
-        SQLiteDatabase sqldb = getDoh().getWritableDatabase();
-        try {
-            ContentValues cv = new ContentValues();
-            cv.put(CREATOR, creator == null ? PACKAGE_SEPARATOR : creator.getIdentifier());
-            cv.put(IDENTIFIER, identifier);
-            cv.put(NAME, name);
-            cv.put(DESCRIPTION, description);
-            cv.put(DELETED, Boolean.FALSE.toString());
-            if (sqldb.insert(TBL_PRESET, null, cv) == -1) {
-                return null;
-            }
-        } finally {
-            sqldb.close();
+        SQLiteDatabase sqldb = getDoh().open();
+        ContentValues cv = new ContentValues();
+        cv.put(CREATOR, creator == null ? PACKAGE_SEPARATOR : creator.getIdentifier());
+        cv.put(IDENTIFIER, identifier);
+        cv.put(NAME, name);
+        cv.put(DESCRIPTION, description);
+        cv.put(DELETED, Boolean.FALSE.toString());
+        if (sqldb.insert(TBL_PRESET, null, cv) == -1) {
+            return null;
         }
         
         // create associated object
@@ -90,7 +90,7 @@ public class PresetTransaction implements IAtomicTransaction {
         this.name = this.parent.name;
         this.description = this.parent.description;
         this.privacySettingValues = new HashMap<IPrivacySetting, String>(this.parent.privacySettingValues);
-        this.assignedApps = new ArrayList<IApp>(this.parent.assignedApps);
+        this.assignedApps = this.parent.assignments.getApps(this.parent);
         
         // deep copy
         this.contextAnnotations = new HashMap<IPrivacySetting, List<ContextAnnotation>>();
@@ -117,12 +117,13 @@ public class PresetTransaction implements IAtomicTransaction {
         this.parent.name = this.name;
         this.parent.description = this.description;
         this.parent.privacySettingValues = this.privacySettingValues;
-        this.parent.assignedApps = this.assignedApps;
+        this.parent.assignments.setApps(this.parent, this.assignedApps);
         this.parent.contextAnnotations = this.contextAnnotations;
         this.parent.missingPrivacySettings = this.missingPrivacySettings;
         this.parent.missingApps = this.missingApps;
         this.parent.deleted = this.deleted;
         
+        this.parent.modified();
         this.parent.persistAndRollout();
         
         IPCProvider.getInstance().endUpdate();
@@ -19,7 +19,9 @@
  */
 package de.unistuttgart.ipvs.pmp.model.element.privacysetting;
 
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
 
 import android.content.Context;
 import android.view.View;
@@ -30,6 +32,7 @@ import de.unistuttgart.ipvs.pmp.model.element.ModelElement;
 import de.unistuttgart.ipvs.pmp.model.element.resourcegroup.IResourceGroup;
 import de.unistuttgart.ipvs.pmp.model.element.resourcegroup.ResourceGroup;
 import de.unistuttgart.ipvs.pmp.shared.resource.privacysetting.AbstractPrivacySetting;
+import de.unistuttgart.ipvs.pmp.shared.resource.privacysetting.IPrimitivePrivacySetting;
 import de.unistuttgart.ipvs.pmp.shared.resource.privacysetting.PrivacySettingValueException;
 
 /**
@@ -39,6 +42,13 @@ import de.unistuttgart.ipvs.pmp.shared.resource.privacysetting.PrivacySettingVal
  */
 public class PrivacySetting extends ModelElement implements IPrivacySetting {
     
+    /**
+     * Maximum number of entries in {@link #parsedValues}, {@link #primitiveValues} and {@link #permitted}. The number of
+     * parsed values must be a power of two.
+     */
+    private static final int MAX_PARSED_VALUES = 64;
+    private static final int MAX_PERMITTED = 256;
+    
     /**
      * identifying attributes
      */
@@ -51,6 +61,18 @@ public class PrivacySetting extends ModelElement implements IPrivacySetting {
     protected AbstractPrivacySetting<?> link;
     protected boolean requestable;
     
+    /**
+     * memoized results of the {@link #link}, cleared whenever the link changes. Only valid values are stored.
+     */
+    private final Map<String, Object> parsedValues;
+    private final Map<ValuePair, Boolean> permitted;
+    
+    /**
+     * memoized values of a {@link #link} that is an {@link IPrimitivePrivacySetting}, indexed by the hash of the string
+     * value. Replaced whenever the link changes. Reading it needs neither a lock nor an allocation.
+     */
+    private volatile PrimitiveValue[] primitiveValues;
+    
     
     /* organizational */
     
@@ -58,6 +80,9 @@ public class PrivacySetting extends ModelElement implements IPrivacySetting {
         super(resourceGroup.getIdentifier() + PersistenceConstants.PACKAGE_SEPARATOR + identifier);
         this.resourceGroup = resourceGroup;
         this.localIdentifier = identifier;
+        this.parsedValues = new BoundedMap<String, Object>(MAX_PARSED_VALUES);
+        this.permitted = new BoundedMap<ValuePair, Boolean>(MAX_PERMITTED);
+        this.primitiveValues = new PrimitiveValue[MAX_PARSED_VALUES];
     }
     
     
@@ -121,7 +146,7 @@ public class PrivacySetting extends ModelElement implements IPrivacySetting {
     public boolean isValueValid(String value) {
         checkCached();
         try {
-            this.link.parseValue(value);
+            parseValue(value);
             return true;
         } catch (PrivacySettingValueException psve) {
             // don't care here, that's expected
@@ -136,7 +161,7 @@ public class PrivacySetting extends ModelElement implements IPrivacySetting {
     public void valueValidOrThrow(String value) throws PrivacySettingValueException {
         checkCached();
         try {
-            this.link.parseValue(value);
+            parseValue(value);
         } catch (PrivacySettingValueException psve) {
             throw psve;
         } catch (Throwable t) {
@@ -162,8 +187,33 @@ public class PrivacySetting extends ModelElement implements IPrivacySetting {
     @Override
     public boolean permits(String reference, String value) throws PrivacySettingValueException {
         checkCached();
+        if (this.link instanceof IPrimitivePrivacySetting) {
+            try {
+                IPrimitivePrivacySetting primitive = (IPrimitivePrivacySetting) this.link;
+                return primitive.permitsPrimitive(parsePrimitive(primitive, value),
+                        parsePrimitive(primitive, reference));
+            } catch (PrivacySettingValueException psve) {
+                throw psve;
+            } catch (Throwable t) {
+                this.resourceGroup.deactivate(t);
+                return false;
+            }
+        }
+        
+        ValuePair pair = new ValuePair(reference, value);
+        synchronized (this.permitted) {
+            Boolean result = this.permitted.get(pair);
+            if (result != null) {
+                return result;
+            }
+        }
+        
         try {
-            return this.link.permits(value, reference);
+            boolean result = permits(this.link, parseValue(value), parseValue(reference));
+            synchronized (this.permitted) {
+                this.permitted.put(pair, result);
+            }
+            return result;
         } catch (PrivacySettingValueException psve) {
             throw psve;
         } catch (Throwable t) {
@@ -220,6 +270,73 @@ public class PrivacySetting extends ModelElement implements IPrivacySetting {
     }
     
     
+    /**
+     * Parses a value with the {@link #link}, or returns the value parsed earlier.
+     * 
+     * @param value
+     *            the value to parse
+     * @return the parsed value
+     * @throws PrivacySettingValueException
+     *             if the value is invalid
+     */
+    private Object parseValue(String value) throws PrivacySettingValueException {
+        if (this.link instanceof IPrimitivePrivacySetting) {
+            return parsePrimitive((IPrimitivePrivacySetting) this.link, value);
+        }
+        
+        synchronized (this.parsedValues) {
+            if (this.parsedValues.containsKey(value)) {
+                return this.parsedValues.get(value);
+            }
+        }
+        
+        Object parsed = this.link.parseValue(value);
+        synchronized (this.parsedValues) {
+            this.parsedValues.put(value, parsed);
+        }
+        return parsed;
+    }
+    
+    
+    /**
+     * Parses a value with an {@link IPrimitivePrivacySetting} {@link #link}, or returns the value parsed earlier.
+     * 
+     * @param primitive
+     *            the {@link #link}
+     * @param value
+     *            the value to parse
+     * @return the parsed value
+     * @throws PrivacySettingValueException
+     *             if the value is invalid
+     */
+    private long parsePrimitive(IPrimitivePrivacySetting primitive, String value) throws PrivacySettingValueException {
+        if (value == null) {
+            return primitive.parsePrimitive(value);
+        }
+        
+        // a slot is only ever replaced as a whole, so a racing read sees a consistent entry or misses
+        PrimitiveValue[] values = this.primitiveValues;
+        int slot = value.hashCode() & (values.length - 1);
+        PrimitiveValue cached = values[slot];
+        if ((cached != null) && cached.value.equals(value)) {
+            return cached.parsed;
+        }
+        
+        long parsed = primitive.parsePrimitive(value);
+        values[slot] = new PrimitiveValue(value, parsed);
+        return parsed;
+    }
+    
+    
+    /**
+     * Calls {@link AbstractPrivacySetting#permits(Object, Object)} with values parsed by the same link.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> boolean permits(AbstractPrivacySetting<T> link, Object value, Object reference) {
+        return link.permits((T) value, (T) reference);
+    }
+    
+    
     /* inter-model communication */
     
     @Override
@@ -230,4 +347,96 @@ public class PrivacySetting extends ModelElement implements IPrivacySetting {
         return super.checkCached();
     }
     
+    
+    /**
+     * Sets the link to the privacy setting of the resource group plugin and forgets all the results of the old one.
+     * 
+     * @param link
+     *            the new link
+     */
+    void setLink(AbstractPrivacySetting<?> link) {
+        this.link = link;
+        this.primitiveValues = new PrimitiveValue[MAX_PARSED_VALUES];
+        synchronized (this.parsedValues) {
+            this.parsedValues.clear();
+        }
+        synchronized (this.permitted) {
+            this.permitted.clear();
+        }
+    }
+    
+    /**
+     * A (reference, value) pair as key for {@link PrivacySetting#permitted}.
+     */
+    private static final class ValuePair {
+        
+        private final String reference;
+        private final String value;
+        
+        
+        public ValuePair(String reference, String value) {
+            this.reference = reference;
+            this.value = value;
+        }
+        
+        
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ValuePair)) {
+                return false;
+            }
+            ValuePair other = (ValuePair) o;
+            return equal(this.reference, other.reference) && equal(this.value, other.value);
+        }
+        
+        
+        @Override
+        public int hashCode() {
+            return 31 * (this.reference == null ? 0 : this.reference.hashCode())
+                    + (this.value == null ? 0 : this.value.hashCode());
+        }
+        
+        
+        private static boolean equal(String a, String b) {
+            return (a == null) ? (b == null) : a.equals(b);
+        }
+    }
+    
+    /**
+     * A string value and its primitive representation, as entry of {@link PrivacySetting#primitiveValues}.
+     */
+    private static final class PrimitiveValue {
+        
+        private final String value;
+        private final long parsed;
+        
+        
+        public PrimitiveValue(String value, long parsed) {
+            this.value = value;
+            this.parsed = parsed;
+        }
+    }
+    
+    /**
+     * A map keeping only its most recently used entries.
+     */
+    private static final class BoundedMap<K, V> extends LinkedHashMap<K, V> {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final int maxSize;
+        
+        
+        public BoundedMap(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+        
+        
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > this.maxSize;
+        }
+    }
+    
 }
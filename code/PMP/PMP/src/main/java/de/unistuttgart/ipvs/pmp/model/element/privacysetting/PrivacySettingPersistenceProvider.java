@@ -19,6 +19,10 @@
  */
 package de.unistuttgart.ipvs.pmp.model.element.privacysetting;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
@@ -52,16 +56,11 @@ public class PrivacySettingPersistenceProvider extends ElementPersistenceProvide
     @Override
     protected void loadElementData(SQLiteDatabase rdb, SQLiteQueryBuilder qb) {
         if (this.element.getLocalIdentifier().equals(PersistenceConstants.MODE_PRIVACY_SETTING)) {
-            this.element.link = new EnumPrivacySetting<RGMode>(RGMode.class, RGMode.NORMAL);
-            this.element.requestable = false;
+            loadModePrivacySetting();
             return;
         }
         
-        try {
-            this.element.link = PluginProvider.getInstance()
-                    .getResourceGroupObject(this.element.getResourceGroup().getIdentifier())
-                    .getPrivacySetting(this.element.getLocalIdentifier());
-            
+        if (loadLink()) {
             qb.setTables(TBL_PRIVACYSETTING);
             
             // load privacy setting values
@@ -72,9 +71,93 @@ public class PrivacySettingPersistenceProvider extends ElementPersistenceProvide
             
             this.element.requestable = c.moveToFirst() ? c.getInt(c.getColumnIndex(REQUESTABLE)) != 0 : false;
             c.close();
+        }
+    }
+    
+    
+    /**
+     * Loads the data of all the privacy settings which are not yet cached at once, reading
+     * {@link #TBL_PRIVACYSETTING} only once. The privacy settings are marked cached afterwards.
+     * 
+     * @param rdb
+     *            a correctly initialized readable {@link SQLiteDatabase}
+     * @param qb
+     *            an {@link SQLiteQueryBuilder} for building queries
+     * @param privacySettings
+     *            the privacy settings to load
+     */
+    public static void loadElementData(SQLiteDatabase rdb, SQLiteQueryBuilder qb,
+            Collection<PrivacySetting> privacySettings) {
+        Map<String, PrivacySettingPersistenceProvider> loading = new HashMap<String, PrivacySettingPersistenceProvider>();
+        for (PrivacySetting ps : privacySettings) {
+            if (ps.isCached()) {
+                continue;
+            }
+            
+            PrivacySettingPersistenceProvider pspp = new PrivacySettingPersistenceProvider(ps);
+            if (ps.getLocalIdentifier().equals(PersistenceConstants.MODE_PRIVACY_SETTING)) {
+                pspp.loadModePrivacySetting();
+                markCached(ps);
+                
+            } else if (pspp.loadLink()) {
+                ps.requestable = false;
+                loading.put(bulkKey(ps.resourceGroup.getIdentifier(), ps.getLocalIdentifier()), pspp);
+                
+            } else {
+                // the resource group is deactivated, there is nothing more to load
+                markCached(ps);
+            }
+        }
+        
+        if (loading.isEmpty()) {
+            return;
+        }
+        
+        qb.setTables(TBL_PRIVACYSETTING);
+        Cursor c = qb.query(rdb, new String[] { RESOURCEGROUP_PACKAGE, IDENTIFIER, REQUESTABLE }, null, null, null,
+                null, null);
+        if (c.moveToFirst()) {
+            do {
+                PrivacySettingPersistenceProvider pspp = loading.get(bulkKey(
+                        c.getString(c.getColumnIndex(RESOURCEGROUP_PACKAGE)),
+                        c.getString(c.getColumnIndex(IDENTIFIER))));
+                if (pspp != null) {
+                    pspp.element.requestable = c.getInt(c.getColumnIndex(REQUESTABLE)) != 0;
+                }
+            } while (c.moveToNext());
+        }
+        c.close();
+        
+        for (PrivacySettingPersistenceProvider pspp : loading.values()) {
+            markCached(pspp.element);
+        }
+    }
+    
+    
+    /**
+     * Sets up the virtual mode privacy setting which is not stored in the persistence.
+     */
+    private void loadModePrivacySetting() {
+        this.element.setLink(new EnumPrivacySetting<RGMode>(RGMode.class, RGMode.NORMAL));
+        this.element.requestable = false;
+    }
+    
+    
+    /**
+     * Fetches the link to the privacy setting of the resource group plugin.
+     * 
+     * @return true, if the link could be established, false if the resource group had to be deactivated
+     */
+    private boolean loadLink() {
+        try {
+            this.element.setLink(PluginProvider.getInstance()
+                    .getResourceGroupObject(this.element.getResourceGroup().getIdentifier())
+                    .getPrivacySetting(this.element.getLocalIdentifier()));
+            return true;
             
         } catch (InvalidPluginException ipe) {
             this.element.resourceGroup.deactivate(ipe);
+            return false;
         }
     }
     
@@ -125,18 +208,14 @@ public class PrivacySettingPersistenceProvider extends ElementPersistenceProvide
      */
     public PrivacySetting createElementData(ResourceGroup rg, String identifier, boolean requestable) {
         // store in db
-        SQLiteDatabase sqldb = getDoh().getWritableDatabase();
-        try {
-            ContentValues cv = new ContentValues();
-            cv.put(RESOURCEGROUP_PACKAGE, rg.getIdentifier());
-            cv.put(IDENTIFIER, identifier);
-            cv.put(REQUESTABLE, requestable ? 1 : 0);
-            if (sqldb.insert(TBL_PRIVACYSETTING, null, cv) == -1) {
-                Log.e(this, "Could not write privacy setting.");
-                return null;
-            }
-        } finally {
-            sqldb.close();
+        SQLiteDatabase sqldb = getDoh().open();
+        ContentValues cv = new ContentValues();
+        cv.put(RESOURCEGROUP_PACKAGE, rg.getIdentifier());
+        cv.put(IDENTIFIER, identifier);
+        cv.put(REQUESTABLE, requestable ? 1 : 0);
+        if (sqldb.insert(TBL_PRIVACYSETTING, null, cv) == -1) {
+            Log.e(this, "Could not write privacy setting.");
+            return null;
         }
         
         // create associated object
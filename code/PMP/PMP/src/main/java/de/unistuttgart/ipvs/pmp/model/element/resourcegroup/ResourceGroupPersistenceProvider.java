@@ -121,15 +121,11 @@ public class ResourceGroupPersistenceProvider extends ElementPersistenceProvider
      */
     public ResourceGroup createElementData(String rgPackage) {
         // store in db
-        SQLiteDatabase sqldb = getDoh().getWritableDatabase();
-        try {
-            ContentValues cv = new ContentValues();
-            cv.put(PACKAGE, rgPackage);
-            if (sqldb.insert(TBL_RESOURCEGROUP, null, cv) == -1) {
-                return null;
-            }
-        } finally {
-            sqldb.close();
+        SQLiteDatabase sqldb = getDoh().open();
+        ContentValues cv = new ContentValues();
+        cv.put(PACKAGE, rgPackage);
+        if (sqldb.insert(TBL_RESOURCEGROUP, null, cv) == -1) {
+            return null;
         }
         
         // create associated object
@@ -20,6 +20,7 @@
 package de.unistuttgart.ipvs.pmp.model.element.servicefeature;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -64,50 +65,115 @@ public class ServiceFeaturePersistenceProvider extends ElementPersistenceProvide
                 + " = ?", new String[] { this.element.app.getIdentifier(), this.element.getLocalIdentifier() }, null,
                 null, null);
         
-        this.element.privacySettingValues = new HashMap<PrivacySetting, String>();
-        this.element.missingPrivacySettings = new ArrayList<MissingPrivacySettingValue>();
+        initReferences();
         
         if (c.moveToFirst()) {
             do {
-                String rgPackage = c.getString(c.getColumnIndex(PRIVACYSETTING_RESOURCEGROUP_PACKAGE));
-                String psIdentifier = c.getString(c.getColumnIndex(PRIVACYSETTING_IDENTIFIER));
-                String reqValue = c.getString(c.getColumnIndex(REQUIREDVALUE));
-                
-                ResourceGroup rg = getCache().getResourceGroups().get(rgPackage);
-                if (rg == null) {
-                    Log.w(this, "Unavailable service feature cached (RG not present).");
-                    this.element.missingPrivacySettings.add(new MissingPrivacySettingValue(rgPackage, psIdentifier,
-                            reqValue));
-                    
-                } else {
-                    Map<String, PrivacySetting> pss = getCache().getPrivacySettings().get(rg);
-                    PrivacySetting ps = pss.get(psIdentifier);
-                    
-                    if (ps == null) {
-                        Log.w(this, "Unavailable service feature cached (PS not found in RG).");
-                        this.element.missingPrivacySettings.add(new MissingPrivacySettingValue(rgPackage, psIdentifier,
-                                reqValue));
-                        
-                    } else {
-                        if (ps.isRequestable()) {
-                            this.element.privacySettingValues.put(ps, reqValue);
-                        } else {
-                            FileLog.get()
-                                    .logWithForward(
-                                            this,
-                                            null,
-                                            FileLog.GRANULARITY_SETTING_CHANGES,
-                                            Level.WARNING,
-                                            "Service Feature '%s' of '%s' has tried to access the non-requestable privacy setting '%s' of '%s'.",
-                                            this.element.getLocalIdentifier(), this.element.app.getIdentifier(),
-                                            psIdentifier, rgPackage);
-                        }
-                    }
+                loadRequiredValueRow(c);
+            } while (c.moveToNext());
+        }
+        c.close();
+        
+    }
+    
+    
+    /**
+     * Loads the data of all the service features which are not yet cached at once, reading
+     * {@link #TBL_SFReqPSValue} only once. The service features are marked cached afterwards.
+     * 
+     * @param rdb
+     *            a correctly initialized readable {@link SQLiteDatabase}
+     * @param qb
+     *            an {@link SQLiteQueryBuilder} for building queries
+     * @param serviceFeatures
+     *            the service features to load
+     */
+    public static void loadElementData(SQLiteDatabase rdb, SQLiteQueryBuilder qb,
+            Collection<ServiceFeature> serviceFeatures) {
+        Map<String, ServiceFeaturePersistenceProvider> loading = new HashMap<String, ServiceFeaturePersistenceProvider>();
+        for (ServiceFeature sf : serviceFeatures) {
+            if (!sf.isCached()) {
+                ServiceFeaturePersistenceProvider sfpp = new ServiceFeaturePersistenceProvider(sf);
+                sfpp.initReferences();
+                loading.put(bulkKey(sf.app.getIdentifier(), sf.getLocalIdentifier()), sfpp);
+            }
+        }
+        
+        if (loading.isEmpty()) {
+            return;
+        }
+        
+        qb.setTables(TBL_SFReqPSValue);
+        Cursor c = qb.query(rdb, new String[] { SERVICEFEATURE_APP_PACKAGE, SERVICEFEATURE_IDENTIFIER, REQUIREDVALUE,
+                PRIVACYSETTING_RESOURCEGROUP_PACKAGE, PRIVACYSETTING_IDENTIFIER }, null, null, null, null, null);
+        if (c.moveToFirst()) {
+            do {
+                ServiceFeaturePersistenceProvider sfpp = loading.get(bulkKey(
+                        c.getString(c.getColumnIndex(SERVICEFEATURE_APP_PACKAGE)),
+                        c.getString(c.getColumnIndex(SERVICEFEATURE_IDENTIFIER))));
+                if (sfpp != null) {
+                    sfpp.loadRequiredValueRow(c);
                 }
             } while (c.moveToNext());
         }
         c.close();
         
+        for (ServiceFeaturePersistenceProvider sfpp : loading.values()) {
+            markCached(sfpp.element);
+        }
+    }
+    
+    
+    /**
+     * Resets the references of the service feature before the rows are read.
+     */
+    private void initReferences() {
+        this.element.privacySettingValues = new HashMap<PrivacySetting, String>();
+        this.element.missingPrivacySettings = new ArrayList<MissingPrivacySettingValue>();
+    }
+    
+    
+    /**
+     * Reads one required privacy setting value from a {@link #TBL_SFReqPSValue} row.
+     * 
+     * @param c
+     *            cursor pointing to the row
+     */
+    private void loadRequiredValueRow(Cursor c) {
+        String rgPackage = c.getString(c.getColumnIndex(PRIVACYSETTING_RESOURCEGROUP_PACKAGE));
+        String psIdentifier = c.getString(c.getColumnIndex(PRIVACYSETTING_IDENTIFIER));
+        String reqValue = c.getString(c.getColumnIndex(REQUIREDVALUE));
+        
+        ResourceGroup rg = getCache().getResourceGroups().get(rgPackage);
+        if (rg == null) {
+            Log.w(this, "Unavailable service feature cached (RG not present).");
+            this.element.missingPrivacySettings.add(new MissingPrivacySettingValue(rgPackage, psIdentifier, reqValue));
+            
+        } else {
+            Map<String, PrivacySetting> pss = getCache().getPrivacySettings().get(rg);
+            PrivacySetting ps = pss.get(psIdentifier);
+            
+            if (ps == null) {
+                Log.w(this, "Unavailable service feature cached (PS not found in RG).");
+                this.element.missingPrivacySettings.add(new MissingPrivacySettingValue(rgPackage, psIdentifier,
+                        reqValue));
+                
+            } else {
+                if (ps.isRequestable()) {
+                    this.element.privacySettingValues.put(ps, reqValue);
+                } else {
+                    FileLog.get()
+                            .logWithForward(
+                                    this,
+                                    null,
+                                    FileLog.GRANULARITY_SETTING_CHANGES,
+                                    Level.WARNING,
+                                    "Service Feature '%s' of '%s' has tried to access the non-requestable privacy setting '%s' of '%s'.",
+                                    this.element.getLocalIdentifier(), this.element.app.getIdentifier(), psIdentifier,
+                                    rgPackage);
+                }
+            }
+        }
     }
     
     
@@ -145,35 +211,31 @@ public class ServiceFeaturePersistenceProvider extends ElementPersistenceProvide
     public ServiceFeature createElementData(App app, String identifier,
             List<IAISRequiredResourceGroup> requiredResourceGroups) {
         // store in db
-        SQLiteDatabase sqldb = getDoh().getWritableDatabase();
-        try {
-            ContentValues cv = new ContentValues();
-            cv.put(APP_PACKAGE, app.getIdentifier());
-            cv.put(IDENTIFIER, identifier);
-            
-            if (sqldb.insert(TBL_SERVICEFEATURE, null, cv) == -1) {
-                Log.e(this, "Could not write service feature.");
-                return null;
-            }
-            
-            // refer to all the required resource groups
-            for (IAISRequiredResourceGroup rrg : requiredResourceGroups) {
-                for (IAISRequiredPrivacySetting ps : rrg.getRequiredPrivacySettings()) {
-                    cv = new ContentValues();
-                    cv.put(PRIVACYSETTING_RESOURCEGROUP_PACKAGE, rrg.getIdentifier());
-                    cv.put(PRIVACYSETTING_IDENTIFIER, ps.getIdentifier());
-                    cv.put(SERVICEFEATURE_APP_PACKAGE, app.getIdentifier());
-                    cv.put(SERVICEFEATURE_IDENTIFIER, identifier);
-                    cv.put(REQUIREDVALUE, ps.getValue());
-                    if (sqldb.insert(TBL_SFReqPSValue, null, cv) == -1) {
-                        Log.e(this,
-                                "Could not write required privacy setting for service feature. Corruption of database very likely.");
-                        return null;
-                    }
+        SQLiteDatabase sqldb = getDoh().open();
+        ContentValues cv = new ContentValues();
+        cv.put(APP_PACKAGE, app.getIdentifier());
+        cv.put(IDENTIFIER, identifier);
+        
+        if (sqldb.insert(TBL_SERVICEFEATURE, null, cv) == -1) {
+            Log.e(this, "Could not write service feature.");
+            return null;
+        }
+        
+        // refer to all the required resource groups
+        for (IAISRequiredResourceGroup rrg : requiredResourceGroups) {
+            for (IAISRequiredPrivacySetting ps : rrg.getRequiredPrivacySettings()) {
+                cv = new ContentValues();
+                cv.put(PRIVACYSETTING_RESOURCEGROUP_PACKAGE, rrg.getIdentifier());
+                cv.put(PRIVACYSETTING_IDENTIFIER, ps.getIdentifier());
+                cv.put(SERVICEFEATURE_APP_PACKAGE, app.getIdentifier());
+                cv.put(SERVICEFEATURE_IDENTIFIER, identifier);
+                cv.put(REQUIREDVALUE, ps.getValue());
+                if (sqldb.insert(TBL_SFReqPSValue, null, cv) == -1) {
+                    Log.e(this,
+                            "Could not write required privacy setting for service feature. Corruption of database very likely.");
+                    return null;
                 }
             }
-        } finally {
-            sqldb.close();
         }
         
         // create associated object
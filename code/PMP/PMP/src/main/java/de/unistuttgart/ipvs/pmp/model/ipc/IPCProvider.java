@@ -19,11 +19,16 @@
  */
 package de.unistuttgart.ipvs.pmp.model.ipc;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import android.os.Bundle;
@@ -32,28 +37,99 @@ import android.os.RemoteException;
 import de.unistuttgart.ipvs.pmp.PMPApplication;
 import de.unistuttgart.ipvs.pmp.model.assertion.Assert;
 import de.unistuttgart.ipvs.pmp.model.assertion.ModelMisuseError;
+import de.unistuttgart.ipvs.pmp.model.element.app.App;
 import de.unistuttgart.ipvs.pmp.model.element.servicefeature.ServiceFeature;
+import de.unistuttgart.ipvs.pmp.shared.Constants;
 import de.unistuttgart.ipvs.pmp.shared.Log;
 import de.unistuttgart.ipvs.pmp.shared.api.ipc.IPCConnection;
 import de.unistuttgart.ipvs.pmp.shared.service.app.IAppService;
 
 /**
+ * <p>
  * General IPC provider which provides all the inter-process communication necessary for the model.
+ * </p>
+ * 
+ * <p>
+ * The deliveries are performed by a fixed pool of {@link #WORKERS} threads, so different apps are updated in
+ * parallel. Each app keeps its {@link IPCConnection}, and updates queued for an app within {@link #COALESCE_WINDOW}
+ * milliseconds are merged into one delivery of the latest one.
+ * </p>
+ * 
+ * <p>
+ * Apps only receive the service features that changed since the last delivered update, together with a version stamp
+ * (see {@link Constants#SERVICE_FEATURE_UPDATE_VERSION}). Updates that change nothing are not delivered at all. After
+ * {@link #resync(String)} all the service features are delivered again.
+ * </p>
+ * 
+ * <p>
+ * Verifications of service features requested during an update session are deferred (see {@link #defer(App)}) and
+ * performed once per app when the outermost session ends.
+ * </p>
  * 
  * @author Tobias Kuhn
  *         
  */
 public class IPCProvider {
     
+    /**
+     * Number of threads delivering the queued updates.
+     */
+    private static final int WORKERS = 3;
+    
+    /**
+     * Time in milliseconds a delivery waits for further updates of the same app.
+     */
+    private static final long COALESCE_WINDOW = 250L;
+    
     /**
      * How many cumulative update sessions are in progress, for > 0 no rollout should be done.
      */
     private final AtomicInteger updateSession;
     
     /**
-     * The map containing the IPC operations to be performed.
+     * The map containing the IPC operations to be performed, i.e. the latest service feature states of each app.
+     */
+    protected final ConcurrentMap<String, Map<String, Boolean>> queue;
+    
+    /**
+     * The apps whose service features have to be verified when the update sessions end.
+     */
+    private final ConcurrentMap<String, App> dirty;
+    
+    /**
+     * The service feature states last delivered to each app. Missing for apps that shall receive all of them.
      */
-    protected final ConcurrentMap<String, Bundle> queue;
+    private final ConcurrentMap<String, Map<String, Boolean>> delivered;
+    
+    /**
+     * The version of the last update delivered to each app.
+     */
+    private final ConcurrentMap<String, Long> versions;
+    
+    /**
+     * The time the oldest update in {@link #queue} was queued for each app.
+     */
+    private final ConcurrentMap<String, Long> queuedSince;
+    
+    /**
+     * The apps for which a delivery is scheduled, but has not yet started.
+     */
+    private final ConcurrentMap<String, Boolean> scheduled;
+    
+    /**
+     * The connections kept for each app, each one is only used while synchronized on it.
+     */
+    private final ConcurrentMap<String, IPCConnection> connections;
+    
+    /**
+     * The time in milliseconds from queuing to delivery of the last update of each app.
+     */
+    private final ConcurrentMap<String, Long> latencies;
+    
+    /**
+     * The threads performing the deliveries.
+     */
+    private final ScheduledExecutorService dispatcher;
     
     /**
      * Singleton stuff
@@ -71,7 +147,24 @@ public class IPCProvider {
      */
     private IPCProvider() {
         this.updateSession = new AtomicInteger(0);
-        this.queue = new ConcurrentHashMap<String, Bundle>();
+        this.queue = new ConcurrentHashMap<String, Map<String, Boolean>>();
+        this.dirty = new ConcurrentHashMap<String, App>();
+        this.delivered = new ConcurrentHashMap<String, Map<String, Boolean>>();
+        this.versions = new ConcurrentHashMap<String, Long>();
+        this.queuedSince = new ConcurrentHashMap<String, Long>();
+        this.scheduled = new ConcurrentHashMap<String, Boolean>();
+        this.connections = new ConcurrentHashMap<String, IPCConnection>();
+        this.latencies = new ConcurrentHashMap<String, Long>();
+        this.dispatcher = Executors.newScheduledThreadPool(WORKERS, new ThreadFactory() {
+            
+            private final AtomicInteger count = new AtomicInteger(0);
+            
+            
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "IPC rollout " + this.count.incrementAndGet());
+            }
+        });
     }
     
     
@@ -86,15 +179,66 @@ public class IPCProvider {
     
     
     /**
-     * Ends one cumulative update session started by {@link IPCProvider#startUpdate()}.
+     * Ends one cumulative update session started by {@link IPCProvider#startUpdate()}. Ending the outermost session
+     * verifies the deferred apps and rolls out all queued updates.
      */
-    public synchronized void endUpdate() {
-        Log.d(this, "IPC delayed update layer " + String.valueOf(this.updateSession) + " ended.");
-        if (this.updateSession.get() > 0) {
-            this.updateSession.decrementAndGet();
+    public void endUpdate() {
+        synchronized (this) {
+            Log.d(this, "IPC delayed update layer " + String.valueOf(this.updateSession) + " ended.");
+            if (this.updateSession.get() > 0) {
+                this.updateSession.decrementAndGet();
+            }
+            if (this.updateSession.intValue() > 0) {
+                return;
+            }
+        }
+        
+        // outside the lock, the verifications may take a while
+        verifyDeferred();
+        
+        synchronized (this) {
+            if (this.updateSession.intValue() == 0) {
+                rollout();
+            }
         }
+    }
+    
+    
+    /**
+     * Defers the verification of an app's service features if an update session is in progress. Verifying an app
+     * several times during a session will thus only verify it once, when the outermost session ends. Synchronized with
+     * {@link #endUpdate()}, so an app is either deferred before the outermost session ends or not at all.
+     * 
+     * @param app
+     *            the app to verify
+     * @return true, if the verification was deferred, false if it has to be done immediately
+     */
+    public synchronized boolean defer(App app) {
+        Assert.nonNull(app, ModelMisuseError.class, Assert.ILLEGAL_NULL, "app", app);
         if (this.updateSession.intValue() == 0) {
-            rollout();
+            return false;
+        }
+        
+        this.dirty.put(app.getIdentifier(), app);
+        return true;
+    }
+    
+    
+    /**
+     * Verifies all the apps deferred by {@link #defer(App)}. If another session started meanwhile, the apps are deferred
+     * again until it ends.
+     */
+    private void verifyDeferred() {
+        if (this.dirty.isEmpty()) {
+            return;
+        }
+        Log.d(this, "Verifying " + this.dirty.size() + " deferred apps...");
+        
+        for (String appPackage : new ArrayList<String>(this.dirty.keySet())) {
+            App app = this.dirty.remove(appPackage);
+            if (app != null) {
+                app.verifyServiceFeatures();
+            }
         }
     }
     
@@ -103,50 +247,137 @@ public class IPCProvider {
      * Rolls-out all queued up IPC operations.
      */
     private synchronized void rollout() {
-        Log.d(this, "Performing IPC rollout...");
-        
-        // launch a new Thread, that's cool these days
+        Log.d(this, "Performing IPC rollout of " + this.queue.size() + " queued updates...");
         
-        new Thread("IPC rollout") {
-            
-            @Override
-            public void run() {
-                IPCConnection con = new IPCConnection(PMPApplication.getContext());
+        for (String appPackage : this.queue.keySet()) {
+            schedule(appPackage);
+        }
+    }
+    
+    
+    /**
+     * Schedules the delivery of the queued update for an app, if none is scheduled yet.
+     * 
+     * @param appPackage
+     *            the package of the app
+     */
+    private void schedule(final String appPackage) {
+        if (this.scheduled.putIfAbsent(appPackage, Boolean.TRUE) == null) {
+            this.dispatcher.schedule(new Runnable() {
                 
-                Set<String> latestKeySet = IPCProvider.this.queue.keySet();
-                for (final String key : latestKeySet) {
-                    // N.B. we must not use an entry set because due to concurrency the entry could get deleted
-                    //      by another execution before we access it.
-                    
-                    con.setDestinationService(key);
-                    IBinder appBinder = con.getBinder();
-                    
-                    String id = "?";
-                    try {
-                        id = appBinder.getInterfaceDescriptor();
-                    } catch (RemoteException re) {
-                        Log.e(this, "Remote exception while getting interface descriptor: ", re);
-                    }
-                    
-                    if (!id.equals(IAppService.class.getName())) {
-                        Log.e(this, "Binder to " + key + " was not IAppService but " + id);
-                    }
-                    
-                    IAppService as = IAppService.Stub.asInterface(appBinder);
-                    Bundle value = IPCProvider.this.queue.remove(key);
-                    if (value != null) {
-                        try {
-                            as.updateServiceFeatures(value);
-                        } catch (RemoteException re) {
-                            Log.e(this, "Remote exception while updating service features for " + key + ": ", re);
-                        }
-                    } else {
-                        Log.d(this, "Rollout value went missing while iterating through key list");
-                    }
+                @Override
+                public void run() {
+                    deliver(appPackage);
                 }
-                
+            }, COALESCE_WINDOW, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    
+    /**
+     * Delivers the queued update for an app. Called by the dispatcher threads only.
+     * 
+     * @param appPackage
+     *            the package of the app
+     */
+    private void deliver(String appPackage) {
+        // updates queued from now on need another delivery
+        this.scheduled.remove(appPackage);
+        
+        IPCConnection con = this.connections.get(appPackage);
+        if (con == null) {
+            IPCConnection newCon = new IPCConnection(PMPApplication.getContext());
+            newCon.setDestinationService(appPackage);
+            con = this.connections.putIfAbsent(appPackage, newCon);
+            if (con == null) {
+                con = newCon;
+            }
+        }
+        
+        synchronized (con) {
+            // N.B. the value could have been taken by a delivery that started after this one was scheduled
+            Map<String, Boolean> value = this.queue.remove(appPackage);
+            Long since = this.queuedSince.remove(appPackage);
+            if (value == null) {
+                Log.d(this, "Rollout value went missing while waiting for delivery");
+                return;
+            }
+            
+            Bundle update = createUpdate(appPackage, value);
+            if (update == null) {
+                Log.d(this, "Nothing changed for " + appPackage + ", update not delivered");
+                return;
+            }
+            
+            IBinder appBinder = con.getBinder();
+            if (appBinder == null) {
+                Log.e(this, "Could not bind to " + appPackage + ", update not delivered");
+                forget(appPackage);
+                return;
+            }
+            
+            String id = "?";
+            try {
+                id = appBinder.getInterfaceDescriptor();
+            } catch (RemoteException re) {
+                Log.e(this, "Remote exception while getting interface descriptor: ", re);
+            }
+            
+            if (!id.equals(IAppService.class.getName())) {
+                Log.e(this, "Binder to " + appPackage + " was not IAppService but " + id);
+            }
+            
+            IAppService as = IAppService.Stub.asInterface(appBinder);
+            try {
+                as.updateServiceFeatures(update);
+                this.delivered.put(appPackage, value);
+                this.versions.put(appPackage, update.getLong(Constants.SERVICE_FEATURE_UPDATE_VERSION));
+            } catch (RemoteException re) {
+                Log.e(this, "Remote exception while updating service features for " + appPackage + ": ", re);
+                forget(appPackage);
+            }
+            
+            if (since != null) {
+                long latency = System.currentTimeMillis() - since;
+                this.latencies.put(appPackage, latency);
+                Log.d(this, "Delivered update to " + appPackage + " after " + latency + " ms, " + this.queue.size()
+                        + " updates still queued");
             }
-        }.start();
+        }
+    }
+    
+    
+    /**
+     * Creates the update bundle for an app, containing only the service features that changed since the last delivered
+     * update.
+     * 
+     * @param appPackage
+     *            the package of the app
+     * @param value
+     *            the current service feature states
+     * @return the bundle to deliver, or null, if nothing changed
+     */
+    private Bundle createUpdate(String appPackage, Map<String, Boolean> value) {
+        Map<String, Boolean> last = this.delivered.get(appPackage);
+        
+        // disappeared service features can only be told by a complete update
+        boolean complete = (last == null) || !value.keySet().containsAll(last.keySet());
+        
+        Bundle b = new Bundle();
+        for (Entry<String, Boolean> e : value.entrySet()) {
+            if (complete || !e.getValue().equals(last.get(e.getKey()))) {
+                b.putBoolean(e.getKey(), e.getValue());
+            }
+        }
+        
+        if (!complete && b.isEmpty()) {
+            return null;
+        }
+        
+        Long version = this.versions.get(appPackage);
+        b.putLong(Constants.SERVICE_FEATURE_UPDATE_VERSION, (version == null) ? 1L : version + 1L);
+        b.putBoolean(Constants.SERVICE_FEATURE_UPDATE_COMPLETE, complete);
+        return b;
     }
     
     
@@ -163,20 +394,91 @@ public class IPCProvider {
         Assert.nonNull(appPackage, ModelMisuseError.class, Assert.ILLEGAL_NULL, "appPackage", appPackage);
         Assert.nonNull(verification, ModelMisuseError.class, Assert.ILLEGAL_NULL, "verification", verification);
         
-        // create the new bundle
-        Bundle b = new Bundle();
+        // create the new states
+        Map<String, Boolean> states = new HashMap<String, Boolean>();
         for (Entry<ServiceFeature, Boolean> e : verification.entrySet()) {
-            b.putBoolean(e.getKey().getLocalIdentifier(), e.getValue());
+            states.put(e.getKey().getLocalIdentifier(), e.getValue());
         }
         
-        this.queue.put(appPackage, b);
+        this.queuedSince.putIfAbsent(appPackage, System.currentTimeMillis());
+        this.queue.put(appPackage, states);
         
         // run, if no session
         if (this.updateSession.intValue() == 0) {
-            rollout();
+            schedule(appPackage);
         } else {
             Log.d(this, "IPC connection queued.");
         }
     }
     
+    
+    /**
+     * Makes the next update delivered to an app contain all of its service features, e.g. because the app requested
+     * them explicitly.
+     * 
+     * @param appPackage
+     *            the package of the app
+     */
+    public void resync(String appPackage) {
+        this.delivered.remove(appPackage);
+    }
+    
+    
+    /**
+     * Forgets everything about an app that was uninstalled, including a deferred verification and a queued update of
+     * it. A delivery already scheduled for it finds nothing to deliver.
+     * 
+     * @param appPackage
+     *            the package of the app
+     */
+    public void forgetApp(String appPackage) {
+        this.dirty.remove(appPackage);
+        this.queue.remove(appPackage);
+        this.queuedSince.remove(appPackage);
+        forget(appPackage);
+        this.versions.remove(appPackage);
+        this.latencies.remove(appPackage);
+    }
+    
+    
+    /**
+     * Drops the connection kept for an app, e.g. because the connection broke. A later update will connect again and
+     * contain all of the app's service features.
+     * 
+     * @param appPackage
+     *            the package of the app
+     */
+    public void forget(String appPackage) {
+        resync(appPackage);
+        IPCConnection con = this.connections.remove(appPackage);
+        if (con != null) {
+            try {
+                con.disconnect();
+            } catch (IllegalArgumentException iae) {
+                // was not bound anymore
+            }
+        }
+    }
+    
+    
+    /**
+     * @return the number of updates waiting for their delivery
+     */
+    public int getQueueDepth() {
+        return this.queue.size();
+    }
+    
+    
+    /**
+     * 
+     * @param appPackage
+     *            the package of the app
+     * @return the time in milliseconds from queuing to delivery of the last update delivered to the app, or -1 if none
+     *         was delivered yet
+     */
+    public long getDeliveryLatency(String appPackage) {
+        Long latency = this.latencies.get(appPackage);
+        return (latency == null) ? -1L : latency;
+    }
+    
 }
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2012 pmp-android development team
+ * Project: PMP
+ * Project-Site: https://github.com/stachch/Privacy_Management_Platform
+ *
+ * ---------------------------------------------------------------------
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unistuttgart.ipvs.pmp.model.plugin;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * {@link InputStream} that writes everything read from it to a {@link FileChannel}, so a stream can be inspected and
+ * stored in the same pass.
+ */
+class ChannelTeeInputStream extends FilterInputStream {
+    
+    /**
+     * Maximum number of bytes transferred at once by {@link #drain()}.
+     */
+    private static final long TRANSFER_SIZE = 64 * 1024;
+    
+    private final FileChannel channel;
+    private long count;
+    
+    
+    /**
+     * @param in
+     *            the stream to read from
+     * @param channel
+     *            the channel to write to, at its current position
+     */
+    public ChannelTeeInputStream(InputStream in, FileChannel channel) {
+        super(in);
+        this.channel = channel;
+        this.count = 0L;
+    }
+    
+    
+    @Override
+    public int read() throws IOException {
+        int result = this.in.read();
+        if (result != -1) {
+            write(new byte[] { (byte) result }, 0, 1);
+        }
+        return result;
+    }
+    
+    
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int result = this.in.read(buffer, offset, length);
+        if (result > 0) {
+            write(buffer, offset, result);
+        }
+        return result;
+    }
+    
+    
+    @Override
+    public long skip(long n) throws IOException {
+        // skipped bytes have to be written as well
+        byte[] buffer = new byte[(int) Math.min(n, TRANSFER_SIZE)];
+        long skipped = 0L;
+        while (skipped < n) {
+            int read = read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+            if (read == -1) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+    
+    
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+    
+    
+    @Override
+    public void mark(int readlimit) {
+    }
+    
+    
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+    
+    
+    /**
+     * Transfers the rest of the stream to the channel without inspecting it.
+     * 
+     * @throws IOException
+     */
+    public void drain() throws IOException {
+        ReadableByteChannel source = Channels.newChannel(this.in);
+        long position = this.channel.position();
+        long transferred;
+        while ((transferred = this.channel.transferFrom(source, position, TRANSFER_SIZE)) > 0) {
+            position += transferred;
+            this.count += transferred;
+        }
+        this.channel.position(position);
+    }
+    
+    
+    /**
+     * @return the number of bytes written to the channel so far
+     */
+    public long getCount() {
+        return this.count;
+    }
+    
+    
+    private void write(byte[] buffer, int offset, int length) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(buffer, offset, length);
+        while (bb.hasRemaining()) {
+            this.channel.write(bb);
+        }
+        this.count += length;
+    }
+    
+}
@@ -19,7 +19,9 @@
  */
 package de.unistuttgart.ipvs.pmp.model.plugin;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collection;
 
 import android.graphics.drawable.Drawable;
 import de.unistuttgart.ipvs.pmp.model.exception.InvalidPluginException;
@@ -35,14 +37,17 @@ import de.unistuttgart.ipvs.pmp.xmlutil.rgis.IRGIS;
 public interface IPluginProvider {
     
     /**
-     * Injects a random apk from an {@link InputStream}. Does not install it.
+     * Injects a random apk from an {@link InputStream}. Does not install it, but already verifies the apk and extracts
+     * the assets needed for installing while it is written.
      * 
      * @param rgPackage
      *            the main package of the resource group's apk
      * @param input
-     *            the input apk file
+     *            the input apk file, will not be closed
+     * @throws IOException
+     *             if the input is no valid apk or could not be written
      */
-    public abstract void injectFile(String rgPackage, InputStream input);
+    public abstract void injectFile(String rgPackage, InputStream input) throws IOException;
     
     
     /**
@@ -112,4 +117,26 @@ public interface IPluginProvider {
      */
     public abstract long getRevision(String rgPackage) throws InvalidPluginException;
     
+    
+    /**
+     * Loads the identified resource groups in the background, so the first access to them does not have to. An access
+     * to a resource group that is still being loaded waits for this resource group only. Resource groups already
+     * loaded or queued are ignored, as are those that could not be loaded by an earlier warm-up and were not installed
+     * again since.
+     * 
+     * @param rgPackages
+     *            the main packages of the resource groups' apks
+     */
+    public abstract void warmUp(Collection<String> rgPackages);
+    
+    
+    /**
+     * Looks for the time it took to load the resource group.
+     * 
+     * @param rgPackage
+     *            the main package of the resource group's apk
+     * @return the load time in milliseconds, or -1 if the resource group was not loaded yet
+     */
+    public abstract long getLoadTime(String rgPackage);
+    
 }
@@ -19,18 +19,25 @@
  */
 package de.unistuttgart.ipvs.pmp.model.plugin;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 
 import android.content.Context;
 import android.graphics.drawable.Drawable;
@@ -38,11 +45,14 @@ import dalvik.system.DexClassLoader;
 import de.unistuttgart.ipvs.pmp.PMPApplication;
 import de.unistuttgart.ipvs.pmp.model.assertion.Assert;
 import de.unistuttgart.ipvs.pmp.model.assertion.ModelMisuseError;
+import de.unistuttgart.ipvs.pmp.model.descriptor.DescriptorCache;
 import de.unistuttgart.ipvs.pmp.model.exception.InvalidPluginException;
 import de.unistuttgart.ipvs.pmp.shared.Log;
 import de.unistuttgart.ipvs.pmp.shared.resource.IPMPConnectionInterface;
 import de.unistuttgart.ipvs.pmp.shared.resource.ResourceGroup;
+import de.unistuttgart.ipvs.pmp.util.ByteUtil;
 import de.unistuttgart.ipvs.pmp.xmlutil.XMLUtilityProxy;
+import de.unistuttgart.ipvs.pmp.xmlutil.parser.common.ParserException;
 import de.unistuttgart.ipvs.pmp.xmlutil.revision.RevisionReader;
 import de.unistuttgart.ipvs.pmp.xmlutil.rgis.IRGIS;
 
@@ -73,9 +83,19 @@ public class PluginProvider implements IPluginProvider {
     private static final String APK_STR = ".apk";
     private static final String XML_STR = ".xml";
     private static final String PNG_STR = ".png";
+    private static final String PART_STR = ".part";
+    
+    private static final String RGIS_ENTRY = "assets/rgis" + XML_STR;
+    
+    private static final int BUFFER_SIZE = 32 * 1024;
     
     private static final ClassLoader CLASS_LOADER = context.getClassLoader();
     
+    /**
+     * Number of threads loading the resource groups during {@link #warmUp(Collection)}.
+     */
+    private static final int WARM_UP_WORKERS = 2;
+    
     // errors
     private static final String DURING_INSTALL = " (Trying to install '%s' from '%s' using main class '%s')";
     private static final String DURING_CACHE = " (Trying to load cache '%s' from '%s' using main class '%s')";
@@ -94,9 +114,37 @@ public class PluginProvider implements IPluginProvider {
     /*
      * fields
      */
-    private Map<String, ResourceGroup> cache;
-    private Map<String, IRGIS> cacheRGIS;
-    private Map<String, Long> cacheRevision;
+    private ConcurrentMap<String, ResourceGroup> cache;
+    private ConcurrentMap<String, IRGIS> cacheRGIS;
+    private ConcurrentMap<String, Long> cacheRevision;
+    
+    /**
+     * The lock of each resource group, held while it is loaded, installed or uninstalled.
+     */
+    private ConcurrentMap<String, Object> locks;
+    
+    /**
+     * The resource groups queued for warm-up and not yet loaded by it.
+     */
+    private ConcurrentMap<String, Boolean> warmingUp;
+    
+    /**
+     * The resource groups that could not be loaded during warm-up, so they are not warmed up again until they are
+     * installed again.
+     */
+    private ConcurrentMap<String, Boolean> failed;
+    
+    /**
+     * The time in milliseconds it took to load each resource group.
+     */
+    private ConcurrentMap<String, Long> loadTimes;
+    
+    private ExecutorService warmUpWorkers;
+    
+    /**
+     * The resource groups whose assets were already extracted during {@link #injectFile(String, InputStream)}.
+     */
+    private ConcurrentMap<String, Boolean> extracted;
     
     /*
      * singleton stuff
@@ -111,9 +159,26 @@ public class PluginProvider implements IPluginProvider {
     
     
     private PluginProvider() {
-        this.cache = new HashMap<String, ResourceGroup>();
-        this.cacheRGIS = new HashMap<String, IRGIS>();
-        this.cacheRevision = new HashMap<String, Long>();
+        this.cache = new ConcurrentHashMap<String, ResourceGroup>();
+        this.cacheRGIS = new ConcurrentHashMap<String, IRGIS>();
+        this.cacheRevision = new ConcurrentHashMap<String, Long>();
+        this.locks = new ConcurrentHashMap<String, Object>();
+        this.warmingUp = new ConcurrentHashMap<String, Boolean>();
+        this.failed = new ConcurrentHashMap<String, Boolean>();
+        this.loadTimes = new ConcurrentHashMap<String, Long>();
+        this.extracted = new ConcurrentHashMap<String, Boolean>();
+        this.warmUpWorkers = Executors.newFixedThreadPool(WARM_UP_WORKERS, new ThreadFactory() {
+            
+            private final AtomicInteger count = new AtomicInteger(0);
+            
+            
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread result = new Thread(r, "Plugin warm-up " + this.count.incrementAndGet());
+                result.setDaemon(true);
+                return result;
+            }
+        });
         
         if (!PLUGIN_BASE_DIR.mkdirs() && !PLUGIN_BASE_DIR.exists()) {
             Log.e(this, "Error while creating directory in PluginProvider: " + PLUGIN_BASE_DIR.getAbsolutePath());
@@ -134,13 +199,65 @@ public class PluginProvider implements IPluginProvider {
     
     
     /**
-     * Assures that the identified resource group is loaded.
+     * @param rgPackage
+     * @return the lock of the identified resource group
+     */
+    private Object lockFor(String rgPackage) {
+        Object lock = this.locks.get(rgPackage);
+        if (lock == null) {
+            Object newLock = new Object();
+            lock = this.locks.putIfAbsent(rgPackage, newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+        return lock;
+    }
+    
+    
+    /**
+     * @param rgPackage
+     * @return whether the identified resource group is completely loaded
+     */
+    private boolean isCached(String rgPackage) {
+        return (this.cacheRGIS.get(rgPackage) != null) && (this.cache.get(rgPackage) != null)
+                && (this.cacheRevision.get(rgPackage) != null);
+    }
+    
+    
+    /**
+     * Assures that the identified resource group is loaded. Waits if it is currently loaded by another thread, e.g.
+     * during {@link #warmUp(Collection)}.
      * 
      * @param rgPackage
      * @throws InvalidPluginException
      *             if the supplied plugin is somehow corrupt
      */
     private void checkCached(String rgPackage) throws InvalidPluginException {
+        if (isCached(rgPackage)) {
+            return;
+        }
+        
+        synchronized (lockFor(rgPackage)) {
+            if (isCached(rgPackage)) {
+                return;
+            }
+            
+            long start = System.currentTimeMillis();
+            loadCache(rgPackage);
+            this.loadTimes.put(rgPackage, System.currentTimeMillis() - start);
+        }
+    }
+    
+    
+    /**
+     * Loads the parts of the identified resource group that are not yet cached. Must hold its lock.
+     * 
+     * @param rgPackage
+     * @throws InvalidPluginException
+     *             if the supplied plugin is somehow corrupt
+     */
+    private void loadCache(String rgPackage) throws InvalidPluginException {
         String errorMsg;
         
         // RGIS
@@ -213,10 +330,10 @@ public class PluginProvider implements IPluginProvider {
             FileOutputStream fos = new FileOutputStream(target);
             
             try {
-                byte[] buffer = new byte[32 * 1024];
+                byte[] buffer = new byte[BUFFER_SIZE];
                 
-                while (inputStream.available() > 0) {
-                    int read = inputStream.read(buffer);
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
                     fos.write(buffer, 0, read);
                 }
                 
@@ -243,11 +360,153 @@ public class PluginProvider implements IPluginProvider {
     }
     
     
+    /**
+     * Writes the data to the target.
+     * 
+     * @param data
+     * @param target
+     * @throws IOException
+     */
+    private void writeFile(byte[] data, String target) throws IOException {
+        FileOutputStream fos = new FileOutputStream(target);
+        try {
+            fos.write(data);
+        } finally {
+            fos.close();
+        }
+    }
+    
+    
     @Override
-    public void injectFile(String rgPackage, InputStream input) {
+    public void injectFile(String rgPackage, InputStream input) throws IOException {
         Assert.nonNull(rgPackage, ModelMisuseError.class, Assert.ILLEGAL_NULL, "rgPackage", rgPackage);
         Assert.nonNull(input, ModelMisuseError.class, Assert.ILLEGAL_NULL, "input", input);
-        copyFile(input, PLUGIN_APK_DIR_STR + rgPackage + APK_STR);
+        
+        synchronized (lockFor(rgPackage)) {
+            this.extracted.remove(rgPackage);
+            
+            File part = new File(PLUGIN_APK_DIR_STR + rgPackage + PART_STR);
+            File apk = new File(PLUGIN_APK_DIR_STR + rgPackage + APK_STR);
+            try {
+                boolean complete = receive(rgPackage, input, part);
+                
+                if (apk.exists() && !apk.delete()) {
+                    throw new IOException("Could not replace " + apk.getPath());
+                }
+                if (!part.renameTo(apk)) {
+                    throw new IOException("Could not rename " + part.getPath());
+                }
+                
+                if (complete) {
+                    this.extracted.put(rgPackage, Boolean.TRUE);
+                }
+                
+            } catch (IOException ioe) {
+                if (part.exists()) {
+                    deleteFile(part.getPath());
+                }
+                throw ioe;
+            }
+        }
+    }
+    
+    
+    /**
+     * Writes the apk from the input to the target in a single pass. Meanwhile, the CRC-32 of every entry is verified
+     * and the RGIS and icon are extracted to the asset directory.
+     * 
+     * @param rgPackage
+     * @param input
+     * @param target
+     * @return whether the RGIS and the icon were both extracted, which is not the case if the icon came first
+     * @throws IOException
+     *             if the input cannot be read, is no valid zip file or the target cannot be written
+     */
+    private boolean receive(String rgPackage, InputStream input, File target) throws IOException {
+        byte[] rgisXML = null;
+        byte[] icon = null;
+        String iconLocation = null;
+        
+        FileOutputStream fos = new FileOutputStream(target);
+        try {
+            FileChannel channel = fos.getChannel();
+            ChannelTeeInputStream tee = new ChannelTeeInputStream(input, channel);
+            
+            // no close, it would close the input
+            ZipInputStream zis = new ZipInputStream(tee);
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                if (entry.getName().equals(RGIS_ENTRY)) {
+                    rgisXML = ByteUtil.readFully(zis);
+                    try {
+                        iconLocation = XMLUtilityProxy.getRGUtil().parse(new ByteArrayInputStream(rgisXML))
+                                .getIconLocation();
+                    } catch (ParserException pe) {
+                        // reported when installing
+                        Log.w(this, "Invalid RGIS in injected " + rgPackage, pe);
+                    }
+                } else if (entry.getName().equals(iconLocation)) {
+                    icon = ByteUtil.readFully(zis);
+                }
+                // getNextEntry() skips the rest and verifies the CRC-32
+            }
+            
+            // the central directory is not read by the zip stream, but belongs to the apk
+            tee.drain();
+            
+            if (channel.size() != tee.getCount()) {
+                throw new IOException("Wrote " + channel.size() + " bytes of " + tee.getCount());
+            }
+            if (tee.getCount() == 0L) {
+                throw new IOException("Empty apk.");
+            }
+            
+        } finally {
+            fos.close();
+        }
+        
+        if (rgisXML == null) {
+            throw new IOException(RGIS_ENTRY + " missing.");
+        }
+        
+        writeFile(rgisXML, PLUGIN_ASSET_DIR_STR + rgPackage + XML_STR);
+        if (icon == null) {
+            return false;
+        }
+        writeFile(icon, PLUGIN_ASSET_DIR_STR + rgPackage + PNG_STR);
+        return true;
+    }
+    
+    
+    /**
+     * Extracts the RGIS and icon from the installed apk. Only needed if {@link #injectFile(String, InputStream)} did
+     * not already extract them.
+     * 
+     * @param rgPackage
+     * @param apkName
+     * @throws IOException
+     */
+    private void extractAssets(String rgPackage, String apkName) throws IOException {
+        ZipFile zipApk = new ZipFile(apkName);
+        try {
+            ZipEntry xmlEntry = zipApk.getEntry(RGIS_ENTRY);
+            if (xmlEntry != null) {
+                copyFile(zipApk.getInputStream(xmlEntry), PLUGIN_ASSET_DIR_STR + rgPackage + XML_STR);
+            } else {
+                throw new IOException(RGIS_ENTRY + " missing.");
+            }
+            
+            IRGIS rgis = loadRGIS(rgPackage);
+            
+            ZipEntry iconEntry = zipApk.getEntry(rgis.getIconLocation());
+            if (iconEntry != null) {
+                copyFile(zipApk.getInputStream(iconEntry), PLUGIN_ASSET_DIR_STR + rgPackage + PNG_STR);
+            } else {
+                throw new IOException(rgis.getIconLocation() + " missing.");
+            }
+        } finally {
+            zipApk.close();
+        }
     }
     
     
@@ -255,6 +514,19 @@ public class PluginProvider implements IPluginProvider {
     public void install(String rgPackage) throws InvalidPluginException {
         Assert.nonNull(rgPackage, ModelMisuseError.class, Assert.ILLEGAL_NULL, "rgPackage", rgPackage);
         
+        synchronized (lockFor(rgPackage)) {
+            installLocked(rgPackage);
+        }
+    }
+    
+    
+    /**
+     * Performs {@link #install(String)}. Must hold the lock of the resource group.
+     * 
+     * @param rgPackage
+     * @throws InvalidPluginException
+     */
+    private void installLocked(String rgPackage) throws InvalidPluginException {
         // identify the important attributes first
         String apkName = PLUGIN_APK_DIR_STR + rgPackage + APK_STR;
         String className = "unknown";
@@ -262,43 +534,31 @@ public class PluginProvider implements IPluginProvider {
         
         try {
             
-            // extract the XML, so we have the information from there
-            ZipFile zipApk = new ZipFile(apkName);
-            try {
-                ZipEntry xmlEntry = zipApk.getEntry("assets/rgis" + XML_STR);
-                if (xmlEntry != null) {
-                    copyFile(zipApk.getInputStream(xmlEntry), PLUGIN_ASSET_DIR_STR + rgPackage + XML_STR);
-                } else {
-                    throw new IOException("assets/rgis" + XML_STR + " missing.");
-                }
-                
-                // create the RGIS
-                IRGIS rgis = loadRGIS(rgPackage);
-                className = rgis.getClassName();
-                
-                // extract icon
-                ZipEntry iconEntry = zipApk.getEntry(rgis.getIconLocation());
-                if (iconEntry != null) {
-                    copyFile(zipApk.getInputStream(iconEntry), PLUGIN_ASSET_DIR_STR + rgPackage + PNG_STR);
-                } else {
-                    throw new IOException(rgis.getIconLocation() + " missing.");
-                }
-                
-                // load main class
-                ResourceGroup rg = loadRGObject(rgPackage, apkName, className);
-                
-                // establish the revision
-                Long revision = RevisionReader.get().readRevision(new File(apkName));
-                
-                // store in cache
-                this.cache.put(rgPackage, rg);
-                this.cacheRGIS.put(rgPackage, rgis);
-                this.cacheRevision.put(rgPackage, revision);
-                
-            } finally {
-                zipApk.close();
+            // never use an outdated descriptor
+            DescriptorCache.getInstance().invalidate(rgPackage);
+            
+            // extract the XML and icon, unless the injection already did
+            if (this.extracted.remove(rgPackage) == null) {
+                extractAssets(rgPackage, apkName);
             }
             
+            // create the RGIS
+            IRGIS rgis = loadRGIS(rgPackage);
+            className = rgis.getClassName();
+            
+            // load main class
+            ResourceGroup rg = loadRGObject(rgPackage, apkName, className);
+            
+            // establish the revision
+            Long revision = RevisionReader.get().readRevision(new File(apkName));
+            
+            // store in cache
+            this.cache.put(rgPackage, rg);
+            this.cacheRGIS.put(rgPackage, rgis);
+            this.cacheRevision.put(rgPackage, revision);
+            this.warmingUp.remove(rgPackage);
+            this.failed.remove(rgPackage);
+            
         } catch (ClassNotFoundException cnfe) {
             errorMsg = String.format(ERROR_CLASS_NOT_FOUND + DURING_INSTALL, rgPackage, apkName, className);
             Log.e(this, errorMsg, cnfe);
@@ -382,24 +642,84 @@ public class PluginProvider implements IPluginProvider {
      * @throws IOException
      */
     private IRGIS loadRGIS(String rgPackage) throws FileNotFoundException, IOException {
-        FileInputStream fis = new FileInputStream(PLUGIN_ASSET_DIR_STR + rgPackage + ".xml");
-        try {
-            return XMLUtilityProxy.getRGUtil().parse(fis);
-        } finally {
-            fis.close();
-        }
+        return DescriptorCache.getInstance().getRGIS(rgPackage, new File(PLUGIN_ASSET_DIR_STR + rgPackage + XML_STR));
     }
     
     
     @Override
     public void uninstall(String rgPackage) {
         Assert.nonNull(rgPackage, ModelMisuseError.class, Assert.ILLEGAL_NULL, "rgPackage", rgPackage);
-        this.cache.remove(rgPackage);
-        this.cacheRGIS.remove(rgPackage);
-        this.cacheRevision.remove(rgPackage);
-        deleteFile(PLUGIN_ASSET_DIR_STR + rgPackage + PNG_STR);
-        deleteFile(PLUGIN_ASSET_DIR_STR + rgPackage + XML_STR);
-        deleteFile(PLUGIN_APK_DIR_STR + rgPackage + APK_STR);
+        synchronized (lockFor(rgPackage)) {
+            this.warmingUp.remove(rgPackage);
+            this.failed.remove(rgPackage);
+            this.extracted.remove(rgPackage);
+            this.cache.remove(rgPackage);
+            this.cacheRGIS.remove(rgPackage);
+            this.cacheRevision.remove(rgPackage);
+            this.loadTimes.remove(rgPackage);
+            DescriptorCache.getInstance().invalidate(rgPackage);
+            deleteFile(PLUGIN_ASSET_DIR_STR + rgPackage + PNG_STR);
+            deleteFile(PLUGIN_ASSET_DIR_STR + rgPackage + XML_STR);
+            deleteFile(PLUGIN_APK_DIR_STR + rgPackage + APK_STR);
+        }
+    }
+    
+    
+    @Override
+    public void warmUp(Collection<String> rgPackages) {
+        Assert.nonNull(rgPackages, ModelMisuseError.class, Assert.ILLEGAL_NULL, "rgPackages", rgPackages);
+        
+        for (final String rgPackage : rgPackages) {
+            if (isCached(rgPackage) || this.failed.containsKey(rgPackage)
+                    || (this.warmingUp.putIfAbsent(rgPackage, Boolean.TRUE) != null)) {
+                continue;
+            }
+            
+            this.warmUpWorkers.execute(new Runnable() {
+                
+                @Override
+                public void run() {
+                    warmUpQueued(rgPackage);
+                }
+            });
+        }
+    }
+    
+    
+    /**
+     * Loads a resource group queued by {@link #warmUp(Collection)}, unless it was uninstalled in the meantime.
+     * 
+     * @param rgPackage
+     */
+    private void warmUpQueued(String rgPackage) {
+        synchronized (lockFor(rgPackage)) {
+            if (this.warmingUp.remove(rgPackage) == null) {
+                return;
+            }
+            
+            try {
+                checkCached(rgPackage);
+                Log.d(this, String.format("Warmed up '%s' in %d ms.", rgPackage, this.loadTimes.get(rgPackage)));
+                
+            } catch (InvalidPluginException ipe) {
+                Log.e(this, "Could not warm up " + rgPackage, ipe);
+                this.failed.put(rgPackage, Boolean.TRUE);
+            } catch (ModelMisuseError mme) {
+                Log.e(this, "Could not warm up " + rgPackage, mme);
+                this.failed.put(rgPackage, Boolean.TRUE);
+            }
+        }
+    }
+    
+    
+    @Override
+    public long getLoadTime(String rgPackage) {
+        Assert.nonNull(rgPackage, ModelMisuseError.class, Assert.ILLEGAL_NULL, "rgPackage", rgPackage);
+        Long result = this.loadTimes.get(rgPackage);
+        if (result == null) {
+            result = -1L;
+        }
+        return result;
     }
     
     
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2012 pmp-android development team
+ * Project: PMP
+ * Project-Site: https://github.com/stachch/Privacy_Management_Platform
+ *
+ * ---------------------------------------------------------------------
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unistuttgart.ipvs.pmp.model.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import de.unistuttgart.ipvs.pmp.jpmpps.model.LocalizedResourceGroup;
+import de.unistuttgart.ipvs.pmp.model.PersistenceProvider;
+
+/**
+ * The persistence provider for the local mirror of the resource group catalog of the server. The catalog is mirrored
+ * per language, together with the hash the server sent for it, so it can be revalidated without transferring it again.
+ */
+public class CatalogPersistenceProvider extends PersistenceProvider {
+    
+    private static final char LIKE_ESCAPE = '\\';
+    
+    
+    public CatalogPersistenceProvider() {
+        super(PersistenceProvider.getInstance());
+    }
+    
+    
+    /**
+     * @return whether the database is available, i.e. the model was loaded
+     */
+    public boolean isAvailable() {
+        return getDoh() != null;
+    }
+    
+    
+    /**
+     * @param language
+     * @return the hash of the mirrored catalog for language, or null if it was never mirrored
+     */
+    public byte[] getHash(String language) {
+        Cursor c = getDoh().open().query(TBL_RESOURCEGROUP_CATALOG_STATE, new String[] { HASH }, LANGUAGE + " = ?",
+                new String[] { language }, null, null, null);
+        try {
+            return c.moveToFirst() ? c.getBlob(c.getColumnIndex(HASH)) : null;
+        } finally {
+            c.close();
+        }
+    }
+    
+    
+    /**
+     * @param language
+     * @return the time the catalog for language was last mirrored or revalidated, or -1 if it was never mirrored
+     */
+    public long getUpdated(String language) {
+        Cursor c = getDoh().open().query(TBL_RESOURCEGROUP_CATALOG_STATE, new String[] { UPDATED },
+                LANGUAGE + " = ?", new String[] { language }, null, null, null);
+        try {
+            return c.moveToFirst() ? c.getLong(c.getColumnIndex(UPDATED)) : -1L;
+        } finally {
+            c.close();
+        }
+    }
+    
+    
+    /**
+     * Searches the mirrored catalog.
+     * 
+     * @param language
+     * @param searchPattern
+     *            the string that has to appear in the name or description, ignoring case
+     * @return the matching resource groups, ordered by name
+     */
+    public LocalizedResourceGroup[] find(String language, String searchPattern) {
+        String like = "%" + escapeLike(searchPattern) + "%";
+        String escape = " LIKE ? ESCAPE '" + LIKE_ESCAPE + "'";
+        
+        Cursor c = getDoh().open().query(TBL_RESOURCEGROUP_CATALOG,
+                new String[] { IDENTIFIER, NAME, DESCRIPTION, REVISION },
+                LANGUAGE + " = ? AND (" + NAME + escape + " OR " + DESCRIPTION + escape + ")",
+                new String[] { language, like, like }, null, null, NAME + " COLLATE NOCASE");
+        
+        List<LocalizedResourceGroup> result = new ArrayList<LocalizedResourceGroup>();
+        try {
+            if (c.moveToFirst()) {
+                do {
+                    LocalizedResourceGroup lrg = new LocalizedResourceGroup();
+                    lrg.setIdentifier(c.getString(c.getColumnIndex(IDENTIFIER)));
+                    lrg.setName(c.getString(c.getColumnIndex(NAME)));
+                    lrg.setDescription(c.getString(c.getColumnIndex(DESCRIPTION)));
+                    lrg.setRevision(c.getLong(c.getColumnIndex(REVISION)));
+                    result.add(lrg);
+                } while (c.moveToNext());
+            }
+        } finally {
+            c.close();
+        }
+        
+        return result.toArray(new LocalizedResourceGroup[result.size()]);
+    }
+    
+    
+    /**
+     * Replaces the mirrored catalog for language. Only the resource groups that actually changed are written.
+     * 
+     * @param language
+     * @param catalog
+     *            the complete catalog as sent by the server
+     * @param hash
+     *            the hash the server sent for the catalog
+     */
+    public void update(String language, LocalizedResourceGroup[] catalog, byte[] hash) {
+        startBatch();
+        try {
+            SQLiteDatabase wdb = getDoh().open();
+            
+            // the mirrored state
+            Map<String, LocalizedResourceGroup> mirrored = new HashMap<String, LocalizedResourceGroup>();
+            for (LocalizedResourceGroup lrg : find(language, "")) {
+                mirrored.put(lrg.getIdentifier(), lrg);
+            }
+            
+            for (LocalizedResourceGroup lrg : catalog) {
+                LocalizedResourceGroup old = mirrored.remove(lrg.getIdentifier());
+                if ((old != null) && equal(old, lrg)) {
+                    continue;
+                }
+                
+                ContentValues cv = new ContentValues();
+                cv.put(LANGUAGE, language);
+                cv.put(IDENTIFIER, lrg.getIdentifier());
+                cv.put(NAME, nonNull(lrg.getName()));
+                cv.put(DESCRIPTION, nonNull(lrg.getDescription()));
+                cv.put(REVISION, lrg.getRevision());
+                wdb.replace(TBL_RESOURCEGROUP_CATALOG, null, cv);
+            }
+            
+            // no longer in the catalog
+            for (String identifier : mirrored.keySet()) {
+                wdb.delete(TBL_RESOURCEGROUP_CATALOG, LANGUAGE + " = ? AND " + IDENTIFIER + " = ?", new String[] {
+                        language, identifier });
+            }
+            
+            ContentValues cv = new ContentValues();
+            cv.put(LANGUAGE, language);
+            cv.put(HASH, hash == null ? new byte[0] : hash);
+            cv.put(UPDATED, System.currentTimeMillis());
+            wdb.replace(TBL_RESOURCEGROUP_CATALOG_STATE, null, cv);
+            
+        } finally {
+            endBatch();
+        }
+    }
+    
+    
+    /**
+     * Marks the mirrored catalog for language as still valid, i.e. the server did not modify it.
+     * 
+     * @param language
+     */
+    public void touch(String language) {
+        ContentValues cv = new ContentValues();
+        cv.put(UPDATED, System.currentTimeMillis());
+        getDoh().open().update(TBL_RESOURCEGROUP_CATALOG_STATE, cv, LANGUAGE + " = ?", new String[] { language });
+    }
+    
+    
+    private static boolean equal(LocalizedResourceGroup lrg1, LocalizedResourceGroup lrg2) {
+        return (lrg1.getRevision() == lrg2.getRevision()) && nonNull(lrg1.getName()).equals(nonNull(lrg2.getName()))
+                && nonNull(lrg1.getDescription()).equals(nonNull(lrg2.getDescription()));
+    }
+    
+    
+    private static String nonNull(String string) {
+        return string == null ? "" : string;
+    }
+    
+    
+    private static String escapeLike(String string) {
+        StringBuilder sb = new StringBuilder(string.length());
+        for (char ch : string.toCharArray()) {
+            if ((ch == '%') || (ch == '_') || (ch == LIKE_ESCAPE)) {
+                sb.append(LIKE_ESCAPE);
+            }
+            sb.append(ch);
+        }
+        return sb.toString();
+    }
+    
+}
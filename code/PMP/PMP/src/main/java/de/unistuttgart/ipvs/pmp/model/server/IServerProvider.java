@@ -19,7 +19,7 @@
  */
 package de.unistuttgart.ipvs.pmp.model.server;
 
-import java.io.File;
+import java.io.InputStream;
 import java.util.Date;
 
 import de.unistuttgart.ipvs.pmp.jpmpps.model.LocalizedResourceGroup;
@@ -35,7 +35,8 @@ import de.unistuttgart.ipvs.pmp.xmlutil.presetset.PresetSet;
 public interface IServerProvider {
     
     /**
-     * Finds a list of {@link LocalizedResourceGroup}s for that search string.
+     * Finds a list of {@link LocalizedResourceGroup}s for that search string. Searches a local mirror of the catalog
+     * of the server, which is revalidated in the background when it is outdated.
      * 
      * @param searchPattern
      *            the string for which shall be searched
@@ -46,13 +47,14 @@ public interface IServerProvider {
     
     
     /**
-     * Downloads the resource group identified by rgPackage and stores it in a temporary file.
+     * Downloads the resource group identified by rgPackage. The apk is not stored anywhere, so it can be directly
+     * written to its final destination.
      * 
      * @param rgPackage
      *            the main package of the resource group's apk
-     * @return the file where the resource group is contained or null, if an error occurred
+     * @return the stream containing the resource group's apk or null, if an error occurred
      */
-    public File downloadResourceGroup(String rgPackage);
+    public InputStream downloadResourceGroup(String rgPackage);
     
     
     /**
@@ -90,6 +92,16 @@ public interface IServerProvider {
     public void cleanCache();
     
     
+    /**
+     * Sets the maximum number of bytes the cached server responses may occupy. The least recently used responses are
+     * removed when it is exceeded.
+     * 
+     * @param byteBudget
+     *            the maximum number of bytes
+     */
+    public void setCacheByteBudget(long byteBudget);
+    
+    
     /**
      * The time the last find RG request was cached on.
      * 
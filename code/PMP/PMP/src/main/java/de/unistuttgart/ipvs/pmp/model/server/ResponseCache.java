@@ -0,0 +1,346 @@
+/*
+ * Copyright 2012 pmp-android development team
+ * Project: PMP
+ * Project-Site: https://github.com/stachch/Privacy_Management_Platform
+ *
+ * ---------------------------------------------------------------------
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unistuttgart.ipvs.pmp.model.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import de.unistuttgart.ipvs.pmp.jpmpps.io.request.AbstractRequest;
+import de.unistuttgart.ipvs.pmp.jpmpps.io.response.AbstractResponse;
+import de.unistuttgart.ipvs.pmp.shared.Log;
+import de.unistuttgart.ipvs.pmp.util.ByteUtil;
+
+/**
+ * <p>
+ * Cache for the {@link AbstractResponse}s of the server. Each response is stored in a file named after the SHA-1
+ * digest of its serialized request (see {@link #keyFor(AbstractRequest)}), so different requests never share an entry.
+ * </p>
+ * 
+ * <p>
+ * An in-memory index keeps all the entries in least recently used order. The files are limited to a byte budget, the
+ * least recently used ones are deleted when it is exceeded. Small responses are additionally kept in memory up to
+ * {@link #MEMORY_BUDGET} bytes, so repeated requests do not even have to read their file.
+ * </p>
+ */
+public class ResponseCache {
+    
+    /**
+     * Bytes of serialized responses kept in memory.
+     */
+    private static final long MEMORY_BUDGET = 1024L * 1024L;
+    
+    /**
+     * Responses larger than this fraction of {@link #MEMORY_BUDGET} are only kept on disk.
+     */
+    private static final int MEMORY_FRACTION = 4;
+    
+    private static final String TEMP_STR = ".tmp";
+    
+    private final File directory;
+    private long byteBudget;
+    
+    /**
+     * All entries by key, in least recently used order.
+     */
+    private final LinkedHashMap<String, Entry> index;
+    
+    private long diskBytes;
+    private long memoryBytes;
+    
+    
+    /**
+     * Creates a cache on a directory, taking over the entries already stored there.
+     * 
+     * @param directory
+     *            the directory used only by this cache
+     * @param byteBudget
+     *            the maximum number of bytes of the files
+     */
+    public ResponseCache(File directory, long byteBudget) {
+        this.directory = directory;
+        this.byteBudget = byteBudget;
+        this.index = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+        this.diskBytes = 0L;
+        this.memoryBytes = 0L;
+        
+        if (!directory.mkdirs() && !directory.exists()) {
+            Log.e(this, "Error while creating directory in ResponseCache: " + directory.getAbsolutePath());
+        }
+        
+        File[] files = directory.listFiles();
+        if (files != null) {
+            // the file modification time is the time the entry was validated, close enough to its last use
+            Arrays.sort(files, new Comparator<File>() {
+                
+                @Override
+                public int compare(File f1, File f2) {
+                    long m1 = f1.lastModified();
+                    long m2 = f2.lastModified();
+                    return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+                }
+            });
+            
+            for (File file : files) {
+                if (file.getName().endsWith(TEMP_STR)) {
+                    file.delete();
+                } else if (file.isFile()) {
+                    Entry entry = new Entry(file.length(), file.lastModified());
+                    this.index.put(file.getName(), entry);
+                    this.diskBytes += entry.size;
+                }
+            }
+        }
+        trim();
+    }
+    
+    
+    /**
+     * Calculates the key for a request. Must be called before a cache hash is set on the request.
+     * 
+     * @param request
+     * @return the hexadecimal SHA-1 digest of the serialized request
+     */
+    public static String keyFor(AbstractRequest request) {
+        try {
+            return ByteUtil.toHex(ByteUtil.sha1(serialize(request)));
+        } catch (IOException ioe) {
+            throw new IllegalArgumentException("Request is not serializable", ioe);
+        }
+    }
+    
+    
+    /**
+     * @param key
+     * @return the cached response for key, or null if there is none
+     */
+    public synchronized AbstractResponse get(String key) {
+        Entry entry = this.index.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.response != null) {
+            return entry.response;
+        }
+        
+        File file = new File(this.directory, key);
+        try {
+            ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file));
+            try {
+                Object o = ois.readObject();
+                if (!(o instanceof AbstractResponse)) {
+                    throw new ClassNotFoundException(String.valueOf(o));
+                }
+                keepInMemory(entry, (AbstractResponse) o);
+                trim();
+                return (AbstractResponse) o;
+                
+            } finally {
+                ois.close();
+            }
+            
+        } catch (IOException ioe) {
+            Log.e(this, "IOException during loading cache", ioe);
+        } catch (ClassNotFoundException cnfe) {
+            Log.e(this, "ClassNotFoundException during loading cache", cnfe);
+        }
+        
+        remove(key);
+        return null;
+    }
+    
+    
+    /**
+     * @param key
+     * @return the time the response for key was stored or last revalidated, or -1 if there is none
+     */
+    public synchronized long getValidated(String key) {
+        Entry entry = this.index.get(key);
+        return entry == null ? -1L : entry.validated;
+    }
+    
+    
+    /**
+     * Stores a response.
+     * 
+     * @param key
+     * @param response
+     */
+    public synchronized void put(String key, AbstractResponse response) {
+        remove(key);
+        
+        byte[] data;
+        try {
+            data = serialize(response);
+        } catch (IOException ioe) {
+            Log.e(this, "IOException during " + response.getClass().getSimpleName(), ioe);
+            return;
+        }
+        
+        File temp = new File(this.directory, key + TEMP_STR);
+        File file = new File(this.directory, key);
+        try {
+            FileOutputStream fos = new FileOutputStream(temp);
+            try {
+                fos.write(data);
+            } finally {
+                fos.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not rename " + temp.getPath());
+            }
+        } catch (IOException ioe) {
+            Log.e(this, "IOException during " + response.getClass().getSimpleName(), ioe);
+            temp.delete();
+            return;
+        }
+        
+        Entry entry = new Entry(data.length, file.lastModified());
+        this.index.put(key, entry);
+        this.diskBytes += entry.size;
+        keepInMemory(entry, response);
+        trim();
+    }
+    
+    
+    /**
+     * Marks the response for key as still valid, i.e. the server did not modify it.
+     * 
+     * @param key
+     */
+    public synchronized void touch(String key) {
+        Entry entry = this.index.get(key);
+        if (entry != null) {
+            long now = System.currentTimeMillis();
+            File file = new File(this.directory, key);
+            if (!file.setLastModified(now)) {
+                Log.w(this, "Could not touch " + file.getPath());
+            }
+            entry.validated = now;
+        }
+    }
+    
+    
+    /**
+     * @param byteBudget
+     *            the new maximum number of bytes of the files
+     */
+    public synchronized void setByteBudget(long byteBudget) {
+        this.byteBudget = byteBudget;
+        trim();
+    }
+    
+    
+    /**
+     * Removes all the entries.
+     */
+    public synchronized void clear() {
+        for (String key : this.index.keySet().toArray(new String[this.index.size()])) {
+            remove(key);
+        }
+    }
+    
+    
+    private void remove(String key) {
+        Entry entry = this.index.remove(key);
+        if (entry != null) {
+            this.diskBytes -= entry.size;
+            if (entry.response != null) {
+                this.memoryBytes -= entry.size;
+            }
+        }
+        
+        File file = new File(this.directory, key);
+        if (file.exists() && !file.delete()) {
+            Log.w(this, "Could not clean cache: " + key);
+        }
+    }
+    
+    
+    private void keepInMemory(Entry entry, AbstractResponse response) {
+        if ((entry.response == null) && (entry.size <= MEMORY_BUDGET / MEMORY_FRACTION)) {
+            entry.response = response;
+            this.memoryBytes += entry.size;
+        }
+    }
+    
+    
+    /**
+     * Evicts the least recently used entries from memory and disk until both budgets are met.
+     */
+    private void trim() {
+        Iterator<Map.Entry<String, Entry>> it = this.index.entrySet().iterator();
+        while (it.hasNext() && (this.memoryBytes > MEMORY_BUDGET)) {
+            Entry entry = it.next().getValue();
+            if (entry.response != null) {
+                entry.response = null;
+                this.memoryBytes -= entry.size;
+            }
+        }
+        
+        while (!this.index.isEmpty() && (this.diskBytes > this.byteBudget)) {
+            remove(this.index.keySet().iterator().next());
+        }
+    }
+    
+    
+    private static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        try {
+            oos.writeObject(object);
+        } finally {
+            oos.close();
+        }
+        return baos.toByteArray();
+    }
+    
+    
+    /**
+     * An entry of the index.
+     */
+    private static class Entry {
+        
+        private final long size;
+        private long validated;
+        
+        /**
+         * The response, if kept in memory
+         */
+        private AbstractResponse response;
+        
+        
+        public Entry(long size, long validated) {
+            this.size = size;
+            this.validated = validated;
+            this.response = null;
+        }
+    }
+    
+}
@@ -0,0 +1,465 @@
+/*
+ * Copyright 2012 pmp-android development team
+ * Project: PMP
+ * Project-Site: https://github.com/stachch/Privacy_Management_Platform
+ *
+ * ---------------------------------------------------------------------
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unistuttgart.ipvs.pmp.model.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import de.unistuttgart.ipvs.pmp.jpmpps.io.request.AbstractRequest;
+import de.unistuttgart.ipvs.pmp.jpmpps.io.request.RequestCommunicationEnd;
+import de.unistuttgart.ipvs.pmp.jpmpps.io.request.RequestPresetSetLoad;
+import de.unistuttgart.ipvs.pmp.jpmpps.io.request.RequestRGIS;
+import de.unistuttgart.ipvs.pmp.jpmpps.io.request.RequestResourceGroupPackage;
+import de.unistuttgart.ipvs.pmp.jpmpps.io.request.RequestResourceGroups;
+import de.unistuttgart.ipvs.pmp.jpmpps.io.response.AbstractResponse;
+import de.unistuttgart.ipvs.pmp.shared.Log;
+
+/**
+ * <p>
+ * A persistent connection to a JPMPPS server. The socket and object streams are kept open between requests, the
+ * object streams are reset after each request so they do not keep references to old requests. Several requests can
+ * be pipelined, i.e. sent before the first response is read. Responses are read in the order of the requests.
+ * </p>
+ * 
+ * <p>
+ * If a request fails on a connection that was already used before, e.g. because the server closed it in the
+ * meantime, the connection is opened again and the unanswered requests are repeated once. This only happens if all
+ * of them merely read from the server, since the server may have processed the others before the connection broke.
+ * Requests that must not be repeated are therefore always sent on a fresh connection. Connections idle for longer than
+ * {@link #IDLE_TIMEOUT} are not reused at all.
+ * </p>
+ * 
+ * <p>
+ * The object input stream keeps every object received in its handle table until the server resets its stream.
+ * Connections are therefore closed after they received more than {@link #MAX_RECEIVED_BYTES}, e.g. after an apk.
+ * </p>
+ * 
+ * <p>
+ * Optionally, each object is sent as a length-prefixed, deflate-compressed frame instead. This is only understood by
+ * servers that expect it, so it is disabled for the default server.
+ * </p>
+ */
+public class ServerConnection {
+    
+    /**
+     * Timeouts in milliseconds.
+     */
+    private static final int CONNECT_TIMEOUT = 10000;
+    private static final int READ_TIMEOUT = 30000;
+    private static final long IDLE_TIMEOUT = 60000L;
+    
+    private static final int BUFFER_SIZE = 32 * 1024;
+    
+    /**
+     * Number of bytes after which a connection with plain object streams is closed, so the received objects can be
+     * collected.
+     */
+    private static final long MAX_RECEIVED_BYTES = 1024L * 1024L;
+    
+    /**
+     * Maximum size of a compressed frame, to detect corrupted streams.
+     */
+    private static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+    
+    private final String host;
+    private final int port;
+    private final boolean compress;
+    
+    /*
+     * the open connection, null if none
+     */
+    private Socket socket;
+    private ObjectOutputStream oos;
+    private ObjectInputStream ois;
+    private DataOutputStream dos;
+    private DataInputStream dis;
+    private CountingInputStream received;
+    
+    /**
+     * Whether the open connection already completed a request.
+     */
+    private boolean used;
+    private long lastUsed;
+    
+    
+    /**
+     * Creates a new connection, which is only opened once the first request is sent.
+     * 
+     * @param host
+     *            the server's host name
+     * @param port
+     *            the server's port
+     * @param compress
+     *            whether to exchange deflate-compressed frames, which the server must expect
+     */
+    public ServerConnection(String host, int port, boolean compress) {
+        this.host = host;
+        this.port = port;
+        this.compress = compress;
+    }
+    
+    
+    /**
+     * Sends a request and receives its response.
+     * 
+     * @param request
+     *            the request to send
+     * @return the response of the server
+     * @throws IOException
+     *             if the server is not reachable
+     * @throws ClassNotFoundException
+     *             if the server does not respond with an {@link AbstractResponse}
+     */
+    public AbstractResponse request(AbstractRequest request) throws IOException, ClassNotFoundException {
+        return request(Collections.singletonList(request)).get(0);
+    }
+    
+    
+    /**
+     * Sends several requests at once, before receiving their responses.
+     * 
+     * @param requests
+     *            the requests to send
+     * @return the responses of the server, in the order of the requests
+     * @throws IOException
+     *             if the server is not reachable
+     * @throws ClassNotFoundException
+     *             if the server does not respond with an {@link AbstractResponse}
+     */
+    public synchronized List<AbstractResponse> request(List<? extends AbstractRequest> requests) throws IOException,
+            ClassNotFoundException {
+        if ((this.socket != null) && (System.currentTimeMillis() - this.lastUsed > IDLE_TIMEOUT)) {
+            disconnect();
+        }
+        if (this.used && !isRepeatable(requests)) {
+            // they could not be sent again if the server closed the connection meanwhile
+            close();
+        }
+        
+        List<AbstractResponse> result = new ArrayList<AbstractResponse>(requests.size());
+        boolean reused = this.used;
+        try {
+            exchange(requests, result);
+            closeIfFull();
+            return result;
+            
+        } catch (IOException ioe) {
+            disconnect();
+            List<? extends AbstractRequest> unanswered = requests.subList(result.size(), requests.size());
+            if ((!reused && result.isEmpty()) || !isRepeatable(unanswered)) {
+                throw ioe;
+            }
+            
+            // only repeat the requests that were not answered yet
+            Log.d(this, "Reconnecting after failure on used connection: " + ioe.getMessage());
+            try {
+                exchange(unanswered, result);
+                closeIfFull();
+                return result;
+            } catch (IOException ioe2) {
+                disconnect();
+                throw ioe2;
+            }
+            
+        } catch (ClassNotFoundException cnfe) {
+            // the streams are no longer in a known state
+            disconnect();
+            throw cnfe;
+        }
+    }
+    
+    
+    /**
+     * Ends the communication with the server and closes the connection, if open.
+     */
+    public synchronized void close() {
+        if (this.socket != null) {
+            try {
+                writeObject(new RequestCommunicationEnd());
+                flush();
+            } catch (IOException ioe) {
+                Log.d(this, "Could not end communication properly: " + ioe.getMessage());
+            }
+            disconnect();
+        }
+    }
+    
+    
+    /**
+     * Closes the connection if it received more than {@link #MAX_RECEIVED_BYTES}, so the object input stream releases
+     * the objects it received.
+     */
+    private void closeIfFull() {
+        if ((this.received != null) && (this.received.count > MAX_RECEIVED_BYTES)) {
+            Log.d(this, "Closing connection after receiving " + this.received.count + " bytes");
+            close();
+        }
+    }
+    
+    
+    /**
+     * @param requests
+     * @return whether all the requests only read from the server, so sending them twice does no harm
+     */
+    private static boolean isRepeatable(List<? extends AbstractRequest> requests) {
+        for (AbstractRequest request : requests) {
+            boolean reading = (request instanceof RequestResourceGroups) || (request instanceof RequestRGIS)
+                    || (request instanceof RequestResourceGroupPackage) || (request instanceof RequestPresetSetLoad);
+            if (!reading) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    
+    /**
+     * Sends the requests and receives the responses on the current connection, opening it if necessary.
+     * 
+     * @param requests
+     * @param result
+     *            the list to add the responses to as soon as they are received
+     */
+    private void exchange(List<? extends AbstractRequest> requests, List<AbstractResponse> result) throws IOException,
+            ClassNotFoundException {
+        if (this.socket == null) {
+            connect();
+        }
+        
+        for (AbstractRequest request : requests) {
+            writeObject(request);
+        }
+        flush();
+        
+        for (int i = 0; i < requests.size(); i++) {
+            Object response = readObject();
+            if (!(response instanceof AbstractResponse)) {
+                throw new ClassNotFoundException();
+            }
+            result.add((AbstractResponse) response);
+            this.used = true;
+            this.lastUsed = System.currentTimeMillis();
+        }
+    }
+    
+    
+    private void connect() throws IOException {
+        Socket newSocket = new Socket();
+        try {
+            newSocket.setTcpNoDelay(true);
+            newSocket.setSoTimeout(READ_TIMEOUT);
+            newSocket.connect(new InetSocketAddress(this.host, this.port), CONNECT_TIMEOUT);
+            
+            BufferedOutputStream out = new BufferedOutputStream(newSocket.getOutputStream(), BUFFER_SIZE);
+            BufferedInputStream in = new BufferedInputStream(newSocket.getInputStream(), BUFFER_SIZE);
+            if (this.compress) {
+                this.dos = new DataOutputStream(out);
+                this.dis = new DataInputStream(in);
+            } else {
+                // the header has to be sent before the server's header can be read
+                this.oos = new ObjectOutputStream(out);
+                this.oos.flush();
+                this.received = new CountingInputStream(in);
+                this.ois = new ObjectInputStream(this.received);
+            }
+            
+        } catch (IOException ioe) {
+            newSocket.close();
+            this.oos = null;
+            this.ois = null;
+            this.dos = null;
+            this.dis = null;
+            this.received = null;
+            throw ioe;
+        }
+        
+        this.socket = newSocket;
+        this.used = false;
+        this.lastUsed = System.currentTimeMillis();
+    }
+    
+    
+    private void disconnect() {
+        if (this.socket != null) {
+            try {
+                this.socket.close();
+            } catch (IOException ioe) {
+                Log.d(this, "Error while closing connection: " + ioe.getMessage());
+            }
+        }
+        this.socket = null;
+        this.oos = null;
+        this.ois = null;
+        this.dos = null;
+        this.dis = null;
+        this.received = null;
+        this.used = false;
+    }
+    
+    
+    private void writeObject(Object object) throws IOException {
+        if (this.compress) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ObjectOutputStream frameOos = new ObjectOutputStream(baos);
+            frameOos.writeObject(object);
+            frameOos.close();
+            
+            byte[] frame = deflate(baos.toByteArray());
+            this.dos.writeInt(frame.length);
+            this.dos.write(frame);
+            
+        } else {
+            this.oos.writeObject(object);
+            this.oos.reset();
+        }
+    }
+    
+    
+    private void flush() throws IOException {
+        if (this.compress) {
+            this.dos.flush();
+        } else {
+            this.oos.flush();
+        }
+    }
+    
+    
+    private Object readObject() throws IOException, ClassNotFoundException {
+        if (this.compress) {
+            int length = this.dis.readInt();
+            if ((length < 0) || (length > MAX_FRAME_SIZE)) {
+                throw new IOException("Invalid frame length " + length);
+            }
+            byte[] frame = new byte[length];
+            this.dis.readFully(frame);
+            
+            ObjectInputStream frameOis = new ObjectInputStream(new ByteArrayInputStream(inflate(frame)));
+            try {
+                return frameOis.readObject();
+            } finally {
+                frameOis.close();
+            }
+            
+        } else {
+            return this.ois.readObject();
+        }
+    }
+    
+    
+    static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(data.length / 2 + 64);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                baos.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return baos.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+    
+    
+    static byte[] inflate(byte[] data) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(data.length * 2);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!inflater.finished()) {
+                int inflated = inflater.inflate(buffer);
+                if ((inflated == 0) && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated frame");
+                }
+                baos.write(buffer, 0, inflated);
+            }
+            return baos.toByteArray();
+            
+        } catch (DataFormatException dfe) {
+            throw new IOException("Corrupted frame: " + dfe.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+    
+    
+    /**
+     * Counts the bytes read from the connection.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        
+        private long count = 0L;
+        
+        
+        public CountingInputStream(InputStream in) {
+            super(in);
+        }
+        
+        
+        @Override
+        public int read() throws IOException {
+            int result = super.read();
+            if (result != -1) {
+                this.count++;
+            }
+            return result;
+        }
+        
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int result = super.read(b, off, len);
+            if (result > 0) {
+                this.count += result;
+            }
+            return result;
+        }
+        
+        
+        @Override
+        public long skip(long n) throws IOException {
+            long result = super.skip(n);
+            this.count += result;
+            return result;
+        }
+    }
+}
@@ -20,19 +20,18 @@
 package de.unistuttgart.ipvs.pmp.model.server;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import de.unistuttgart.ipvs.pmp.PMPApplication;
 import de.unistuttgart.ipvs.pmp.jpmpps.JPMPPSConstants;
 import de.unistuttgart.ipvs.pmp.jpmpps.io.request.AbstractRequest;
-import de.unistuttgart.ipvs.pmp.jpmpps.io.request.RequestCommunicationEnd;
 import de.unistuttgart.ipvs.pmp.jpmpps.io.request.RequestPresetSetLoad;
 import de.unistuttgart.ipvs.pmp.jpmpps.io.request.RequestPresetSetSave;
 import de.unistuttgart.ipvs.pmp.jpmpps.io.request.RequestResourceGroupPackage;
@@ -64,20 +63,35 @@ public class ServerProvider implements IServerProvider {
     private static final String SERVER_URL = JPMPPSConstants.HOSTNAME;
     private static final int SERVER_PORT = JPMPPSConstants.PORT;
     
-    private static final int BUFFER_SIZE = 32 * 1024;
-    
     /**
      * Amount of time where the cache is that fresh that the server is not even contacted in milliseconds.
      */
     private static final long LOCAL_CACHE_ONLY_TIME = 60000L;
     
-    private static final String APK_STR = ".apk";
     private static final String TEMPORARY_PATH = PMPApplication.getContext().getCacheDir().getAbsolutePath() + "/";
     
+    /**
+     * Default maximum number of bytes of the cached responses.
+     */
+    private static final long DEFAULT_CACHE_BYTE_BUDGET = 16L * 1024L * 1024L;
+    
+    /**
+     * Prefix of the keys in {@link #refreshing} for the revalidation of the mirrored catalog.
+     */
+    private static final String CATALOG_REFRESH_KEY = "catalog:";
+    
     /*
      * fields
      */
     private IServerDownloadCallback callback;
+    private final ServerConnection connection;
+    private final ResponseCache responseCache;
+    
+    /**
+     * Revalidates stale search results and the mirrored catalog, and the keys it is currently working on.
+     */
+    private final ExecutorService refresher;
+    private final ConcurrentHashMap<String, Boolean> refreshing;
     
     /*
      * singleton stuff
@@ -96,138 +110,192 @@ public class ServerProvider implements IServerProvider {
             Log.e(this, "Error while creating directory in ServerProvider.");
         }
         this.callback = NullServerDownloadCallback.instance;
+        this.connection = new ServerConnection(SERVER_URL, SERVER_PORT, false);
+        this.responseCache = new ResponseCache(new File(TEMPORARY_PATH, "responses"), DEFAULT_CACHE_BYTE_BUDGET);
+        this.refreshing = new ConcurrentHashMap<String, Boolean>();
+        this.refresher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread result = new Thread(r, "Server cache refresh");
+                result.setDaemon(true);
+                return result;
+            }
+        });
     }
     
     
     public AbstractResponse handleRequest(AbstractRequest request) throws IOException, ClassNotFoundException {
-        Socket tcpSocket = new Socket(SERVER_URL, SERVER_PORT);
+        Log.d(this, "Sending request " + request.toString() + " ...");
+        this.callback.step(3, 7);
         
-        Object result = null;
+        AbstractResponse result = this.connection.request(request);
         
-        ObjectOutputStream oos = new ObjectOutputStream(tcpSocket.getOutputStream());
-        ObjectInputStream ois = new ObjectInputStream(tcpSocket.getInputStream());
-        try {
-            
-            Log.d(this, "Sending request " + request.toString() + " ...");
-            this.callback.step(3, 7);
-            oos.writeObject(request);
-            
-            Log.d(this, "Receiving ...");
-            this.callback.step(4, 7);
-            result = ois.readObject();
-            if (!(result instanceof AbstractResponse)) {
-                throw new ClassNotFoundException();
-            }
-            
-            Log.d(this, "Sending RequestCommunicationEnd ...");
-            this.callback.step(5, 7);
-            oos.writeObject(new RequestCommunicationEnd());
-            
-        } finally {
-            ois.close();
-            oos.close();
-            tcpSocket.close();
-        }
+        Log.d(this, "Received " + result.toString());
+        this.callback.step(5, 7);
+        return result;
+    }
+    
+    
+    /**
+     * Sends several requests to the server at once, which is faster than sending them one after another.
+     * 
+     * @param requests
+     *            the requests to send
+     * @return the responses, in the order of the requests
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public List<AbstractResponse> handleRequests(List<? extends AbstractRequest> requests) throws IOException,
+            ClassNotFoundException {
+        Log.d(this, "Sending " + requests.size() + " requests ...");
+        this.callback.step(3, 7);
+        
+        List<AbstractResponse> result = this.connection.request(requests);
         
-        return (AbstractResponse) result;
+        this.callback.step(5, 7);
+        return result;
+    }
+    
+    
+    /**
+     * @return the language in which the server shall describe the resource groups
+     */
+    private String getLanguage() {
+        return PMPApplication.getContext().getResources().getConfiguration().locale.getDisplayLanguage();
     }
     
     
     /**
-     * Retrieves an {@link AbstractResponse} that fits the request.
+     * Creates the request for a string.
      * 
      * @param requestString
      *            comType == REQUEST_APK ? rgPackage : search string
      * @param comType
      *            which kind of request is associated with this string
-     * @return the corresponding {@link AbstractResponse}, or null if an error occurred
+     * @return the corresponding {@link AbstractRequest} without a cache hash
      */
-    public AbstractResponse getResponseFor(String requestString, CommunicationType comType) {
-        String cacheHash;
+    private AbstractRequest createRequest(String requestString, CommunicationType comType) {
+        AbstractRequest request = null;
         switch (comType) {
             case REQUEST_RESOURCE_GROUP_APK:
-                cacheHash = "r" + String.valueOf(requestString.hashCode());
+                request = new RequestResourceGroupPackage(requestString);
                 break;
             
-            default:
-                cacheHash = String.valueOf(requestString.hashCode());
+            case REQUEST_SEARCH_RESULTS:
+                request = new RequestResourceGroups(getLanguage(), requestString);
                 break;
         }
         
-        this.callback.step(0, 7);
+        if (request == null) {
+            throw new ModelIntegrityError(Assert.format(Assert.ILLEGAL_NULL, "request", null));
+        }
+        return request;
+    }
+    
+    
+    /**
+     * Sets the cache hash of request to the one of cachedResponse, so the server can answer with a
+     * {@link CachedRequestResponse} if nothing has changed.
+     */
+    private void setCacheHash(AbstractRequest request, AbstractResponse cachedResponse) {
+        if (cachedResponse instanceof ResourceGroupPackageResponse) {
+            request.setCacheHash(((ResourceGroupPackageResponse) cachedResponse).getCacheHash());
+        } else if (cachedResponse instanceof ResourceGroupsResponse) {
+            request.setCacheHash(((ResourceGroupsResponse) cachedResponse).getHash());
+        }
+    }
+    
+    
+    /**
+     * Stores the response of the server in the cache.
+     * 
+     * @return the response to use, i.e. cachedResponse if the server answered with a {@link CachedRequestResponse}
+     */
+    private AbstractResponse store(String key, AbstractResponse cachedResponse, AbstractResponse response) {
+        if ((response instanceof CachedRequestResponse) && (cachedResponse != null)) {
+            this.responseCache.touch(key);
+            return cachedResponse;
+        } else {
+            this.responseCache.put(key, response);
+            return response;
+        }
+    }
+    
+    
+    /**
+     * Revalidates a stale cache entry in the background, so the next request finds it fresh.
+     */
+    private void refresh(final String key, final AbstractRequest request, final AbstractResponse cachedResponse) {
+        if (this.refreshing.putIfAbsent(key, Boolean.TRUE) != null) {
+            return;
+        }
         
-        // check whether cache would be available
-        AbstractResponse cachedResponse = null;
-        File cacheFile = new File(TEMPORARY_PATH + cacheHash);
-        if (cacheFile.exists()) {
-            try {
-                
-                FileInputStream fis = new FileInputStream(cacheFile);
+        this.refresher.execute(new Runnable() {
+            
+            @Override
+            public void run() {
                 try {
-                    ObjectInputStream ois = new ObjectInputStream(fis);
-                    try {
-                        
-                        Object o = ois.readObject();
-                        if (!(o instanceof AbstractResponse)) {
-                            cachedResponse = null;
-                        }
-                        cachedResponse = (AbstractResponse) o;
-                        
-                    } finally {
-                        ois.close();
-                    }
+                    setCacheHash(request, cachedResponse);
+                    store(key, cachedResponse, ServerProvider.this.connection.request(request));
+                    Log.v(ServerProvider.this, "Refreshed cache for " + request.toString());
+                    
+                } catch (IOException e) {
+                    Log.e(ServerProvider.this, "IOException during " + request.getClass().getSimpleName(), e);
+                } catch (ClassNotFoundException e) {
+                    Log.e(ServerProvider.this, "ClassNotFoundException during " + request.getClass().getSimpleName(),
+                            e);
                 } finally {
-                    fis.close();
+                    ServerProvider.this.refreshing.remove(key);
                 }
-                
-            } catch (IOException e) {
-                Log.e(this, "IOException during loading cache", e);
-                cachedResponse = null;
-                
-            } catch (ClassNotFoundException e) {
-                Log.e(this, "ClassNotFoundException during loading cache", e);
-                cachedResponse = null;
-                
             }
-        }
+        });
+    }
+    
+    
+    /**
+     * Retrieves an {@link AbstractResponse} that fits the request. Apks are downloaded by
+     * {@link #downloadResourceGroup(String)} without the cache instead, since they would be written twice.
+     * 
+     * @param requestString
+     *            comType == REQUEST_APK ? rgPackage : search string
+     * @param comType
+     *            which kind of request is associated with this string
+     * @return the corresponding {@link AbstractResponse}, or null if an error occurred
+     */
+    public AbstractResponse getResponseFor(String requestString, CommunicationType comType) {
+        AbstractRequest request = createRequest(requestString, comType);
+        String key = ResponseCache.keyFor(request);
+        
+        this.callback.step(0, 7);
+        
+        // check whether cache would be available
+        AbstractResponse cachedResponse = this.responseCache.get(key);
+        long validated = this.responseCache.getValidated(key);
         
         Log.v(this, "Having cache == " + (cachedResponse == null ? "null" : cachedResponse.toString()));
         this.callback.step(1, 7);
         
-        // if the cache is that new it is extremely unlikely that something has changed
-        // e.g. we're installing several RGs
-        if ((cachedResponse != null) && (cacheFile.lastModified() + LOCAL_CACHE_ONLY_TIME > System.currentTimeMillis())) {
-            Log.v(this, "Using fresh cache");
-            this.callback.step(1, 1);
-            return cachedResponse;
-        }
-        
-        // send request
-        AbstractRequest request = null;
-        switch (comType) {
-            case REQUEST_RESOURCE_GROUP_APK:
-                request = new RequestResourceGroupPackage(requestString);
-                if ((cachedResponse != null) && (cachedResponse instanceof ResourceGroupPackageResponse)) {
-                    ResourceGroupPackageResponse rgpr = (ResourceGroupPackageResponse) cachedResponse;
-                    request.setCacheHash(rgpr.getCacheHash());
-                }
-                break;
+        if (cachedResponse != null) {
+            // if the cache is that new it is extremely unlikely that something has changed
+            // e.g. we're installing several RGs
+            if (validated + LOCAL_CACHE_ONLY_TIME > System.currentTimeMillis()) {
+                Log.v(this, "Using fresh cache");
+                this.callback.step(1, 1);
+                return cachedResponse;
+            }
             
-            case REQUEST_SEARCH_RESULTS:
-                request = new RequestResourceGroups(
-                        PMPApplication.getContext().getResources().getConfiguration().locale.getDisplayLanguage(),
-                        requestString);
-                if ((cachedResponse != null) && (cachedResponse instanceof ResourceGroupsResponse)) {
-                    ResourceGroupsResponse rgr = (ResourceGroupsResponse) cachedResponse;
-                    request.setCacheHash(rgr.getHash());
-                }
-                break;
-        }
-        
-        if (request == null) {
-            throw new ModelIntegrityError(Assert.format(Assert.ILLEGAL_NULL, "request", null));
+            // search results are only browsed, an outdated list is fine until the refresh arrives
+            if (comType == CommunicationType.REQUEST_SEARCH_RESULTS) {
+                Log.v(this, "Using stale cache, refreshing in background");
+                refresh(key, request, cachedResponse);
+                this.callback.step(1, 1);
+                return cachedResponse;
+            }
         }
         
+        // send request
+        setCacheHash(request, cachedResponse);
         this.callback.step(2, 7);
         
         // handle request, fetch response
@@ -244,31 +312,16 @@ public class ServerProvider implements IServerProvider {
         
         this.callback.step(6, 7);
         
-        if (response instanceof CachedRequestResponse) {
-            // okay to use cache     
+        if ((response instanceof CachedRequestResponse) && (cachedResponse != null)) {
+            // okay to use cache
             Log.v(this, "Received Cache-OK message, using cache");
+            store(key, cachedResponse, response);
             this.callback.step(6, 6);
             return cachedResponse;
             
         } else {
             // overwrite cache
-            
-            try {
-                FileOutputStream fos = new FileOutputStream(cacheFile);
-                try {
-                    ObjectOutputStream oos = new ObjectOutputStream(fos);
-                    try {
-                        oos.writeObject(response);
-                    } finally {
-                        oos.close();
-                    }
-                } finally {
-                    fos.close();
-                }
-            } catch (IOException e) {
-                Log.e(this, "IOException during " + response.getClass().getSimpleName(), e);
-            }
-            
+            store(key, cachedResponse, response);
             Log.v(this, "New cache written");
             this.callback.step(7, 7);
             return response;
@@ -277,10 +330,103 @@ public class ServerProvider implements IServerProvider {
     }
     
     
+    /**
+     * Mirrors the complete catalog of the server into catalog. Sends the hash of the mirrored catalog along, so the
+     * server only transfers it if it changed.
+     * 
+     * @param catalog
+     * @param language
+     * @param background
+     *            whether to bypass the callback, because the user is not waiting for the result
+     * @return whether the mirror is up to date now
+     */
+    private boolean refreshCatalog(CatalogPersistenceProvider catalog, String language, boolean background) {
+        AbstractRequest request = new RequestResourceGroups(language, "");
+        byte[] hash = catalog.getHash(language);
+        if (hash != null) {
+            request.setCacheHash(hash);
+        }
+        
+        AbstractResponse response;
+        try {
+            response = background ? this.connection.request(request) : handleRequest(request);
+        } catch (IOException e) {
+            Log.e(this, "IOException during " + request.getClass().getSimpleName(), e);
+            return false;
+        } catch (ClassNotFoundException e) {
+            Log.e(this, "ClassNotFoundException during " + request.getClass().getSimpleName(), e);
+            return false;
+        }
+        
+        if ((response instanceof CachedRequestResponse) && (hash != null)) {
+            Log.v(this, "Received Cache-OK message, catalog unchanged");
+            catalog.touch(language);
+            return true;
+        }
+        
+        if (response instanceof ResourceGroupsResponse) {
+            ResourceGroupsResponse rgr = (ResourceGroupsResponse) response;
+            LocalizedResourceGroup[] rgs = rgr.getResourceGroups();
+            if (rgs != null) {
+                catalog.update(language, rgs, rgr.getHash());
+                Log.v(this, "Catalog mirrored");
+                return true;
+            }
+        }
+        
+        Log.w(this, "Unexpected response " + response + " while mirroring the catalog");
+        return false;
+    }
+    
+    
+    /**
+     * Revalidates the mirrored catalog in the background, so the user can browse it meanwhile.
+     */
+    private void refreshCatalogInBackground(final String language) {
+        final String key = CATALOG_REFRESH_KEY + language;
+        if (this.refreshing.putIfAbsent(key, Boolean.TRUE) != null) {
+            return;
+        }
+        
+        this.refresher.execute(new Runnable() {
+            
+            @Override
+            public void run() {
+                try {
+                    refreshCatalog(new CatalogPersistenceProvider(), language, true);
+                } finally {
+                    ServerProvider.this.refreshing.remove(key);
+                }
+            }
+        });
+    }
+    
+    
     @Override
     public LocalizedResourceGroup[] findResourceGroups(String searchPattern) {
         Assert.nonNull(searchPattern, ModelMisuseError.class, Assert.ILLEGAL_NULL, "searchPattern", searchPattern);
         
+        // search the local mirror of the catalog, if the database is available
+        CatalogPersistenceProvider catalog = new CatalogPersistenceProvider();
+        if (catalog.isAvailable()) {
+            String language = getLanguage();
+            long updated = catalog.getUpdated(language);
+            
+            this.callback.step(0, 7);
+            if (updated < 0L) {
+                // nothing to browse yet, so the user has to wait for the mirror once
+                if (!refreshCatalog(catalog, language, false)) {
+                    return null;
+                }
+            } else if (updated + LOCAL_CACHE_ONLY_TIME <= System.currentTimeMillis()) {
+                refreshCatalogInBackground(language);
+            }
+            
+            LocalizedResourceGroup[] result = catalog.find(language, searchPattern);
+            this.callback.step(7, 7);
+            return result;
+        }
+        
         // get response
         AbstractResponse response = getResponseFor(searchPattern, CommunicationType.REQUEST_SEARCH_RESULTS);
         if ((response == null) || !(response instanceof ResourceGroupsResponse)) {
@@ -294,46 +440,33 @@ public class ServerProvider implements IServerProvider {
     
     
     @Override
-    public File downloadResourceGroup(String rgPackage) {
+    public InputStream downloadResourceGroup(String rgPackage) {
         Assert.nonNull(rgPackage, ModelMisuseError.class, Assert.ILLEGAL_NULL, "rgPackage", rgPackage);
+        
+        // the plugin provider writes the apk once, so it must not pass through the response cache
+        AbstractRequest request = createRequest(rgPackage, CommunicationType.REQUEST_RESOURCE_GROUP_APK);
+        this.callback.step(0, 7);
+        
+        AbstractResponse response;
         try {
-            
-            File tmp = new File(TEMPORARY_PATH + rgPackage + APK_STR);
-            FileOutputStream fos = new FileOutputStream(tmp);
-            try {
-                // get response
-                AbstractResponse response = getResponseFor(rgPackage, CommunicationType.REQUEST_RESOURCE_GROUP_APK);
-                if ((response == null) || !(response instanceof ResourceGroupPackageResponse)) {
-                    return null;
-                }
-                
-                // copy file
-                ResourceGroupPackageResponse rgpr = (ResourceGroupPackageResponse) response;
-                InputStream is = rgpr.getResourceGroupInputStream();
-                try {
-                    byte[] buffer = new byte[BUFFER_SIZE];
-                    
-                    int read = -1;
-                    do {
-                        read = is.read(buffer, 0, BUFFER_SIZE);
-                        if (read > -1) {
-                            fos.write(buffer, 0, read);
-                        }
-                    } while (read > -1);
-                    
-                } finally {
-                    is.close();
-                }
-            } finally {
-                fos.close();
-            }
-            
-            return tmp;
-            
-        } catch (IOException ioe) {
-            Log.e(this, "IO exception during downloading RG " + rgPackage, ioe);
+            response = handleRequest(request);
+        } catch (IOException e) {
+            Log.e(this, "IOException during " + request.getClass().getSimpleName(), e);
+            return null;
+        } catch (ClassNotFoundException e) {
+            Log.e(this, "ClassNotFoundException during " + request.getClass().getSimpleName(), e);
             return null;
         }
+        
+        if (!(response instanceof ResourceGroupPackageResponse)) {
+            Log.w(this, "Unexpected response " + response + " while downloading " + rgPackage);
+            return null;
+        }
+        this.callback.step(7, 7);
+        
+        // the response already holds the apk, so hand it out without a temporary copy
+        ResourceGroupPackageResponse rgpr = (ResourceGroupPackageResponse) response;
+        return rgpr.getResourceGroupInputStream();
     }
     
     
@@ -349,8 +482,10 @@ public class ServerProvider implements IServerProvider {
     
     @Override
     public void cleanCache() {
+        this.responseCache.clear();
+        
         for (File f : new File(TEMPORARY_PATH).listFiles()) {
-            if (!f.delete()) {
+            if (f.isFile() && !f.delete()) {
                 Log.w(this, "Could not clean cache: " + f.getName());
             }
         }
@@ -358,16 +493,28 @@ public class ServerProvider implements IServerProvider {
     }
     
     
+    @Override
+    public void setCacheByteBudget(long byteBudget) {
+        this.responseCache.setByteBudget(byteBudget);
+    }
+    
+    
     @Override
     public Date getFindResourceGroupsCacheDate(String searchPattern) {
         Assert.nonNull(searchPattern, ModelMisuseError.class, Assert.ILLEGAL_NULL, "searchPattern", searchPattern);
         
-        String cacheHash = String.valueOf(searchPattern.hashCode());
-        File cacheFile = new File(TEMPORARY_PATH + cacheHash);
-        if (!cacheFile.exists()) {
+        CatalogPersistenceProvider catalog = new CatalogPersistenceProvider();
+        if (catalog.isAvailable()) {
+            long updated = catalog.getUpdated(getLanguage());
+            return updated < 0L ? new Date() : new Date(updated);
+        }
+        
+        String key = ResponseCache.keyFor(createRequest(searchPattern, CommunicationType.REQUEST_SEARCH_RESULTS));
+        long validated = this.responseCache.getValidated(key);
+        if (validated < 0L) {
             return new Date();
         } else {
-            return new Date(cacheFile.lastModified());
+            return new Date(validated);
         }
     }
     
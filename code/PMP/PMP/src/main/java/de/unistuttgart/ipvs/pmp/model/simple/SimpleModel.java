@@ -26,6 +26,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 
 import de.unistuttgart.ipvs.pmp.model.IModel;
+import de.unistuttgart.ipvs.pmp.model.PersistenceProvider;
 import de.unistuttgart.ipvs.pmp.model.assertion.Assert;
 import de.unistuttgart.ipvs.pmp.model.assertion.ModelIntegrityError;
 import de.unistuttgart.ipvs.pmp.model.assertion.ModelMisuseError;
@@ -65,6 +66,7 @@ public class SimpleModel implements ISimpleModel {
         Assert.nonNull(model, ModelMisuseError.class, Assert.ILLEGAL_NULL, "model", model);
         
         IPCProvider.getInstance().startUpdate();
+        PersistenceProvider.getInstance().startBatch();
         try {
             
             // keep this state, now save all active SF
@@ -104,6 +106,7 @@ public class SimpleModel implements ISimpleModel {
             }
             
         } finally {
+            PersistenceProvider.getInstance().endBatch();
             IPCProvider.getInstance().endUpdate();
         }
     }
@@ -47,7 +47,8 @@ public interface IXMLInterface {
      * 
      * @param presets
      * @param override
-     *            if existing presets shall be overridden or a new preset shall be generated
+     *            if existing presets shall be overridden or a new preset shall be generated, existing presets with the
+     *            same content are left untouched when overriding
      */
     public void importPresets(List<de.unistuttgart.ipvs.pmp.xmlutil.presetset.IPreset> presets, boolean override)
             throws InvalidPresetSetException;
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2012 pmp-android development team
+ * Project: PMP
+ * Project-Site: https://github.com/stachch/Privacy_Management_Platform
+ *
+ * ---------------------------------------------------------------------
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unistuttgart.ipvs.pmp.model.xml;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import de.unistuttgart.ipvs.pmp.util.ByteUtil;
+import de.unistuttgart.ipvs.pmp.xmlutil.presetset.IPreset;
+import de.unistuttgart.ipvs.pmp.xmlutil.presetset.IPresetAssignedApp;
+import de.unistuttgart.ipvs.pmp.xmlutil.presetset.IPresetAssignedPrivacySetting;
+import de.unistuttgart.ipvs.pmp.xmlutil.presetset.IPresetPSContext;
+
+/**
+ * Computes content hashes of presets in their XML representation. Two presets have the same hash, if importing them
+ * results in the same preset, regardless of the order of their apps, privacy settings and contexts. The revision of
+ * the resource groups is not part of the hash, since the import ignores it as well.
+ */
+class PresetDigest {
+    
+    private PresetDigest() {
+    }
+    
+    
+    /**
+     * @param preset
+     * @return the hexadecimal SHA-1 content hash of preset
+     */
+    public static String of(IPreset preset) {
+        List<String> apps = new ArrayList<String>();
+        for (IPresetAssignedApp paa : preset.getAssignedApps()) {
+            apps.add(paa.getIdentifier());
+        }
+        Collections.sort(apps);
+        
+        List<String> privacySettings = new ArrayList<String>();
+        for (IPresetAssignedPrivacySetting paps : preset.getAssignedPrivacySettings()) {
+            List<String> contexts = new ArrayList<String>();
+            for (IPresetPSContext ppsc : paps.getContexts()) {
+                contexts.add(hash(ppsc.getType(), ppsc.getCondition(), ppsc.getOverrideValue()));
+            }
+            Collections.sort(contexts);
+            
+            contexts.add(0, paps.getRgIdentifier());
+            contexts.add(1, paps.getPsIdentifier());
+            contexts.add(2, paps.getValue());
+            privacySettings.add(hash(contexts.toArray(new String[contexts.size()])));
+        }
+        Collections.sort(privacySettings);
+        
+        List<String> fields = new ArrayList<String>();
+        fields.add(preset.getCreator());
+        fields.add(preset.getIdentifier());
+        fields.add(preset.getName());
+        fields.add(preset.getDescription());
+        fields.add(String.valueOf(apps.size()));
+        fields.addAll(apps);
+        fields.addAll(privacySettings);
+        return hash(fields.toArray(new String[fields.size()]));
+    }
+    
+    
+    /**
+     * @param fields
+     * @return the hash of the fields, each prefixed with its length so no two lists of fields get the same input
+     */
+    private static String hash(String... fields) {
+        MessageDigest digest = ByteUtil.newSha1();
+        for (String field : fields) {
+            if (field == null) {
+                updateInt(digest, -1);
+            } else {
+                byte[] bytes;
+                try {
+                    bytes = field.getBytes("UTF-8");
+                } catch (UnsupportedEncodingException uee) {
+                    // every Java provides UTF-8
+                    throw new IllegalStateException(uee);
+                }
+                updateInt(digest, bytes.length);
+                digest.update(bytes);
+            }
+        }
+        
+        return ByteUtil.toHex(digest.digest());
+    }
+    
+    
+    private static void updateInt(MessageDigest digest, int value) {
+        digest.update((byte) (value >>> 24));
+        digest.update((byte) (value >>> 16));
+        digest.update((byte) (value >>> 8));
+        digest.update((byte) value);
+    }
+    
+}
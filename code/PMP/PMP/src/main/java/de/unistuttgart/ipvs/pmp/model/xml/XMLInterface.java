@@ -19,6 +19,7 @@
  */
 package de.unistuttgart.ipvs.pmp.model.xml;
 
+import java.util.Collections;
 import java.util.List;
 
 import de.unistuttgart.ipvs.pmp.model.IModel;
@@ -101,6 +102,7 @@ public class XMLInterface implements IXMLInterface {
         IModel m = Model.getInstance();
         
         IPCProvider.getInstance().startUpdate();
+        PersistenceProvider.getInstance().startBatch();
         try {
             
             // each preset
@@ -118,6 +120,11 @@ public class XMLInterface implements IXMLInterface {
                     // already exists
                     
                     if (override) {
+                        // rewriting an unchanged preset would only churn the model
+                        if (!existing.isDeleted() && isUnchanged(existing, preset)) {
+                            continue;
+                        }
+                        
                         m.removePreset(existing.getCreator(), existing.getLocalIdentifier());
                         toWrite = m.addPreset(creator, preset.getIdentifier(), preset.getName(),
                                 preset.getDescription());
@@ -186,8 +193,20 @@ public class XMLInterface implements IXMLInterface {
             }
             
         } finally {
+            PersistenceProvider.getInstance().endBatch();
             IPCProvider.getInstance().endUpdate();
         }
         
     }
+    
+    
+    /**
+     * @param existing
+     * @param preset
+     * @return whether importing preset would result in the same preset as existing
+     */
+    private boolean isUnchanged(IPreset existing, de.unistuttgart.ipvs.pmp.xmlutil.presetset.IPreset preset) {
+        IPresetSet exported = exportPresets(Collections.singletonList(existing));
+        return PresetDigest.of(exported.getPresets().get(0)).equals(PresetDigest.of(preset));
+    }
 }
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2012 pmp-android development team
+ * Project: PMP
+ * Project-Site: https://github.com/stachch/Privacy_Management_Platform
+ *
+ * ---------------------------------------------------------------------
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unistuttgart.ipvs.pmp.service;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+
+import android.content.Context;
+import de.unistuttgart.ipvs.pmp.model.Model;
+import de.unistuttgart.ipvs.pmp.model.context.IContext;
+import de.unistuttgart.ipvs.pmp.model.element.contextannotation.IContextAnnotation;
+import de.unistuttgart.ipvs.pmp.model.element.preset.IPreset;
+import de.unistuttgart.ipvs.pmp.util.FileLog;
+
+/**
+ * <p>
+ * Decides when the {@link IContext}s have to be updated and which {@link IPreset}s have to be rolled out afterwards.
+ * </p>
+ * 
+ * <p>
+ * Each context is asked for the next possible transition of each of its annotations' conditions, and only updated once
+ * that time has come or its annotations changed. Only the presets whose annotations changed their state (or their
+ * condition or value) since the last evaluation are rolled out.
+ * </p>
+ */
+public class ContextScheduler {
+    
+    /**
+     * The maximum time between two evaluations, in case something changed unnoticed (e.g. the time zone).
+     */
+    private static final long MAXIMUM_INTERVAL = 60L * 60L * 1000L;
+    
+    /**
+     * Contexts due within this time are updated in the current evaluation already.
+     */
+    private static final long DUE_TOLERANCE = 5000L;
+    
+    /**
+     * The time of the next update for each context identifier.
+     */
+    private Map<String, Long> due;
+    
+    /**
+     * The conditions the time in {@link #due} was calculated for, for each context identifier.
+     */
+    private final Map<String, Set<String>> dueConditions;
+    
+    /**
+     * The state, condition and value of each annotation when its preset was last rolled out.
+     */
+    private Map<IContextAnnotation, String> rolledOut;
+    
+    /**
+     * Singleton stuff
+     */
+    private static final ContextScheduler instance = new ContextScheduler();
+    
+    
+    public static ContextScheduler getInstance() {
+        return instance;
+    }
+    
+    
+    /**
+     * Singleton constructor
+     */
+    private ContextScheduler() {
+        this.due = new HashMap<String, Long>();
+        this.dueConditions = new HashMap<String, Set<String>>();
+        this.rolledOut = new HashMap<IContextAnnotation, String>();
+    }
+    
+    
+    /**
+     * Updates all the contexts which are due and determines the presets that have to be rolled out.
+     * 
+     * @param context
+     *            the context of the {@link PMPService}
+     * @return the presets whose annotations have changed since the last evaluation
+     */
+    public synchronized Set<IPreset> evaluate(Context context) {
+        Set<IPreset> result = new HashSet<IPreset>();
+        Map<String, Long> newDue = new HashMap<String, Long>();
+        Map<IContextAnnotation, String> newRolledOut = new HashMap<IContextAnnotation, String>();
+        long now = System.currentTimeMillis();
+        
+        for (IContext ctx : Model.getInstance().getContexts()) {
+            List<IContextAnnotation> cas = Model.getInstance().getContextAnnotations(ctx);
+            if (cas.size() == 0) {
+                this.dueConditions.remove(ctx.getIdentifier());
+                continue;
+            }
+            
+            Set<String> conditions = new HashSet<String>();
+            for (IContextAnnotation ca : cas) {
+                conditions.add(ca.getContextCondition());
+            }
+            
+            Long next = this.due.get(ctx.getIdentifier());
+            if ((next == null) || (next <= now + DUE_TOLERANCE)
+                    || !conditions.equals(this.dueConditions.get(ctx.getIdentifier()))) {
+                FileLog.get().logWithForward(this, null, FileLog.GRANULARITY_CONTEXT_CHANGES, Level.INFO,
+                        "Context update '%s'", ctx.getName());
+                ctx.update(context);
+                
+                next = Long.MAX_VALUE;
+                for (String condition : conditions) {
+                    next = Math.min(next, ctx.getNextTransition(condition));
+                }
+                this.dueConditions.put(ctx.getIdentifier(), conditions);
+            }
+            newDue.put(ctx.getIdentifier(), next);
+            
+            // find the annotations that changed
+            for (IContextAnnotation ca : cas) {
+                String state = String.format("%s;%s;%s", ca.isActive(), ca.getContextCondition(),
+                        ca.getOverridePrivacySettingValue());
+                if (!state.equals(this.rolledOut.get(ca))) {
+                    result.add(ca.getPreset());
+                }
+                newRolledOut.put(ca, state);
+            }
+        }
+        
+        // forget the contexts without and the deleted annotations
+        this.due = newDue;
+        this.rolledOut = newRolledOut;
+        
+        return result;
+    }
+    
+    
+    /**
+     * 
+     * @return the time in {@link System#currentTimeMillis()} domain when {@link #evaluate(Context)} has to be called
+     *         next, or {@link Long#MAX_VALUE}, if there are no annotations at all
+     */
+    public synchronized long getNextEvaluation() {
+        if (this.due.isEmpty()) {
+            return Long.MAX_VALUE;
+        }
+        
+        long result = System.currentTimeMillis() + MAXIMUM_INTERVAL;
+        for (long next : this.due.values()) {
+            result = Math.min(result, next);
+        }
+        return result;
+    }
+}
@@ -20,10 +20,12 @@
 package de.unistuttgart.ipvs.pmp.service;
 
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import android.app.Service;
 import android.content.Intent;
 import android.os.IBinder;
+import de.unistuttgart.ipvs.pmp.model.Model;
 import de.unistuttgart.ipvs.pmp.model.element.app.App;
 import de.unistuttgart.ipvs.pmp.shared.Log;
 import de.unistuttgart.ipvs.pmp.shared.api.PMP;
@@ -41,31 +43,57 @@ import de.unistuttgart.ipvs.pmp.util.Restarter;
  * </p>
  * <ul>
  * <li>If not yet started, it will start and launch one {@link PMPServiceContextThread}.</li>
- * <li>If started and an {@link PMPServiceContextThread} is present, the start will be ignored.</li>
+ * <li>If started and an {@link PMPServiceContextThread} is present, another one will be launched right after it
+ * completed, since it might have missed the change that caused the start.</li>
  * <li>If started and an {@link PMPServiceContextThread} is not present, another one will be launched.</li>
- * <li>If the {@link PMPServiceContextThread} completes, it can schedule the next start unless it has already been
- * scheduled.</li>
+ * <li>If the {@link PMPServiceContextThread} completes, it schedules the next start for the time the
+ * {@link ContextScheduler} requests.</li>
  * </ul>
  * 
+ * <p>
+ * The first start in a process also warms up the resource group plugins in the background.
+ * </p>
+ * 
  * 
  * @author Jakob Jarosch
  */
 public class PMPService extends Service {
     
-    private static final long CONTEXT_SERVICE_INTERVAL = 5L * 60L * 1000L;
+    /**
+     * Whether the warm-up was started in this process, since the service stops itself after each context evaluation.
+     */
+    private static final AtomicBoolean warmUpStarted = new AtomicBoolean(false);
     
-    private boolean scheduled;
+    private boolean running;
+    private boolean rerun;
     private PMPServiceContextThread thread;
     private Semaphore mutex;
     
     
     public PMPService() {
-        this.scheduled = false;
-        this.thread = new PMPServiceContextThread(this);
+        this.running = false;
+        this.rerun = false;
         this.mutex = new Semaphore(1);
     }
     
     
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        
+        if (!warmUpStarted.getAndSet(true)) {
+            // loading the model takes too long for the main thread
+            new Thread("Plugin warm-up start") {
+                
+                @Override
+                public void run() {
+                    Model.getInstance().warmUpResourceGroups();
+                }
+            }.start();
+        }
+    }
+    
+    
     @Override
     public IBinder onBind(Intent intent) {
         ServiceNotification.setBound(true);
@@ -90,49 +118,51 @@ public class PMPService extends Service {
     
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
+        ServiceNotification.setWorking(true);
+        
         try {
             this.mutex.acquire();
             
-            if (intent.getBooleanExtra(Restarter.RESTARTER_IDENTIFIER, false)) {
-                this.scheduled = false;
+            if (!this.running) {
+                this.running = true;
+                this.thread = new PMPServiceContextThread(this);
+                this.thread.start();
+                return START_STICKY;
+                
+            } else {
+                this.rerun = true;
+                return START_NOT_STICKY;
             }
+            
         } catch (InterruptedException e) {
             Log.e(this, "Interrupted while onStartCommand", e);
-            this.scheduled = false;
+            return START_NOT_STICKY;
             
         } finally {
             this.mutex.release();
         }
-        
-        ServiceNotification.setWorking(true);
-        
-        if (!this.thread.isAlive()) {
-            this.thread = new PMPServiceContextThread(this);
-            this.thread.start();
-            return START_STICKY;
-            
-        } else {
-            return START_NOT_STICKY;
-        }
     }
     
     
     /**
      * Called by the {@link PMPServiceContextThread} once its done.
      * 
-     * @param startId
-     *            corresponding id
-     * @param stop
-     *            whether to stop the service or not.
-     * @throws InterruptedException
+     * @param nextEvaluation
+     *            the time in {@link System#currentTimeMillis()} domain to start the next thread on, or
+     *            {@link Long#MAX_VALUE} if none is required
      */
-    public void contextsDone(boolean stop) {
+    public void contextsDone(long nextEvaluation) {
         
         try {
             this.mutex.acquire();
-            if (!stop && !this.scheduled) {
-                Restarter.scheduleServiceRestart(this, CONTEXT_SERVICE_INTERVAL);
-                this.scheduled = true;
+            this.running = false;
+            
+            if (this.rerun) {
+                this.rerun = false;
+                nextEvaluation = System.currentTimeMillis();
+            }
+            if (nextEvaluation != Long.MAX_VALUE) {
+                Restarter.scheduleServiceRestart(this, Math.max(0L, nextEvaluation - System.currentTimeMillis()));
             }
             
         } catch (InterruptedException e) {
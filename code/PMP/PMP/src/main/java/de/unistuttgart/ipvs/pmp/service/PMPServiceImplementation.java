@@ -31,6 +31,7 @@ import de.unistuttgart.ipvs.pmp.model.PersistenceConstants;
 import de.unistuttgart.ipvs.pmp.model.PresetController;
 import de.unistuttgart.ipvs.pmp.model.element.app.IApp;
 import de.unistuttgart.ipvs.pmp.model.element.resourcegroup.IResourceGroup;
+import de.unistuttgart.ipvs.pmp.model.ipc.IPCProvider;
 import de.unistuttgart.ipvs.pmp.shared.resource.RGMode;
 import de.unistuttgart.ipvs.pmp.shared.resource.privacysetting.PrivacySettingValueException;
 import de.unistuttgart.ipvs.pmp.shared.service.pmp.IPMPService;
@@ -55,6 +56,8 @@ public class PMPServiceImplementation extends IPMPService.Stub {
                     "%s requested service features verification, results will be directly published to the app.",
                     app.getName());
                     
+            // the app asked explicitly, so it gets all of them
+            IPCProvider.getInstance().resync(appPackage);
             app.verifyServiceFeatures();
             return true;
         }
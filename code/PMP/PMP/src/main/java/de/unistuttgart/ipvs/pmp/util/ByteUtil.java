@@ -0,0 +1,112 @@
+/*
+ * Copyright 2012 pmp-android development team
+ * Project: PMP
+ * Project-Site: https://github.com/stachch/Privacy_Management_Platform
+ *
+ * ---------------------------------------------------------------------
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unistuttgart.ipvs.pmp.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Helpers for hashing bytes, printing them in hexadecimal and reading them from streams.
+ */
+public class ByteUtil {
+    
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    
+    private static final int BUFFER_SIZE = 8 * 1024;
+    
+    
+    /**
+     * @return a new SHA-1 digest
+     */
+    public static MessageDigest newSha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException nsae) {
+            // every Android provides SHA-1
+            throw new IllegalStateException(nsae);
+        }
+    }
+    
+    
+    /**
+     * @param data
+     * @return the SHA-1 digest of data
+     */
+    public static byte[] sha1(byte[] data) {
+        return newSha1().digest(data);
+    }
+    
+    
+    /**
+     * @param data
+     * @return data in lower case hexadecimal, two characters per byte
+     */
+    public static String toHex(byte[] data) {
+        char[] result = new char[data.length * 2];
+        for (int i = 0; i < data.length; i++) {
+            result[2 * i] = HEX[(data[i] >> 4) & 0xf];
+            result[2 * i + 1] = HEX[data[i] & 0xf];
+        }
+        return new String(result);
+    }
+    
+    
+    /**
+     * Reads the rest of the stream, without closing it.
+     * 
+     * @param input
+     * @return the bytes read
+     * @throws IOException
+     */
+    public static byte[] readFully(InputStream input) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            baos.write(buffer, 0, read);
+        }
+        return baos.toByteArray();
+    }
+    
+    
+    /**
+     * Reads and closes the stream.
+     * 
+     * @param input
+     * @return all the bytes of input
+     * @throws IOException
+     */
+    public static byte[] readAndClose(InputStream input) throws IOException {
+        try {
+            return readFully(input);
+        } finally {
+            input.close();
+        }
+    }
+    
+    
+    private ByteUtil() {
+    }
+    
+}
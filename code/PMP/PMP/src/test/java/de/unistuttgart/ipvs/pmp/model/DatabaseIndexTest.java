@@ -0,0 +1,183 @@
+/*
+ * Copyright 2012 pmp-android development team
+ * Project: PMP
+ * Project-Site: https://github.com/stachch/Privacy_Management_Platform
+ *
+ * ---------------------------------------------------------------------
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unistuttgart.ipvs.pmp.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs EXPLAIN QUERY PLAN for the lookups of the persistence providers against the schema in the assets and checks
+ * that they use the secondary indexes instead of scanning the tables. Also checks that the in place migration of
+ * {@link DatabaseOpenHelper#onUpgrade} keeps the existing rows.
+ */
+public class DatabaseIndexTest implements PersistenceConstants {
+    
+    private static final File SCHEMA = new File("src/main/assets/database-v7.sql");
+    
+    private Connection db;
+    
+    
+    @Before
+    public void setUp() throws Exception {
+        Class.forName("org.sqlite.JDBC");
+        this.db = DriverManager.getConnection("jdbc:sqlite::memory:");
+    }
+    
+    
+    @After
+    public void tearDown() throws SQLException {
+        this.db.close();
+    }
+    
+    
+    @Test
+    public void serviceFeatureValuesUseTheServiceFeatureIndex() throws Exception {
+        execute(readSchema());
+        
+        assertPlanUses("ServiceFeature_RequiredPrivacySettingValue_ServiceFeature", "SELECT " + REQUIREDVALUE + ", "
+                + PRIVACYSETTING_RESOURCEGROUP_PACKAGE + ", " + PRIVACYSETTING_IDENTIFIER + " FROM " + TBL_SFReqPSValue
+                + " WHERE " + SERVICEFEATURE_APP_PACKAGE + " = ? AND " + SERVICEFEATURE_IDENTIFIER + " = ?", true);
+        assertPlanUses("ServiceFeature_RequiredPrivacySettingValue_ServiceFeature", "DELETE FROM " + TBL_SFReqPSValue
+                + " WHERE " + SERVICEFEATURE_APP_PACKAGE + " = ? AND " + SERVICEFEATURE_IDENTIFIER + " = ?", false);
+    }
+    
+    
+    @Test
+    public void presetValuesUseThePresetIndex() throws Exception {
+        execute(readSchema());
+        
+        assertPlanUses("Preset_GrantedPrivacySettingValue_Preset", "SELECT " + PRIVACYSETTING_RESOURCEGROUP_PACKAGE
+                + ", " + PRIVACYSETTING_IDENTIFIER + ", " + GRANTEDVALUE + " FROM " + TBL_GrantPSValue + " WHERE "
+                + PRESET_CREATOR + " = ? AND " + PRESET_IDENTIFIER + " = ?", true);
+        assertPlanUses("Preset_GrantedPrivacySettingValue_Preset", "DELETE FROM " + TBL_GrantPSValue + " WHERE "
+                + PRESET_CREATOR + " = ? AND " + PRESET_IDENTIFIER + " = ?", false);
+    }
+    
+    
+    @Test
+    public void assignedAppsUseTheAppIndex() throws Exception {
+        execute(readSchema());
+        
+        assertPlanUses("Preset_AssignedApp_App", "SELECT " + PRESET_CREATOR + ", " + PRESET_IDENTIFIER + " FROM "
+                + TBL_PresetAssignedApp + " WHERE " + APP_PACKAGE + " = ?", false);
+    }
+    
+    
+    @Test
+    public void contextAnnotationsUseThePresetIndex() throws Exception {
+        execute(readSchema());
+        
+        assertPlanUses("Context_AnnotatedPrivacySettingValue_Preset", "SELECT " + PRIVACYSETTING_RESOURCEGROUP_PACKAGE
+                + ", " + PRIVACYSETTING_IDENTIFIER + ", " + PRESET_PRIVACY_SETTING_ANNOTATION_ID + " FROM "
+                + TBL_CONTEXT_ANNOTATIONS + " WHERE " + PRESET_CREATOR + " = ? AND " + PRESET_IDENTIFIER + " = ?",
+                false);
+    }
+    
+    
+    @Test
+    public void migrationKeepsTheRows() throws Exception {
+        String schema = readSchema();
+        
+        // an older database has the same tables, but none of the indexes
+        execute(schema.substring(0, schema.indexOf("CREATE INDEX")));
+        execute("INSERT INTO " + TBL_GrantPSValue + " VALUES ('rg', 'ps', 'app', 'preset', 'true')");
+        
+        // what onUpgrade does for the migratable versions
+        execute(schema);
+        
+        assertPlanUses("Preset_GrantedPrivacySettingValue_Preset", "SELECT " + GRANTEDVALUE + " FROM "
+                + TBL_GrantPSValue + " WHERE " + PRESET_CREATOR + " = ? AND " + PRESET_IDENTIFIER + " = ?", true);
+        
+        Statement statement = this.db.createStatement();
+        try {
+            ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM " + TBL_GrantPSValue);
+            rs.next();
+            assertEquals(1, rs.getInt(1));
+        } finally {
+            statement.close();
+        }
+    }
+    
+    
+    /**
+     * Executes the statements separated by semicolons, just like {@link DatabaseOpenHelper#executeMultipleQueries}.
+     */
+    private void execute(String queries) throws SQLException {
+        Statement statement = this.db.createStatement();
+        try {
+            for (String query : queries.split(";")) {
+                if (query.trim().length() > 0) {
+                    statement.execute(query);
+                }
+            }
+        } finally {
+            statement.close();
+        }
+    }
+    
+    
+    private void assertPlanUses(String index, String query, boolean covering) throws SQLException {
+        StringBuilder plan = new StringBuilder();
+        PreparedStatement statement = this.db.prepareStatement("EXPLAIN QUERY PLAN " + query);
+        try {
+            ResultSet rs = statement.executeQuery();
+            while (rs.next()) {
+                plan.append(rs.getString("detail")).append('\n');
+            }
+        } finally {
+            statement.close();
+        }
+        
+        String expected = (covering ? "USING COVERING INDEX " : "USING INDEX ") + index + " ";
+        assertTrue(query + " does not use " + index + ":\n" + plan, plan.toString().contains(expected));
+    }
+    
+    
+    private static String readSchema() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        Reader in = new InputStreamReader(new FileInputStream(SCHEMA), "UTF-8");
+        try {
+            char[] buffer = new char[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                sb.append(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2012 pmp-android development team
+ * Project: PMP
+ * Project-Site: https://github.com/stachch/Privacy_Management_Platform
+ *
+ * ---------------------------------------------------------------------
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unistuttgart.ipvs.pmp.model.conflicts;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import de.unistuttgart.ipvs.pmp.model.element.app.IApp;
+import de.unistuttgart.ipvs.pmp.model.element.preset.IPreset;
+import de.unistuttgart.ipvs.pmp.model.element.privacysetting.IPrivacySetting;
+
+/**
+ * Compares the sequential and the parallel comparison of {@link ConflictModel} for 100, 1,000 and 5,000 synthetic
+ * Presets. Both have to find the same conflicts, the times are only printed.
+ */
+public class ConflictModelBenchmark {
+    
+    private static final int[] PRESET_COUNTS = { 100, 1000, 5000 };
+    private static final int PARALLEL_WORKERS = 4;
+    
+    private static final int APPS = 50;
+    private static final int PRIVACY_SETTINGS = 40;
+    private static final int VALUES = 3;
+    
+    
+    @Test
+    public void sequentialAndParallelFindTheSameConflicts() {
+        // warm up the JIT, so the first measurement is not the slowest one
+        compareTimes(1000, false);
+        
+        for (int presetCount : PRESET_COUNTS) {
+            compareTimes(presetCount, true);
+        }
+    }
+    
+    
+    @Test
+    public void updateOfOnePresetKeepsTheConflictsOfTheOthers() {
+        List<IPreset> presets = createPresets(1000, new Random(7));
+        ConflictModel model = new ConflictModel(PARALLEL_WORKERS);
+        model.update(presets, new NullProcessingCallback());
+        
+        SyntheticPreset changed = SyntheticPreset.of(presets.get(0));
+        for (IPrivacySetting ps : changed.values.keySet()) {
+            changed.values.put(ps, (changed.values.get(ps) + 1) % VALUES);
+        }
+        changed.modificationCount++;
+        model.update(presets, new NullProcessingCallback());
+        
+        assertEquals(bruteForce(presets), toSet(model.getConflicts()));
+    }
+    
+    
+    private static void compareTimes(int presetCount, boolean print) {
+        List<IPreset> presets = createPresets(presetCount, new Random(presetCount));
+        
+        ConflictModel sequential = new ConflictModel(1);
+        long start = System.nanoTime();
+        sequential.update(presets, new NullProcessingCallback());
+        long sequentialTime = System.nanoTime() - start;
+        
+        ConflictModel parallel = new ConflictModel(PARALLEL_WORKERS);
+        start = System.nanoTime();
+        parallel.update(presets, new NullProcessingCallback());
+        long parallelTime = System.nanoTime() - start;
+        
+        Set<ConflictPair> expected = toSet(sequential.getConflicts());
+        assertEquals(expected, toSet(parallel.getConflicts()));
+        if (presetCount <= 1000) {
+            assertEquals(bruteForce(presets), expected);
+        }
+        
+        if (print) {
+            System.out.println(String.format("%5d presets: sequential %5d ms, %d workers %5d ms, %6d conflicts",
+                    presetCount, sequentialTime / 1000000L, PARALLEL_WORKERS, parallelTime / 1000000L,
+                    expected.size()));
+        }
+    }
+    
+    
+    private static Set<ConflictPair> toSet(List<ConflictPair> conflicts) {
+        Set<ConflictPair> result = new HashSet<ConflictPair>(conflicts);
+        assertEquals("duplicate conflicts", conflicts.size(), result.size());
+        return result;
+    }
+    
+    
+    /**
+     * @return the conflicts between all the pairs of Presets sharing an app, found without the index
+     */
+    private static Set<ConflictPair> bruteForce(List<IPreset> presets) {
+        Set<ConflictPair> result = new HashSet<ConflictPair>();
+        for (int i = 0; i < presets.size(); i++) {
+            for (int j = i + 1; j < presets.size(); j++) {
+                SyntheticPreset a = SyntheticPreset.of(presets.get(i));
+                SyntheticPreset b = SyntheticPreset.of(presets.get(j));
+                
+                Set<IApp> sharedApps = new HashSet<IApp>(a.apps);
+                sharedApps.retainAll(b.apps);
+                if (!sharedApps.isEmpty() && !a.conflictsWith(b).isEmpty()) {
+                    result.add(new ConflictPair(presets.get(i), presets.get(j)));
+                }
+            }
+        }
+        return result;
+    }
+    
+    
+    /**
+     * Creates Presets assigned to 1 to 3 apps, each granting 1 to 5 privacy settings one of a few values.
+     */
+    private static List<IPreset> createPresets(int count, Random random) {
+        List<IApp> apps = new ArrayList<IApp>();
+        for (int i = 0; i < APPS; i++) {
+            apps.add(proxy(IApp.class, new Element("app" + i)));
+        }
+        List<IPrivacySetting> privacySettings = new ArrayList<IPrivacySetting>();
+        for (int i = 0; i < PRIVACY_SETTINGS; i++) {
+            privacySettings.add(proxy(IPrivacySetting.class, new Element("ps" + i)));
+        }
+        
+        List<IPreset> result = new ArrayList<IPreset>();
+        for (int i = 0; i < count; i++) {
+            SyntheticPreset preset = new SyntheticPreset("preset" + i);
+            for (int j = 1 + random.nextInt(3); j > 0; j--) {
+                IApp app = apps.get(random.nextInt(APPS));
+                if (!preset.apps.contains(app)) {
+                    preset.apps.add(app);
+                }
+            }
+            for (int j = 1 + random.nextInt(5); j > 0; j--) {
+                preset.values.put(privacySettings.get(random.nextInt(PRIVACY_SETTINGS)), random.nextInt(VALUES));
+            }
+            result.add(proxy(IPreset.class, preset));
+        }
+        return result;
+    }
+    
+    
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler));
+    }
+    
+    /**
+     * A model element that only knows its identity.
+     */
+    private static class Element implements InvocationHandler {
+        
+        private final String name;
+        
+        
+        public Element(String name) {
+            this.name = name;
+        }
+        
+        
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("equals")) {
+                return proxy == args[0];
+            } else if (method.getName().equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            } else if (method.getName().equals("toString")) {
+                return this.name;
+            }
+            return handle(method, args);
+        }
+        
+        
+        protected Object handle(Method method, Object[] args) {
+            throw new UnsupportedOperationException(method.getName());
+        }
+    }
+    
+    /**
+     * A Preset whose only conflicts are granted privacy settings with different values.
+     */
+    private static class SyntheticPreset extends Element {
+        
+        private final List<IApp> apps = new ArrayList<IApp>();
+        private final Map<IPrivacySetting, Integer> values = new HashMap<IPrivacySetting, Integer>();
+        private int modificationCount = 0;
+        
+        
+        public SyntheticPreset(String name) {
+            super(name);
+        }
+        
+        
+        public static SyntheticPreset of(IPreset preset) {
+            return (SyntheticPreset) Proxy.getInvocationHandler(preset);
+        }
+        
+        
+        public List<IPrivacySetting> conflictsWith(SyntheticPreset other) {
+            List<IPrivacySetting> result = new ArrayList<IPrivacySetting>();
+            for (Map.Entry<IPrivacySetting, Integer> entry : this.values.entrySet()) {
+                Integer otherValue = other.values.get(entry.getKey());
+                if ((otherValue != null) && !otherValue.equals(entry.getValue())) {
+                    result.add(entry.getKey());
+                }
+            }
+            return result;
+        }
+        
+        
+        @Override
+        protected Object handle(Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("getModificationCount")) {
+                return this.modificationCount;
+            } else if (name.equals("getAssignedApps")) {
+                return new ArrayList<IApp>(this.apps);
+            } else if (name.equals("getGrantedPrivacySettings")) {
+                return new ArrayList<IPrivacySetting>(this.values.keySet());
+            } else if (name.equals("getPSPSConflicts")) {
+                return conflictsWith(of((IPreset) args[0]));
+            } else if (name.equals("getCACAConflicts") || name.equals("getCAPSConflicts")) {
+                return new ArrayList<Object>();
+            }
+            return super.handle(method, args);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2012 pmp-android development team
+ * Project: PMP
+ * Project-Site: https://github.com/stachch/Privacy_Management_Platform
+ *
+ * ---------------------------------------------------------------------
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unistuttgart.ipvs.pmp.model.context.time;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * The {@link Calendar} based evaluation {@link TimeContextCondition} used before it was compiled into a
+ * {@link CompiledTimeContextCondition}. Only kept as the reference for the tests and the benchmark.
+ */
+class CalendarTimeContextCondition {
+    
+    private static final int TRANSITION_SEARCH_DAYS = 367;
+    
+    private final TimeContextCondition condition;
+    private final TimeZone local;
+    
+    
+    public CalendarTimeContextCondition(TimeContextCondition condition, TimeZone local) {
+        this.condition = condition;
+        this.local = local;
+    }
+    
+    
+    private Calendar getCalendar() {
+        if (this.condition.isUTC()) {
+            return Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+        } else {
+            return Calendar.getInstance(this.local);
+        }
+    }
+    
+    
+    public boolean satisfiedIn(long state) {
+        Calendar cal = getCalendar();
+        cal.setTimeInMillis(state);
+        
+        List<Integer> days = this.condition.getDays();
+        
+        // check day is okay
+        switch (this.condition.getInterval()) {
+            case REPEAT_DAILY:
+                break;
+            
+            case REPEAT_WEEKLY:
+                if (!days.contains(cal.get(Calendar.DAY_OF_WEEK))) {
+                    return false;
+                }
+                break;
+            
+            case REPEAT_MONTHLY:
+                if (!days.contains(cal.get(Calendar.DAY_OF_MONTH))) {
+                    return false;
+                }
+                break;
+            
+            case REPEAT_YEARLY:
+                if ((days.size() != 2) || (days.get(0) != cal.get(Calendar.MONTH))
+                        || (days.get(1) != cal.get(Calendar.DAY_OF_MONTH))) {
+                    return false;
+                }
+                break;
+        }
+        
+        // check time
+        TimeContextTime begin = this.condition.getBegin();
+        TimeContextTime end = this.condition.getEnd();
+        TimeContextTime now = new TimeContextTime(cal.get(Calendar.HOUR_OF_DAY), cal.get(Calendar.MINUTE),
+                cal.get(Calendar.SECOND));
+        
+        boolean timeWraps = begin.compareTo(end) > 0;
+        boolean dateBetweenBeginAndEnd = (begin.compareTo(now) <= 0) && (end.compareTo(now) >= 0);
+        
+        return timeWraps ^ dateBetweenBeginAndEnd;
+    }
+    
+    
+    public long nextTransition(long state) {
+        boolean current = satisfiedIn(state);
+        
+        Calendar day = getCalendar();
+        day.setTimeInMillis(state);
+        day.set(Calendar.HOUR_OF_DAY, 0);
+        day.set(Calendar.MINUTE, 0);
+        day.set(Calendar.SECOND, 0);
+        day.set(Calendar.MILLISECOND, 0);
+        
+        for (int i = 0; i <= TRANSITION_SEARCH_DAYS; i++) {
+            long[] candidates = new long[] { day.getTimeInMillis(), timeOnDay(day, this.condition.getBegin()),
+                    timeOnDay(day, this.condition.getEnd()) + 1000L };
+            Arrays.sort(candidates);
+            
+            for (long candidate : candidates) {
+                if ((candidate > state) && (satisfiedIn(candidate) != current)) {
+                    return candidate;
+                }
+            }
+            
+            day.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        
+        return Long.MAX_VALUE;
+    }
+    
+    
+    private static long timeOnDay(Calendar day, TimeContextTime time) {
+        Calendar cal = (Calendar) day.clone();
+        cal.set(Calendar.HOUR_OF_DAY, time.getHour());
+        cal.set(Calendar.MINUTE, time.getMinute());
+        cal.set(Calendar.SECOND, time.getSecond());
+        return cal.getTimeInMillis();
+    }
+}
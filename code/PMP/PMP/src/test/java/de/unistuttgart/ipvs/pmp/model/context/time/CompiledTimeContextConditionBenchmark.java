@@ -0,0 +1,150 @@
+/*
+ * Copyright 2012 pmp-android development team
+ * Project: PMP
+ * Project-Site: https://github.com/stachch/Privacy_Management_Platform
+ *
+ * ---------------------------------------------------------------------
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unistuttgart.ipvs.pmp.model.context.time;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+import de.unistuttgart.ipvs.pmp.model.exception.InvalidConditionException;
+
+/**
+ * Compares the {@link java.util.Calendar} based evaluation with {@link CompiledTimeContextCondition} for 10,000 and
+ * 100,000 evaluations of each condition of {@link CompiledTimeContextConditionTest}. Both have to count the same
+ * satisfied states, the times are only printed.
+ */
+public class CompiledTimeContextConditionBenchmark {
+    
+    private static final int[] EVALUATION_COUNTS = { 10000, 100000 };
+    private static final int TRANSITION_COUNT = 200;
+    
+    private static final TimeZone TIME_ZONE = TimeZone.getTimeZone("Europe/Berlin");
+    
+    
+    @Test
+    public void calendarAndCompiledSatisfyTheSameStates() throws InvalidConditionException {
+        // warm up the JIT, so the first measurement is not the slowest one
+        compareSatisfiedInTimes(10000, false);
+        
+        for (int evaluationCount : EVALUATION_COUNTS) {
+            compareSatisfiedInTimes(evaluationCount, true);
+        }
+    }
+    
+    
+    @Test
+    public void calendarAndCompiledFindTheSameTransitions() throws InvalidConditionException {
+        compareNextTransitionTimes(TRANSITION_COUNT / 10, false);
+        compareNextTransitionTimes(TRANSITION_COUNT, true);
+    }
+    
+    
+    private static void compareSatisfiedInTimes(int evaluationCount, boolean print) throws InvalidConditionException {
+        long[] states = createStates(evaluationCount, new Random(evaluationCount));
+        long calendarTime = 0L;
+        long compiledTime = 0L;
+        
+        for (String condition : CompiledTimeContextConditionTest.CONDITIONS) {
+            CalendarTimeContextCondition calendar = CompiledTimeContextConditionTest.reference(condition, TIME_ZONE);
+            CompiledTimeContextCondition compiled = TimeContextCondition.compile(condition);
+            
+            int calendarSatisfied = 0;
+            long start = System.nanoTime();
+            for (long state : states) {
+                if (calendar.satisfiedIn(state)) {
+                    calendarSatisfied++;
+                }
+            }
+            calendarTime += System.nanoTime() - start;
+            
+            int compiledSatisfied = 0;
+            start = System.nanoTime();
+            for (long state : states) {
+                if (compiled.satisfiedIn(state, TIME_ZONE)) {
+                    compiledSatisfied++;
+                }
+            }
+            compiledTime += System.nanoTime() - start;
+            
+            assertEquals(condition, calendarSatisfied, compiledSatisfied);
+        }
+        
+        if (print) {
+            System.out.println(String.format("%6d x %d satisfiedIn: calendar %5d ms, compiled %5d ms", evaluationCount,
+                    CompiledTimeContextConditionTest.CONDITIONS.length, calendarTime / 1000000L,
+                    compiledTime / 1000000L));
+        }
+    }
+    
+    
+    private static void compareNextTransitionTimes(int transitionCount, boolean print)
+            throws InvalidConditionException {
+        long[] states = createStates(transitionCount, new Random(transitionCount));
+        long calendarTime = 0L;
+        long compiledTime = 0L;
+        
+        for (String condition : CompiledTimeContextConditionTest.CONDITIONS) {
+            CalendarTimeContextCondition calendar = CompiledTimeContextConditionTest.reference(condition, TIME_ZONE);
+            CompiledTimeContextCondition compiled = TimeContextCondition.compile(condition);
+            
+            long[] calendarTransitions = new long[states.length];
+            long start = System.nanoTime();
+            for (int i = 0; i < states.length; i++) {
+                calendarTransitions[i] = calendar.nextTransition(states[i]);
+            }
+            calendarTime += System.nanoTime() - start;
+            
+            long[] compiledTransitions = new long[states.length];
+            start = System.nanoTime();
+            for (int i = 0; i < states.length; i++) {
+                compiledTransitions[i] = compiled.nextTransitionAfter(states[i], TIME_ZONE);
+            }
+            compiledTime += System.nanoTime() - start;
+            
+            for (int i = 0; i < states.length; i++) {
+                assertEquals(condition + " after " + states[i], calendarTransitions[i], compiledTransitions[i]);
+            }
+        }
+        
+        if (print) {
+            System.out.println(String.format("%6d x %d nextTransition: calendar %5d ms, compiled %5d ms",
+                    transitionCount, CompiledTimeContextConditionTest.CONDITIONS.length, calendarTime / 1000000L,
+                    compiledTime / 1000000L));
+        }
+    }
+    
+    
+    /**
+     * @return random points in time between 2010 and 2020
+     */
+    private static long[] createStates(int count, Random random) {
+        long from = CompiledTimeContextConditionTest.startOfYear(2010, TIME_ZONE);
+        long to = CompiledTimeContextConditionTest.startOfYear(2020, TIME_ZONE);
+        
+        long[] states = new long[count];
+        for (int i = 0; i < count; i++) {
+            states[i] = from + (long) (random.nextDouble() * (to - from));
+        }
+        return states;
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2012 pmp-android development team
+ * Project: PMP
+ * Project-Site: https://github.com/stachch/Privacy_Management_Platform
+ *
+ * ---------------------------------------------------------------------
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unistuttgart.ipvs.pmp.model.context.time;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+import de.unistuttgart.ipvs.pmp.model.exception.InvalidConditionException;
+
+/**
+ * Compares {@link CompiledTimeContextCondition} with the {@link Calendar} based evaluation it replaced, for weekly,
+ * monthly and yearly repetitions, intervals wrapping midnight and the end of a month, and daylight saving changes.
+ */
+public class CompiledTimeContextConditionTest {
+    
+    static final String[] CONDITIONS = {
+            // weekly on weekdays, weekly on the weekend wrapping midnight
+            "08:00:00-17:30:00-W2,3,4,5,6,", "22:00:00-06:00:00-W1,7,",
+            // monthly wrapping midnight into the next month, monthly on the last days of a month
+            "20:00:00-04:00:00-M1,31,", "00:00:00-23:59:59-M29,30,31,",
+            // yearly on the leap day wrapping midnight, yearly on new year's eve
+            "23:00:00-01:00:00-Y1,29,", "10:00:00-11:00:00-Y11,31,",
+            // daily inside the hours skipped or repeated by daylight saving changes
+            "02:30:00-03:30:00-D", "00:00:00-00:30:00-D", "12:00:00-12:00:00-D",
+            // utc
+            "utc09:00:00-10:00:00-W2,", "utc22:00:00-02:00:00-M31," };
+    
+    static final String[] TIME_ZONES = { "GMT", "Europe/Berlin", "America/New_York", "America/Sao_Paulo",
+            "Australia/Lord_Howe", "Asia/Kolkata" };
+    
+    private static final long MINUTE = 60L * 1000L;
+    private static final long HOUR = 60L * MINUTE;
+    
+    
+    @Test
+    public void satisfiedInAtEveryHourOfALeapAndACommonYear() throws InvalidConditionException {
+        for (String zone : TIME_ZONES) {
+            TimeZone tz = TimeZone.getTimeZone(zone);
+            long from = startOfYear(2012, tz);
+            long to = startOfYear(2014, tz);
+            
+            for (String condition : CONDITIONS) {
+                CompiledTimeContextCondition compiled = TimeContextCondition.compile(condition);
+                CalendarTimeContextCondition reference = reference(condition, tz);
+                
+                // 59:59 after the hour as well, so the end of each interval is hit, too
+                for (long state = from; state < to; state += HOUR) {
+                    assertSatisfiedEquals(condition, tz, reference, compiled, state);
+                    assertSatisfiedEquals(condition, tz, reference, compiled, state - 1000L);
+                }
+            }
+        }
+    }
+    
+    
+    @Test
+    public void satisfiedInAtRandomTimes() throws InvalidConditionException {
+        Random random = new Random(9);
+        for (String zone : TIME_ZONES) {
+            TimeZone tz = TimeZone.getTimeZone(zone);
+            long from = startOfYear(1990, tz);
+            long to = startOfYear(2040, tz);
+            
+            for (String condition : CONDITIONS) {
+                CompiledTimeContextCondition compiled = TimeContextCondition.compile(condition);
+                CalendarTimeContextCondition reference = reference(condition, tz);
+                
+                for (int i = 0; i < 2000; i++) {
+                    long state = from + (long) (random.nextDouble() * (to - from));
+                    assertSatisfiedEquals(condition, tz, reference, compiled, state);
+                }
+            }
+        }
+    }
+    
+    
+    @Test
+    public void satisfiedInAroundDaylightSavingChanges() throws InvalidConditionException {
+        int changes = 0;
+        for (String zone : TIME_ZONES) {
+            TimeZone tz = TimeZone.getTimeZone(zone);
+            
+            for (long change : daylightSavingChanges(tz, 2012)) {
+                changes++;
+                for (String condition : CONDITIONS) {
+                    CompiledTimeContextCondition compiled = TimeContextCondition.compile(condition);
+                    CalendarTimeContextCondition reference = reference(condition, tz);
+                    
+                    for (long state = change - 4 * HOUR; state <= change + 4 * HOUR; state += MINUTE) {
+                        assertSatisfiedEquals(condition, tz, reference, compiled, state);
+                    }
+                }
+            }
+        }
+        
+        // Berlin, New York, Sao Paulo and Lord Howe changed twice in 2012
+        assertEquals(8, changes);
+    }
+    
+    
+    @Test
+    public void nextTransitionAfterAtRandomTimesAndBeforeDaylightSavingChanges() throws InvalidConditionException {
+        Random random = new Random(11);
+        for (String zone : TIME_ZONES) {
+            TimeZone tz = TimeZone.getTimeZone(zone);
+            long from = startOfYear(2010, tz);
+            long to = startOfYear(2020, tz);
+            
+            List<Long> states = new ArrayList<Long>();
+            for (int i = 0; i < 20; i++) {
+                states.add(from + (long) (random.nextDouble() * (to - from)));
+            }
+            for (long change : daylightSavingChanges(tz, 2012)) {
+                states.add(change - 3 * HOUR);
+                states.add(change - 1000L);
+                states.add(change);
+                states.add(change + HOUR);
+            }
+            
+            for (String condition : CONDITIONS) {
+                CompiledTimeContextCondition compiled = TimeContextCondition.compile(condition);
+                CalendarTimeContextCondition reference = reference(condition, tz);
+                
+                for (long state : states) {
+                    assertTransitionEquals(condition, tz, reference, compiled, state);
+                }
+            }
+        }
+    }
+    
+    
+    static CalendarTimeContextCondition reference(String condition, TimeZone tz) throws InvalidConditionException {
+        return new CalendarTimeContextCondition(TimeContextCondition.parse(condition), tz);
+    }
+    
+    
+    private static void assertSatisfiedEquals(String condition, TimeZone tz, CalendarTimeContextCondition reference,
+            CompiledTimeContextCondition compiled, long state) {
+        assertEquals(condition + " in " + tz.getID() + " at " + state, reference.satisfiedIn(state),
+                compiled.satisfiedIn(state, tz));
+    }
+    
+    
+    private static void assertTransitionEquals(String condition, TimeZone tz, CalendarTimeContextCondition reference,
+            CompiledTimeContextCondition compiled, long state) {
+        String message = condition + " in " + tz.getID() + " after " + state;
+        long expected = reference.nextTransition(state);
+        long actual = compiled.nextTransitionAfter(state, tz);
+        
+        if (actual != expected) {
+            /*
+             * The Calendar stays at 01:00 for all the following days once it crossed a daylight saving change at
+             * midnight, e.g. in Sao Paulo, and misses the transitions at midnight. Then it has to be an earlier one.
+             */
+            assertTrue(message + " expected " + expected + " got " + actual, actual < expected);
+            boolean current = reference.satisfiedIn(state);
+            for (long between = state + 1000L; between < actual; between += MINUTE) {
+                assertEquals(message + " at " + between, current, reference.satisfiedIn(between));
+            }
+            assertEquals(message, current, reference.satisfiedIn(actual - 1000L));
+            assertEquals(message, !current, reference.satisfiedIn(actual));
+        }
+    }
+    
+    
+    static long startOfYear(int year, TimeZone tz) {
+        Calendar cal = Calendar.getInstance(tz);
+        cal.clear();
+        cal.set(year, Calendar.JANUARY, 1);
+        return cal.getTimeInMillis();
+    }
+    
+    
+    /**
+     * @return the points in time of the year at which the offset of tz changes, to the minute
+     */
+    private static List<Long> daylightSavingChanges(TimeZone tz, int year) {
+        List<Long> changes = new ArrayList<Long>();
+        long end = startOfYear(year + 1, tz);
+        
+        for (long hour = startOfYear(year, tz); hour < end; hour += HOUR) {
+            if (tz.getOffset(hour) != tz.getOffset(hour + HOUR)) {
+                long minute = hour;
+                while (tz.getOffset(minute) == tz.getOffset(hour)) {
+                    minute += MINUTE;
+                }
+                assertTrue(minute <= hour + HOUR);
+                changes.add(minute);
+            }
+        }
+        
+        return changes;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2012 pmp-android development team
+ * Project: PMP
+ * Project-Site: https://github.com/stachch/Privacy_Management_Platform
+ *
+ * ---------------------------------------------------------------------
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unistuttgart.ipvs.pmp.model.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+import de.unistuttgart.ipvs.pmp.jpmpps.io.request.AbstractRequest;
+import de.unistuttgart.ipvs.pmp.jpmpps.io.request.RequestResourceGroupPackage;
+import de.unistuttgart.ipvs.pmp.jpmpps.io.response.AbstractResponse;
+import de.unistuttgart.ipvs.pmp.jpmpps.io.response.ResourceGroupPackageResponse;
+
+/**
+ * Downloads a resource group apk from a {@link StandInServer} that drops the connection in the middle of the transfer.
+ * A download must either fail with an {@link IOException} or deliver the complete apk, and the next attempt must
+ * succeed.
+ */
+public class InterruptedDownloadTest {
+    
+    private static final int APK_SIZE = 256 * 1024;
+    
+    private static final int[] CUT_OFFSETS = { 0, 1, 10, 100, 1000, 10000, 100000, APK_SIZE - 1 };
+    
+    private final byte[] apk = new byte[APK_SIZE];
+    
+    private StandInServer server;
+    private ServerConnection connection;
+    
+    
+    public InterruptedDownloadTest() {
+        new Random(23).nextBytes(this.apk);
+    }
+    
+    
+    @After
+    public void tearDown() throws IOException {
+        if (this.connection != null) {
+            this.connection.close();
+        }
+        if (this.server != null) {
+            this.server.close();
+        }
+    }
+    
+    
+    private void start(boolean compress) throws IOException {
+        this.server = new StandInServer(new StandInServer.Handler() {
+            
+            @Override
+            public AbstractResponse handle(AbstractRequest request) {
+                return new ResourceGroupPackageResponse(new ByteArrayInputStream(InterruptedDownloadTest.this.apk),
+                        new byte[0]);
+            }
+        }, compress);
+        this.connection = new ServerConnection(this.server.getHost(), this.server.getPort(), compress);
+    }
+    
+    
+    @Test
+    public void failsOrDeliversTheCompleteApk() throws Exception {
+        for (boolean compress : new boolean[] { false, true }) {
+            for (int offset : CUT_OFFSETS) {
+                start(compress);
+                this.server.cutNextResponses(1, offset);
+                try {
+                    assertArrayEquals(this.apk, download());
+                } catch (IOException ioe) {
+                    // expected, the connection was fresh
+                }
+                assertArrayEquals(this.apk, download());
+                tearDown();
+            }
+        }
+    }
+    
+    
+    @Test
+    public void repeatsADownloadCutOffOnAUsedConnection() throws Exception {
+        start(false);
+        assertArrayEquals(this.apk, download());
+        
+        this.server.cutNextResponses(1, APK_SIZE / 2);
+        assertArrayEquals(this.apk, download());
+        assertEquals(2, this.server.getConnections());
+    }
+    
+    
+    @Test
+    public void reportsADownloadCutOffTwice() throws Exception {
+        start(false);
+        assertArrayEquals(this.apk, download());
+        
+        this.server.cutNextResponses(2, APK_SIZE / 2);
+        try {
+            download();
+            fail("a download cut off on both connections must fail");
+        } catch (IOException ioe) {
+            // expected, the request is only repeated once
+        }
+        assertArrayEquals(this.apk, download());
+        assertEquals(3, this.server.getConnections());
+    }
+    
+    
+    private byte[] download() throws IOException, ClassNotFoundException {
+        AbstractResponse response = this.connection.request(new RequestResourceGroupPackage("rg"));
+        InputStream input = ((ResourceGroupPackageResponse) response).getResourceGroupInputStream();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            baos.write(buffer, 0, read);
+        }
+        return baos.toByteArray();
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2012 pmp-android development team
+ * Project: PMP
+ * Project-Site: https://github.com/stachch/Privacy_Management_Platform
+ *
+ * ---------------------------------------------------------------------
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unistuttgart.ipvs.pmp.model.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.unistuttgart.ipvs.pmp.jpmpps.io.response.AbstractResponse;
+import de.unistuttgart.ipvs.pmp.jpmpps.io.response.ResourceGroupsResponse;
+import de.unistuttgart.ipvs.pmp.jpmpps.model.LocalizedResourceGroup;
+
+/**
+ * Checks the least recently used order of {@link ResponseCache}, the eviction for its disk and memory budgets, the
+ * limit for responses kept in memory, and that revalidating an entry in the background keeps it readable.
+ */
+public class ResponseCacheTest {
+    
+    private static final long UNLIMITED = Long.MAX_VALUE;
+    
+    /**
+     * Just below a quarter of the memory budget, so four of them fit in memory but five do not.
+     */
+    private static final int MEMORY_SIZE = 230 * 1024;
+    
+    /**
+     * More than a quarter of the memory budget, only kept on disk.
+     */
+    private static final int DISK_ONLY_SIZE = 300 * 1024;
+    
+    private static final long STALE = 60L * 60L * 1000L;
+    
+    private File directory;
+    
+    
+    @Before
+    public void setUp() throws IOException {
+        this.directory = File.createTempFile("responses", "");
+        assertTrue(this.directory.delete());
+    }
+    
+    
+    @After
+    public void tearDown() {
+        File[] files = this.directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        this.directory.delete();
+    }
+    
+    
+    @Test
+    public void evictsTheLeastRecentlyUsedFilesFromDisk() {
+        long entrySize = entrySize(100);
+        ResponseCache cache = new ResponseCache(this.directory, 3 * entrySize);
+        
+        cache.put("a", response(100, 1));
+        cache.put("b", response(100, 2));
+        cache.put("c", response(100, 3));
+        
+        // a is used again, so b is the least recently used one now
+        assertNotNull(cache.get("a"));
+        cache.put("d", response(100, 4));
+        
+        assertNull(cache.get("b"));
+        assertFalse(new File(this.directory, "b").exists());
+        assertMarker(1, cache.get("a"));
+        assertMarker(3, cache.get("c"));
+        assertMarker(4, cache.get("d"));
+        assertEquals(3, this.directory.list().length);
+    }
+    
+    
+    @Test
+    public void evictsFromDiskWhenTheBudgetShrinks() {
+        long entrySize = entrySize(100);
+        ResponseCache cache = new ResponseCache(this.directory, UNLIMITED);
+        
+        for (int i = 0; i < 10; i++) {
+            cache.put("k" + i, response(100, i));
+        }
+        assertEquals(10, this.directory.list().length);
+        
+        cache.setByteBudget(2 * entrySize);
+        
+        assertEquals(2, this.directory.list().length);
+        for (int i = 0; i < 8; i++) {
+            assertNull(cache.get("k" + i));
+        }
+        assertMarker(8, cache.get("k8"));
+        assertMarker(9, cache.get("k9"));
+    }
+    
+    
+    @Test
+    public void takesOverTheFilesInTheOrderOfTheirLastValidation() {
+        long entrySize = entrySize(100);
+        ResponseCache cache = new ResponseCache(this.directory, UNLIMITED);
+        cache.put("a", response(100, 1));
+        cache.put("b", response(100, 2));
+        cache.put("c", response(100, 3));
+        
+        // b was validated first, then c, then a
+        long now = System.currentTimeMillis() / 1000L * 1000L;
+        assertTrue(new File(this.directory, "b").setLastModified(now - 3000L));
+        assertTrue(new File(this.directory, "c").setLastModified(now - 2000L));
+        assertTrue(new File(this.directory, "a").setLastModified(now - 1000L));
+        
+        cache = new ResponseCache(this.directory, 2 * entrySize);
+        
+        assertNull(cache.get("b"));
+        assertMarker(1, cache.get("a"));
+        assertMarker(3, cache.get("c"));
+        assertEquals(now - 1000L, cache.getValidated("a"));
+    }
+    
+    
+    @Test
+    public void keepsSmallResponsesInMemory() {
+        ResponseCache cache = new ResponseCache(this.directory, UNLIMITED);
+        AbstractResponse small = response(100, 1);
+        
+        cache.put("a", small);
+        
+        assertSame(small, cache.get("a"));
+        assertSame(small, cache.get("a"));
+    }
+    
+    
+    @Test
+    public void keepsLargeResponsesOnlyOnDisk() {
+        ResponseCache cache = new ResponseCache(this.directory, UNLIMITED);
+        AbstractResponse large = response(DISK_ONLY_SIZE, 1);
+        
+        cache.put("a", large);
+        AbstractResponse first = cache.get("a");
+        AbstractResponse second = cache.get("a");
+        
+        // read from the file each time
+        assertNotSame(large, first);
+        assertNotSame(first, second);
+        assertMarker(1, first);
+        assertMarker(1, second);
+    }
+    
+    
+    @Test
+    public void evictsTheLeastRecentlyUsedResponsesFromMemory() {
+        ResponseCache cache = new ResponseCache(this.directory, UNLIMITED);
+        AbstractResponse[] responses = new AbstractResponse[5];
+        for (int i = 0; i < responses.length; i++) {
+            responses[i] = response(MEMORY_SIZE, i);
+            cache.put("k" + i, responses[i]);
+        }
+        
+        // only four fit into memory, the first one has to be read from disk again
+        AbstractResponse reloaded = cache.get("k0");
+        assertNotSame(responses[0], reloaded);
+        assertMarker(0, reloaded);
+        
+        // keeping it in memory again evicted the now least recently used one
+        assertNotSame(responses[1], cache.get("k1"));
+        assertSame(responses[3], cache.get("k3"));
+        assertSame(responses[4], cache.get("k4"));
+        assertSame(reloaded, cache.get("k0"));
+    }
+    
+    
+    @Test
+    public void servesAStaleEntryWhileItIsTouchedInTheBackground() throws Exception {
+        ResponseCache cache = new ResponseCache(this.directory, UNLIMITED);
+        cache.put("a", response(100, 1));
+        long stale = System.currentTimeMillis() / 1000L * 1000L - STALE;
+        assertTrue(new File(this.directory, "a").setLastModified(stale));
+        
+        final ResponseCache reopened = new ResponseCache(this.directory, UNLIMITED);
+        assertEquals(stale, reopened.getValidated("a"));
+        
+        Thread refresh = new Thread() {
+            
+            @Override
+            public void run() {
+                for (int i = 0; i < 100; i++) {
+                    reopened.touch("a");
+                }
+            }
+        };
+        refresh.start();
+        while (refresh.isAlive()) {
+            assertMarker(1, reopened.get("a"));
+        }
+        refresh.join();
+        
+        assertTrue(reopened.getValidated("a") > stale);
+        assertMarker(1, reopened.get("a"));
+        
+        // the revalidation is kept for the next start
+        assertTrue(new ResponseCache(this.directory, UNLIMITED).getValidated("a") > stale);
+    }
+    
+    
+    @Test
+    public void servesAStaleEntryWhileItIsReplacedInTheBackground() throws Exception {
+        final ResponseCache cache = new ResponseCache(this.directory, UNLIMITED);
+        cache.put("a", response(100, 0));
+        
+        final AtomicReference<AbstractResponse> last = new AtomicReference<AbstractResponse>();
+        Thread refresh = new Thread() {
+            
+            @Override
+            public void run() {
+                for (int i = 1; i <= 100; i++) {
+                    AbstractResponse response = response(100, i);
+                    cache.put("a", response);
+                    last.set(response);
+                }
+            }
+        };
+        refresh.start();
+        while (refresh.isAlive()) {
+            assertNotNull(cache.get("a"));
+        }
+        refresh.join();
+        
+        assertSame(last.get(), cache.get("a"));
+        assertEquals(1, this.directory.list().length);
+    }
+    
+    
+    /**
+     * @return the size of the file for a response with a hash of size bytes
+     */
+    private long entrySize(int size) {
+        ResponseCache cache = new ResponseCache(this.directory, UNLIMITED);
+        cache.put("size", response(size, 0));
+        long result = new File(this.directory, "size").length();
+        cache.clear();
+        return result;
+    }
+    
+    
+    private static AbstractResponse response(int size, int marker) {
+        // random, so the size does not shrink if the response is compressed
+        byte[] hash = new byte[size];
+        new Random(marker).nextBytes(hash);
+        hash[0] = (byte) marker;
+        return new ResourceGroupsResponse(new LocalizedResourceGroup[0], hash);
+    }
+    
+    
+    private static void assertMarker(int marker, AbstractResponse response) {
+        assertNotNull(response);
+        byte[] hash = ((ResourceGroupsResponse) response).getHash();
+        assertArrayEquals(new byte[] { (byte) marker }, new byte[] { hash[0] });
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2012 pmp-android development team
+ * Project: PMP
+ * Project-Site: https://github.com/stachch/Privacy_Management_Platform
+ *
+ * ---------------------------------------------------------------------
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unistuttgart.ipvs.pmp.model.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import de.unistuttgart.ipvs.pmp.jpmpps.io.request.AbstractRequest;
+import de.unistuttgart.ipvs.pmp.jpmpps.io.request.RequestPresetSetSave;
+import de.unistuttgart.ipvs.pmp.jpmpps.io.request.RequestResourceGroupPackage;
+import de.unistuttgart.ipvs.pmp.jpmpps.io.response.AbstractResponse;
+import de.unistuttgart.ipvs.pmp.jpmpps.io.response.PresetSetSaveResponse;
+import de.unistuttgart.ipvs.pmp.jpmpps.io.response.ResourceGroupPackageResponse;
+
+/**
+ * Tests {@link ServerConnection} against a {@link StandInServer} on loopback.
+ */
+public class ServerConnectionTest {
+    
+    /**
+     * Package name for which {@link #ECHO} answers with an apk of {@link #LARGE_APK_SIZE} bytes.
+     */
+    private static final String LARGE = "large";
+    private static final int LARGE_APK_SIZE = 2 * 1024 * 1024;
+    
+    /**
+     * Answers a package request with the package name as apk, and a save with success.
+     */
+    private static final StandInServer.Handler ECHO = new StandInServer.Handler() {
+        
+        @Override
+        public AbstractResponse handle(AbstractRequest request) {
+            if (request instanceof RequestResourceGroupPackage) {
+                String packageName = ((RequestResourceGroupPackage) request).getPackageName();
+                byte[] apk = LARGE.equals(packageName) ? new byte[LARGE_APK_SIZE] : packageName.getBytes();
+                return new ResourceGroupPackageResponse(new ByteArrayInputStream(apk), new byte[0]);
+            }
+            return new PresetSetSaveResponse(true, "saved");
+        }
+    };
+    
+    private StandInServer server;
+    private ServerConnection connection;
+    
+    
+    @After
+    public void tearDown() throws IOException {
+        if (this.connection != null) {
+            this.connection.close();
+        }
+        if (this.server != null) {
+            this.server.close();
+        }
+    }
+    
+    
+    private void start(boolean compress) throws IOException {
+        this.server = new StandInServer(ECHO, compress);
+        this.connection = new ServerConnection(this.server.getHost(), this.server.getPort(), compress);
+    }
+    
+    
+    @Test
+    public void reusesTheConnection() throws Exception {
+        start(false);
+        for (int i = 0; i < 5; i++) {
+            assertEquals("rg" + i, apkOf(this.connection.request(new RequestResourceGroupPackage("rg" + i))));
+        }
+        assertEquals(1, this.server.getConnections());
+    }
+    
+    
+    @Test
+    public void answersPipelinedRequestsInOrder() throws Exception {
+        start(false);
+        List<AbstractRequest> requests = new ArrayList<AbstractRequest>();
+        for (int i = 0; i < 20; i++) {
+            requests.add(new RequestResourceGroupPackage("rg" + i));
+        }
+        
+        List<AbstractResponse> responses = this.connection.request(requests);
+        assertEquals(requests.size(), responses.size());
+        for (int i = 0; i < responses.size(); i++) {
+            assertEquals("rg" + i, apkOf(responses.get(i)));
+        }
+        assertEquals(1, this.server.getConnections());
+    }
+    
+    
+    @Test
+    public void exchangesCompressedFrames() throws Exception {
+        start(true);
+        List<AbstractResponse> responses = this.connection.request(Arrays.asList(new RequestResourceGroupPackage(
+                "rg0"), new RequestResourceGroupPackage("rg1")));
+        assertEquals("rg0", apkOf(responses.get(0)));
+        assertEquals("rg1", apkOf(responses.get(1)));
+    }
+    
+    
+    @Test
+    public void repeatsReadingRequestsAfterTheServerClosedTheConnection() throws Exception {
+        start(false);
+        this.server.setResponsesPerConnection(1);
+        
+        assertEquals("rg0", apkOf(this.connection.request(new RequestResourceGroupPackage("rg0"))));
+        assertEquals("rg1", apkOf(this.connection.request(new RequestResourceGroupPackage("rg1"))));
+        assertEquals(2, this.server.getConnections());
+    }
+    
+    
+    @Test
+    public void sendsSavesOnAFreshConnection() throws Exception {
+        start(false);
+        this.server.setResponsesPerConnection(1);
+        
+        assertEquals("rg0", apkOf(this.connection.request(new RequestResourceGroupPackage("rg0"))));
+        assertTrue(((PresetSetSaveResponse) this.connection.request(new RequestPresetSetSave("preset set")))
+                .isSuccess());
+        assertEquals(1, countSaves());
+        assertEquals(2, this.server.getConnections());
+    }
+    
+    
+    @Test
+    public void doesNotRepeatSaves() throws Exception {
+        start(false);
+        
+        assertEquals("rg0", apkOf(this.connection.request(new RequestResourceGroupPackage("rg0"))));
+        this.server.cutNextResponses(1, 10);
+        try {
+            this.connection.request(new RequestPresetSetSave("preset set"));
+            fail("a save cut off must fail");
+        } catch (IOException ioe) {
+            // expected, the caller decides whether to save again
+        }
+        assertEquals(1, countSaves());
+        assertEquals(2, this.server.getConnections());
+        
+        // the next request opens a new connection
+        assertTrue(((PresetSetSaveResponse) this.connection.request(new RequestPresetSetSave("preset set")))
+                .isSuccess());
+    }
+    
+    
+    @Test
+    public void closesTheConnectionAfterLargeResponses() throws Exception {
+        start(false);
+        
+        assertEquals("rg0", apkOf(this.connection.request(new RequestResourceGroupPackage("rg0"))));
+        assertEquals(LARGE_APK_SIZE, apkOf(this.connection.request(new RequestResourceGroupPackage(LARGE))).length());
+        assertEquals(1, this.server.getConnections());
+        
+        assertEquals("rg1", apkOf(this.connection.request(new RequestResourceGroupPackage("rg1"))));
+        assertEquals(2, this.server.getConnections());
+    }
+    
+    
+    @Test(expected = IOException.class)
+    public void reportsAnUnreachableServer() throws Exception {
+        // closing a port no thread is accepting on refuses the next connection for sure
+        ServerSocket unused = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        int port = unused.getLocalPort();
+        unused.close();
+        
+        this.connection = new ServerConnection("127.0.0.1", port, false);
+        this.connection.request(new RequestResourceGroupPackage("rg0"));
+    }
+    
+    
+    private int countSaves() {
+        int saves = 0;
+        for (AbstractRequest request : this.server.getReceived()) {
+            if (request instanceof RequestPresetSetSave) {
+                saves++;
+            }
+        }
+        return saves;
+    }
+    
+    
+    static String apkOf(AbstractResponse response) throws IOException {
+        InputStream input = ((ResourceGroupPackageResponse) response).getResourceGroupInputStream();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            baos.write(buffer, 0, read);
+        }
+        return new String(baos.toByteArray());
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2012 pmp-android development team
+ * Project: PMP
+ * Project-Site: https://github.com/stachch/Privacy_Management_Platform
+ *
+ * ---------------------------------------------------------------------
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unistuttgart.ipvs.pmp.model.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.unistuttgart.ipvs.pmp.jpmpps.io.request.AbstractRequest;
+import de.unistuttgart.ipvs.pmp.jpmpps.io.request.RequestCommunicationEnd;
+import de.unistuttgart.ipvs.pmp.jpmpps.io.response.AbstractResponse;
+
+/**
+ * A stand-in for the JPMPPS server on loopback. It answers every request with the response of its {@link Handler},
+ * on plain object streams like the real server or on the compressed frames of {@link ServerConnection}. Disconnects
+ * can be injected by closing connections after some responses or in the middle of a response.
+ */
+class StandInServer {
+    
+    /**
+     * Creates the responses of the {@link StandInServer}.
+     */
+    interface Handler {
+        
+        AbstractResponse handle(AbstractRequest request);
+    }
+    
+    private final ServerSocket serverSocket;
+    private final Handler handler;
+    private final boolean compress;
+    
+    private final List<AbstractRequest> received = Collections.synchronizedList(new ArrayList<AbstractRequest>());
+    private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<Socket>());
+    private final AtomicInteger connections = new AtomicInteger(0);
+    
+    /**
+     * Number of responses after which the server closes a connection, 0 for never.
+     */
+    private volatile int responsesPerConnection = 0;
+    
+    /**
+     * Number of the next responses to cut off, and the number of bytes of them that are still sent.
+     */
+    private final AtomicInteger cuts = new AtomicInteger(0);
+    private volatile int cutAfter;
+    
+    
+    public StandInServer(Handler handler, boolean compress) throws IOException {
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        this.handler = handler;
+        this.compress = compress;
+        
+        Thread acceptor = new Thread(new Runnable() {
+            
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "Stand-in server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+    
+    
+    public String getHost() {
+        return this.serverSocket.getInetAddress().getHostAddress();
+    }
+    
+    
+    public int getPort() {
+        return this.serverSocket.getLocalPort();
+    }
+    
+    
+    /**
+     * @return the number of connections accepted so far
+     */
+    public int getConnections() {
+        return this.connections.get();
+    }
+    
+    
+    /**
+     * @return all the requests received so far, except the ends of communication
+     */
+    public List<AbstractRequest> getReceived() {
+        synchronized (this.received) {
+            return new ArrayList<AbstractRequest>(this.received);
+        }
+    }
+    
+    
+    /**
+     * Lets the server close each connection after it sent the given number of responses on it, like a server that
+     * drops idle connections.
+     */
+    public void setResponsesPerConnection(int responsesPerConnection) {
+        this.responsesPerConnection = responsesPerConnection;
+    }
+    
+    
+    /**
+     * Lets the server close the connection in the middle of each of the next responses, like a dropped mobile
+     * connection.
+     * 
+     * @param count
+     *            the number of responses to cut off
+     * @param bytes
+     *            the number of bytes of each of them the client still receives
+     */
+    public void cutNextResponses(int count, int bytes) {
+        this.cutAfter = bytes;
+        this.cuts.set(count);
+    }
+    
+    
+    public void close() throws IOException {
+        this.serverSocket.close();
+        synchronized (this.sockets) {
+            for (Socket socket : this.sockets) {
+                socket.close();
+            }
+        }
+    }
+    
+    
+    private void accept() {
+        try {
+            while (true) {
+                final Socket socket = this.serverSocket.accept();
+                this.connections.incrementAndGet();
+                this.sockets.add(socket);
+                
+                Thread connection = new Thread(new Runnable() {
+                    
+                    @Override
+                    public void run() {
+                        try {
+                            serve(socket);
+                        } catch (IOException ioe) {
+                            // the client or a test closed the connection
+                        } catch (ClassNotFoundException cnfe) {
+                            throw new IllegalStateException(cnfe);
+                        } finally {
+                            try {
+                                socket.close();
+                            } catch (IOException ioe) {
+                                // already closed
+                            }
+                        }
+                    }
+                }, "Stand-in connection");
+                connection.setDaemon(true);
+                connection.start();
+            }
+        } catch (SocketException se) {
+            // closed
+        } catch (IOException ioe) {
+            throw new IllegalStateException(ioe);
+        }
+    }
+    
+    
+    private void serve(Socket socket) throws IOException, ClassNotFoundException {
+        CuttingOutputStream out = new CuttingOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        BufferedInputStream in = new BufferedInputStream(socket.getInputStream());
+        
+        ObjectOutputStream oos = null;
+        ObjectInputStream ois = null;
+        if (!this.compress) {
+            oos = new ObjectOutputStream(out);
+            oos.flush();
+            ois = new ObjectInputStream(in);
+        }
+        
+        int responses = 0;
+        while (true) {
+            Object request;
+            try {
+                request = this.compress ? readFrame(new DataInputStream(in)) : ois.readObject();
+            } catch (EOFException eofe) {
+                return;
+            }
+            if (request instanceof RequestCommunicationEnd) {
+                return;
+            }
+            this.received.add((AbstractRequest) request);
+            
+            AbstractResponse response = this.handler.handle((AbstractRequest) request);
+            if (this.cuts.getAndDecrement() > 0) {
+                out.remaining = this.cutAfter;
+            }
+            if (this.compress) {
+                writeFrame(new DataOutputStream(out), response);
+            } else {
+                oos.writeObject(response);
+                oos.reset();
+            }
+            out.flush();
+            out.remaining = -1;
+            
+            responses++;
+            if (responses == this.responsesPerConnection) {
+                return;
+            }
+        }
+    }
+    
+    
+    private static Object readFrame(DataInputStream dis) throws IOException, ClassNotFoundException {
+        byte[] frame = new byte[dis.readInt()];
+        dis.readFully(frame);
+        
+        ObjectInputStream frameOis = new ObjectInputStream(new ByteArrayInputStream(ServerConnection.inflate(frame)));
+        try {
+            return frameOis.readObject();
+        } finally {
+            frameOis.close();
+        }
+    }
+    
+    
+    private static void writeFrame(DataOutputStream dos, Object object) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream frameOos = new ObjectOutputStream(baos);
+        frameOos.writeObject(object);
+        frameOos.close();
+        
+        byte[] frame = ServerConnection.deflate(baos.toByteArray());
+        dos.writeInt(frame.length);
+        dos.write(frame);
+    }
+    
+    /**
+     * Passes only {@link #remaining} bytes on, if set, and fails on every write afterwards.
+     */
+    private static class CuttingOutputStream extends FilterOutputStream {
+        
+        private int remaining = -1;
+        
+        
+        public CuttingOutputStream(OutputStream out) {
+            super(out);
+        }
+        
+        
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+        
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if ((this.remaining >= 0) && (len > this.remaining)) {
+                // nothing may follow, not even the exception ObjectOutputStream tries to send after this one
+                this.out.write(b, off, this.remaining);
+                this.out.flush();
+                this.remaining = 0;
+                throw new IOException("Cut off");
+            }
+            if (this.remaining >= 0) {
+                this.remaining -= len;
+            }
+            this.out.write(b, off, len);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2012 pmp-android development team
+ * Project: PMP-API
+ * Project-Site: https://github.com/stachch/Privacy_Management_Platform
+ *
+ * ---------------------------------------------------------------------
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.unistuttgart.ipvs.pmp.shared.resource.privacysetting.library;
+
+import java.lang.reflect.Constructor;
+import java.util.EnumSet;
+import java.util.Set;
+
+import android.content.Context;
+import de.unistuttgart.ipvs.pmp.shared.resource.privacysetting.IPrimitivePrivacySetting;
+import de.unistuttgart.ipvs.pmp.shared.resource.privacysetting.IPrivacySettingView;
+import de.unistuttgart.ipvs.pmp.shared.resource.privacysetting.IStringConverter;
+import de.unistuttgart.ipvs.pmp.shared.resource.privacysetting.PrivacySettingValueException;
+import de.unistuttgart.ipvs.pmp.shared.resource.privacysetting.view.EnumView;
+
+/**
+ * {@link SetPrivacySetting} for sets of {@link Enum}s with at most 64 constants. The values are stored like the ones
+ * of a {@link SetPrivacySetting}, but compared as bit sets of the ordinals, also for PMP via
+ * {@link IPrimitivePrivacySetting}.
+ * 
+ * @param <T>
+ *            the {@link Enum} type to be stored
+ */
+public class EnumSetPrivacySetting<T extends Enum<T>> extends SetPrivacySetting<T> implements IPrimitivePrivacySetting {
+    
+    private static final char SEPARATOR = ';';
+    
+    private final Class<T> clazz;
+    
+    
+    public EnumSetPrivacySetting(Class<T> enumClass) {
+        super(converterFor(enumClass), viewConstructor(enumClass), enumClass);
+        if (enumClass.getEnumConstants().length > Long.SIZE) {
+            throw new IllegalArgumentException("At most " + Long.SIZE + " enum constants are supported.");
+        }
+        this.clazz = enumClass;
+    }
+    
+    
+    @Override
+    public Set<T> parseValue(String value) throws PrivacySettingValueException {
+        Set<T> set = EnumSet.noneOf(this.clazz);
+        try {
+            set.addAll(super.parseValue(value));
+        } catch (IllegalArgumentException iae) {
+            throw new PrivacySettingValueException(iae.getMessage(), iae);
+        }
+        return set;
+    }
+    
+    
+    @Override
+    public long parsePrimitive(String value) throws PrivacySettingValueException {
+        long bits = 0L;
+        if ((value == null) || value.equals("")) {
+            return bits;
+        }
+        
+        // enum names cannot contain the separator, so there is nothing escaped
+        int start = 0;
+        while (start < value.length()) {
+            int end = value.indexOf(SEPARATOR, start);
+            if (end < 0) {
+                end = value.length();
+            }
+            try {
+                bits |= 1L << Enum.valueOf(this.clazz, value.substring(start, end)).ordinal();
+            } catch (IllegalArgumentException iae) {
+                throw new PrivacySettingValueException(iae.getMessage(), iae);
+            }
+            start = end + 1;
+        }
+        return bits;
+    }
+    
+    
+    @Override
+    public boolean permits(Set<T> value, Set<T> reference) {
+        return value.containsAll(reference);
+    }
+    
+    
+    @Override
+    public boolean permitsPrimitive(long value, long reference) {
+        return (value & reference) == reference;
+    }
+    
+    
+    /**
+     * @return a converter between the constants of enumClass and their names
+     */
+    private static <T extends Enum<T>> IStringConverter<T> converterFor(final Class<T> enumClass) {
+        return new IStringConverter<T>() {
+            
+            @Override
+            public T valueOf(String string) {
+                return Enum.valueOf(enumClass, string);
+            }
+            
+            
+            @Override
+            public String toString(T value) {
+                return value.name();
+            }
+        };
+    }
+    
+    
+    /**
+     * @return the constructor of the {@link EnumView} for a single constant of enumClass
+     */
+    @SuppressWarnings("unchecked")
+    private static <T extends Enum<T>> Constructor<? extends IPrivacySettingView<T>> viewConstructor(
+            Class<T> enumClass) {
+        try {
+            return (Constructor<? extends IPrivacySettingView<T>>) (Constructor<?>) EnumView.class.getConstructor(
+                    Context.class, Class.class);
+        } catch (NoSuchMethodException nsme) {
+            throw new IllegalStateException(nsme);
+        }
+    }
+    
+}
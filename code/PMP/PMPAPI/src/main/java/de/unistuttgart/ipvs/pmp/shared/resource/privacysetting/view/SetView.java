@@ -195,7 +195,11 @@ public class SetView<T> extends LinearLayout implements IPrivacySettingView<Set<
             if (this.childViewConstructorInvocation.length == 0) {
                 return this.childViewConstructor.newInstance(getContext());
             } else {
-                return this.childViewConstructor.newInstance(getContext(), this.childViewConstructorInvocation);
+                Object[] arguments = new Object[this.childViewConstructorInvocation.length + 1];
+                arguments[0] = getContext();
+                System.arraycopy(this.childViewConstructorInvocation, 0, arguments, 1,
+                        this.childViewConstructorInvocation.length);
+                return this.childViewConstructor.newInstance(arguments);
             }
         } catch (IllegalArgumentException e) {
             throw new PrivacySettingValueException(e.getMessage(), e);